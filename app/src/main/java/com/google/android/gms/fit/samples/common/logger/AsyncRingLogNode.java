@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.common.logger;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link LogNode} that persists log data to a {@link RingLogFile} on a background thread.
+ *
+ * <p>The logging thread only captures the record and offers it to a bounded lock-free queue; the
+ * writer thread formats stack traces and writes the file. When the writer falls behind and the
+ * queue is full, records are dropped rather than blocking the caller. Drops are counted, and the
+ * writer notes them in the file itself once it catches up.</p>
+ *
+ * <p>Uses nothing Android-specific, so it runs on a plain JVM as well.</p>
+ */
+public class AsyncRingLogNode implements LogNode {
+
+    /** Tag of the records noting how many records were dropped. */
+    public static final String DROPPED_TAG = "AsyncRingLogNode";
+
+    // How long the writer sleeps when the queue is empty, unless woken by a new record.
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static class Entry {
+        final long timeMillis;
+        final int priority;
+        final String tag;
+        final String msg;
+        final Throwable tr;
+
+        Entry(long timeMillis, int priority, String tag, String msg, Throwable tr) {
+            this.timeMillis = timeMillis;
+            this.priority = priority;
+            this.tag = tag;
+            this.msg = msg;
+            this.tr = tr;
+        }
+    }
+
+    private final RingLogFile mFile;
+    private final BoundedLogQueue<Entry> mQueue;
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mWrittenCount = new AtomicLong();
+    private final Thread mWriter;
+    private volatile boolean mWriterIdle;
+    private volatile boolean mClosed;
+    // Only touched by the writer thread.
+    private long mReportedDropCount;
+
+    // For piping:  The next node to receive Log data after this one has done its work.
+    private volatile LogNode mNext;
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param file Ring file the records are written to. The node closes it on {@link #close()}.
+     * @param queueCapacity Number of records that may wait for the writer before new ones are
+     *                      dropped.
+     */
+    public AsyncRingLogNode(RingLogFile file, int queueCapacity) {
+        mFile = file;
+        mQueue = new BoundedLogQueue<>(queueCapacity);
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "AsyncRingLogNode");
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Queues the log data for the writer thread and passes it along the chain.
+     * @param priority Log level of the data being logged.  Verbose, Error, etc.
+     * @param tag Tag for for the log data.  Can be used to organize log statements.
+     * @param msg The actual message to be logged. The actual message to be logged.
+     * @param tr If an exception was thrown, this can be sent along for the logging facilities
+     *           to extract and print useful information.
+     */
+    @Override
+    public void println(int priority, String tag, String msg, Throwable tr) {
+        if (!mClosed) {
+            if (mQueue.offer(new Entry(System.currentTimeMillis(), priority, tag, msg, tr))) {
+                if (mWriterIdle) {
+                    LockSupport.unpark(mWriter);
+                }
+            } else {
+                mDroppedCount.incrementAndGet();
+            }
+        }
+
+        LogNode next = mNext;
+        if (next != null) {
+            next.println(priority, tag, msg, tr);
+        }
+    }
+
+    /**
+     * Always true: everything that reaches this node is written to the ring file.
+     */
+    @Override
+    public boolean isLoggable(int priority, String tag) {
+        return true;
+    }
+
+    /** Returns the number of records dropped because the queue was full. */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /** Returns the number of records written to the ring file. */
+    public long getWrittenCount() {
+        return mWrittenCount.get();
+    }
+
+    /**
+     * Stops accepting records, waits for the writer to drain the queue, and closes the file.
+     */
+    public void close() throws IOException, InterruptedException {
+        mClosed = true;
+        LockSupport.unpark(mWriter);
+        mWriter.join();
+        mFile.close();
+    }
+
+    /**
+     * Returns the next LogNode in the linked list.
+     */
+    public LogNode getNext() {
+        return mNext;
+    }
+
+    /**
+     * Sets the LogNode data will be sent to..
+     */
+    public void setNext(LogNode node) {
+        mNext = node;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Entry entry = mQueue.poll();
+            if (entry != null) {
+                write(entry);
+                continue;
+            }
+            reportDrops();
+            if (mClosed) {
+                // Producers may still have been mid-offer when we were closed; drain once more.
+                while ((entry = mQueue.poll()) != null) {
+                    write(entry);
+                }
+                reportDrops();
+                return;
+            }
+            mWriterIdle = true;
+            // Re-check after announcing we're idle, so a record offered in between isn't missed.
+            if ((entry = mQueue.poll()) != null) {
+                mWriterIdle = false;
+                write(entry);
+                continue;
+            }
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            mWriterIdle = false;
+        }
+    }
+
+    private void write(Entry entry) {
+        String msg = entry.msg;
+        if (entry.tr != null) {
+            StringWriter trace = new StringWriter();
+            entry.tr.printStackTrace(new PrintWriter(trace));
+            msg = (msg == null ? "" : msg + "\n") + trace;
+        }
+        mFile.append(entry.timeMillis, entry.priority, entry.tag, msg);
+        mWrittenCount.incrementAndGet();
+    }
+
+    private void reportDrops() {
+        long dropped = mDroppedCount.get();
+        if (dropped != mReportedDropCount) {
+            mFile.append(System.currentTimeMillis(), Log.WARN, DROPPED_TAG,
+                    (dropped - mReportedDropCount) + " records dropped");
+            mReportedDropCount = dropped;
+        }
+    }
+}
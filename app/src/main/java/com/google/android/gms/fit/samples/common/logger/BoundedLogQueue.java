@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.common.logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for handing log records from any number of logging threads to a
+ * background writer. Based on Dmitry Vyukov's bounded MPMC array queue: each slot carries a
+ * sequence number that tells producers and consumers whose turn it is, so neither side ever
+ * blocks. {@link #offer(Object)} fails instead of waiting when the queue is full.
+ *
+ * @param <E> Type of the queued elements.
+ */
+class BoundedLogQueue<E> {
+
+    private final int mMask;
+    private final AtomicReferenceArray<E> mElements;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mEnqueuePosition = new AtomicLong();
+    private final AtomicLong mDequeuePosition = new AtomicLong();
+
+    /**
+     * @param capacity Maximum number of queued elements, rounded up to a power of two.
+     */
+    BoundedLogQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mMask = size - 1;
+        mElements = new AtomicReferenceArray<>(size);
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds {@code element} to the queue.
+     *
+     * @return false if the queue was full and the element was not added.
+     */
+    boolean offer(E element) {
+        while (true) {
+            long position = mEnqueuePosition.get();
+            int index = (int) (position & mMask);
+            long diff = mSequences.get(index) - position;
+            if (diff == 0) {
+                if (mEnqueuePosition.compareAndSet(position, position + 1)) {
+                    mElements.lazySet(index, element);
+                    mSequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+            // Another producer claimed this slot first; retry with the new position.
+        }
+    }
+
+    /**
+     * Removes the oldest element.
+     *
+     * @return The element, or null if the queue was empty.
+     */
+    E poll() {
+        while (true) {
+            long position = mDequeuePosition.get();
+            int index = (int) (position & mMask);
+            long diff = mSequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (mDequeuePosition.compareAndSet(position, position + 1)) {
+                    E element = mElements.get(index);
+                    mElements.lazySet(index, null);
+                    mSequences.set(index, position + mMask + 1);
+                    return element;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    /** Returns the maximum number of queued elements. */
+    int capacity() {
+        return mMask + 1;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.common.logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link LogNode} that sends log data to several sinks side by side, instead of down a single
+ * chain where one slow node delays every node after it.
+ *
+ * <p>A sink added with {@link #addSink(LogNode)} is called on the logging thread; use it for
+ * sinks that are already cheap or asynchronous. A sink added with
+ * {@link #addAsyncSink(LogNode, int)} gets its own bounded queue and thread, so it runs
+ * concurrently with the others and a slow one only ever holds up itself.</p>
+ *
+ * <p>The sink list is copy-on-write: logging reads one volatile array without locking, and sinks
+ * can be added or removed at runtime while other threads log.</p>
+ */
+public class FanOutLogNode implements LogNode {
+
+    private static final Sink[] NO_SINKS = new Sink[0];
+
+    private volatile Sink[] mSinks = NO_SINKS;
+
+    /**
+     * Adds a sink called directly on the logging thread.
+     */
+    public synchronized void addSink(LogNode node) {
+        add(new Sink(node));
+    }
+
+    /**
+     * Adds a sink with its own queue and thread.
+     *
+     * @param node The sink.
+     * @param queueCapacity Number of records that may wait for the sink before new ones are
+     *                      dropped.
+     */
+    public synchronized void addAsyncSink(LogNode node, int queueCapacity) {
+        add(new QueuedSink(node, queueCapacity));
+    }
+
+    /**
+     * Removes a sink. An asynchronous sink first receives every record queued for it.
+     *
+     * @return false if {@code node} was not a sink of this node.
+     */
+    public synchronized boolean removeSink(LogNode node) {
+        Sink[] sinks = mSinks;
+        for (int i = 0; i < sinks.length; i++) {
+            if (sinks[i].mNode == node) {
+                Sink[] remaining = new Sink[sinks.length - 1];
+                System.arraycopy(sinks, 0, remaining, 0, i);
+                System.arraycopy(sinks, i + 1, remaining, i, sinks.length - i - 1);
+                mSinks = remaining;
+                sinks[i].stop();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of records an asynchronous sink dropped because its queue was full, or 0
+     * for any other node.
+     */
+    public long getDroppedCount(LogNode node) {
+        for (Sink sink : mSinks) {
+            if (sink.mNode == node) {
+                return sink.getDroppedCount();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sends the log data to every sink.
+     * @param priority Log level of the data being logged.  Verbose, Error, etc.
+     * @param tag Tag for for the log data.  Can be used to organize log statements.
+     * @param msg The actual message to be logged. The actual message to be logged.
+     * @param tr If an exception was thrown, this can be sent along for the logging facilities
+     *           to extract and print useful information.
+     */
+    @Override
+    public void println(int priority, String tag, String msg, Throwable tr) {
+        for (Sink sink : mSinks) {
+            sink.println(priority, tag, msg, tr);
+        }
+    }
+
+    @Override
+    public boolean isLoggable(int priority, String tag) {
+        for (Sink sink : mSinks) {
+            if (sink.mNode.isLoggable(priority, tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(Sink sink) {
+        Sink[] sinks = mSinks;
+        Sink[] added = new Sink[sinks.length + 1];
+        System.arraycopy(sinks, 0, added, 0, sinks.length);
+        added[sinks.length] = sink;
+        mSinks = added;
+    }
+
+    /** A sink called on the logging thread. */
+    private static class Sink {
+        final LogNode mNode;
+
+        Sink(LogNode node) {
+            mNode = node;
+        }
+
+        void println(int priority, String tag, String msg, Throwable tr) {
+            if (mNode.isLoggable(priority, tag)) {
+                mNode.println(priority, tag, msg, tr);
+            }
+        }
+
+        long getDroppedCount() {
+            return 0;
+        }
+
+        void stop() {
+        }
+    }
+
+    /** A sink fed through a bounded queue by a thread of its own. */
+    private static class QueuedSink extends Sink implements Runnable {
+
+        private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+        private final BoundedLogQueue<Object[]> mQueue;
+        private final AtomicLong mDroppedCount = new AtomicLong();
+        private final Thread mThread;
+        private volatile boolean mIdle;
+        private volatile boolean mStopped;
+
+        QueuedSink(LogNode node, int queueCapacity) {
+            super(node);
+            mQueue = new BoundedLogQueue<>(queueCapacity);
+            mThread = new Thread(this, "FanOutLogNode-" + node.getClass().getSimpleName());
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+
+        @Override
+        void println(int priority, String tag, String msg, Throwable tr) {
+            if (mStopped || !mNode.isLoggable(priority, tag)) {
+                return;
+            }
+            if (mQueue.offer(new Object[] {priority, tag, msg, tr})) {
+                if (mIdle) {
+                    LockSupport.unpark(mThread);
+                }
+            } else {
+                mDroppedCount.incrementAndGet();
+            }
+        }
+
+        @Override
+        long getDroppedCount() {
+            return mDroppedCount.get();
+        }
+
+        @Override
+        void stop() {
+            mStopped = true;
+            LockSupport.unpark(mThread);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Object[] record = mQueue.poll();
+                if (record != null) {
+                    deliver(record);
+                    continue;
+                }
+                if (mStopped) {
+                    while ((record = mQueue.poll()) != null) {
+                        deliver(record);
+                    }
+                    return;
+                }
+                mIdle = true;
+                // Re-check after announcing we're idle, so a record offered in between isn't
+                // missed.
+                if ((record = mQueue.poll()) != null) {
+                    mIdle = false;
+                    deliver(record);
+                    continue;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                mIdle = false;
+            }
+        }
+
+        private void deliver(Object[] record) {
+            mNode.println((Integer) record[0], (String) record[1], (String) record[2],
+                    (Throwable) record[3]);
+        }
+    }
+}
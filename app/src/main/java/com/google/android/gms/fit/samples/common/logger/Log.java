@@ -34,8 +34,9 @@ public class Log {
     public static final int ERROR = android.util.Log.ERROR;
     public static final int ASSERT = android.util.Log.ASSERT;
 
-    // Stores the beginning of the LogNode topology.
-    private static LogNode mLogNode;
+    // Stores the beginning of the LogNode topology. Volatile so a node set on one thread is seen,
+    // fully constructed, by every thread that logs afterwards; readers copy it to a local once.
+    private static volatile LogNode mLogNode;
 
     /**
      * Returns the next LogNode in the linked list.
@@ -45,7 +46,8 @@ public class Log {
     }
 
     /**
-     * Sets the LogNode data will be sent to.
+     * Sets the LogNode data will be sent to. Safe to call while other threads are logging; to
+     * add or remove sinks without replacing the head, use a {@link FanOutLogNode}.
      */
     public static void setLogNode(LogNode node) {
         mLogNode = node;
@@ -62,8 +64,120 @@ public class Log {
      *           to extract and print useful information.
      */
     public static void println(int priority, String tag, String msg, Throwable tr) {
-        if (mLogNode != null) {
-            mLogNode.println(priority, tag, msg, tr);
+        LogNode node = mLogNode;
+        if (node != null && node.isLoggable(priority, tag)) {
+            node.println(priority, tag, msg, tr);
+        }
+    }
+
+    /**
+     * Returns whether a message with this priority and tag would be output anywhere. Use it to
+     * guard log statements whose message is expensive to build.
+     *
+     * @param priority Log level of the data being logged. Verbose, Error, etc.
+     * @param tag Tag for for the log data. Can be used to organize log statements.
+     */
+    public static boolean isLoggable(int priority, String tag) {
+        LogNode node = mLogNode;
+        return node != null && node.isLoggable(priority, tag);
+    }
+
+    /**
+     * Formats and prints a message, but only if it would be output anywhere. The message is
+     * built with {@link String#format(String, Object...)} after the check, so a disabled
+     * statement does no formatting.
+     *
+     * @param priority Log level of the data being logged. Verbose, Error, etc.
+     * @param tag Tag for for the log data. Can be used to organize log statements.
+     * @param format Format string of the message.
+     * @param arg The format argument.
+     */
+    public static void printf(int priority, String tag, String format, Object arg) {
+        LogNode node = mLogNode;
+        if (node != null && node.isLoggable(priority, tag)) {
+            node.println(priority, tag, String.format(format, arg), null);
+        }
+    }
+
+    /**
+     * Formats and prints a message, but only if it would be output anywhere. Unlike the
+     * {@code Object} overload, a disabled statement doesn't box its argument; {@code int} and
+     * other integral arguments widen to this overload.
+     *
+     * @param priority Log level of the data being logged. Verbose, Error, etc.
+     * @param tag Tag for for the log data. Can be used to organize log statements.
+     * @param format Format string of the message.
+     * @param arg The format argument.
+     */
+    public static void printf(int priority, String tag, String format, long arg) {
+        LogNode node = mLogNode;
+        if (node != null && node.isLoggable(priority, tag)) {
+            node.println(priority, tag, String.format(format, arg), null);
+        }
+    }
+
+    /**
+     * Formats and prints a message, but only if it would be output anywhere, without boxing the
+     * argument of a disabled statement.
+     *
+     * @param priority Log level of the data being logged. Verbose, Error, etc.
+     * @param tag Tag for for the log data. Can be used to organize log statements.
+     * @param format Format string of the message.
+     * @param arg The format argument.
+     */
+    public static void printf(int priority, String tag, String format, double arg) {
+        LogNode node = mLogNode;
+        if (node != null && node.isLoggable(priority, tag)) {
+            node.println(priority, tag, String.format(format, arg), null);
+        }
+    }
+
+    /**
+     * Formats and prints a message, but only if it would be output anywhere, without boxing the
+     * arguments of a disabled statement.
+     *
+     * @param priority Log level of the data being logged. Verbose, Error, etc.
+     * @param tag Tag for for the log data. Can be used to organize log statements.
+     * @param format Format string of the message.
+     * @param arg1 The first format argument.
+     * @param arg2 The second format argument.
+     */
+    public static void printf(int priority, String tag, String format, long arg1, long arg2) {
+        LogNode node = mLogNode;
+        if (node != null && node.isLoggable(priority, tag)) {
+            node.println(priority, tag, String.format(format, arg1, arg2), null);
+        }
+    }
+
+    /**
+     * Formats and prints a message, but only if it would be output anywhere. The fixed-arity
+     * overloads avoid allocating a varargs array when the statement is disabled.
+     *
+     * @param priority Log level of the data being logged. Verbose, Error, etc.
+     * @param tag Tag for for the log data. Can be used to organize log statements.
+     * @param format Format string of the message.
+     * @param arg1 The first format argument.
+     * @param arg2 The second format argument.
+     */
+    public static void printf(int priority, String tag, String format, Object arg1, Object arg2) {
+        LogNode node = mLogNode;
+        if (node != null && node.isLoggable(priority, tag)) {
+            node.println(priority, tag, String.format(format, arg1, arg2), null);
+        }
+    }
+
+    /**
+     * Formats and prints a message, but only if it would be output anywhere.
+     *
+     * @param priority Log level of the data being logged. Verbose, Error, etc.
+     * @param tag Tag for for the log data. Can be used to organize log statements.
+     * @param format Format string of the message.
+     * @param args The format arguments.
+     */
+    public static void printf(int priority, String tag, String format, Object... args) {
+        LogNode node = mLogNode;
+        if (node != null && node.isLoggable(priority, tag)) {
+            node.println(priority, tag, String.format(format, args), null);
         }
     }
 
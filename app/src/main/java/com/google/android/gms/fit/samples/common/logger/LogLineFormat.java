@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.common.logger;
+
+/**
+ * Turns log data into the single line of text {@link LogView} shows, e.g.
+ * {@code "INFO\tMainActivity\tSubscribed!"}. Kept free of Android classes so it can also run on
+ * a plain JVM.
+ */
+public final class LogLineFormat {
+
+    private LogLineFormat() {
+    }
+
+    /**
+     * Returns the priority as readable text, or null if it isn't one of the {@link Log} levels.
+     */
+    public static String priorityName(int priority) {
+        switch (priority) {
+            case Log.VERBOSE:
+                return "VERBOSE";
+            case Log.DEBUG:
+                return "DEBUG";
+            case Log.INFO:
+                return "INFO";
+            case Log.WARN:
+                return "WARN";
+            case Log.ERROR:
+                return "ERROR";
+            case Log.ASSERT:
+                return "ASSERT";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Joins the priority, tag, message and stack trace with tabs, leaving out the ones that are
+     * null.
+     * @param exception The stack trace as text, or null.
+     */
+    public static String format(int priority, String tag, String msg, String exception) {
+        String priorityStr = priorityName(priority);
+        StringBuilder line = new StringBuilder(length(priorityStr) + length(tag) + length(msg)
+                + length(exception) + 4);
+        appendIfNotNull(line, priorityStr);
+        appendIfNotNull(line, tag);
+        appendIfNotNull(line, msg);
+        appendIfNotNull(line, exception);
+        return line.toString();
+    }
+
+    // Empty strings get no delimiter, matching what LogView always printed.
+    private static void appendIfNotNull(StringBuilder line, String part) {
+        if (part != null) {
+            line.append(part);
+            if (part.length() != 0) {
+                line.append('\t');
+            }
+        }
+    }
+
+    private static int length(String part) {
+        return part == null ? 0 : part.length();
+    }
+}
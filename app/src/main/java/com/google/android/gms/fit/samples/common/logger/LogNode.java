@@ -36,4 +36,13 @@ public interface LogNode {
      */
     public void println(int priority, String tag, String msg, Throwable tr);
 
+    /**
+     * Returns whether a message with this priority and tag would be output by this LogNode or any
+     * LogNode after it. Callers check this before formatting a message, so that log statements
+     * nobody will see cost nothing.
+     * @param priority Log level of the data being logged.  Verbose, Error, etc.
+     * @param tag Tag for for the log data.  Can be used to organize log statements.
+     */
+    public boolean isLoggable(int priority, String tag);
+
 }
@@ -15,15 +15,48 @@
  */
 package com.google.android.gms.fit.samples.common.logger;
 
-import android.app.Activity;
 import android.content.Context;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.widget.TextView;
 
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /** Simple TextView which is used to output log data received through the LogNode interface.
+ *
+ * <p>Lines may be logged from any thread. They are collected in a lock-free queue and drawn in
+ * one batch per frame, and only the last {@link #MAX_VISIBLE_LINES} lines are kept on screen, so
+ * bursts of logging neither flood the UI thread nor grow the view without bound.</p>
 */
 public class LogView extends TextView implements LogNode {
 
+    /** Number of most recent lines the view keeps. */
+    public static final int MAX_VISIBLE_LINES = 500;
+
+    // Fallback frame interval for API levels without postOnAnimation.
+    private static final long FRAME_DELAY_MILLIS = 16;
+
+    // Lines logged since the last frame, written from any thread.
+    private final ConcurrentLinkedQueue<String> mPendingLines = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean();
+
+    // Lines currently shown, oldest first. Only touched on the UI thread.
+    private final ArrayDeque<String> mVisibleLines = new ArrayDeque<>();
+    private final StringBuilder mTextBuilder = new StringBuilder();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            // Clear the flag first, so lines queued while we drain get a frame of their own.
+            mFlushScheduled.set(false);
+            flushPendingLines();
+        }
+    };
+
     public LogView(Context context) {
         super(context);
     }
@@ -46,65 +79,29 @@ public class LogView extends TextView implements LogNode {
      */
     @Override
     public void println(int priority, String tag, String msg, Throwable tr) {
-
-
-        String priorityStr = null;
-
-        // For the purposes of this View, we want to print the priority as readable text.
-        switch(priority) {
-            case android.util.Log.VERBOSE:
-                priorityStr = "VERBOSE";
-                break;
-            case android.util.Log.DEBUG:
-                priorityStr = "DEBUG";
-                break;
-            case android.util.Log.INFO:
-                priorityStr = "INFO";
-                break;
-            case android.util.Log.WARN:
-                priorityStr = "WARN";
-                break;
-            case android.util.Log.ERROR:
-                priorityStr = "ERROR";
-                break;
-            case android.util.Log.ASSERT:
-                priorityStr = "ASSERT";
-                break;
-            default:
-                break;
-        }
-
         // Handily, the Log class has a facility for converting a stack trace into a usable string.
         String exceptionStr = null;
         if (tr != null) {
             exceptionStr = android.util.Log.getStackTraceString(tr);
         }
 
-        // Take the priority, tag, message, and exception, and concatenate as necessary
-        // into one usable line of text.
-        final StringBuilder outputBuilder = new StringBuilder();
-
-        String delimiter = "\t";
-        appendIfNotNull(outputBuilder, priorityStr, delimiter);
-        appendIfNotNull(outputBuilder, tag, delimiter);
-        appendIfNotNull(outputBuilder, msg, delimiter);
-        appendIfNotNull(outputBuilder, exceptionStr, delimiter);
-
-        // In case this was originally called from an AsyncTask or some other off-UI thread,
-        // make sure the update occurs within the UI thread.
-        ((Activity) getContext()).runOnUiThread( (new Thread(new Runnable() {
-            @Override
-            public void run() {
-                // Display the text we just generated within the LogView.
-                appendToLog(outputBuilder.toString());
-            }
-        })));
+        // Display the line within the LogView. This is safe to call from an AsyncTask or some
+        // other off-UI thread.
+        appendToLog(LogLineFormat.format(priority, tag, msg, exceptionStr));
 
         if (mNext != null) {
             mNext.println(priority, tag, msg, tr);
         }
     }
 
+    /**
+     * Always true: everything that reaches this node is shown in the LogView.
+     */
+    @Override
+    public boolean isLoggable(int priority, String tag) {
+        return true;
+    }
+
     public LogNode getNext() {
         return mNext;
     }
@@ -113,32 +110,49 @@ public class LogView extends TextView implements LogNode {
         mNext = node;
     }
 
-    /** Takes a string and adds to it, with a separator, if the bit to be added isn't null. Since
-     * the logger takes so many arguments that might be null, this method helps cut out some of the
-     * agonizing tedium of writing the same 3 lines over and over.
-     * @param source StringBuilder containing the text to append to.
-     * @param addStr The String to append
-     * @param delimiter The String to separate the source and appended strings. A tab or comma,
-     *                  for instance.
-     * @return The fully concatenated String as a StringBuilder
+    // The next LogNode in the chain.
+    LogNode mNext;
+
+    /**
+     * Outputs the string as a new line of log data in the LogView. The line is drawn with the
+     * next frame; it may be called from any thread.
      */
-    private StringBuilder appendIfNotNull(StringBuilder source, String addStr, String delimiter) {
-        if (addStr != null) {
-            if (addStr.length() == 0) {
-                delimiter = "";
+    public void appendToLog(String s) {
+        mPendingLines.offer(s);
+        // Lines that would scroll off before they are drawn are dropped right away.
+        if (mPendingCount.incrementAndGet() > MAX_VISIBLE_LINES
+                && mPendingLines.poll() != null) {
+            mPendingCount.decrementAndGet();
+        }
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                postOnAnimation(mFlush);
+            } else {
+                postDelayed(mFlush, FRAME_DELAY_MILLIS);
             }
-
-            return source.append(addStr).append(delimiter);
         }
-        return source;
     }
 
-    // The next LogNode in the chain.
-    LogNode mNext;
-
-    /** Outputs the string as a new line of log data in the LogView. */
-    public void appendToLog(String s) {
-        append("\n" + s);
+    /** Moves every queued line on screen, dropping the oldest lines past the limit. */
+    private void flushPendingLines() {
+        String line;
+        boolean changed = false;
+        while ((line = mPendingLines.poll()) != null) {
+            mPendingCount.decrementAndGet();
+            mVisibleLines.addLast(line);
+            if (mVisibleLines.size() > MAX_VISIBLE_LINES) {
+                mVisibleLines.removeFirst();
+            }
+            changed = true;
+        }
+        if (!changed) {
+            return;
+        }
+        mTextBuilder.setLength(0);
+        for (String visible : mVisibleLines) {
+            mTextBuilder.append('\n').append(visible);
+        }
+        setText(mTextBuilder);
     }
 
 
@@ -60,7 +60,7 @@ public class LogWrapper implements LogNode {
         // If an exeption was provided, convert that exception to a usable string and attach
         // it to the end of the msg method.
         if (tr != null) {
-            msg += "\n" + Log.getStackTraceString(tr);
+            useMsg += "\n" + Log.getStackTraceString(tr);
         }
 
         // This is functionally identical to Log.x(tag, useMsg);
@@ -72,4 +72,12 @@ public class LogWrapper implements LogNode {
             mNext.println(priority, tag, msg, tr);
         }
     }
+
+    /**
+     * Always true: everything that reaches this node is written to the console.
+     */
+    @Override
+    public boolean isLoggable(int priority, String tag) {
+        return true;
+    }
 }
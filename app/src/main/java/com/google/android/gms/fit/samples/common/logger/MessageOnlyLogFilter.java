@@ -43,6 +43,14 @@ public class MessageOnlyLogFilter implements LogNode {
         }
     }
 
+    /**
+     * The next LogNode only ever sees {@link Log#NONE} and no tag, so ask it about those.
+     */
+    @Override
+    public boolean isLoggable(int priority, String tag) {
+        return mNext != null && mNext.isLoggable(Log.NONE, null);
+    }
+
     /**
      * Returns the next LogNode in the chain.
      */
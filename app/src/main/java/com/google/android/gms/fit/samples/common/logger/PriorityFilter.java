@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.common.logger;
+
+/**
+ * Simple {@link LogNode} filter, drops everything below a minimum priority.
+ * Put it at the head of the chain and {@link Log#isLoggable(int, String)} reports disabled
+ * levels, so those log statements are skipped before any message is built.
+ */
+public class PriorityFilter implements LogNode {
+
+    private volatile int mMinPriority;
+
+    LogNode mNext;
+
+    /**
+     * Takes the minimum priority and the "next" LogNode as parameters, to simplify chaining.
+     *
+     * @param minPriority Lowest priority passed on, e.g. {@link Log#INFO}.
+     * @param next The next LogNode in the pipeline.
+     */
+    public PriorityFilter(int minPriority, LogNode next) {
+        mMinPriority = minPriority;
+        mNext = next;
+    }
+
+    public PriorityFilter(int minPriority) {
+        mMinPriority = minPriority;
+    }
+
+    @Override
+    public void println(int priority, String tag, String msg, Throwable tr) {
+        LogNode next = mNext;
+        if (priority >= mMinPriority && next != null) {
+            next.println(priority, tag, msg, tr);
+        }
+    }
+
+    @Override
+    public boolean isLoggable(int priority, String tag) {
+        LogNode next = mNext;
+        return priority >= mMinPriority && next != null && next.isLoggable(priority, tag);
+    }
+
+    /**
+     * Returns the lowest priority passed on.
+     */
+    public int getMinPriority() {
+        return mMinPriority;
+    }
+
+    /**
+     * Sets the lowest priority passed on. Can be changed while logging is in progress.
+     */
+    public void setMinPriority(int minPriority) {
+        mMinPriority = minPriority;
+    }
+
+    /**
+     * Returns the next LogNode in the chain.
+     */
+    public LogNode getNext() {
+        return mNext;
+    }
+
+    /**
+     * Sets the LogNode data will be sent to..
+     */
+    public void setNext(LogNode node) {
+        mNext = node;
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size, memory-mapped ring file of log records. Once the file is full, the oldest records
+ * are overwritten, so it always holds the most recent log output without ever growing.
+ *
+ * <p>File layout: a 32 byte header (magic, version, data capacity, unused, head, tail), followed
+ * by the data region. Head and tail are ever-increasing byte positions; a position maps to the
+ * data region modulo its capacity. Each record is:</p>
+ * <pre>
+ *   int   length of the whole record, in bytes
+ *   long  time, in epoch millis
+ *   byte  priority
+ *   short tag length, in bytes
+ *   byte[] tag, UTF-8
+ *   byte[] message, UTF-8 (the rest of the record)
+ * </pre>
+ * <p>A record never wraps around the end of the data region: the leftover bytes are skipped,
+ * marked by a length of 0 when there is room for one.</p>
+ *
+ * <p>Not thread-safe; {@link AsyncRingLogNode} writes to it from a single thread.</p>
+ */
+public class RingLogFile {
+
+    /** One decoded log record. */
+    public static class Record {
+        public final long timeMillis;
+        public final int priority;
+        public final String tag;
+        public final String msg;
+
+        Record(long timeMillis, int priority, String tag, String msg) {
+            this.timeMillis = timeMillis;
+            this.priority = priority;
+            this.tag = tag;
+            this.msg = msg;
+        }
+    }
+
+    private static final int MAGIC = 0x52474c47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int HEAD_OFFSET = 16;
+    private static final int TAIL_OFFSET = 24;
+    // length + time + priority + tag length
+    private static final int RECORD_OVERHEAD = 4 + 8 + 1 + 2;
+    private static final int MAX_TAG_BYTES = 255;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mMaxRecordSize;
+    private long mHead;
+    private long mTail;
+
+    private RingLogFile(RandomAccessFile file, MappedByteBuffer buffer, int capacity) {
+        mFile = file;
+        mBuffer = buffer;
+        mCapacity = capacity;
+        // Keep any single record to a fraction of the ring, so one huge message can't evict
+        // everything else.
+        mMaxRecordSize = Math.max(RECORD_OVERHEAD + MAX_TAG_BYTES + 1, capacity / 4);
+    }
+
+    /**
+     * Opens the ring file at {@code file}, creating it with room for {@code capacity} bytes of
+     * records if it does not exist or was written with a different layout. A file whose header or
+     * records are damaged is started over empty.
+     */
+    public static RingLogFile open(File file, int capacity) throws IOException {
+        if (capacity < 4 * (RECORD_OVERHEAD + MAX_TAG_BYTES + 1)) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean reuse = raf.length() == HEADER_SIZE + capacity
+                    && raf.readInt() == MAGIC
+                    && raf.readInt() == VERSION
+                    && raf.readInt() == capacity;
+            raf.setLength(HEADER_SIZE + capacity);
+            MappedByteBuffer buffer = raf.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+            RingLogFile ring = new RingLogFile(raf, buffer, capacity);
+            if (reuse) {
+                ring.mHead = buffer.getLong(HEAD_OFFSET);
+                ring.mTail = buffer.getLong(TAIL_OFFSET);
+                reuse = ring.isConsistent();
+            }
+            if (!reuse) {
+                ring.mHead = 0;
+                ring.mTail = 0;
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, capacity);
+                ring.writeHeader();
+            }
+            return ring;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes every record of the ring file at {@code file}, oldest first.
+     *
+     * @throws IOException If the file is not a ring file, or is truncated or damaged.
+     */
+    public static List<Record> read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                throw new IOException("Not a ring log file: " + file);
+            }
+            int capacity = raf.readInt();
+            if (capacity <= 0 || raf.length() < HEADER_SIZE + (long) capacity) {
+                throw new IOException("Truncated ring log file: " + file);
+            }
+            MappedByteBuffer buffer = raf.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE + capacity);
+            RingLogFile ring = new RingLogFile(raf, buffer, capacity);
+            ring.mHead = buffer.getLong(HEAD_OFFSET);
+            ring.mTail = buffer.getLong(TAIL_OFFSET);
+            if (!ring.isConsistent()) {
+                throw new IOException("Damaged ring log file: " + file);
+            }
+            return ring.readAll();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Appends one record, overwriting the oldest records if the ring is full. Messages too long
+     * for one record are truncated.
+     */
+    public void append(long timeMillis, int priority, String tag, String msg) {
+        byte[] tagBytes = truncate(tag == null ? new byte[0] : tag.getBytes(UTF_8), MAX_TAG_BYTES);
+        byte[] msgBytes = msg == null ? new byte[0] : msg.getBytes(UTF_8);
+        msgBytes = truncate(msgBytes, mMaxRecordSize - RECORD_OVERHEAD - tagBytes.length);
+        int length = RECORD_OVERHEAD + tagBytes.length + msgBytes.length;
+
+        int offset = offsetOf(mTail);
+        int remaining = mCapacity - offset;
+        if (remaining < length) {
+            // Skip to the start of the data region rather than splitting the record.
+            makeRoom(remaining);
+            if (remaining >= 4) {
+                mBuffer.putInt(HEADER_SIZE + offset, 0);
+            }
+            mTail += remaining;
+            offset = 0;
+        }
+        makeRoom(length);
+
+        int position = HEADER_SIZE + offset;
+        mBuffer.putInt(position, length);
+        mBuffer.putLong(position + 4, timeMillis);
+        mBuffer.put(position + 12, (byte) priority);
+        mBuffer.putShort(position + 13, (short) tagBytes.length);
+        for (int i = 0; i < tagBytes.length; i++) {
+            mBuffer.put(position + RECORD_OVERHEAD + i, tagBytes[i]);
+        }
+        int msgStart = position + RECORD_OVERHEAD + tagBytes.length;
+        for (int i = 0; i < msgBytes.length; i++) {
+            mBuffer.put(msgStart + i, msgBytes[i]);
+        }
+        // Publish the record only once its bytes are in place.
+        mTail += length;
+        writeHeader();
+    }
+
+    /** Decodes every record currently in the ring, oldest first. */
+    public List<Record> readAll() {
+        List<Record> records = new ArrayList<>();
+        long position = mHead;
+        while (position < mTail) {
+            int offset = offsetOf(position);
+            int remaining = mCapacity - offset;
+            int span = remaining < 4 ? 0 : mBuffer.getInt(HEADER_SIZE + offset);
+            if (span <= 0) {
+                // Padding before the data region wraps around.
+                position += remaining;
+                continue;
+            }
+            int start = HEADER_SIZE + offset;
+            long time = mBuffer.getLong(start + 4);
+            int priority = mBuffer.get(start + 12);
+            int tagLength = mBuffer.getShort(start + 13);
+            String tag = decode(start + RECORD_OVERHEAD, tagLength);
+            String msg = decode(start + RECORD_OVERHEAD + tagLength,
+                    span - RECORD_OVERHEAD - tagLength);
+            records.add(new Record(time, priority, tag, msg));
+            position += span;
+        }
+        return records;
+    }
+
+    /** Flushes the mapped pages to disk and closes the file. */
+    public void close() throws IOException {
+        mBuffer.force();
+        mFile.close();
+    }
+
+    /**
+     * Returns whether head and tail are in range and the records between them lie within the data
+     * region, as they always do in a file this class wrote.
+     */
+    private boolean isConsistent() {
+        if (mHead < 0 || mHead > mTail || mTail - mHead > mCapacity) {
+            return false;
+        }
+        long position = mHead;
+        while (position < mTail) {
+            int offset = offsetOf(position);
+            int remaining = mCapacity - offset;
+            int span = remaining < 4 ? 0 : mBuffer.getInt(HEADER_SIZE + offset);
+            if (span <= 0) {
+                position += remaining;
+                continue;
+            }
+            if (span < RECORD_OVERHEAD || span > remaining) {
+                return false;
+            }
+            int tagLength = mBuffer.getShort(HEADER_SIZE + offset + 13);
+            if (tagLength < 0 || tagLength > span - RECORD_OVERHEAD) {
+                return false;
+            }
+            position += span;
+        }
+        return position == mTail;
+    }
+
+    /** Advances the head past the oldest records until {@code length} more bytes fit. */
+    private void makeRoom(int length) {
+        while (mTail + length - mHead > mCapacity) {
+            mHead += spanAt(mHead);
+        }
+    }
+
+    /** Returns the number of bytes taken by the record, or skipped padding, at {@code position}. */
+    private int spanAt(long position) {
+        int offset = offsetOf(position);
+        int remaining = mCapacity - offset;
+        if (remaining < 4) {
+            return remaining;
+        }
+        int length = mBuffer.getInt(HEADER_SIZE + offset);
+        return length <= 0 ? remaining : length;
+    }
+
+    private int offsetOf(long position) {
+        return (int) (position % mCapacity);
+    }
+
+    private void writeHeader() {
+        mBuffer.putLong(HEAD_OFFSET, mHead);
+        mBuffer.putLong(TAIL_OFFSET, mTail);
+    }
+
+    private String decode(int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(position + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private static byte[] truncate(byte[] bytes, int maxLength) {
+        if (bytes.length <= maxLength) {
+            return bytes;
+        }
+        byte[] truncated = new byte[Math.max(maxLength, 0)];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        return truncated;
+    }
+}
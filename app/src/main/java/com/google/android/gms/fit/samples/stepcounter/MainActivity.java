@@ -15,31 +15,81 @@
  */
 package com.google.android.gms.fit.samples.stepcounter;
 
-import android.accounts.Account;
-import android.accounts.AccountManager;
 import android.app.Activity;
 import android.content.Intent;
-import android.graphics.Color;
+import android.content.SharedPreferences;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.RecyclerView;
 import android.text.Html;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.widget.TextView;
 
 import com.google.android.gms.auth.api.signin.GoogleSignIn;
 import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
 import com.google.android.gms.auth.api.signin.GoogleSignInClient;
 import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
+import com.google.android.gms.fit.samples.common.logger.AsyncRingLogNode;
+import com.google.android.gms.fit.samples.common.logger.FanOutLogNode;
 import com.google.android.gms.fit.samples.common.logger.Log;
-import com.google.android.gms.fit.samples.common.logger.LogView;
 import com.google.android.gms.fit.samples.common.logger.LogWrapper;
-import com.google.android.gms.fit.samples.common.logger.MessageOnlyLogFilter;
+import com.google.android.gms.fit.samples.common.logger.PriorityFilter;
+import com.google.android.gms.fit.samples.common.logger.RingLogFile;
+import com.google.android.gms.fit.samples.stepcounter.counters.FirestoreCounterStore;
+import com.google.android.gms.fit.samples.stepcounter.counters.ShardedCounter;
+import com.google.android.gms.fit.samples.stepcounter.data.CoalescingCache;
+import com.google.android.gms.fit.samples.stepcounter.data.FirestoreWorkoutSink;
+import com.google.android.gms.fit.samples.stepcounter.data.FirestoreWorkoutSource;
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.data.UploadQueue;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutCache;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutDateMigration;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutSink;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutFormat;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutSource;
+import com.google.android.gms.fit.samples.stepcounter.export.WorkoutArchiveReader;
+import com.google.android.gms.fit.samples.stepcounter.export.WorkoutArchiveWriter;
+import com.google.android.gms.fit.samples.stepcounter.export.WorkoutExporter;
+import com.google.android.gms.fit.samples.stepcounter.export.WorkoutImporter;
+import com.google.android.gms.fit.samples.stepcounter.history.CachingHistorySource;
+import com.google.android.gms.fit.samples.stepcounter.history.FirestoreHistorySource;
+import com.google.android.gms.fit.samples.stepcounter.history.HistoryAdapter;
+import com.google.android.gms.fit.samples.stepcounter.history.HistoryPageSource;
+import com.google.android.gms.fit.samples.stepcounter.history.HistoryPager;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.LeaderboardBackfill;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.LeaderboardWindow;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.Leaderboards;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.SketchStore;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.StepRankIndex;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.StepSketch;
+import com.google.android.gms.fit.samples.stepcounter.live.LiveStepCounter;
+import com.google.android.gms.fit.samples.stepcounter.live.LiveStepSession;
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.MetricsReporter;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.fit.samples.stepcounter.series.FitnessDailyStepSource;
+import com.google.android.gms.fit.samples.stepcounter.series.StepHistorySync;
+import com.google.android.gms.fit.samples.stepcounter.series.StepSeries;
+import com.google.android.gms.fit.samples.stepcounter.summary.SummaryHistory;
+import com.google.android.gms.fit.samples.stepcounter.sync.LeaderboardSyncJob;
+import com.google.android.gms.fit.samples.stepcounter.sync.StepSyncJob;
+import com.google.android.gms.fit.samples.stepcounter.sync.SyncScheduler;
+import com.google.android.gms.fit.samples.stepcounter.sync.SyncSchedulers;
+import com.google.android.gms.fit.samples.stepcounter.sync.UploadSyncJob;
 import com.google.android.gms.fitness.Fitness;
 import com.google.android.gms.fitness.FitnessOptions;
+import com.google.android.gms.fitness.HistoryClient;
 import com.google.android.gms.fitness.data.DataSet;
 import com.google.android.gms.fitness.data.DataType;
 import com.google.android.gms.fitness.data.Field;
@@ -47,18 +97,18 @@ import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
-import com.google.firebase.firestore.*;
+import com.google.firebase.firestore.FirebaseFirestore;
 //import com.google.firebase.database.DatabaseReference;
 
-import java.lang.reflect.Array;
-import java.text.DateFormat;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.*;
-import java.util.Calendar;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * This sample demonstrates combining the Recording API and History API of the Google Fit platform
@@ -68,43 +118,369 @@ import java.util.Calendar;
 public class MainActivity extends AppCompatActivity {
 
   private static final int REQUEST_OAUTH_REQUEST_CODE = 0x1001;
+  // Uploads are sent once this many are queued, or this long after the first one.
+  private static final int UPLOAD_BATCH_SIZE = 20;
+  private static final long UPLOAD_DELAY_MILLIS = 5000;
+  // Failed uploads are retried after UPLOAD_DELAY_MILLIS, doubling per failure up to this.
+  private static final long UPLOAD_MAX_BACKOFF_MILLIS = 10 * 60 * 1000;
+  // Size of the on-device diagnostics log, and how many records may wait for its writer.
+  private static final int LOG_FILE_CAPACITY = 256 * 1024;
+  private static final int LOG_QUEUE_CAPACITY = 1024;
+  // Lower priorities are dropped before their message is built.
+  private static final int LOG_MIN_PRIORITY = Log.INFO;
+  // History is paged in from the datastore; only a few pages are held at a time.
+  private static final int HISTORY_PAGE_SIZE = 30;
+  private static final int HISTORY_MAX_PAGES = 4;
+  // Past days of step totals copied to the device, read a window of days per request.
+  private static final int STEP_HISTORY_DAYS = 90;
+  private static final int STEP_HISTORY_WINDOW_DAYS = 30;
+  private static final int STEP_HISTORY_PARALLEL_READS = 3;
+  // Days of the step series shown after the daily total, today included.
+  private static final int RECENT_DAYS = 7;
+  // Background sync while the app is visible: how often each kind runs, how long the first run
+  // waits after startup, and the retry delays after failures. Delays are moved by up to a fifth.
+  private static final long SYNC_STEPS_MILLIS = 15 * 60 * 1000;
+  private static final long SYNC_UPLOADS_MILLIS = 10 * 60 * 1000;
+  private static final long SYNC_LEADERBOARDS_MILLIS = 30 * 60 * 1000;
+  private static final long SYNC_FIRST_DELAY_MILLIS = 10 * 1000;
+  private static final long SYNC_MIN_BACKOFF_MILLIS = 30 * 1000;
+  private static final long SYNC_MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+  private static final double SYNC_JITTER = 0.2;
+  // Complete days re-read by each step sync, for samples that reached Fit late.
+  private static final int SYNC_STEP_DAYS = 2;
+  // Live step count: at most one screen update per frame, and a fresh daily total now and then.
+  private static final long LIVE_FRAME_MILLIS = 16;
+  private static final long LIVE_RECONCILE_MILLIS = 5 * 60 * 1000;
+  // Parses Firestore results off the main thread; shared by every instance of the activity.
+  private static final Executor DATA_EXECUTOR = Executors.newSingleThreadExecutor();
+  // Repeated taps within this long reuse the previous query instead of reading again.
+  private static final long QUERY_CACHE_TTL_MILLIS = 30 * 1000;
+  private static final String RANKING_KEY = "ranking";
+  private static final int LEADERBOARD_CACHED_WINDOWS = 3;
+  // Global counts of today and, around midnight, yesterday; re-read at most once a minute.
+  private static final long DAILY_TOTALS_TTL_MILLIS = 60 * 1000;
+  private static final int DAILY_TOTALS_CACHED_DAYS = 2;
+
+  private static final int EXPORT_PAGE_SIZE = 500;
+  private static final int IMPORT_BATCH_SIZE = 100;
+  private static final String EXPORT_FILE_NAME = "workouts.stpx";
+
+  // Startup milestones, besides the first frame.
+  private static final String SUBSCRIBED = "subscribed";
+  private static final String PERMISSION_PROMPT = "permissionPrompt";
+
+  private static final String PREFS_NAME = "stepcounter";
+  private static final String PREF_WORKOUT_DATES_MIGRATED = "workoutDatesMigrated";
+
+  // Fitness calls made here; the data classes track their own. Reports are logged this often.
+  private static final OperationMetrics SUBSCRIBE = Metrics.operation("fitness.subscribe");
+  private static final OperationMetrics READ_DAILY_TOTAL =
+      Metrics.operation("fitness.readDailyTotal");
+  private static final long METRICS_REPORT_MILLIS = 5 * 60 * 1000;
+  // Shared by every instance of the activity, so each report covers the time since the last one.
+  private static final MetricsReporter METRICS_REPORTER = new MetricsReporter();
+  // Global daily steps and active users, spread over shards that uploads pick at random. The
+  // count can be raised from the datastore as the number of users grows.
+  private static final int DAILY_COUNTER_SHARDS = 10;
+  private static final ShardedCounter DAILY_COUNTER = new ShardedCounter(
+      ShardedCounter.Strategy.RANDOM, DAILY_COUNTER_SHARDS, new Random());
+  private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+  // One queue per process, since it owns the queue file; its pending flush and backoff carry over
+  // when the activity is recreated. Created on first use by uploadQueue(), on the main thread.
+  private static UploadQueue uploadQueue;
+  // Likewise for the on-device step series, which owns its directory.
+  private static StepSeries stepSeries;
+  // Likewise for background sync, so the last successful runs and any backoff carry over. Each
+  // activity attaches its jobs once startup has finished; see startSync().
+  private static SyncSchedulers syncSchedulers;
   int previous_steps = 0;
+  // Email of the signed-in account; null until finishStartup() looks it up, or while signed out.
   public String signedIn;
   public TextView textView;
+  private RecyclerView historyList;
+  private HistoryPager<?> historyPager;
+  // Whether historyPager reads the summary documents rather than every workout.
+  private boolean historyFromSummary;
+  private WorkoutCache workoutCache;
+  // Every cached workout's steps; filled by loadWorkoutCache(), then kept up by refreshRanking().
+  private final StepRankIndex rankIndex = new StepRankIndex();
+  private CoalescingCache<String, StepRankIndex> rankingCache;
+  private Leaderboards leaderboards;
+  private CoalescingCache<String, ShardedCounter.Totals> dailyTotalsCache;
+  private CachingHistorySource<?> historySource;
+  private LiveStepSession liveSession;
+  private boolean liveMode;
+  private final Handler handler = new Handler();
+  private final Runnable reportMetrics = new Runnable() {
+    @Override
+    public void run() {
+      METRICS_REPORTER.report();
+      handler.postDelayed(this, METRICS_REPORT_MILLIS);
+    }
+  };
+  private TaskScope taskScope;
+  // Whether this activity's jobs are attached to syncSchedulers, which then run from onStart to
+  // onStop.
+  private boolean syncAttached;
+  private StartupTrace startupTrace;
+  // Looked up or created on first use; see account(), historyClient() and firestore().
+  private GoogleSignInAccount account;
+  private HistoryClient historyClient;
+  private FirebaseFirestore firestore;
+  private final CoalescingCache.Clock uptimeClock = new CoalescingCache.Clock() {
+    @Override
+    public long uptimeMillis() {
+      return SystemClock.uptimeMillis();
+    }
+  };
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
+    startupTrace = new StartupTrace(StartupTrace.FIRST_FRAME, SUBSCRIBED);
+    StartupTrace.beginSection("MainActivity.onCreate");
     super.onCreate(savedInstanceState);
     setContentView(R.layout.activity_main);
     textView = (TextView) findViewById(R.id.textView);
+    historyList = (RecyclerView) findViewById(R.id.history_list);
     ActionBar bar = getSupportActionBar();
     bar.setBackgroundDrawable(new ColorDrawable(0xff23729a));
     bar.setTitle(Html.fromHtml("<font color=\"#FFFFFF\">" + getString(R.string.app_name) + "</font>"));
+    initializeLogging();
+
+    taskScope = new TaskScope(DATA_EXECUTOR, new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        handler.post(task);
+      }
+    });
+    StartupTrace.endSection();
+
+    // Everything else waits until the first frame is on screen.
+    startupTrace.afterFirstFrame(handler, new Runnable() {
+      @Override
+      public void run() {
+        finishStartup();
+      }
+    });
+  }
 
+  /** Startup work the first frame doesn't need; runs right after it is drawn. */
+  private void finishStartup() {
+    StartupTrace.beginSection("MainActivity.finishStartup");
+    uploadQueue().setListener(new UploadQueue.Listener() {
+      @Override
+      public void onFlushed(List<PendingWorkout> batch) {
+        textView.setText("\n Successfully uploaded data.");
+        invalidateQueryCaches();
+        initializeQueries();
+        leaderboards.compactIfDue(System.currentTimeMillis(), TimeZone.getDefault());
+      }
+
+      @Override
+      public void onFlushFailed(List<PendingWorkout> batch, Exception e) {
+        textView.append("\n Error adding document" + e);
+      }
+    });
+    signedIn = account() == null ? null : account().getEmail();
 
     FitnessOptions fitnessOptions =
         FitnessOptions.builder()
             .addDataType(DataType.TYPE_STEP_COUNT_CUMULATIVE)
             .addDataType(DataType.TYPE_STEP_COUNT_DELTA)
             .build();
-    if (!GoogleSignIn.hasPermissions(GoogleSignIn.getLastSignedInAccount(this), fitnessOptions)) {
+    if (!GoogleSignIn.hasPermissions(account(), fitnessOptions)) {
+      startupTrace.mark(PERMISSION_PROMPT);
       GoogleSignIn.requestPermissions(
           this,
           REQUEST_OAUTH_REQUEST_CODE,
-          GoogleSignIn.getLastSignedInAccount(this),
+          account(),
           fitnessOptions);
     } else {
       subscribe();
     }
+    migrateWorkoutDates();
+    backfillSummary();
+    new FirestoreCounterStore(firestore(), taskScope).loadShardCount(DAILY_COUNTER);
+    startSync();
+    StartupTrace.endSection();
+  }
 
-    Account[] accounts = AccountManager.get(this).getAccounts();
-    if(accounts != null && accounts.length > 0) {
-      ArrayList playAccounts = new ArrayList();
-      for (Account account : accounts) {
-        signedIn = account.name;
+  /**
+   * Returns the upload queue shared by every instance of the activity. On first use it starts
+   * loading, off the main thread, the workouts an earlier process left in it.
+   */
+  private UploadQueue uploadQueue() {
+    if (uploadQueue == null) {
+      uploadQueue = newUploadQueue(new File(getFilesDir(), "uploads.queue"));
+      uploadQueue.load();
+    }
+    return uploadQueue;
+  }
+
+  // Static, so the queue holds no reference to the activity that happened to create it.
+  private static UploadQueue newUploadQueue(File file) {
+    return new UploadQueue(
+        new WorkoutSink() {
+          private WorkoutSink sink;
+
+          @Override
+          public void upsert(List<PendingWorkout> batch, Callback callback) {
+            if (sink == null) {
+              sink = new FirestoreWorkoutSink(FirebaseFirestore.getInstance(), DAILY_COUNTER);
+            }
+            sink.upsert(batch, callback);
+          }
+        },
+        file,
+        DATA_EXECUTOR,
+        new UploadQueue.Scheduler() {
+          @Override
+          public void schedule(Runnable task, long delayMillis) {
+            MAIN_HANDLER.postDelayed(task, delayMillis);
+          }
+        },
+        UPLOAD_BATCH_SIZE,
+        UPLOAD_DELAY_MILLIS,
+        UPLOAD_MAX_BACKOFF_MILLIS);
+  }
+
+  /** Returns the step series shared by every instance of the activity. */
+  private StepSeries stepSeries() {
+    if (stepSeries == null) {
+      stepSeries = new StepSeries(new File(getFilesDir(), "steps"), DATA_EXECUTOR);
+    }
+    return stepSeries;
+  }
+
+  /** Returns the signed-in account, looked up once rather than on every Fitness call. */
+  private GoogleSignInAccount account() {
+    if (account == null) {
+      account = GoogleSignIn.getLastSignedInAccount(this);
+    }
+    return account;
+  }
+
+  /**
+   * Returns whether an account is signed in, and says so on screen if not. Uploads, history and
+   * anything else filed under the user's email wait until there is one.
+   */
+  private boolean checkSignedIn() {
+    if (signedIn == null) {
+      textView.setText("\n Sign in with Google Fit first.");
+      return false;
+    }
+    return true;
+  }
+
+  private HistoryClient historyClient() {
+    if (historyClient == null) {
+      historyClient = Fitness.getHistoryClient(this, account());
+    }
+    return historyClient;
+  }
+
+  /** Returns the Firestore client, created on first use rather than during startup. */
+  private FirebaseFirestore firestore() {
+    if (firestore == null) {
+      firestore = FirebaseFirestore.getInstance();
+    }
+    return firestore;
+  }
+
+  /** Creates the ranking queries and their caches the first time a ranking is needed. */
+  private void initializeQueries() {
+    if (leaderboards != null) {
+      return;
+    }
+    leaderboards = new Leaderboards(firestore(), taskScope, uptimeClock, QUERY_CACHE_TTL_MILLIS,
+        LEADERBOARD_CACHED_WINDOWS);
+    rankingCache = new CoalescingCache<>(new CoalescingCache.Loader<String, StepRankIndex>() {
+      @Override
+      public void load(String key, CoalescingCache.Callback<StepRankIndex> callback) {
+        refreshRanking(callback);
+      }
+    }, uptimeClock, QUERY_CACHE_TTL_MILLIS, 1);
+    dailyTotalsCache = new CoalescingCache<>(
+            new FirestoreCounterStore(firestore(), taskScope),
+            uptimeClock,
+            DAILY_TOTALS_TTL_MILLIS,
+            DAILY_TOTALS_CACHED_DAYS);
+  }
 
+  /** Sends log data to logcat, and keeps the most recent records in a ring file on disk. */
+  private void initializeLogging() {
+    if (Log.getLogNode() != null) {
+      // Already set up by an earlier instance of this activity.
+      return;
+    }
+    // Sinks sit side by side rather than in a chain, so more (an on-screen log view, say) can be
+    // added later without one waiting on another.
+    final FanOutLogNode sinks = new FanOutLogNode();
+    sinks.addSink(new LogWrapper());
+    // At the head, so Log.isLoggable() and Log.printf() see the threshold of every sink at once.
+    Log.setLogNode(new PriorityFilter(LOG_MIN_PRIORITY, sinks));
+    // Opening the file is disk I/O, so it happens off the main thread; records logged before it
+    // is open only reach logcat.
+    final File file = new File(getFilesDir(), "log.ring");
+    DATA_EXECUTOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          sinks.addSink(new AsyncRingLogNode(
+                  RingLogFile.open(file, LOG_FILE_CAPACITY), LOG_QUEUE_CAPACITY));
+        } catch (IOException e) {
+          Log.w("MainActivity", "Could not open the log file", e);
+        }
       }
+    });
+  }
+
+  @Override
+  protected void onStart() {
+    super.onStart();
+    if (liveMode) {
+      liveSession.start();
+    }
+    handler.postDelayed(reportMetrics, METRICS_REPORT_MILLIS);
+    if (syncAttached) {
+      syncSchedulers.start();
+    }
+  }
+
+  @Override
+  protected void onStop() {
+    super.onStop();
+    if (liveSession != null) {
+      liveSession.stop();
+    }
+    uploadQueue().flush();
+    stepSeries().flush();
+    if (syncAttached) {
+      syncSchedulers.stop();
+    }
+    handler.removeCallbacks(reportMetrics);
+    METRICS_REPORTER.report();
+    Log.i("MainActivity", "Query caches: "
+        + (leaderboards == null
+            ? "ranking unused"
+            : leaderboards
+                + ", ranking " + rankingCache
+                + ", daily totals " + dailyTotalsCache)
+        + ", history " + (historySource == null ? "unused" : historySource.getCache()));
+  }
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    // Results of queries still in flight would only touch views that are gone.
+    taskScope.cancel();
+    if (syncAttached) {
+      // Runs in flight would report through the scope just cancelled, so never.
+      syncSchedulers.detach();
+    }
+    if (uploadQueue != null) {
+      // The queue outlives the activity; the next one sets its own listener once started.
+      uploadQueue.setListener(null);
     }
   }
 
@@ -119,7 +495,12 @@ public class MainActivity extends AppCompatActivity {
   protected void onActivityResult(int requestCode, int resultCode, Intent data) {
     if (resultCode == Activity.RESULT_OK) {
       if (requestCode == REQUEST_OAUTH_REQUEST_CODE) {
+        // The account now has the Fitness permissions; look it up again.
+        account = null;
+        historyClient = null;
+        signedIn = account() == null ? null : account().getEmail();
         subscribe();
+        backfillSummary();
       }
     }
 
@@ -129,14 +510,18 @@ public class MainActivity extends AppCompatActivity {
   public void subscribe() {
     // To create a subscription, invoke the Recording API. As soon as the subscription is
     // active, fitness data will start recording.
-    Fitness.getRecordingClient(this, GoogleSignIn.getLastSignedInAccount(this))
-        .subscribe(DataType.TYPE_STEP_COUNT_CUMULATIVE)
+    TaskMetrics.track(
+            SUBSCRIBE,
+            Fitness.getRecordingClient(this, account())
+                .subscribe(DataType.TYPE_STEP_COUNT_CUMULATIVE))
         .addOnCompleteListener(
             new OnCompleteListener<Void>() {
               @Override
               public void onComplete(@NonNull Task<Void> task) {
                 if (task.isSuccessful()) {
+                  startupTrace.mark(SUBSCRIBED);
                   textView.append("\n Subscribed");
+                  syncStepHistory();
                 } else {
                   textView.append("\n There was a problem subscribing." + task.getException());
                 }
@@ -149,8 +534,10 @@ public class MainActivity extends AppCompatActivity {
    * current timezone.
    */
   private void readData() {
-    Fitness.getHistoryClient(this, GoogleSignIn.getLastSignedInAccount(this))
-        .readDailyTotal(DataType.TYPE_STEP_COUNT_DELTA)
+    TaskMetrics.track(
+            READ_DAILY_TOTAL,
+            historyClient().readDailyTotal(DataType.TYPE_STEP_COUNT_DELTA),
+            TaskMetrics.DATA_POINTS)
         .addOnSuccessListener(
             new OnSuccessListener<DataSet>() {
               @Override
@@ -161,6 +548,7 @@ public class MainActivity extends AppCompatActivity {
                         : dataSet.getDataPoints().get(0).getValue(Field.FIELD_STEPS).asInt();
                 textView.setText("\n Total steps: " + total);
                 previous_steps = (int)total;
+                readTodaySamples();
               }
             })
         .addOnFailureListener(
@@ -172,6 +560,88 @@ public class MainActivity extends AppCompatActivity {
             });
   }
 
+  /** Copies the daily step totals of the past few days into the on-device step series. */
+  private void syncStepHistory() {
+    stepSeries().syncDays(
+        new FitnessDailyStepSource(historyClient()),
+        STEP_HISTORY_DAYS,
+        STEP_HISTORY_WINDOW_DAYS,
+        STEP_HISTORY_PARALLEL_READS,
+        taskScope,
+        new StepHistorySync.Callback() {
+          @Override
+          public void onSynced(int changedDays) {
+            Log.i("MainActivity", "Step history synced, " + changedDays + " days changed");
+          }
+
+          @Override
+          public void onError(Exception e) {
+            Log.w("MainActivity", "Could not sync step history", e);
+          }
+        });
+  }
+
+  /**
+   * Copies today's individual step samples into the on-device step series, then shows the recent
+   * days it holds.
+   */
+  private void readTodaySamples() {
+    stepSeries().readToday(historyClient(), taskScope, new StepSeries.Callback() {
+      @Override
+      public void onSuccess() {
+        showRecentDays();
+      }
+
+      @Override
+      public void onError(Exception e) {
+        Log.w("MainActivity", "Could not read today's step samples", e);
+      }
+    });
+  }
+
+  /** Shows the steps of the past week, read from the on-device step series. */
+  private void showRecentDays() {
+    stepSeries().readDailyTotals(RECENT_DAYS, taskScope, new StepSeries.TotalsCallback() {
+      @Override
+      public void onDailyTotals(long[] totals) {
+        long sum = 0;
+        for (long total : totals) {
+          sum += total;
+        }
+        if (sum > 0) {
+          textView.append("\n Last " + totals.length + " days: " + sum + " steps, "
+              + sum / totals.length + " a day on average");
+        }
+      }
+    });
+  }
+
+  /** Starts or stops updating the step count as steps are taken. */
+  private void toggleLiveSteps() {
+    if (liveSession == null) {
+      liveSession = new LiveStepSession(
+          Fitness.getSensorsClient(this, account()),
+          historyClient(),
+          handler,
+          new LiveStepCounter.Listener() {
+            @Override
+            public void onStepsChanged(long total) {
+              textView.setText("\n Total steps (live): " + total);
+              previous_steps = (int) total;
+            }
+          },
+          LIVE_FRAME_MILLIS,
+          LIVE_RECONCILE_MILLIS);
+    }
+    liveMode = !liveMode;
+    if (liveMode) {
+      liveSession.start();
+    } else {
+      liveSession.stop();
+      textView.setText("\n Stopped live step count.");
+    }
+  }
+
   @Override
   public boolean onCreateOptionsMenu(Menu menu) {
     // Inflate the main; this adds items to the action bar if it is present.
@@ -183,10 +653,15 @@ public class MainActivity extends AppCompatActivity {
   @Override
   public boolean onOptionsItemSelected(MenuItem item) {
     int id = item.getItemId();
+    historyList.setVisibility(View.GONE);
     if (id == R.id.action_read_data) {
       readData();
       return true;
     }
+    else if (id == R.id.live_steps){
+      toggleLiveSteps();
+      return true;
+    }
     else if (id == R.id.upload_data){
       displayOldWorkout();
       return true;
@@ -199,110 +674,399 @@ public class MainActivity extends AppCompatActivity {
       displayHistory();
       return true;
     }
+    else if (id == R.id.export_history){
+      exportHistory();
+      return true;
+    }
+    else if (id == R.id.import_history){
+      importHistory();
+      return true;
+    }
+    else if (id == R.id.daily_totals){
+      displayDailyTotals();
+      return true;
+    }
     return super.onOptionsItemSelected(item);
   }
 
 
-  Date currentTime = Calendar.getInstance().getTime();
+  private void displayOldWorkout(){
+    // Queued rather than sent right away: taps on the same day collapse into one upload, and
+    // the queue is kept on disk until it goes through.
+    if (!checkSignedIn()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    uploadQueue().enqueue(PendingWorkout.forDay(
+            signedIn, WorkoutFormat.formatDay(now), previous_steps, now));
+    textView.setText("\n Queued data for upload.");
+  }
 
-  DateFormat df = new SimpleDateFormat("MM/dd/yyyy, HH:mm");
+  private void compareData(){
+    initializeQueries();
+    //Rank against the shared sketch: a few small documents instead of every workout
+    leaderboards.readSketch(new SketchStore.Callback() {
+      @Override
+      public void onResult(StepSketch sketch) {
+        if (sketch.total() <= 0) {
+          compareWithCache();
+          return;
+        }
+        double percent = sketch.percentile(previous_steps);
+        textView.setText("\n You are beating " + WorkoutFormat.formatPercent(percent)
+            + "% of users. Keep it up!");
+        comparePeriods();
+      }
 
-  private void displayOldWorkout(){
-    FirebaseFirestore db = FirebaseFirestore.getInstance();
-    Map<String, Object> user = new HashMap<>();
-    user.put("email", signedIn);
-    user.put("steps", previous_steps);
-    user.put("date", df.format(currentTime));
-
-    // Add a new document with a generated ID
-    db.collection("workouts")
-            .add(user)
-            .addOnSuccessListener(new OnSuccessListener<DocumentReference>() {
-              @Override
-              public void onSuccess(DocumentReference documentReference) {
-                textView.setText("\n Successfully uploaded data.");
-              }
-            })
-            .addOnFailureListener(new OnFailureListener() {
-              @Override
-              public void onFailure(@NonNull Exception e) {
-                textView.append("\n Error adding document" + e);
-              }
-            });
+      @Override
+      public void onError(Exception e) {
+        textView.setText("\n Error getting documents: " + e);
+      }
+    });
   }
-  ArrayList<String> userSteps = new ArrayList<String>();
-  ArrayList<Integer> steps  = new ArrayList<Integer>();
 
+  private void displayDailyTotals(){
+    initializeQueries();
+    //Sum today's counter shards; repeated taps within a minute reuse the last sum
+    dailyTotalsCache.get(WorkoutFormat.formatDay(System.currentTimeMillis()),
+        new CoalescingCache.Callback<ShardedCounter.Totals>() {
+          @Override
+          public void onResult(ShardedCounter.Totals totals) {
+            textView.setText("\n Today: " + totals.getSteps() + " steps uploaded by "
+                + totals.getUsers() + " people.");
+          }
 
-  private void compareData(){
-    //Read in other users data
-    FirebaseFirestore db = FirebaseFirestore.getInstance();
-    db.collection("workouts")
-            .get()
-            .addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
-              @Override
-              public void onComplete(@NonNull Task<QuerySnapshot> task) {
-                if (task.isSuccessful()) {
-                  for (DocumentSnapshot document : task.getResult()) {
-                    userSteps.add(document.get("steps").toString());
-                  }
+          @Override
+          public void onError(Exception e) {
+            textView.setText("\n Error getting today's totals: " + e);
+          }
+        });
+  }
 
-                  for(int x = 0; x < userSteps.size(); x++){
-                    steps.add(Integer.valueOf(userSteps.get(x)));
-                  }
-                  bubbleSort(steps);
+  private void compareWithCache(){
+    //Taps while a refresh is running, or shortly after one, share its result
+    rankingCache.get(RANKING_KEY, new CoalescingCache.Callback<StepRankIndex>() {
+      @Override
+      public void onResult(StepRankIndex index) {
+        double percent = index.percentile(previous_steps);
+        textView.setText("\n You are beating " + WorkoutFormat.formatPercent(percent)
+            + "% of users. Keep it up!");
+        comparePeriods();
+      }
 
-                  DecimalFormat df = new DecimalFormat("#,###,##0.00");
+      @Override
+      public void onError(Exception e) {
+        textView.setText("\n Error getting documents: " + e);
+      }
+    });
+  }
 
-                  double percent = ((steps.indexOf(previous_steps)) / (float)steps.size()) * 100;
-                  textView.setText("\n You are beating " + df.format(percent)  + "% of users. Keep it up!");
+  /** Drops cached query results after the workouts they were computed from changed. */
+  private void invalidateQueryCaches() {
+    if (leaderboards == null) {
+      // Nothing was queried yet.
+      return;
+    }
+    leaderboards.invalidateAll();
+    rankingCache.invalidateAll();
+    dailyTotalsCache.invalidateAll();
+    if (historySource != null) {
+      historySource.getCache().invalidateAll();
+    }
+  }
 
+  /** Returns the export file, in app storage that can be pulled over USB when there is any. */
+  private File exportFile() {
+    File directory = getExternalFilesDir(null);
+    return new File(directory != null ? directory : getFilesDir(), EXPORT_FILE_NAME);
+  }
 
-                } else {
-                  textView.setText("\n Error getting documents: " + task.getException());
-                }
-              }
-            });
+  private void exportHistory(){
+    //Stream every workout of this user into a compact archive, a page at a time
+    if (!checkSignedIn()) {
+      return;
+    }
+    final File file = exportFile();
+    WorkoutArchiveWriter writer;
+    try {
+      writer = new WorkoutArchiveWriter(new FileOutputStream(file).getChannel(), signedIn, true);
+    } catch (IOException e) {
+      textView.setText("\n Could not create " + file + ": " + e);
+      return;
+    }
+    textView.setText("\n Exporting history...");
+    new WorkoutExporter<>(
+            new FirestoreHistorySource(firestore(), signedIn, taskScope),
+            EXPORT_PAGE_SIZE,
+            taskScope)
+        .export(writer, new WorkoutExporter.Callback() {
+          @Override
+          public void onExported(int workouts) {
+            textView.setText("\n Exported " + workouts + " workouts to " + file);
+          }
 
+          @Override
+          public void onError(Exception e) {
+            textView.setText("\n Error exporting history: " + e);
+          }
+        });
+  }
 
+  private void importHistory(){
+    //Upload the workouts of the last export again, e.g. to restore a lost history
+    if (!checkSignedIn()) {
+      return;
+    }
+    final File file = exportFile();
+    FileInputStream in;
+    try {
+      in = new FileInputStream(file);
+    } catch (IOException e) {
+      textView.setText("\n Nothing to restore: " + e);
+      return;
+    }
+    textView.setText("\n Restoring history...");
+    new WorkoutImporter(taskScope, IMPORT_BATCH_SIZE).importInto(
+        new WorkoutArchiveReader(in.getChannel()),
+        WorkoutImporter.toSink(new FirestoreWorkoutSink(firestore(), DAILY_COUNTER)),
+        new WorkoutImporter.Callback() {
+          @Override
+          public void onImported(int workouts) {
+            textView.setText("\n Restored " + workouts + " workouts from " + file);
+            invalidateQueryCaches();
+          }
+
+          @Override
+          public void onError(Exception e) {
+            textView.setText("\n Error restoring history: " + e);
+            invalidateQueryCaches();
+          }
+        });
+  }
 
+  private void migrateWorkoutDates(){
+    //Older workouts stored their date as a display string; convert them once per install
+    final SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+    if (prefs.getBoolean(PREF_WORKOUT_DATES_MIGRATED, false)) {
+      backfillLeaderboards();
+      return;
+    }
+    new WorkoutDateMigration(firestore(), taskScope).run(
+        new WorkoutDateMigration.Callback() {
+          @Override
+          public void onMigrated(int documents) {
+            Log.i("MainActivity", "Converted the dates of " + documents + " workouts");
+            prefs.edit().putBoolean(PREF_WORKOUT_DATES_MIGRATED, true).apply();
+            backfillLeaderboards();
+          }
 
+          @Override
+          public void onError(Exception e) {
+            Log.w("MainActivity", "Workout date migration failed; retrying on next launch", e);
+          }
+        });
   }
 
-  private void displayHistory(){
-    //Read in other users data
-    textView.setText("\n Previous Workouts:");
-    FirebaseFirestore db = FirebaseFirestore.getInstance();
-    db.collection("workouts")
-            .whereEqualTo("email", signedIn)
-            .get()
-            .addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
-              @Override
-              public void onComplete(@NonNull Task<QuerySnapshot> task) {
-                if (task.isSuccessful()) {
-                  for (DocumentSnapshot document : task.getResult()) {
-                    textView.append("\n Date: " + document.get("date") + "\n\t Steps: "+ document.get("steps"));
-                  }
-                } else {
-                  textView.append("\n Error getting documents: " + task.getException());
-                }
-              }
-            });
+  private void backfillLeaderboards(){
+    //Count workouts uploaded before ranking existed, once their dates can place them in windows
+    new LeaderboardBackfill(firestore(), taskScope).runOnce(
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE),
+        new Runnable() {
+          @Override
+          public void run() {
+            invalidateQueryCaches();
+          }
+        });
+  }
+
+  private void backfillSummary(){
+    //Roll workouts uploaded before summaries existed into this account's summary, once
+    if (signedIn != null) {
+      summaryHistory().backfill(signedIn);
+    }
+  }
+
+  /** Returns where the history list reads from, for the account signed in. */
+  private SummaryHistory summaryHistory() {
+    return new SummaryHistory(
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE), firestore(), taskScope);
+  }
+
+  private void comparePeriods(){
+    //Rank today's steps within the current day, week and month; each is one document read
+    long now = System.currentTimeMillis();
+    for (final LeaderboardWindow.Period period : LeaderboardWindow.Period.values()) {
+      LeaderboardWindow window = LeaderboardWindow.containing(period, now, TimeZone.getDefault());
+      leaderboards.readWindow(window, new CoalescingCache.Callback<StepSketch>() {
+        @Override
+        public void onResult(StepSketch sketch) {
+          if (sketch.total() <= 0) {
+            return;
+          }
+          double percent = sketch.percentile(previous_steps);
+          textView.append("\n " + periodLabel(period) + ": beating "
+              + WorkoutFormat.formatPercent(percent) + "% of the days logged.");
+        }
+
+        @Override
+        public void onError(Exception e) {
+          Log.w("MainActivity", "Could not read the " + period.getKey() + " leaderboard", e);
+        }
+      });
+    }
+  }
+
+  private static String periodLabel(LeaderboardWindow.Period period) {
+    switch (period) {
+      case DAY:
+        return "Today";
+      case WEEK:
+        return "This week";
+      default:
+        return "This month";
+    }
+  }
+
+  /** Starts syncing steps, uploads and leaderboards periodically, off the menu taps. */
+  private void startSync() {
+    if (syncSchedulers == null) {
+      syncSchedulers = newSyncSchedulers();
+    }
+    syncSchedulers.attach("steps", SYNC_STEPS_MILLIS,
+        new StepSyncJob(stepSeries(), historyClient(), SYNC_STEP_DAYS, taskScope));
+    syncSchedulers.attach("uploads", SYNC_UPLOADS_MILLIS, new UploadSyncJob(uploadQueue()));
+    initializeQueries();
+    syncSchedulers.attach("leaderboards", SYNC_LEADERBOARDS_MILLIS,
+        new LeaderboardSyncJob(leaderboards));
+    syncAttached = true;
+    syncSchedulers.start();
+  }
 
+  // Static, so the schedulers hold no reference to the activity that happened to create them.
+  private static SyncSchedulers newSyncSchedulers() {
+    return new SyncSchedulers(
+        new SyncScheduler.Timer() {
+          @Override
+          public void schedule(Runnable task, long delayMillis) {
+            MAIN_HANDLER.postDelayed(task, delayMillis);
+          }
+        },
+        new CoalescingCache.Clock() {
+          @Override
+          public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+          }
+        },
+        new Random(),
+        SYNC_FIRST_DELAY_MILLIS,
+        SYNC_MIN_BACKOFF_MILLIS,
+        SYNC_MAX_BACKOFF_MILLIS,
+        SYNC_JITTER);
   }
 
-  private void bubbleSort(ArrayList<Integer> arr)
-  {
-    int n = arr.size();
-    for (int i = 0; i < n-1; i++)
-      for (int j = 0; j < n-i-1; j++)
-        if (arr.get(j) > arr.get(j+1))
-        {
-          // swap arr[j+1] and arr[i]
-          int temp = arr.get(j);
-          arr.set(j, arr.get(j+1));
-          arr.set(j+1, temp);
+  private void refreshRanking(final CoalescingCache.Callback<StepRankIndex> callback){
+    if (workoutCache == null) {
+      loadWorkoutCache(new Runnable() {
+        @Override
+        public void run() {
+          refreshRanking(callback);
         }
+      });
+      return;
+    }
+    //Fetch workouts uploaded since the last comparison; older ones are already ranked
+    workoutCache.refresh(new WorkoutSource.Callback() {
+      @Override
+      public void onResult(List<Workout> added) {
+        for (Workout workout : added) {
+          rankIndex.add(workout.getSteps());
+        }
+        callback.onResult(rankIndex);
+      }
+
+      @Override
+      public void onError(Exception e) {
+        callback.onError(e);
+      }
+    });
+  }
+
+  /**
+   * Reads the workouts cached by earlier sessions on the background executor, ranks them, and then
+   * runs {@code next} on the main thread.
+   */
+  private void loadWorkoutCache(final Runnable next){
+    final WorkoutCache cache = new WorkoutCache(
+            new FirestoreWorkoutSource(firestore(), taskScope),
+            new File(getFilesDir(), "workouts.cache"),
+            taskScope);
+    cache.setListener(new WorkoutCache.Listener() {
+      @Override
+      public void onWorkoutReplaced(Workout previous, Workout current) {
+        if (!rankIndex.remove(previous.getSteps())) {
+          // The index missed the replaced workout; ranking it once is better than crashing.
+          Log.w("MainActivity", "Replaced workout " + previous.getId() + " was not ranked");
+        }
+        rankIndex.add(current.getSteps());
+      }
+    });
+    DATA_EXECUTOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        final List<Workout> loaded = cache.load();
+        taskScope.deliver(new Runnable() {
+          @Override
+          public void run() {
+            for (Workout workout : loaded) {
+              rankIndex.add(workout.getSteps());
+            }
+            workoutCache = cache;
+            next.run();
+          }
+        });
+      }
+    });
+  }
+
+  private void displayHistory(){
+    //Page through this user's workouts, newest first, as the list scrolls; once the summary
+    //has every workout, a year of days is a single read
+    if (!checkSignedIn()) {
+      return;
+    }
+    textView.setText("\n Previous Workouts:");
+    historyList.setVisibility(View.VISIBLE);
+    SummaryHistory history = summaryHistory();
+    boolean fromSummary = history.isBackfilled(signedIn);
+    if (historyPager == null || fromSummary != historyFromSummary) {
+      historyFromSummary = fromSummary;
+      showHistory(history.source(signedIn));
+    }
+    historyPager.reset();
+    historyPager.loadNext();
+  }
+
+  /** Pages the history list through {@code source}, replacing the previous source. */
+  private <C> void showHistory(HistoryPageSource<C> source) {
+    CachingHistorySource<C> cachingSource = new CachingHistorySource<>(
+            source,
+            uptimeClock,
+            QUERY_CACHE_TTL_MILLIS,
+            HISTORY_MAX_PAGES);
+    HistoryPager<C> pager = new HistoryPager<>(
+            cachingSource,
+            HISTORY_PAGE_SIZE,
+            HISTORY_MAX_PAGES);
+    // The adapter of the previous source would otherwise keep paging it as the list scrolls.
+    historyList.clearOnScrollListeners();
+    new HistoryAdapter(pager, new HistoryAdapter.ErrorListener() {
+      @Override
+      public void onError(Exception e) {
+        textView.append("\n Error getting documents: " + e);
+      }
+    }).attachTo(historyList);
+    historySource = cachingSource;
+    historyPager = pager;
   }
 
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.view.Choreographer;
+
+import com.google.android.gms.fit.samples.common.logger.Log;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times the milestones of an activity start, e.g. the first frame, and logs them together in one
+ * line tagged {@link #TAG} once all have been reached:
+ * <pre>
+ *   Startup (cold): firstFrame=212ms subscribed=845ms
+ * </pre>
+ * The line also lands in the on-device log file, so startup can be compared across releases.
+ * Times are measured from when the trace was created, normally at the top of {@code onCreate}.
+ *
+ * <p>Call it on the main thread.</p>
+ */
+class StartupTrace {
+
+  static final String TAG = "StartupTrace";
+  static final String FIRST_FRAME = "firstFrame";
+
+  // Only the first activity of a process starts cold.
+  private static boolean processStarted;
+
+  private final long startMillis = SystemClock.uptimeMillis();
+  private final boolean cold;
+  private final List<String> milestones;
+  private final Map<String, Long> reached = new LinkedHashMap<>();
+
+  /**
+   * @param milestones Names of the milestones to wait for before logging.
+   */
+  StartupTrace(String... milestones) {
+    this.milestones = Arrays.asList(milestones);
+    cold = !processStarted;
+    processStarted = true;
+  }
+
+  /**
+   * Marks {@link #FIRST_FRAME} once the first frame after this call has been drawn, then runs
+   * {@code next}.
+   */
+  void afterFirstFrame(final Handler handler, final Runnable next) {
+    final Runnable drawn = new Runnable() {
+      @Override
+      public void run() {
+        mark(FIRST_FRAME);
+        next.run();
+      }
+    };
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+      handler.post(drawn);
+      return;
+    }
+    Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+      @Override
+      public void doFrame(long frameTimeNanos) {
+        // Frame callbacks run before the frame is drawn; a message posted now runs after it.
+        handler.post(drawn);
+      }
+    });
+  }
+
+  /** Records that {@code milestone} was reached. Only the first time counts. */
+  void mark(String milestone) {
+    if (reached.containsKey(milestone) || reached.keySet().containsAll(milestones)) {
+      return;
+    }
+    reached.put(milestone, SystemClock.uptimeMillis() - startMillis);
+    if (reached.keySet().containsAll(milestones)) {
+      StringBuilder line = new StringBuilder(cold ? "Startup (cold):" : "Startup (warm):");
+      for (Map.Entry<String, Long> entry : reached.entrySet()) {
+        line.append(' ').append(entry.getKey()).append('=').append(entry.getValue()).append("ms");
+      }
+      Log.i(TAG, line.toString());
+    }
+  }
+
+  /** Opens a section shown in systrace, on devices that support it. */
+  static void beginSection(String name) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      Trace.beginSection(name);
+    }
+  }
+
+  /** Closes the section opened last by {@link #beginSection(String)}. */
+  static void endSection() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      Trace.endSection();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.counters;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.data.CoalescingCache;
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the daily counts of a {@link ShardedCounter} from Firestore, one query for every shard of
+ * the day. Usable as the loader of a {@link CoalescingCache} keyed by day.
+ *
+ * <p>The shards are summed on the background executor of a {@link TaskScope}, and the callback
+ * runs on the main thread.</p>
+ */
+public class FirestoreCounterStore
+    implements CoalescingCache.Loader<String, ShardedCounter.Totals> {
+
+  // Lets the shard count be changed for every client without a release.
+  public static final String CONFIG_PATH = "config/dailyCounters";
+  public static final String FIELD_SHARD_COUNT = "shardCount";
+
+  private static final OperationMetrics GET = Metrics.operation("firestore.counters.get");
+
+  private final FirebaseFirestore db;
+  private final TaskScope scope;
+
+  public FirestoreCounterStore(FirebaseFirestore db, TaskScope scope) {
+    this.db = db;
+    this.scope = scope;
+  }
+
+  /** Reads the counts of {@code day}, {@code yyyyMMdd}. */
+  @Override
+  public void load(String day, final CoalescingCache.Callback<ShardedCounter.Totals> callback) {
+    Task<QuerySnapshot> get = TaskMetrics.track(
+        GET, db.collection(ShardedCounter.shardsPath(day)).get(), TaskMetrics.DOCUMENTS);
+    get.addOnCompleteListener(scope.getBackground(),
+        new OnCompleteListener<QuerySnapshot>() {
+          @Override
+          public void onComplete(@NonNull final Task<QuerySnapshot> task) {
+            if (scope.isCancelled()) {
+              return;
+            }
+            if (!task.isSuccessful()) {
+              scope.deliver(new Runnable() {
+                @Override
+                public void run() {
+                  callback.onError(task.getException());
+                }
+              });
+              return;
+            }
+            List<Map<String, Object>> shards = new ArrayList<>();
+            for (DocumentSnapshot shard : task.getResult()) {
+              shards.add(shard.getData());
+            }
+            final ShardedCounter.Totals totals = ShardedCounter.sum(shards);
+            scope.deliver(new Runnable() {
+              @Override
+              public void run() {
+                callback.onResult(totals);
+              }
+            });
+          }
+        });
+  }
+
+  /**
+   * Applies the shard count in {@link #CONFIG_PATH} to {@code counter}, if there is a valid one.
+   * Failures are left to the next call; the current count stays.
+   */
+  public void loadShardCount(final ShardedCounter counter) {
+    db.document(CONFIG_PATH).get().addOnCompleteListener(scope.getBackground(),
+        new OnCompleteListener<DocumentSnapshot>() {
+          @Override
+          public void onComplete(@NonNull Task<DocumentSnapshot> task) {
+            if (!task.isSuccessful() || !task.getResult().exists()) {
+              return;
+            }
+            Object shardCount = task.getResult().get(FIELD_SHARD_COUNT);
+            if (shardCount instanceof Number) {
+              int count = ((Number) shardCount).intValue();
+              if (count >= 1 && count <= ShardedCounter.MAX_SHARDS) {
+                counter.setShardCount(count);
+              }
+            }
+          }
+        });
+  }
+}
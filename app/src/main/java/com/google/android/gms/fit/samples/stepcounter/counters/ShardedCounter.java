@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.counters;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Documents;
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Global per-day counts of uploaded steps and active users, spread over shard documents at
+ * {@code dailyCounters/{yyyyMMdd}/shards/{n}} so that concurrent uploads don't all update one
+ * document, which Firestore only sustains about once a second.
+ *
+ * <p>A read sums every shard of the day, however many there are, so the shard count can change
+ * at runtime: raising it spreads new updates over more documents, and lowering it leaves the
+ * counts in the unused shards where they are. Safe for use from any thread.</p>
+ */
+public class ShardedCounter {
+
+  /** How an update picks its shard. */
+  public enum Strategy {
+    /** One shard at random per roll-up, so a whole upload batch touches one shard per day. */
+    RANDOM,
+    /** The shard the user hashes to, so a user's uploads never contend with each other's. */
+    USER_HASH
+  }
+
+  public static final String COLLECTION = "dailyCounters";
+  public static final String FIELD_STEPS = "steps";
+  public static final String FIELD_USERS = "users";
+  public static final int MAX_SHARDS = 100;
+
+  static final String SHARDS = "shards";
+
+  /** Counts of one day, or changes to them. Immutable. */
+  public static class Totals {
+
+    public static final Totals ZERO = new Totals(0, 0);
+
+    private final long steps;
+    private final long users;
+
+    public Totals(long steps, long users) {
+      this.steps = steps;
+      this.users = users;
+    }
+
+    public long getSteps() {
+      return steps;
+    }
+
+    public long getUsers() {
+      return users;
+    }
+
+    public Totals plus(Totals other) {
+      return new Totals(steps + other.steps, users + other.users);
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> map = new TreeMap<>();
+      map.put(FIELD_STEPS, steps);
+      map.put(FIELD_USERS, users);
+      return map;
+    }
+
+    /** Decodes a shard document; zero if {@code fields} is null. */
+    static Totals fromMap(Map<String, Object> fields) {
+      if (fields == null) {
+        return ZERO;
+      }
+      return new Totals(longValue(fields.get(FIELD_STEPS)), longValue(fields.get(FIELD_USERS)));
+    }
+
+    private static long longValue(Object value) {
+      return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+  }
+
+  /** A change to the counts of one day by one user's upload. */
+  public static class Increment {
+
+    private final String day;
+    private final String email;
+    private final Totals delta;
+
+    /**
+     * @param day The day as {@code yyyyMMdd}.
+     * @param email The user uploading. May be null.
+     * @param delta Steps added to the day, and 1 if the user is new to it, or 0.
+     */
+    public Increment(String day, String email, Totals delta) {
+      this.day = day;
+      this.email = email;
+      this.delta = delta;
+    }
+  }
+
+  /** The shard writes of one roll-up, to apply once every read of the transaction is done. */
+  public static class Update {
+
+    private final Map<String, Totals> shards;
+
+    Update(Map<String, Totals> shards) {
+      this.shards = shards;
+    }
+
+    /** Returns the number of documents {@link #write(Documents)} sets. */
+    public int size() {
+      return shards.size();
+    }
+
+    public void write(Documents<?> documents) {
+      for (Map.Entry<String, Totals> shard : shards.entrySet()) {
+        documents.set(shard.getKey(), shard.getValue().toMap());
+      }
+    }
+  }
+
+  private final Strategy strategy;
+  private final Random random;
+  private volatile int shardCount;
+
+  /**
+   * @param shardCount Number of shards updates are spread over, from 1 to {@link #MAX_SHARDS}.
+   * @param random Picks the shards of the {@link Strategy#RANDOM} strategy.
+   */
+  public ShardedCounter(Strategy strategy, int shardCount, Random random) {
+    this.strategy = strategy;
+    this.random = random;
+    setShardCount(shardCount);
+  }
+
+  public int getShardCount() {
+    return shardCount;
+  }
+
+  /** Changes the number of shards later updates are spread over. */
+  public void setShardCount(int shardCount) {
+    if (shardCount < 1 || shardCount > MAX_SHARDS) {
+      throw new IllegalArgumentException("shardCount=" + shardCount);
+    }
+    this.shardCount = shardCount;
+  }
+
+  /** Returns the path of the collection holding the shards of {@code day}. */
+  public static String shardsPath(String day) {
+    return COLLECTION + "/" + day + "/" + SHARDS;
+  }
+
+  static String shardPath(String day, int shard) {
+    return shardsPath(day) + "/" + shard;
+  }
+
+  /** Reads the shards {@code increments} go to and computes their new counts. */
+  public <E extends Exception> Update read(Documents<E> documents, List<Increment> increments)
+      throws E {
+    int shards = shardCount;
+    int randomShard = random.nextInt(shards);
+    Map<String, Totals> deltas = new LinkedHashMap<>();
+    for (Increment increment : increments) {
+      int shard = strategy == Strategy.RANDOM ? randomShard : userShard(increment.email, shards);
+      String path = shardPath(increment.day, shard);
+      Totals delta = deltas.get(path);
+      deltas.put(path, delta == null ? increment.delta : delta.plus(increment.delta));
+    }
+    Map<String, Totals> updated = new LinkedHashMap<>();
+    for (Map.Entry<String, Totals> delta : deltas.entrySet()) {
+      Totals current = Totals.fromMap(documents.get(delta.getKey()));
+      updated.put(delta.getKey(), current.plus(delta.getValue()));
+    }
+    return new Update(updated);
+  }
+
+  /** Sums the shard documents of a day. */
+  public static Totals sum(Collection<Map<String, Object>> shards) {
+    Totals sum = Totals.ZERO;
+    for (Map<String, Object> shard : shards) {
+      sum = sum.plus(Totals.fromMap(shard));
+    }
+    return sum;
+  }
+
+  private static int userShard(String email, int shards) {
+    return (PendingWorkout.keyFor(email).hashCode() % shards + shards) % shards;
+  }
+}
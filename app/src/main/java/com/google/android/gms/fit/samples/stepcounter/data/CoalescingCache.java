@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Short-lived cache of request results, keyed by request.
+ *
+ * <p>A result is reused for {@code ttlMillis} after it was loaded. A request for a key that is
+ * already being loaded does not start a second load: it waits for the first one and gets the same
+ * result. Errors are passed on to every waiting caller but never cached.</p>
+ *
+ * <p>Not thread-safe; call it, and deliver load results, on a single thread.</p>
+ *
+ * @param <K> Request key. Null is allowed.
+ * @param <V> Result type. Results are shared between callers, so they must not modify them.
+ */
+public class CoalescingCache<K, V> {
+
+  public interface Callback<V> {
+    void onResult(V value);
+
+    void onError(Exception e);
+  }
+
+  /** Performs the actual request for a key. */
+  public interface Loader<K, V> {
+    void load(K key, Callback<V> callback);
+  }
+
+  /** Monotonic time source, e.g. {@code SystemClock.uptimeMillis()}. */
+  public interface Clock {
+    long uptimeMillis();
+  }
+
+  private static class Cached<V> {
+    final V value;
+    final long loadedAt;
+
+    Cached(V value, long loadedAt) {
+      this.value = value;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+  /** A load in flight, with the callers waiting for it. */
+  private static class Load<V> {
+    final List<Callback<V>> callbacks = new ArrayList<>();
+    final int generation;
+
+    Load(int generation) {
+      this.generation = generation;
+    }
+  }
+
+  private final Loader<K, V> loader;
+  private final Clock clock;
+  private final long ttlMillis;
+  private final Map<K, Cached<V>> entries;
+  private final Map<K, Load<V>> waiting = new HashMap<>();
+  // Bumped on invalidation, so loads started before it neither take new callers nor put stale
+  // results in the cache.
+  private int generation;
+
+  // Counters, for measuring how many requests the cache saves.
+  private long hitCount;
+  private long missCount;
+  private long coalescedCount;
+
+  /**
+   * @param ttlMillis How long a loaded result is reused.
+   * @param maxEntries Number of results kept; the least recently used is dropped first.
+   */
+  public CoalescingCache(Loader<K, V> loader, Clock clock, long ttlMillis, final int maxEntries) {
+    this.loader = loader;
+    this.clock = clock;
+    this.ttlMillis = ttlMillis;
+    this.entries = new LinkedHashMap<K, Cached<V>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Cached<V>> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Passes the result for {@code key} to {@code callback}: right away if a fresh one is cached,
+   * otherwise once the load already running for it, or a new one, completes.
+   */
+  public void get(final K key, Callback<V> callback) {
+    Cached<V> cached = entries.get(key);
+    if (cached != null && clock.uptimeMillis() - cached.loadedAt < ttlMillis) {
+      hitCount++;
+      callback.onResult(cached.value);
+      return;
+    }
+    Load<V> load = waiting.get(key);
+    if (load != null && load.generation == generation) {
+      coalescedCount++;
+      load.callbacks.add(callback);
+      return;
+    }
+    missCount++;
+    final Load<V> started = new Load<>(generation);
+    started.callbacks.add(callback);
+    waiting.put(key, started);
+    loader.load(key, new Callback<V>() {
+      @Override
+      public void onResult(V value) {
+        if (started.generation == generation) {
+          entries.put(key, new Cached<>(value, clock.uptimeMillis()));
+        }
+        for (Callback<V> callback : complete(key, started)) {
+          callback.onResult(value);
+        }
+      }
+
+      @Override
+      public void onError(Exception e) {
+        for (Callback<V> callback : complete(key, started)) {
+          callback.onError(e);
+        }
+      }
+    });
+  }
+
+  /** Replaces the cached result for {@code key}, e.g. with the result of an update. */
+  public void put(K key, V value) {
+    entries.put(key, new Cached<>(value, clock.uptimeMillis()));
+  }
+
+  /**
+   * Drops every cached result; the next request for any key is loaded again, even if a load for it
+   * is still running. Callers already waiting for such a load still get its result.
+   */
+  public void invalidateAll() {
+    generation++;
+    entries.clear();
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  @Override
+  public String toString() {
+    return "hits=" + hitCount + " misses=" + missCount + " coalesced=" + coalescedCount;
+  }
+
+  private List<Callback<V>> complete(K key, Load<V> load) {
+    // A newer load for the key, started after an invalidation, keeps its place.
+    if (waiting.get(key) == load) {
+      waiting.remove(key);
+    }
+    return load.callbacks;
+  }
+}
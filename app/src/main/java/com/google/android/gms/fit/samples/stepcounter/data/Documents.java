@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import java.util.Map;
+
+/**
+ * The documents a transaction reads and writes, by path, e.g. {@code userSummaries/alice}. Lets
+ * the logic of a transaction run against Firestore or an in-memory map alike. Maps hold what
+ * Firestore stores: numbers, strings, booleans, lists and nested maps, with blobs as byte arrays.
+ *
+ * @param <E> Exception thrown by reads.
+ */
+public interface Documents<E extends Exception> {
+
+  /** Returns the fields of the document at {@code path}, or null if there is none. */
+  Map<String, Object> get(String path) throws E;
+
+  /** Replaces the document at {@code path}. */
+  void set(String path, Map<String, Object> fields);
+}
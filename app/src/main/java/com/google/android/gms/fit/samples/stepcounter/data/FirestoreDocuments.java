@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** {@link Documents} of Firestore. Blob fields are converted to and from byte arrays. */
+public final class FirestoreDocuments {
+
+  private FirestoreDocuments() {
+  }
+
+  /**
+   * Returns the documents of {@code transaction}. As with the transaction itself, every read must
+   * come before the first write.
+   */
+  public static Documents<FirebaseFirestoreException> of(
+      final FirebaseFirestore db, final Transaction transaction) {
+    return new Documents<FirebaseFirestoreException>() {
+      @Override
+      public Map<String, Object> get(String path) throws FirebaseFirestoreException {
+        Map<String, Object> fields = transaction.get(db.document(path)).getData();
+        if (fields == null) {
+          return null;
+        }
+        Map<String, Object> converted = new HashMap<>(fields);
+        for (Map.Entry<String, Object> field : converted.entrySet()) {
+          if (field.getValue() instanceof Blob) {
+            field.setValue(((Blob) field.getValue()).toBytes());
+          }
+        }
+        return converted;
+      }
+
+      @Override
+      public void set(String path, Map<String, Object> fields) {
+        Map<String, Object> converted = new HashMap<>(fields);
+        for (Map.Entry<String, Object> field : converted.entrySet()) {
+          if (field.getValue() instanceof byte[]) {
+            field.setValue(Blob.fromBytes((byte[]) field.getValue()));
+          }
+        }
+        transaction.set(db.document(path), converted);
+      }
+    };
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.counters.ShardedCounter;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.LeaderboardRollup;
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.fit.samples.stepcounter.summary.SummaryRollup;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * {@link WorkoutSink} writing to the Firestore {@code workouts} collection.
+ *
+ * <p>A batch is written in one transaction, see {@link WorkoutUpsert}, together with the shards of
+ * the shared step sketch and of the per-period leaderboards of each workout's day, week and month,
+ * see {@link LeaderboardRollup}; re-uploading a day never counts it twice. Each user's summary
+ * document is rolled up in the same transaction, see {@link SummaryRollup}, and so are the global
+ * daily counts of steps and active users, see {@link ShardedCounter}.</p>
+ */
+public class FirestoreWorkoutSink implements WorkoutSink {
+
+  private static final OperationMetrics UPSERT = Metrics.operation("firestore.workouts.upsert");
+
+  private final FirebaseFirestore db;
+  private final ShardedCounter dailyCounter;
+
+  /**
+   * @param dailyCounter Counts the steps and users of each day.
+   */
+  public FirestoreWorkoutSink(FirebaseFirestore db, ShardedCounter dailyCounter) {
+    this.db = db;
+    this.dailyCounter = dailyCounter;
+  }
+
+  @Override
+  public void upsert(final List<PendingWorkout> batch, final Callback callback) {
+    final long now = System.currentTimeMillis();
+    final TimeZone timeZone = TimeZone.getDefault();
+    Task<Void> upsert = db.runTransaction(new Transaction.Function<Void>() {
+      @Override
+      public Void apply(@NonNull Transaction transaction) throws FirebaseFirestoreException {
+        WorkoutUpsert.apply(FirestoreDocuments.of(db, transaction), batch, dailyCounter,
+            FieldValue.serverTimestamp(), now, timeZone);
+        return null;
+      }
+    });
+    TaskMetrics.track(UPSERT, upsert, batch.size()).addOnCompleteListener(
+        new OnCompleteListener<Void>() {
+          @Override
+          public void onComplete(@NonNull Task<Void> task) {
+            if (task.isSuccessful()) {
+              callback.onSuccess();
+            } else {
+              callback.onError(task.getException());
+            }
+          }
+        });
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link WorkoutSource} backed by the Firestore {@code workouts} collection. Documents are parsed
+ * on the background executor of a {@link TaskScope}, and the callback runs on the main thread.
+ */
+public class FirestoreWorkoutSource implements WorkoutSource {
+
+  public static final String COLLECTION = "workouts";
+  public static final String FIELD_EMAIL = "email";
+  public static final String FIELD_STEPS = "steps";
+  // Epoch millis. Older documents have a display date string in FIELD_DATE instead, until
+  // WorkoutDateMigration converts them.
+  public static final String FIELD_RECORDED_AT = "recordedAt";
+  public static final String FIELD_DATE = "date";
+  // Set with FieldValue.serverTimestamp() on upload, so it is ordered across devices.
+  public static final String FIELD_UPLOADED = "uploaded";
+
+  private static final OperationMetrics GET = Metrics.operation("firestore.workouts.get");
+
+  private final FirebaseFirestore db;
+  private final TaskScope scope;
+
+  public FirestoreWorkoutSource(FirebaseFirestore db, TaskScope scope) {
+    this.db = db;
+    this.scope = scope;
+  }
+
+  @Override
+  public void fetchNewerThan(long uploaded, final Callback callback) {
+    Query query = db.collection(COLLECTION);
+    if (uploaded != ALL) {
+      query = query.whereGreaterThan(FIELD_UPLOADED, new Date(uploaded)).orderBy(FIELD_UPLOADED);
+    }
+    Task<QuerySnapshot> get = TaskMetrics.track(GET, query.get(), TaskMetrics.DOCUMENTS);
+    get.addOnCompleteListener(scope.getBackground(),
+        new OnCompleteListener<QuerySnapshot>() {
+          @Override
+          public void onComplete(@NonNull final Task<QuerySnapshot> task) {
+            if (scope.isCancelled()) {
+              return;
+            }
+            if (!task.isSuccessful()) {
+              scope.deliver(new Runnable() {
+                @Override
+                public void run() {
+                  callback.onError(task.getException());
+                }
+              });
+              return;
+            }
+            final List<Workout> workouts = new ArrayList<>();
+            for (DocumentSnapshot document : task.getResult()) {
+              workouts.add(toWorkout(document));
+            }
+            scope.deliver(new Runnable() {
+              @Override
+              public void run() {
+                callback.onResult(workouts);
+              }
+            });
+          }
+        });
+  }
+
+  /** Converts a {@code workouts} document to a {@link Workout}. */
+  public static Workout toWorkout(DocumentSnapshot document) {
+    Date uploaded = document.getDate(FIELD_UPLOADED);
+    return new Workout(
+        document.getId(),
+        document.getString(FIELD_EMAIL),
+        WorkoutFormat.parseSteps(document.get(FIELD_STEPS)),
+        parseRecordedAt(document),
+        uploaded == null ? 0 : uploaded.getTime());
+  }
+
+  /**
+   * Returns when the workout of {@code document} was recorded, in epoch millis, falling back to the
+   * display date string of older documents. Returns 0 if neither is usable.
+   */
+  public static long parseRecordedAt(DocumentSnapshot document) {
+    Object recordedAt = document.get(FIELD_RECORDED_AT);
+    if (recordedAt instanceof Number) {
+      return ((Number) recordedAt).longValue();
+    }
+    Object date = document.get(FIELD_DATE);
+    return date == null ? 0 : WorkoutFormat.parseLegacyDate(date.toString());
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+/**
+ * A workout waiting in the {@link UploadQueue}. There is at most one workout per user and day: its
+ * id is derived from both, so a later upload on the same day replaces the earlier one.
+ */
+public class PendingWorkout {
+
+  private final String id;
+  private final String email;
+  private final int steps;
+  private final long recordedAt;
+
+  /**
+   * @param id Document id; see {@link #idFor(String, String)}.
+   * @param email Account the workout belongs to. May be null.
+   * @param steps Step count of the workout.
+   * @param recordedAt When the user recorded the workout, in epoch millis.
+   */
+  public PendingWorkout(String id, String email, int steps, long recordedAt) {
+    this.id = id;
+    this.email = email;
+    this.steps = steps;
+    this.recordedAt = recordedAt;
+  }
+
+  /**
+   * Creates the workout of {@code email} for {@code day}, e.g. {@code 20191021}. A later workout for
+   * the same user and day replaces this one.
+   */
+  public static PendingWorkout forDay(String email, String day, int steps, long recordedAt) {
+    return new PendingWorkout(idFor(email, day), email, steps, recordedAt);
+  }
+
+  /** Returns the document id shared by every workout of {@code email} on {@code day}. */
+  public static String idFor(String email, String day) {
+    return keyFor(email) + "_" + day;
+  }
+
+  /** Returns {@code email} in a form usable in document ids and paths. */
+  public static String keyFor(String email) {
+    return email == null ? "anonymous" : email.replace('/', '_');
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getEmail() {
+    return email;
+  }
+
+  public int getSteps() {
+    return steps;
+  }
+
+  public long getRecordedAt() {
+    return recordedAt;
+  }
+}
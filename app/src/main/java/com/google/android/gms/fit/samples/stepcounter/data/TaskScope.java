@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Threads for the data layer, tied to the lifetime of a screen.
+ *
+ * <p>Firestore listeners run on the background executor, where query results are parsed; only
+ * the parsed result is handed to the main thread with {@link #deliver(Runnable)}. Once the scope is
+ * cancelled, typically in {@code onDestroy}, pending results are dropped instead of delivered and
+ * new ones are no longer parsed.</p>
+ */
+public class TaskScope {
+
+  private final Executor background;
+  private final Executor main;
+  // Written on the main thread, read from both.
+  private volatile boolean cancelled;
+
+  /**
+   * @param background Runs Task listeners and the parsing done in them.
+   * @param main Runs delivered results, e.g. through a {@code Handler} on the main looper.
+   */
+  public TaskScope(Executor background, Executor main) {
+    this.background = background;
+    this.main = main;
+  }
+
+  /** Returns the executor to pass to {@code Task.addOnCompleteListener(Executor, ...)}. */
+  public Executor getBackground() {
+    return background;
+  }
+
+  /** Runs {@code task} on the main thread, unless the scope is cancelled first. */
+  public void deliver(final Runnable task) {
+    if (cancelled) {
+      return;
+    }
+    main.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (!cancelled) {
+          task.run();
+        }
+      }
+    });
+  }
+
+  /** Drops every result not delivered yet. Call it on the main thread. */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Queue of workouts waiting to be uploaded.
+ *
+ * <p>Workouts for the same user and day are coalesced, so only the latest one is sent. The queue
+ * is flushed to the {@link WorkoutSink} in batches, either once {@code maxBatchSize} workouts are
+ * pending or {@code maxDelayMillis} after the first one was queued, and it is written to disk after
+ * every change so workouts queued while offline survive a restart. Reading and writing the file
+ * happen on a separate I/O executor; writes that pile up behind a slow one collapse into the
+ * latest.</p>
+ *
+ * <p>After a failed batch the next attempt waits twice as long as the last one, up to
+ * {@code maxBackoffMillis}, and a full queue no longer triggers an immediate flush until a batch
+ * goes through again.</p>
+ *
+ * <p>Not thread-safe; call it, and run the scheduler's tasks, on a single thread, such as the main
+ * thread.</p>
+ */
+public class UploadQueue {
+
+  /** Runs a task after a delay, e.g. through a {@code Handler}. */
+  public interface Scheduler {
+    void schedule(Runnable task, long delayMillis);
+  }
+
+  /** Notified after each batch, successful or not. */
+  public interface Listener {
+    void onFlushed(List<PendingWorkout> batch);
+
+    void onFlushFailed(List<PendingWorkout> batch, Exception e);
+  }
+
+  private static final int FILE_VERSION = 2;
+  // Also stored the display date as a string.
+  private static final int FILE_VERSION_STRING_DATES = 1;
+
+  private final WorkoutSink sink;
+  private final File file;
+  private final Executor io;
+  private final Scheduler scheduler;
+  private final int maxBatchSize;
+  private final long maxDelayMillis;
+  private final long maxBackoffMillis;
+  private final Map<String, PendingWorkout> pending = new LinkedHashMap<>();
+  private List<PendingWorkout> inFlight = new ArrayList<>();
+  private Listener listener;
+  // Latest contents not written yet, handed to the I/O executor; null once it has taken them.
+  private final AtomicReference<List<PendingWorkout>> unsaved = new AtomicReference<>();
+  // Waiting for the queue to empty; see flushAll().
+  private final List<WorkoutSink.Callback> flushAllCallbacks = new ArrayList<>();
+  private boolean flushScheduled;
+  // Bumped to drop a scheduled flush that a backoff has pushed back.
+  private int scheduleGeneration;
+  private boolean flushing;
+  private int consecutiveFailures;
+
+  // Counters, for measuring how many requests a session costs.
+  private long enqueuedCount;
+  private long coalescedCount;
+  private long uploadedCount;
+  private long requestCount;
+  private long failedRequestCount;
+
+  /**
+   * @param sink Where batches are uploaded to.
+   * @param file File the queue is persisted to, or null to keep it in memory only.
+   * @param io Reads and writes the file; runs one task at a time, such as a single-thread
+   *     executor.
+   * @param scheduler Runs delayed flushes.
+   * @param maxBatchSize Number of pending workouts that triggers an immediate flush; also the
+   *                     largest batch sent in one request.
+   * @param maxDelayMillis Longest time a workout waits before a flush is attempted, while uploads
+   *                       succeed; also the delay before the first retry.
+   * @param maxBackoffMillis Longest delay between retries after consecutive failures.
+   */
+  public UploadQueue(WorkoutSink sink, File file, Executor io, Scheduler scheduler,
+      int maxBatchSize, long maxDelayMillis, long maxBackoffMillis) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize=" + maxBatchSize);
+    }
+    if (maxBackoffMillis < maxDelayMillis) {
+      throw new IllegalArgumentException(
+          "maxBackoffMillis=" + maxBackoffMillis + " < maxDelayMillis=" + maxDelayMillis);
+    }
+    this.sink = sink;
+    this.file = file;
+    this.io = io;
+    this.scheduler = scheduler;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayMillis = maxDelayMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Reads the workouts persisted by an earlier session on the I/O executor, then queues them for
+   * upload through the scheduler. Workouts queued in the meantime are newer and win. Call it before
+   * anything else is queued, so the file is read before it is first rewritten.
+   */
+  public void load() {
+    if (file == null) {
+      return;
+    }
+    io.execute(new Runnable() {
+      @Override
+      public void run() {
+        final List<PendingWorkout> loaded = read(file);
+        scheduler.schedule(new Runnable() {
+          @Override
+          public void run() {
+            addLoaded(loaded);
+          }
+        }, 0);
+      }
+    });
+  }
+
+  /** Queues {@code workout}, replacing a pending workout of the same user and day. */
+  public void enqueue(PendingWorkout workout) {
+    enqueuedCount++;
+    if (pending.remove(workout.getId()) != null) {
+      coalescedCount++;
+    }
+    pending.put(workout.getId(), workout);
+    save();
+    if (pending.size() >= maxBatchSize && consecutiveFailures == 0) {
+      flush();
+    } else {
+      scheduleFlush();
+    }
+  }
+
+  /** Uploads the next batch of pending workouts now, unless a batch is already in flight. */
+  public void flush() {
+    if (flushing || pending.isEmpty()) {
+      return;
+    }
+    flushing = true;
+    final List<PendingWorkout> batch = new ArrayList<>();
+    Iterator<PendingWorkout> it = pending.values().iterator();
+    while (it.hasNext() && batch.size() < maxBatchSize) {
+      batch.add(it.next());
+      it.remove();
+    }
+    inFlight = batch;
+    requestCount++;
+    sink.upsert(batch, new WorkoutSink.Callback() {
+      @Override
+      public void onSuccess() {
+        flushing = false;
+        // Workouts held back by a backoff have waited long enough; send them right away rather
+        // than on the flush the backoff scheduled.
+        boolean recovered = consecutiveFailures > 0;
+        if (recovered) {
+          consecutiveFailures = 0;
+          flushScheduled = false;
+        }
+        inFlight = new ArrayList<>();
+        uploadedCount += batch.size();
+        save();
+        if (listener != null) {
+          listener.onFlushed(batch);
+        }
+        if ((recovered && !pending.isEmpty()) || pending.size() >= maxBatchSize
+            || (!flushAllCallbacks.isEmpty() && !pending.isEmpty())) {
+          flush();
+        } else {
+          scheduleFlush();
+          notifyFlushAll(null);
+        }
+      }
+
+      @Override
+      public void onError(Exception e) {
+        flushing = false;
+        failedRequestCount++;
+        consecutiveFailures++;
+        // Put the batch back ahead of the workouts queued behind it.
+        Map<String, PendingWorkout> requeued = withInFlight(batch);
+        inFlight = new ArrayList<>();
+        pending.clear();
+        pending.putAll(requeued);
+        save();
+        if (listener != null) {
+          listener.onFlushFailed(batch, e);
+        }
+        // Replace any flush scheduled while the batch was in flight with one that backs off.
+        flushScheduled = false;
+        scheduleFlush();
+        notifyFlushAll(e);
+      }
+    });
+  }
+
+  /**
+   * Uploads every pending workout, a batch at a time, then calls {@code callback} on success, or
+   * with the error of the first batch that fails. Batches already in flight count.
+   */
+  public void flushAll(WorkoutSink.Callback callback) {
+    if (!flushing && pending.isEmpty()) {
+      callback.onSuccess();
+      return;
+    }
+    flushAllCallbacks.add(callback);
+    flush();
+  }
+
+  /** Returns the number of workouts waiting to be uploaded, including an in-flight batch. */
+  public int size() {
+    return withInFlight(inFlight).size();
+  }
+
+  /** Returns how many workouts were queued this session. */
+  public long getEnqueuedCount() {
+    return enqueuedCount;
+  }
+
+  /** Returns how many queued workouts replaced a pending one for the same user and day. */
+  public long getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  /** Returns how many workouts were uploaded this session. */
+  public long getUploadedCount() {
+    return uploadedCount;
+  }
+
+  /** Returns how many upload requests were sent this session. */
+  public long getRequestCount() {
+    return requestCount;
+  }
+
+  /** Returns how many upload requests failed this session. */
+  public long getFailedRequestCount() {
+    return failedRequestCount;
+  }
+
+  /** Completes the flushAll() calls, successfully if {@code error} is null. */
+  private void notifyFlushAll(Exception error) {
+    List<WorkoutSink.Callback> callbacks = new ArrayList<>(flushAllCallbacks);
+    flushAllCallbacks.clear();
+    for (WorkoutSink.Callback callback : callbacks) {
+      if (error == null) {
+        callback.onSuccess();
+      } else {
+        callback.onError(error);
+      }
+    }
+  }
+
+  /** Puts {@code loaded} ahead of the workouts queued since, unless they are in flight. */
+  private void addLoaded(List<PendingWorkout> loaded) {
+    if (loaded.isEmpty()) {
+      return;
+    }
+    Map<String, PendingWorkout> merged = new LinkedHashMap<>();
+    for (PendingWorkout workout : loaded) {
+      merged.put(workout.getId(), workout);
+    }
+    for (PendingWorkout workout : inFlight) {
+      merged.remove(workout.getId());
+    }
+    for (PendingWorkout workout : pending.values()) {
+      merged.remove(workout.getId());
+      merged.put(workout.getId(), workout);
+    }
+    pending.clear();
+    pending.putAll(merged);
+    // Rewrites made before the load finished left the loaded workouts out.
+    save();
+    scheduleFlush();
+  }
+
+  /**
+   * Returns {@code batch} followed by the pending workouts. Workouts queued for the same user and
+   * day while the batch was in flight are newer and win.
+   */
+  private Map<String, PendingWorkout> withInFlight(List<PendingWorkout> batch) {
+    Map<String, PendingWorkout> merged = new LinkedHashMap<>();
+    for (PendingWorkout workout : batch) {
+      merged.put(workout.getId(), workout);
+    }
+    for (PendingWorkout workout : pending.values()) {
+      merged.remove(workout.getId());
+      merged.put(workout.getId(), workout);
+    }
+    return merged;
+  }
+
+  private void scheduleFlush() {
+    if (flushScheduled || pending.isEmpty()) {
+      return;
+    }
+    flushScheduled = true;
+    final int generation = ++scheduleGeneration;
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (generation != scheduleGeneration) {
+          return;
+        }
+        flushScheduled = false;
+        flush();
+      }
+    }, getFlushDelayMillis());
+  }
+
+  /** Returns how long the next scheduled flush waits: doubled per consecutive failure, capped. */
+  private long getFlushDelayMillis() {
+    long delay = maxDelayMillis;
+    for (int i = 1; i < consecutiveFailures && delay < maxBackoffMillis; i++) {
+      delay *= 2;
+    }
+    return Math.min(delay, maxBackoffMillis);
+  }
+
+  /**
+   * Writes the queue, including any in-flight batch, which is only dropped from the file once it
+   * has been uploaded. The write runs on the I/O executor; one still waiting there takes these
+   * contents instead of its own.
+   */
+  private void save() {
+    if (file == null) {
+      return;
+    }
+    List<PendingWorkout> queued = new ArrayList<>(withInFlight(inFlight).values());
+    if (unsaved.getAndSet(queued) != null) {
+      return;
+    }
+    io.execute(new Runnable() {
+      @Override
+      public void run() {
+        write(file, unsaved.getAndSet(null));
+      }
+    });
+  }
+
+  private static List<PendingWorkout> read(File file) {
+    List<PendingWorkout> loaded = new ArrayList<>();
+    if (!file.exists()) {
+      return loaded;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      int version = in.readInt();
+      if (version == FILE_VERSION || version == FILE_VERSION_STRING_DATES) {
+        for (int i = in.readInt(); i > 0; i--) {
+          loaded.add(readWorkout(in, version));
+        }
+      }
+    } catch (IOException e) {
+      // Keep whatever was read before the error.
+    } finally {
+      closeQuietly(in);
+    }
+    return loaded;
+  }
+
+  private static void write(File file, List<PendingWorkout> queued) {
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeInt(FILE_VERSION);
+      out.writeInt(queued.size());
+      for (PendingWorkout workout : queued) {
+        writeWorkout(out, workout);
+      }
+      out.close();
+      out = null;
+      if (!tmp.renameTo(file)) {
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      // The queue still works from memory; only an offline restart would lose it.
+    } finally {
+      closeQuietly(out);
+    }
+  }
+
+  private static void writeWorkout(DataOutputStream out, PendingWorkout workout)
+      throws IOException {
+    out.writeUTF(workout.getId());
+    out.writeBoolean(workout.getEmail() != null);
+    if (workout.getEmail() != null) {
+      out.writeUTF(workout.getEmail());
+    }
+    out.writeInt(workout.getSteps());
+    out.writeLong(workout.getRecordedAt());
+  }
+
+  private static PendingWorkout readWorkout(DataInputStream in, int version) throws IOException {
+    String id = in.readUTF();
+    String email = in.readBoolean() ? in.readUTF() : null;
+    int steps = in.readInt();
+    if (version == FILE_VERSION_STRING_DATES) {
+      in.readUTF();
+    }
+    long recordedAt = in.readLong();
+    return new PendingWorkout(id, email, steps, recordedAt);
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Nothing left to do.
+      }
+    }
+  }
+}
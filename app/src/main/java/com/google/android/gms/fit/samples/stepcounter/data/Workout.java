@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+/**
+ * One uploaded workout, as stored in the {@code workouts} collection.
+ */
+public class Workout {
+
+  private final String id;
+  private final String email;
+  private final int steps;
+  private final long recordedAt;
+  private final long uploaded;
+
+  /**
+   * @param id Document id of the workout.
+   * @param email Account that uploaded the workout. May be null for old documents.
+   * @param steps Step count of the workout.
+   * @param recordedAt When the user recorded the workout, in epoch millis, or 0 if unknown.
+   * @param uploaded Server upload time in epoch millis, or 0 if the document predates it.
+   */
+  public Workout(String id, String email, int steps, long recordedAt, long uploaded) {
+    this.id = id;
+    this.email = email;
+    this.steps = steps;
+    this.recordedAt = recordedAt;
+    this.uploaded = uploaded;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getEmail() {
+    return email;
+  }
+
+  public int getSteps() {
+    return steps;
+  }
+
+  public long getRecordedAt() {
+    return recordedAt;
+  }
+
+  public long getUploaded() {
+    return uploaded;
+  }
+}
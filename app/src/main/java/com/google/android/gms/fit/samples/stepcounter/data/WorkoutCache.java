@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Local copy of the {@code workouts} collection.
+ *
+ * <p>Workouts that have already been seen are kept in memory and in an append-only file, so a
+ * refresh only asks the {@link WorkoutSource} for workouts uploaded after the newest one we have
+ * (the high-water mark). Queries are then answered from memory. The file is rewritten on load once
+ * it holds more replaced records than live ones.</p>
+ *
+ * <p>Confined to the background executor of a {@link TaskScope}, so merging a large fetch and
+ * appending it to the file never hold up the main thread. {@link #refresh} may be called from any
+ * thread; {@link #load}, {@link #addImported} and the getters must be called on the background
+ * executor. The refresh result and the {@link Listener} are delivered on the main thread.</p>
+ */
+public class WorkoutCache {
+
+  /** Notified when a fetched workout replaces a cached one with the same id. */
+  public interface Listener {
+    void onWorkoutReplaced(Workout previous, Workout current);
+  }
+
+  private static final int FILE_VERSION = 2;
+  // Stored the display date as a string instead of the recording time.
+  private static final int FILE_VERSION_STRING_DATES = 1;
+  // Written in place of a version after the whole collection was fetched; no workout follows it.
+  private static final int RECORD_SYNCED = -1;
+  // Replaced records tolerated in the file before load() compacts it, however few live ones.
+  private static final int MIN_STALE_RECORDS_TO_COMPACT = 256;
+  private static final Executor CALLING_THREAD = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      task.run();
+    }
+  };
+
+  private final WorkoutSource source;
+  private final File file;
+  private final TaskScope scope;
+  // Only touched on the main thread.
+  private Listener listener;
+  // Only touched on the scope's background executor.
+  private final Map<String, Workout> workouts = new LinkedHashMap<>();
+  private long highWaterMark;
+  private boolean synced;
+
+  /**
+   * Creates a cache that does all its work on the calling thread, for callers that use it from a
+   * single thread.
+   *
+   * @see #WorkoutCache(WorkoutSource, File, TaskScope)
+   */
+  public WorkoutCache(WorkoutSource source, File file) {
+    this(source, file, new TaskScope(CALLING_THREAD, CALLING_THREAD));
+  }
+
+  /**
+   * @param source Where new workouts are fetched from.
+   * @param file File the cache is persisted to, or null to keep it in memory only.
+   * @param scope Its background executor must run one task at a time, such as a single-thread
+   *     executor.
+   */
+  public WorkoutCache(WorkoutSource source, File file, TaskScope scope) {
+    this.source = source;
+    this.file = file;
+    this.scope = scope;
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Loads previously persisted workouts. A truncated or unreadable file is treated as the end of
+   * the cache; anything that was lost is fetched again on the next refresh.
+   *
+   * <p>Replaced workouts are appended again rather than overwritten, so the file is compacted to
+   * the latest record of each workout once stale records outnumber live ones, or when the read
+   * stopped at a damaged record that later appends would otherwise sit behind.</p>
+   *
+   * @return The workouts that were loaded, in upload order.
+   */
+  public List<Workout> load() {
+    if (file == null || !file.exists()) {
+      return new ArrayList<>();
+    }
+    int records = 0;
+    boolean damaged = true;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      while (true) {
+        int version;
+        try {
+          version = in.readInt();
+        } catch (EOFException e) {
+          damaged = false;
+          break;
+        }
+        if (version == RECORD_SYNCED) {
+          synced = true;
+          continue;
+        }
+        if (version != FILE_VERSION && version != FILE_VERSION_STRING_DATES) {
+          break;
+        }
+        // A replaced workout is appended again; the later record wins.
+        Workout workout = readWorkout(in, version);
+        workouts.remove(workout.getId());
+        put(workout);
+        records++;
+      }
+    } catch (EOFException e) {
+      // Reached a record that was only partly written.
+    } catch (IOException e) {
+      // Keep whatever was read before the error.
+    } finally {
+      closeQuietly(in);
+    }
+    int stale = records - workouts.size();
+    if (damaged || (stale >= MIN_STALE_RECORDS_TO_COMPACT && stale > workouts.size())) {
+      compact();
+    }
+    return new ArrayList<>(workouts.values());
+  }
+
+  /**
+   * Fetches workouts uploaded after the high-water mark and adds them to the cache. The callback
+   * receives only the workouts that were new to the cache; workouts that replaced a cached one are
+   * reported to the {@link Listener} instead, just before it.
+   */
+  public void refresh(final WorkoutSource.Callback callback) {
+    scope.getBackground().execute(new Runnable() {
+      @Override
+      public void run() {
+        // Workouts uploaded before the upload timestamp existed never pass the high-water mark,
+        // so they are only fetched by the first refresh.
+        final boolean fullFetch = !synced;
+        long after = fullFetch ? WorkoutSource.ALL : highWaterMark;
+        source.fetchNewerThan(after, new WorkoutSource.Callback() {
+          @Override
+          public void onResult(final List<Workout> fetched) {
+            scope.getBackground().execute(new Runnable() {
+              @Override
+              public void run() {
+                merge(fetched, fullFetch, callback);
+              }
+            });
+          }
+
+          @Override
+          public void onError(final Exception e) {
+            scope.deliver(new Runnable() {
+              @Override
+              public void run() {
+                callback.onError(e);
+              }
+            });
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Adds workouts obtained outside of a refresh, such as from an export archive. Workouts already
+   * cached are skipped. The rest are stored with an unknown upload time, so they never move the
+   * high-water mark past workouts not fetched yet; a refresh that later fetches the same id reports
+   * it to the {@link Listener} as a replacement.
+   *
+   * @return The workouts that were new to the cache.
+   */
+  public List<Workout> addImported(List<Workout> imported) {
+    List<Workout> added = new ArrayList<>();
+    for (Workout workout : imported) {
+      if (!workouts.containsKey(workout.getId())) {
+        Workout unsynced = new Workout(workout.getId(), workout.getEmail(), workout.getSteps(),
+            workout.getRecordedAt(), 0);
+        put(unsynced);
+        added.add(unsynced);
+      }
+    }
+    append(added, false);
+    return added;
+  }
+
+  /** Returns every cached workout, in upload order. */
+  public Collection<Workout> getAll() {
+    return workouts.values();
+  }
+
+  /** Returns the cached workouts uploaded by {@code email}, oldest first. */
+  public List<Workout> getForEmail(String email) {
+    List<Workout> result = new ArrayList<>();
+    for (Workout workout : workouts.values()) {
+      if (email != null && email.equals(workout.getEmail())) {
+        result.add(workout);
+      }
+    }
+    return result;
+  }
+
+  /** Returns the upload time of the newest cached workout, in epoch millis. */
+  public long getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  public int size() {
+    return workouts.size();
+  }
+
+  /**
+   * Adds a fetch to the cache and its file, then delivers what changed. Runs on the background
+   * executor.
+   */
+  private void merge(List<Workout> fetched, boolean fullFetch,
+      final WorkoutSource.Callback callback) {
+    final List<Workout> added = new ArrayList<>();
+    final List<Workout> changed = new ArrayList<>();
+    final List<Workout> replaced = new ArrayList<>();
+    for (Workout workout : fetched) {
+      Workout previous = workouts.get(workout.getId());
+      if (previous == null) {
+        added.add(workout);
+      } else if (previous.getUploaded() != workout.getUploaded()) {
+        changed.add(workout);
+        replaced.add(previous);
+      }
+      // Re-put so a replaced workout moves to the end, keeping the map ordered by upload.
+      workouts.remove(workout.getId());
+      put(workout);
+    }
+    synced = true;
+    List<Workout> written = new ArrayList<>(changed);
+    written.addAll(added);
+    append(written, fullFetch);
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        if (listener != null) {
+          for (int i = 0; i < replaced.size(); i++) {
+            listener.onWorkoutReplaced(replaced.get(i), changed.get(i));
+          }
+        }
+        callback.onResult(added);
+      }
+    });
+  }
+
+  private void put(Workout workout) {
+    workouts.put(workout.getId(), workout);
+    highWaterMark = Math.max(highWaterMark, workout.getUploaded());
+  }
+
+  private void append(List<Workout> added, boolean markSynced) {
+    if (file == null || (added.isEmpty() && !markSynced)) {
+      return;
+    }
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+      write(out, added, markSynced);
+    } catch (IOException e) {
+      // The cache still works from memory; the workouts are fetched again after a restart.
+    } finally {
+      closeQuietly(out);
+    }
+  }
+
+  /** Rewrites the file with only the latest record of each workout. */
+  private void compact() {
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    boolean written = false;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      write(out, workouts.values(), synced);
+      out.close();
+      out = null;
+      written = tmp.renameTo(file);
+    } catch (IOException e) {
+      // Keep appending to the old file; compaction is tried again on the next load.
+    } finally {
+      closeQuietly(out);
+      if (!written) {
+        tmp.delete();
+      }
+    }
+  }
+
+  private static void write(DataOutputStream out, Collection<Workout> workouts, boolean synced)
+      throws IOException {
+    for (Workout workout : workouts) {
+      out.writeInt(FILE_VERSION);
+      writeWorkout(out, workout);
+    }
+    // Last, so a write cut short leaves the cache unsynced and the next refresh fetches it all.
+    if (synced) {
+      out.writeInt(RECORD_SYNCED);
+    }
+  }
+
+  private static void writeWorkout(DataOutputStream out, Workout workout) throws IOException {
+    out.writeUTF(workout.getId());
+    writeNullableString(out, workout.getEmail());
+    out.writeInt(workout.getSteps());
+    out.writeLong(workout.getRecordedAt());
+    out.writeLong(workout.getUploaded());
+  }
+
+  private static Workout readWorkout(DataInputStream in, int version) throws IOException {
+    String id = in.readUTF();
+    String email = readNullableString(in);
+    int steps = in.readInt();
+    long recordedAt = version == FILE_VERSION_STRING_DATES
+        ? WorkoutFormat.parseLegacyDate(readNullableString(in))
+        : in.readLong();
+    long uploaded = in.readLong();
+    return new Workout(id, email, steps, recordedAt, uploaded);
+  }
+
+  private static void writeNullableString(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  private static String readNullableString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Nothing left to do.
+      }
+    }
+  }
+}
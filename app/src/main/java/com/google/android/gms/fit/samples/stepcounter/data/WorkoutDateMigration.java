@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts {@code workouts} documents that still store a display date string in
+ * {@link FirestoreWorkoutSource#FIELD_DATE} to an epoch millis
+ * {@link FirestoreWorkoutSource#FIELD_RECORDED_AT}, so they sort and range-query like new ones.
+ *
+ * <p>Documents are converted a page at a time, each page in one {@link WriteBatch}. A date that
+ * can't be parsed is left as it is; readers fall back to it anyway. Running the migration again
+ * only finds what is left.</p>
+ */
+public class WorkoutDateMigration {
+
+  // Firestore limit on the writes of one batch.
+  private static final int PAGE_SIZE = 500;
+
+  public interface Callback {
+    void onMigrated(int documents);
+
+    void onError(Exception e);
+  }
+
+  private final FirebaseFirestore db;
+  private final TaskScope scope;
+
+  public WorkoutDateMigration(FirebaseFirestore db, TaskScope scope) {
+    this.db = db;
+    this.scope = scope;
+  }
+
+  public void run(Callback callback) {
+    migratePage(null, 0, callback);
+  }
+
+  private void migratePage(DocumentSnapshot after, final int migrated, final Callback callback) {
+    // Ordering by the date field only returns documents that still have one.
+    Query query = db.collection(FirestoreWorkoutSource.COLLECTION)
+        .orderBy(FirestoreWorkoutSource.FIELD_DATE)
+        .limit(PAGE_SIZE);
+    if (after != null) {
+      query = query.startAfter(after);
+    }
+    query.get().addOnCompleteListener(scope.getBackground(),
+        new OnCompleteListener<QuerySnapshot>() {
+          @Override
+          public void onComplete(@NonNull Task<QuerySnapshot> task) {
+            if (scope.isCancelled()) {
+              return;
+            }
+            if (!task.isSuccessful()) {
+              fail(task.getException(), callback);
+              return;
+            }
+            QuerySnapshot page = task.getResult();
+            WriteBatch batch = db.batch();
+            DocumentSnapshot last = null;
+            int converted = 0;
+            for (DocumentSnapshot document : page) {
+              last = document;
+              long recordedAt = FirestoreWorkoutSource.parseRecordedAt(document);
+              if (recordedAt == 0) {
+                continue;
+              }
+              Map<String, Object> update = new HashMap<>();
+              update.put(FirestoreWorkoutSource.FIELD_RECORDED_AT, recordedAt);
+              update.put(FirestoreWorkoutSource.FIELD_DATE, FieldValue.delete());
+              batch.update(document.getReference(), update);
+              converted++;
+            }
+            final DocumentSnapshot cursor = last;
+            final int total = migrated + converted;
+            final boolean done = page.size() < PAGE_SIZE;
+            if (converted == 0) {
+              next(cursor, total, done, callback);
+              return;
+            }
+            batch.commit().addOnCompleteListener(scope.getBackground(),
+                new OnCompleteListener<Void>() {
+                  @Override
+                  public void onComplete(@NonNull Task<Void> commit) {
+                    if (commit.isSuccessful()) {
+                      next(cursor, total, done, callback);
+                    } else {
+                      fail(commit.getException(), callback);
+                    }
+                  }
+                });
+          }
+        });
+  }
+
+  private void next(DocumentSnapshot cursor, final int migrated, boolean done,
+      final Callback callback) {
+    if (!done) {
+      migratePage(cursor, migrated, callback);
+      return;
+    }
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        callback.onMigrated(migrated);
+      }
+    });
+  }
+
+  private void fail(final Exception e, final Callback callback) {
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        callback.onError(e);
+      }
+    });
+  }
+}
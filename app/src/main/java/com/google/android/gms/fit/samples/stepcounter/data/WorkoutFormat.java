@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Converts workout timestamps and numbers between their stored and displayed forms.
+ *
+ * <p>Workouts store when they were recorded as epoch millis, and are only formatted when shown.
+ * {@link SimpleDateFormat} and {@link DecimalFormat} are expensive to create and not thread-safe,
+ * so each thread gets its own instances, created on first use and reused after that.</p>
+ */
+public final class WorkoutFormat {
+
+  /** Pattern of the display dates, which older workout documents also stored as strings. */
+  public static final String DATE_PATTERN = "MM/dd/yyyy, HH:mm";
+  private static final String DAY_PATTERN = "yyyyMMdd";
+  private static final String PERCENT_PATTERN = "#,###,##0.00";
+
+  private static final ThreadLocal<DateFormat> DATE = new ThreadLocal<DateFormat>() {
+    @Override
+    protected DateFormat initialValue() {
+      return new SimpleDateFormat(DATE_PATTERN);
+    }
+  };
+
+  // Part of document ids, so always in ASCII digits whatever the locale.
+  private static final ThreadLocal<DateFormat> DAY = new ThreadLocal<DateFormat>() {
+    @Override
+    protected DateFormat initialValue() {
+      return new SimpleDateFormat(DAY_PATTERN, Locale.US);
+    }
+  };
+
+  private static final ThreadLocal<DecimalFormat> PERCENT = new ThreadLocal<DecimalFormat>() {
+    @Override
+    protected DecimalFormat initialValue() {
+      return new DecimalFormat(PERCENT_PATTERN);
+    }
+  };
+
+  private WorkoutFormat() {
+  }
+
+  /** Formats {@code timeMillis} for display, in the device's current time zone. */
+  public static String formatDate(long timeMillis) {
+    return format(DATE.get(), timeMillis);
+  }
+
+  /**
+   * Returns the local day of {@code timeMillis} as {@code yyyyMMdd}, as used in workout ids; see
+   * {@link PendingWorkout#idFor(String, String)}.
+   */
+  public static String formatDay(long timeMillis) {
+    return format(DAY.get(), timeMillis);
+  }
+
+  /**
+   * Parses the {@code steps} field value of a workout document. Firestore hands back integers as
+   * {@link Long}; anything else is parsed from its string form rather than going through
+   * {@code toString()} every time.
+   */
+  public static int parseSteps(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    return value == null ? 0 : Integer.parseInt(value.toString());
+  }
+
+  /** Formats a percentage, e.g. {@code 1,234.50}, without a percent sign. */
+  public static String formatPercent(double percent) {
+    return PERCENT.get().format(percent);
+  }
+
+  /**
+   * Parses a date stored as a string by older versions of the app, in the device's current time
+   * zone.
+   *
+   * @return The date in epoch millis, or 0 if {@code date} is null or not a date.
+   */
+  public static long parseLegacyDate(String date) {
+    if (date == null) {
+      return 0;
+    }
+    DateFormat format = DATE.get();
+    format.setTimeZone(TimeZone.getDefault());
+    Date parsed = format.parse(date, new ParsePosition(0));
+    return parsed == null ? 0 : parsed.getTime();
+  }
+
+  private static String format(DateFormat format, long timeMillis) {
+    // The device's time zone can change while the app runs; setting it is far cheaper than a new
+    // format.
+    format.setTimeZone(TimeZone.getDefault());
+    return format.format(new Date(timeMillis));
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import java.util.List;
+
+/**
+ * Remote destination of uploaded workouts. Each call to {@link #upsert(List, Callback)} is one
+ * request to the backend.
+ */
+public interface WorkoutSink {
+
+  /** Receives the outcome of an upsert. */
+  interface Callback {
+    void onSuccess();
+
+    void onError(Exception e);
+  }
+
+  /**
+   * Writes {@code batch} in a single request, replacing any stored workout with the same id.
+   * Either every workout in the batch is written or none is.
+   */
+  void upsert(List<PendingWorkout> batch, Callback callback);
+}
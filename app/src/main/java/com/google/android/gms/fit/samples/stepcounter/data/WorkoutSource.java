@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import java.util.List;
+
+/**
+ * Remote collection of uploaded workouts. The app talks to Firestore through
+ * {@link FirestoreWorkoutSource}; anything else (an in-memory list, for instance) can stand in
+ * for it behind this interface.
+ */
+public interface WorkoutSource {
+
+  /** Passed to {@link #fetchNewerThan} to fetch the whole collection. */
+  long ALL = -1;
+
+  /** Receives the result of a fetch. */
+  interface Callback {
+    void onResult(List<Workout> workouts);
+
+    void onError(Exception e);
+  }
+
+  /**
+   * Fetches every workout uploaded strictly after {@code uploaded}, oldest first. Workouts that
+   * predate the upload timestamp are only returned when passing {@link #ALL}, which fetches the
+   * whole collection.
+   */
+  void fetchNewerThan(long uploaded, Callback callback);
+}
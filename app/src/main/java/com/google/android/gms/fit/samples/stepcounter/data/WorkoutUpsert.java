@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import com.google.android.gms.fit.samples.stepcounter.counters.ShardedCounter;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.LeaderboardRollup;
+import com.google.android.gms.fit.samples.stepcounter.summary.SummaryRollup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * The reads and writes of uploading a batch of workouts in one transaction, for
+ * {@link FirestoreWorkoutSink}. Every document it writes besides the workouts and their users'
+ * summaries is one of a few shards, picked by workout id or at random, so uploads of many users
+ * on the same day spread over several documents.
+ */
+final class WorkoutUpsert {
+
+  private WorkoutUpsert() {
+  }
+
+  /**
+   * Writes {@code batch}, and counts it into the leaderboards, summaries and daily counts.
+   * Firestore requires every read of a transaction to happen before its first write, so all of
+   * them come first.
+   *
+   * @param uploaded Value of the {@code uploaded} field, e.g. a server timestamp.
+   */
+  static <E extends Exception> void apply(Documents<E> documents, List<PendingWorkout> batch,
+      ShardedCounter dailyCounter, Object uploaded, long now, TimeZone timeZone) throws E {
+    List<Map<String, Object>> existing = new ArrayList<>(batch.size());
+    for (PendingWorkout workout : batch) {
+      existing.add(documents.get(path(workout)));
+    }
+    LeaderboardRollup.Update ranking =
+        LeaderboardRollup.read(documents, batch, existing, now, timeZone);
+    List<SummaryRollup.Update> rollups = new ArrayList<>();
+    for (Map.Entry<String, List<PendingWorkout>> user : byEmail(batch).entrySet()) {
+      rollups.add(SummaryRollup.read(documents, user.getKey(), user.getValue(), timeZone));
+    }
+    List<ShardedCounter.Increment> increments = new ArrayList<>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      PendingWorkout workout = batch.get(i);
+      Map<String, Object> previous = existing.get(i);
+      // A user counts as active once per day: when their workout for it is first written.
+      long previousSteps = previous != null
+          ? WorkoutFormat.parseSteps(previous.get(FirestoreWorkoutSource.FIELD_STEPS))
+          : 0;
+      increments.add(new ShardedCounter.Increment(
+          WorkoutFormat.formatDay(workout.getRecordedAt()),
+          workout.getEmail(),
+          new ShardedCounter.Totals(workout.getSteps() - previousSteps,
+              previous != null ? 0 : 1)));
+    }
+    ShardedCounter.Update counts = dailyCounter.read(documents, increments);
+
+    for (PendingWorkout workout : batch) {
+      documents.set(path(workout), toMap(workout, uploaded));
+    }
+    ranking.write(documents);
+    for (SummaryRollup.Update rollup : rollups) {
+      rollup.write(documents);
+    }
+    counts.write(documents);
+  }
+
+  static String path(PendingWorkout workout) {
+    return FirestoreWorkoutSource.COLLECTION + "/" + workout.getId();
+  }
+
+  private static Map<String, List<PendingWorkout>> byEmail(List<PendingWorkout> batch) {
+    Map<String, List<PendingWorkout>> byEmail = new LinkedHashMap<>();
+    for (PendingWorkout workout : batch) {
+      List<PendingWorkout> workouts = byEmail.get(workout.getEmail());
+      if (workouts == null) {
+        workouts = new ArrayList<>();
+        byEmail.put(workout.getEmail(), workouts);
+      }
+      workouts.add(workout);
+    }
+    return byEmail;
+  }
+
+  private static Map<String, Object> toMap(PendingWorkout workout, Object uploaded) {
+    Map<String, Object> map = new HashMap<>();
+    map.put(FirestoreWorkoutSource.FIELD_EMAIL, workout.getEmail());
+    map.put(FirestoreWorkoutSource.FIELD_STEPS, workout.getSteps());
+    map.put(FirestoreWorkoutSource.FIELD_RECORDED_AT, workout.getRecordedAt());
+    map.put(FirestoreWorkoutSource.FIELD_UPLOADED, uploaded);
+    map.put(LeaderboardRollup.FIELD_RANKED, true);
+    return map;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.export;
+
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Streams workouts out of an archive written by {@link WorkoutArchiveWriter}, one record at a
+ * time. Nothing is read until the first call to {@link #read()} or {@link #getEmail()}.
+ *
+ * <p>Not thread-safe.</p>
+ */
+public class WorkoutArchiveReader implements Closeable {
+
+  // Far above any email or document id, but low enough that a damaged length can't exhaust memory.
+  private static final int MAX_STRING_BYTES = 4096;
+
+  private ReadableByteChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(WorkoutArchiveWriter.BUFFER_SIZE);
+  private boolean headerRead;
+  private boolean ended;
+  private String email;
+  private String idPrefix;
+  private long previousRecordedAt;
+  private long previousDay;
+
+  /**
+   * @param channel The archive. The reader closes it on {@link #close()}.
+   */
+  public WorkoutArchiveReader(ReadableByteChannel channel) {
+    this.channel = channel;
+    buffer.flip();
+  }
+
+  /** Returns the account the archived workouts belong to, or null. */
+  public String getEmail() throws IOException {
+    readHeader();
+    return email;
+  }
+
+  /** Returns the next workout, or null after the last one. */
+  public Workout read() throws IOException {
+    readHeader();
+    if (ended) {
+      return null;
+    }
+    String id;
+    int tag = nextByte();
+    switch (tag) {
+      case WorkoutArchiveWriter.TAG_END:
+        ended = true;
+        return null;
+      case WorkoutArchiveWriter.TAG_DAY_ID:
+        previousDay += unzigzag(readVarLong());
+        id = idPrefix + previousDay;
+        break;
+      case WorkoutArchiveWriter.TAG_EXPLICIT_ID:
+        id = new String(readBytes(readLength()), WorkoutArchiveWriter.UTF_8);
+        break;
+      default:
+        throw new IOException("Unknown record tag " + tag);
+    }
+    long recordedAt = previousRecordedAt + unzigzag(readVarLong());
+    int steps = (int) unzigzag(readVarLong());
+    long uploaded = recordedAt + unzigzag(readVarLong());
+    previousRecordedAt = recordedAt;
+    return new Workout(id, email, steps, recordedAt, uploaded);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /** Returns the part of the workout ids of {@code email} before the day. */
+  static String idPrefix(String email) {
+    return PendingWorkout.idFor(email, "");
+  }
+
+  private void readHeader() throws IOException {
+    if (headerRead) {
+      return;
+    }
+    // Until the header has been read, bytes come from the raw channel one at a time, so nothing
+    // past the header is consumed before the decompressor is put in front of it.
+    if (readExactly(4).getInt() != WorkoutArchiveWriter.MAGIC) {
+      throw new IOException("Not a workout archive");
+    }
+    int version = nextByte();
+    if (version != WorkoutArchiveWriter.VERSION) {
+      throw new IOException("Unsupported archive version " + version);
+    }
+    int flags = nextByte();
+    int emailLength = readLength();
+    email = emailLength == 0
+        ? null
+        : new String(readBytes(emailLength - 1), WorkoutArchiveWriter.UTF_8);
+    idPrefix = idPrefix(email);
+    if ((flags & WorkoutArchiveWriter.FLAG_DEFLATE) != 0) {
+      channel = Channels.newChannel(new InflaterInputStream(
+          Channels.newInputStream(channel), new Inflater(), WorkoutArchiveWriter.BUFFER_SIZE));
+    }
+    headerRead = true;
+  }
+
+  private ByteBuffer readExactly(int bytes) throws IOException {
+    ByteBuffer exact = ByteBuffer.allocate(bytes);
+    while (exact.hasRemaining()) {
+      if (channel.read(exact) < 0) {
+        throw new EOFException();
+      }
+    }
+    exact.flip();
+    return exact;
+  }
+
+  private int nextByte() throws IOException {
+    if (!headerRead) {
+      return readExactly(1).get() & 0xFF;
+    }
+    if (!buffer.hasRemaining()) {
+      fill();
+    }
+    return buffer.get() & 0xFF;
+  }
+
+  private void fill() throws IOException {
+    buffer.compact();
+    int read = 0;
+    while (read == 0) {
+      read = channel.read(buffer);
+    }
+    buffer.flip();
+    if (read < 0 && !buffer.hasRemaining()) {
+      throw new EOFException();
+    }
+  }
+
+  private byte[] readBytes(int length) throws IOException {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) nextByte();
+    }
+    return bytes;
+  }
+
+  private int readLength() throws IOException {
+    long length = readVarLong();
+    if (length < 0 || length > MAX_STRING_BYTES) {
+      throw new IOException("Bad length " + length);
+    }
+    return (int) length;
+  }
+
+  private long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = nextByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
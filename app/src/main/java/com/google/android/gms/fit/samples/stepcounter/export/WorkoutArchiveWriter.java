@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.export;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams workouts into a compact binary archive of one user's history. Records are encoded into a
+ * buffer and written to the channel a buffer at a time, so memory use doesn't depend on the number
+ * of workouts. Layout:
+ * <pre>
+ *   int    magic
+ *   byte   version
+ *   byte   flags; bit 0 set if everything after the header is deflate-compressed
+ *   varint email length in UTF-8 bytes plus one, 0 for no email
+ *   byte[] email
+ *   records, each:
+ *     byte   tag: END, DAY_ID (id is the email's prefix plus a day) or EXPLICIT_ID
+ *     DAY_ID:      zigzag varint day (yyyyMMdd) minus the previous record's day
+ *     EXPLICIT_ID: varint id length, UTF-8 bytes
+ *     zigzag varint recordedAt minus the previous record's recordedAt
+ *     zigzag varint steps
+ *     zigzag varint uploaded minus recordedAt
+ * </pre>
+ *
+ * <p>Workouts are exported newest first, about a day apart, so most records take a dozen bytes
+ * before compression.</p>
+ *
+ * <p>Not thread-safe.</p>
+ */
+public class WorkoutArchiveWriter implements Closeable {
+
+  static final int MAGIC = 0x53545058;
+  static final int VERSION = 1;
+  static final int FLAG_DEFLATE = 1;
+  static final int TAG_END = 0;
+  static final int TAG_DAY_ID = 1;
+  static final int TAG_EXPLICIT_ID = 2;
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  // Tag, four varints of at most ten bytes, and an id length.
+  private static final int MAX_FIXED_RECORD_BYTES = 1 + 4 * 10 + 5;
+
+  private final WritableByteChannel channel;
+  private final String idPrefix;
+  private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private long previousRecordedAt;
+  private long previousDay;
+  private int count;
+
+  /**
+   * Writes the archive header.
+   *
+   * @param channel Where the archive is written. The writer closes it on {@link #close()}.
+   * @param email Account the workouts belong to, or null.
+   * @param compress Whether to deflate the records.
+   */
+  public WorkoutArchiveWriter(WritableByteChannel channel, String email, boolean compress)
+      throws IOException {
+    this.idPrefix = WorkoutArchiveReader.idPrefix(email);
+    buffer.putInt(MAGIC);
+    buffer.put((byte) VERSION);
+    buffer.put((byte) (compress ? FLAG_DEFLATE : 0));
+    byte[] emailBytes = email == null ? null : email.getBytes(UTF_8);
+    writeVarLong(emailBytes == null ? 0 : emailBytes.length + 1);
+    if (emailBytes != null) {
+      ensure(emailBytes.length);
+      buffer.put(emailBytes);
+    }
+    drain(channel);
+    this.channel = compress
+        ? Channels.newChannel(new DeflaterOutputStream(
+            Channels.newOutputStream(channel), new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE))
+        : channel;
+  }
+
+  public void write(Workout workout) throws IOException {
+    String id = workout.getId();
+    long day = dayOf(id);
+    byte[] idBytes = day < 0 ? id.getBytes(UTF_8) : null;
+    ensure(MAX_FIXED_RECORD_BYTES + (idBytes == null ? 0 : idBytes.length));
+    if (idBytes == null) {
+      buffer.put((byte) TAG_DAY_ID);
+      writeVarLong(zigzag(day - previousDay));
+      previousDay = day;
+    } else {
+      buffer.put((byte) TAG_EXPLICIT_ID);
+      writeVarLong(idBytes.length);
+      buffer.put(idBytes);
+    }
+    writeVarLong(zigzag(workout.getRecordedAt() - previousRecordedAt));
+    writeVarLong(zigzag(workout.getSteps()));
+    writeVarLong(zigzag(workout.getUploaded() - workout.getRecordedAt()));
+    previousRecordedAt = workout.getRecordedAt();
+    count++;
+  }
+
+  /** Returns the number of workouts written so far. */
+  public int getCount() {
+    return count;
+  }
+
+  /** Ends the archive and closes the channel. */
+  @Override
+  public void close() throws IOException {
+    try {
+      ensure(1);
+      buffer.put((byte) TAG_END);
+      drain(channel);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /** Returns the day of a {@code email_yyyyMMdd} id, or -1 if the id has any other form. */
+  private long dayOf(String id) {
+    // At most nine digits and no leading zero, so the number converts back to the same id.
+    int digits = id.length() - idPrefix.length();
+    if (digits < 1 || digits > 9 || !id.startsWith(idPrefix)
+        || id.charAt(idPrefix.length()) == '0') {
+      return -1;
+    }
+    long day = 0;
+    for (int i = idPrefix.length(); i < id.length(); i++) {
+      char c = id.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      day = day * 10 + (c - '0');
+    }
+    return day;
+  }
+
+  private void ensure(int bytes) throws IOException {
+    if (buffer.remaining() >= bytes) {
+      return;
+    }
+    if (channel != null) {
+      drain(channel);
+    }
+    if (buffer.remaining() < bytes) {
+      ByteBuffer larger = ByteBuffer.allocate(buffer.position() + bytes);
+      buffer.flip();
+      larger.put(buffer);
+      buffer = larger;
+    }
+  }
+
+  private void drain(WritableByteChannel target) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      target.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private void writeVarLong(long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.export;
+
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+import com.google.android.gms.fit.samples.stepcounter.history.HistoryPageSource;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exports one user's whole workout history into a {@link WorkoutArchiveWriter}, page by page.
+ *
+ * <p>Each page is written on the background executor of a {@link TaskScope} while the next one is
+ * being fetched, so neither the network nor the file waits on the other, and only pages not written
+ * yet are held in memory. The background executor must run tasks one at a time, in order. Call
+ * it on the main thread; the callback runs there too.</p>
+ *
+ * @param <C> Cursor type of the page source.
+ */
+public class WorkoutExporter<C> {
+
+  /** Receives the outcome of an export. */
+  public interface Callback {
+    void onExported(int workouts);
+
+    void onError(Exception e);
+  }
+
+  private final HistoryPageSource<C> source;
+  private final int pageSize;
+  private final TaskScope scope;
+
+  public WorkoutExporter(HistoryPageSource<C> source, int pageSize, TaskScope scope) {
+    this.source = source;
+    this.pageSize = pageSize;
+    this.scope = scope;
+  }
+
+  /** Writes every workout of the source to {@code writer}, then closes it. */
+  public void export(WorkoutArchiveWriter writer, Callback callback) {
+    exportPage(null, writer, new AtomicReference<Exception>(), callback);
+  }
+
+  private void exportPage(C after, final WorkoutArchiveWriter writer,
+      final AtomicReference<Exception> writeError, final Callback callback) {
+    source.loadPage(after, pageSize, new HistoryPageSource.Callback<C>() {
+      @Override
+      public void onPage(final List<Workout> workouts, C next) {
+        scope.getBackground().execute(new Runnable() {
+          @Override
+          public void run() {
+            if (writeError.get() != null) {
+              return;
+            }
+            try {
+              for (Workout workout : workouts) {
+                writer.write(workout);
+              }
+            } catch (IOException e) {
+              writeError.set(e);
+            }
+          }
+        });
+        if (next != null && writeError.get() == null) {
+          exportPage(next, writer, writeError, callback);
+        } else {
+          finish(writer, writeError, null, callback);
+        }
+      }
+
+      @Override
+      public void onError(Exception e) {
+        finish(writer, writeError, e, callback);
+      }
+    });
+  }
+
+  private void finish(final WorkoutArchiveWriter writer,
+      final AtomicReference<Exception> writeError, final Exception loadError,
+      final Callback callback) {
+    // Queued behind the page writes, so it runs once they are all done.
+    scope.getBackground().execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          writeError.compareAndSet(null, e);
+        }
+        final Exception error = loadError != null ? loadError : writeError.get();
+        scope.deliver(new Runnable() {
+          @Override
+          public void run() {
+            if (error != null) {
+              callback.onError(error);
+            } else {
+              callback.onExported(writer.getCount());
+            }
+          }
+        });
+      }
+    });
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.export;
+
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutCache;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutSink;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads an archive written by {@link WorkoutArchiveWriter} into a {@link Target}, such as the
+ * local {@link WorkoutCache} or a remote {@link WorkoutSink}, a batch at a time.
+ *
+ * <p>The archive is read on the background executor of a {@link TaskScope}. The next batch is only
+ * read once the target has stored the previous one, so memory use doesn't depend on the size of the
+ * archive. Call it on the main thread; targets and the callback run there too.</p>
+ */
+public class WorkoutImporter {
+
+  /** Where imported workouts go. */
+  public interface Target {
+    /** Stores {@code batch}, then reports the outcome to {@code callback}. */
+    void store(List<Workout> batch, WorkoutSink.Callback callback);
+  }
+
+  /** Receives the outcome of an import. */
+  public interface Callback {
+    void onImported(int workouts);
+
+    void onError(Exception e);
+  }
+
+  private final TaskScope scope;
+  private final int batchSize;
+
+  public WorkoutImporter(TaskScope scope, int batchSize) {
+    this.scope = scope;
+    this.batchSize = batchSize;
+  }
+
+  /** Returns a target upserting each batch to {@code sink} in a single request. */
+  public static Target toSink(final WorkoutSink sink) {
+    return new Target() {
+      @Override
+      public void store(List<Workout> batch, WorkoutSink.Callback callback) {
+        List<PendingWorkout> pending = new ArrayList<>(batch.size());
+        for (Workout workout : batch) {
+          pending.add(new PendingWorkout(workout.getId(), workout.getEmail(), workout.getSteps(),
+              workout.getRecordedAt()));
+        }
+        sink.upsert(pending, callback);
+      }
+    };
+  }
+
+  /**
+   * Returns a target adding each batch to {@code cache} on the background executor of
+   * {@code scope}, the one the cache is confined to; see {@link WorkoutCache#addImported}.
+   */
+  public static Target toCache(final WorkoutCache cache, final TaskScope scope) {
+    return new Target() {
+      @Override
+      public void store(final List<Workout> batch, final WorkoutSink.Callback callback) {
+        scope.getBackground().execute(new Runnable() {
+          @Override
+          public void run() {
+            cache.addImported(batch);
+            scope.deliver(new Runnable() {
+              @Override
+              public void run() {
+                callback.onSuccess();
+              }
+            });
+          }
+        });
+      }
+    };
+  }
+
+  /** Stores every workout of {@code reader} in {@code target}, then closes the reader. */
+  public void importInto(WorkoutArchiveReader reader, Target target, Callback callback) {
+    readBatch(reader, target, 0, callback);
+  }
+
+  private void readBatch(final WorkoutArchiveReader reader, final Target target,
+      final int imported, final Callback callback) {
+    scope.getBackground().execute(new Runnable() {
+      @Override
+      public void run() {
+        final List<Workout> batch = new ArrayList<>(batchSize);
+        try {
+          Workout workout;
+          while (batch.size() < batchSize && (workout = reader.read()) != null) {
+            batch.add(workout);
+          }
+        } catch (IOException e) {
+          finish(reader, imported, e, callback);
+          return;
+        }
+        if (batch.isEmpty()) {
+          finish(reader, imported, null, callback);
+          return;
+        }
+        scope.deliver(new Runnable() {
+          @Override
+          public void run() {
+            target.store(batch, new WorkoutSink.Callback() {
+              @Override
+              public void onSuccess() {
+                readBatch(reader, target, imported + batch.size(), callback);
+              }
+
+              @Override
+              public void onError(final Exception e) {
+                scope.getBackground().execute(new Runnable() {
+                  @Override
+                  public void run() {
+                    finish(reader, imported, e, callback);
+                  }
+                });
+              }
+            });
+          }
+        });
+      }
+    });
+  }
+
+  /** Closes the reader and reports the outcome. Runs on the background executor. */
+  private void finish(WorkoutArchiveReader reader, final int imported, final Exception error,
+      final Callback callback) {
+    try {
+      reader.close();
+    } catch (IOException e) {
+      // Nothing left to do.
+    }
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        if (error != null) {
+          callback.onError(error);
+        } else {
+          callback.onImported(imported);
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.history;
+
+import com.google.android.gms.fit.samples.stepcounter.data.CoalescingCache;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link HistoryPageSource} that reuses recently loaded pages, keyed by cursor and page size, and
+ * shares one load between callers asking for the same page at the same time. Reopening the history
+ * shortly after closing it costs no reads.
+ *
+ * @param <C> Cursor type; must implement {@code equals} and {@code hashCode}.
+ */
+public class CachingHistorySource<C> implements HistoryPageSource<C> {
+
+  private static class Page<C> {
+    final List<Workout> workouts;
+    final C next;
+
+    Page(List<Workout> workouts, C next) {
+      this.workouts = workouts;
+      this.next = next;
+    }
+  }
+
+  private final CoalescingCache<List<Object>, Page<C>> cache;
+
+  /**
+   * @param ttlMillis How long a page is reused.
+   * @param maxPages Number of pages kept.
+   */
+  public CachingHistorySource(final HistoryPageSource<C> source, CoalescingCache.Clock clock,
+      long ttlMillis, int maxPages) {
+    cache = new CoalescingCache<>(new CoalescingCache.Loader<List<Object>, Page<C>>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public void load(List<Object> key, final CoalescingCache.Callback<Page<C>> callback) {
+        source.loadPage((C) key.get(0), (Integer) key.get(1), new Callback<C>() {
+          @Override
+          public void onPage(List<Workout> workouts, C next) {
+            callback.onResult(new Page<>(workouts, next));
+          }
+
+          @Override
+          public void onError(Exception e) {
+            callback.onError(e);
+          }
+        });
+      }
+    }, clock, ttlMillis, maxPages);
+  }
+
+  @Override
+  public void loadPage(C after, int pageSize, final Callback<C> callback) {
+    cache.get(Arrays.<Object>asList(after, pageSize), new CoalescingCache.Callback<Page<C>>() {
+      @Override
+      public void onResult(Page<C> page) {
+        callback.onPage(page.workouts, page.next);
+      }
+
+      @Override
+      public void onError(Exception e) {
+        callback.onError(e);
+      }
+    });
+  }
+
+  /** Returns the cache, for its hit and miss counts or to invalidate it. */
+  public CoalescingCache<?, ?> getCache() {
+    return cache;
+  }
+}
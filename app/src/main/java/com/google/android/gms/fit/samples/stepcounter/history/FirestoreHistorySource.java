@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.history;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.data.FirestoreWorkoutSource;
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link HistoryPageSource} querying the Firestore {@code workouts} collection with
+ * {@code orderBy} + {@code limit} + {@code startAfter}. The cursor is the last document of the
+ * previous page.
+ *
+ * <p>Documents are parsed on the background executor of a {@link TaskScope}, and the callback runs
+ * on the main thread.</p>
+ *
+ * <p>Workouts are ordered by when they were recorded, newest first. Unlike the upload timestamp,
+ * every document has that field once {@code WorkoutDateMigration} has converted the older ones.
+ * Needs a composite index on {@code email} ascending, {@code recordedAt} descending.</p>
+ */
+public class FirestoreHistorySource implements HistoryPageSource<DocumentSnapshot> {
+
+  private static final OperationMetrics GET = Metrics.operation("firestore.history.get");
+
+  private final FirebaseFirestore db;
+  private final String email;
+  private final TaskScope scope;
+
+  public FirestoreHistorySource(FirebaseFirestore db, String email, TaskScope scope) {
+    this.db = db;
+    this.email = email;
+    this.scope = scope;
+  }
+
+  @Override
+  public void loadPage(DocumentSnapshot after, final int pageSize,
+      final Callback<DocumentSnapshot> callback) {
+    Query query = db.collection(FirestoreWorkoutSource.COLLECTION)
+        .whereEqualTo(FirestoreWorkoutSource.FIELD_EMAIL, email)
+        .orderBy(FirestoreWorkoutSource.FIELD_RECORDED_AT, Query.Direction.DESCENDING)
+        .limit(pageSize);
+    if (after != null) {
+      query = query.startAfter(after);
+    }
+    Task<QuerySnapshot> get = TaskMetrics.track(GET, query.get(), TaskMetrics.DOCUMENTS);
+    get.addOnCompleteListener(scope.getBackground(),
+        new OnCompleteListener<QuerySnapshot>() {
+          @Override
+          public void onComplete(@NonNull final Task<QuerySnapshot> task) {
+            if (scope.isCancelled()) {
+              return;
+            }
+            if (!task.isSuccessful()) {
+              scope.deliver(new Runnable() {
+                @Override
+                public void run() {
+                  callback.onError(task.getException());
+                }
+              });
+              return;
+            }
+            List<DocumentSnapshot> documents = task.getResult().getDocuments();
+            final List<Workout> workouts = new ArrayList<>(documents.size());
+            for (DocumentSnapshot document : documents) {
+              workouts.add(FirestoreWorkoutSource.toWorkout(document));
+            }
+            final DocumentSnapshot next =
+                documents.size() < pageSize ? null : documents.get(documents.size() - 1);
+            scope.deliver(new Runnable() {
+              @Override
+              public void run() {
+                callback.onPage(workouts, next);
+              }
+            });
+          }
+        });
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.history;
+
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.google.android.gms.fit.samples.stepcounter.R;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutFormat;
+
+/**
+ * Shows the workouts of a {@link HistoryPager} in a {@link RecyclerView}, loading the next (or
+ * previous) page as the user scrolls close to the edge of the window.
+ */
+public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.RowHolder>
+    implements HistoryPager.Listener {
+
+  /** Receives load errors, which the list itself has no room to show. */
+  public interface ErrorListener {
+    void onError(Exception e);
+  }
+
+  public static class RowHolder extends RecyclerView.ViewHolder {
+    final TextView date;
+    final TextView steps;
+
+    RowHolder(View itemView) {
+      super(itemView);
+      date = (TextView) itemView.findViewById(R.id.history_date);
+      steps = (TextView) itemView.findViewById(R.id.history_steps);
+    }
+  }
+
+  private final HistoryPager<?> pager;
+  private final ErrorListener errorListener;
+
+  public HistoryAdapter(HistoryPager<?> pager, ErrorListener errorListener) {
+    this.pager = pager;
+    this.errorListener = errorListener;
+    pager.setListener(this);
+  }
+
+  /** Attaches the adapter to {@code list} and starts paging as it scrolls. */
+  public void attachTo(RecyclerView list) {
+    final LinearLayoutManager layoutManager = new LinearLayoutManager(list.getContext());
+    list.setLayoutManager(layoutManager);
+    list.setAdapter(this);
+    list.addOnScrollListener(new RecyclerView.OnScrollListener() {
+      @Override
+      public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        // Start loading half a page before the user reaches either edge of the window.
+        int prefetch = pager.getPageSize() / 2;
+        if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= pager.size() - prefetch) {
+          pager.loadNext();
+        } else if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= prefetch) {
+          pager.loadPrevious();
+        }
+      }
+    });
+  }
+
+  @Override
+  public RowHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+    View row = LayoutInflater.from(parent.getContext())
+        .inflate(R.layout.history_row, parent, false);
+    return new RowHolder(row);
+  }
+
+  @Override
+  public void onBindViewHolder(RowHolder holder, int position) {
+    Workout workout = pager.get(position);
+    holder.date.setText("Date: " + (workout.getRecordedAt() == 0
+        ? "unknown"
+        : WorkoutFormat.formatDate(workout.getRecordedAt())));
+    holder.steps.setText("Steps: " + workout.getSteps());
+  }
+
+  @Override
+  public int getItemCount() {
+    return pager.size();
+  }
+
+  @Override
+  public void onInserted(int position, int count) {
+    notifyItemRangeInserted(position, count);
+  }
+
+  @Override
+  public void onRemoved(int position, int count) {
+    notifyItemRangeRemoved(position, count);
+  }
+
+  @Override
+  public void onError(Exception e) {
+    errorListener.onError(e);
+  }
+}
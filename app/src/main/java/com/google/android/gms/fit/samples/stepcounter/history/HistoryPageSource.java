@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.history;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+
+import java.util.List;
+
+/**
+ * Cursor-paged source of one user's workouts, newest first.
+ *
+ * @param <C> Cursor type marking the position after the last workout of a page.
+ */
+public interface HistoryPageSource<C> {
+
+  /** Receives one page. */
+  interface Callback<C> {
+    /**
+     * @param workouts The workouts of the page; fewer than requested on the last page.
+     * @param next Cursor to pass to load the following page, or null if this was the last one.
+     */
+    void onPage(List<Workout> workouts, C next);
+
+    void onError(Exception e);
+  }
+
+  /**
+   * Loads up to {@code pageSize} workouts following {@code after}, or from the newest workout when
+   * {@code after} is null.
+   */
+  void loadPage(C after, int pageSize, Callback<C> callback);
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.history;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Bounded window over a {@link HistoryPageSource}.
+ *
+ * <p>At most {@code maxPages} pages are held in memory. Loading past the end of the window drops
+ * the page at the other end, keeping only its cursor so it can be loaded again when the user
+ * scrolls back. A user with years of workouts therefore costs the same memory as one with a few
+ * pages.</p>
+ *
+ * <p>Not thread-safe; call it, and deliver the source's callbacks, on a single thread.</p>
+ *
+ * @param <C> Cursor type of the source.
+ */
+public class HistoryPager<C> {
+
+  /** Notified when workouts enter or leave the window. Positions are window positions. */
+  public interface Listener {
+    void onInserted(int position, int count);
+
+    void onRemoved(int position, int count);
+
+    void onError(Exception e);
+  }
+
+  private static class Page<C> {
+    // Cursor the page was loaded from; null for the first page.
+    final C start;
+    final List<Workout> workouts;
+
+    Page(C start, List<Workout> workouts) {
+      this.start = start;
+      this.workouts = workouts;
+    }
+  }
+
+  private final HistoryPageSource<C> source;
+  private final int pageSize;
+  private final int maxPages;
+  private final LinkedList<Page<C>> pages = new LinkedList<>();
+  // Start cursors of pages dropped from the front of the window, oldest drop first.
+  private final List<C> droppedStarts = new ArrayList<>();
+  private Listener listener;
+  private C nextCursor;
+  private boolean reachedEnd;
+  private boolean loading;
+  private int size;
+  // Bumped by reset() so callbacks of abandoned loads are ignored.
+  private int generation;
+
+  public HistoryPager(HistoryPageSource<C> source, int pageSize, int maxPages) {
+    if (pageSize < 1 || maxPages < 2) {
+      throw new IllegalArgumentException("pageSize=" + pageSize + " maxPages=" + maxPages);
+    }
+    this.source = source;
+    this.pageSize = pageSize;
+    this.maxPages = maxPages;
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /** Loads the page after the window, unless a load is running or the end was reached. */
+  public void loadNext() {
+    if (loading || reachedEnd) {
+      return;
+    }
+    loading = true;
+    final int expected = generation;
+    final C start = nextCursor;
+    source.loadPage(start, pageSize, new HistoryPageSource.Callback<C>() {
+      @Override
+      public void onPage(List<Workout> workouts, C next) {
+        if (expected != generation) {
+          return;
+        }
+        loading = false;
+        nextCursor = next;
+        reachedEnd = next == null;
+        pages.addLast(new Page<>(start, workouts));
+        size += workouts.size();
+        if (listener != null) {
+          listener.onInserted(size - workouts.size(), workouts.size());
+        }
+        if (pages.size() > maxPages) {
+          Page<C> dropped = pages.removeFirst();
+          droppedStarts.add(dropped.start);
+          size -= dropped.workouts.size();
+          if (listener != null) {
+            listener.onRemoved(0, dropped.workouts.size());
+          }
+        }
+      }
+
+      @Override
+      public void onError(Exception e) {
+        onLoadFailed(expected, e);
+      }
+    });
+  }
+
+  /** Reloads the page before the window, if one was dropped and no load is running. */
+  public void loadPrevious() {
+    if (loading || droppedStarts.isEmpty()) {
+      return;
+    }
+    loading = true;
+    final int expected = generation;
+    final C start = droppedStarts.remove(droppedStarts.size() - 1);
+    source.loadPage(start, pageSize, new HistoryPageSource.Callback<C>() {
+      @Override
+      public void onPage(List<Workout> workouts, C next) {
+        if (expected != generation) {
+          return;
+        }
+        loading = false;
+        pages.addFirst(new Page<>(start, workouts));
+        size += workouts.size();
+        if (listener != null) {
+          listener.onInserted(0, workouts.size());
+        }
+        if (pages.size() > maxPages) {
+          Page<C> dropped = pages.removeLast();
+          nextCursor = dropped.start;
+          reachedEnd = false;
+          size -= dropped.workouts.size();
+          if (listener != null) {
+            listener.onRemoved(size, dropped.workouts.size());
+          }
+        }
+      }
+
+      @Override
+      public void onError(Exception e) {
+        droppedStarts.add(start);
+        onLoadFailed(expected, e);
+      }
+    });
+  }
+
+  /** Empties the window; the next {@link #loadNext()} starts again from the newest workout. */
+  public void reset() {
+    generation++;
+    pages.clear();
+    droppedStarts.clear();
+    nextCursor = null;
+    reachedEnd = false;
+    loading = false;
+    int removed = size;
+    size = 0;
+    if (listener != null && removed > 0) {
+      listener.onRemoved(0, removed);
+    }
+  }
+
+  /** Returns the workout at {@code position} in the window. */
+  public Workout get(int position) {
+    int offset = position;
+    for (Page<C> page : pages) {
+      if (offset < page.workouts.size()) {
+        return page.workouts.get(offset);
+      }
+      offset -= page.workouts.size();
+    }
+    throw new IndexOutOfBoundsException("position=" + position + " size=" + size);
+  }
+
+  /** Returns the number of workouts in the window. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns whether workouts before the window were dropped and can be loaded again. */
+  public boolean hasPrevious() {
+    return !droppedStarts.isEmpty();
+  }
+
+  /** Returns whether the window ends with the last page of the source. */
+  public boolean hasReachedEnd() {
+    return reachedEnd;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  private void onLoadFailed(int expected, Exception e) {
+    if (expected != generation) {
+      return;
+    }
+    loading = false;
+    if (listener != null) {
+      listener.onError(e);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import com.google.android.gms.fit.samples.stepcounter.data.CoalescingCache;
+
+/**
+ * {@link SketchStore} that reuses a recent read, and shares one read between callers asking at the
+ * same time.
+ */
+public class CachingSketchStore implements SketchStore {
+
+  private static final String KEY = "sketch";
+
+  private final CoalescingCache<String, StepSketch> cache;
+
+  /**
+   * @param ttlMillis How long a read is reused.
+   */
+  public CachingSketchStore(final SketchStore store, CoalescingCache.Clock clock,
+      long ttlMillis) {
+    this.cache = new CoalescingCache<>(new CoalescingCache.Loader<String, StepSketch>() {
+      @Override
+      public void load(String key, final CoalescingCache.Callback<StepSketch> callback) {
+        store.read(new Callback() {
+          @Override
+          public void onResult(StepSketch sketch) {
+            callback.onResult(sketch);
+          }
+
+          @Override
+          public void onError(Exception e) {
+            callback.onError(e);
+          }
+        });
+      }
+    }, clock, ttlMillis, 1);
+  }
+
+  @Override
+  public void read(final Callback callback) {
+    cache.get(KEY, new CoalescingCache.Callback<StepSketch>() {
+      @Override
+      public void onResult(StepSketch sketch) {
+        callback.onResult(sketch);
+      }
+
+      @Override
+      public void onError(Exception e) {
+        callback.onError(e);
+      }
+    });
+  }
+
+  /** Returns the cache, for its hit and miss counts or to invalidate it. */
+  public CoalescingCache<String, StepSketch> getCache() {
+    return cache;
+  }
+}
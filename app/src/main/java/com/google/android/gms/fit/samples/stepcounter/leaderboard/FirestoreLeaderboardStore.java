@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-period leaderboards in the Firestore {@code leaderboards} collection: a few shard documents
+ * per {@link LeaderboardWindow}, each holding a {@link StepSketch} of the workouts whose ids hash
+ * to it, as with {@link FirestoreSketchStore}. Uploads keep the shards of a workout's day, week and
+ * month up to date, so ranking within any window is a single query of a few small documents.
+ *
+ * <p>Every shard carries the {@code period} and {@code index} of its window, which is what reads
+ * select on. Only the most recent windows of each period are kept; {@link #compact} deletes older
+ * ones. That query needs a composite index on {@code period} ascending, {@code index}
+ * ascending.</p>
+ */
+public class FirestoreLeaderboardStore {
+
+  public static final String COLLECTION = "leaderboards";
+  public static final String FIELD_PERIOD = "period";
+  public static final String FIELD_INDEX = "index";
+  // Firestore limit on the writes of one batch; anything beyond is deleted by a later compaction.
+  private static final int MAX_BATCH_WRITES = 500;
+  private static final OperationMetrics GET = Metrics.operation("firestore.leaderboards.get");
+
+  /** Receives the outcome of a compaction. */
+  public interface CompactionCallback {
+    void onCompacted(int deletedShards);
+
+    void onError(Exception e);
+  }
+
+  private final FirebaseFirestore db;
+  private final TaskScope scope;
+
+  public FirestoreLeaderboardStore(FirebaseFirestore db, TaskScope scope) {
+    this.db = db;
+    this.scope = scope;
+  }
+
+  /** Returns a store reading the shards of {@code window} and merging them. */
+  public SketchStore forWindow(final LeaderboardWindow window) {
+    return new SketchStore() {
+      @Override
+      public void read(final Callback callback) {
+        Task<QuerySnapshot> get = TaskMetrics.track(GET, db.collection(COLLECTION)
+            .whereEqualTo(FIELD_PERIOD, window.getPeriod().getKey())
+            .whereEqualTo(FIELD_INDEX, window.getIndex())
+            .get(), TaskMetrics.DOCUMENTS);
+        get.addOnCompleteListener(scope.getBackground(),
+            new OnCompleteListener<QuerySnapshot>() {
+              @Override
+              public void onComplete(@NonNull final Task<QuerySnapshot> task) {
+                if (scope.isCancelled()) {
+                  return;
+                }
+                StepSketch merged = null;
+                if (task.isSuccessful()) {
+                  merged = new StepSketch();
+                  for (DocumentSnapshot shard : task.getResult()) {
+                    merged.merge(FirestoreSketchStore.fromSnapshot(shard));
+                  }
+                }
+                final StepSketch sketch = merged;
+                scope.deliver(new Runnable() {
+                  @Override
+                  public void run() {
+                    if (sketch != null) {
+                      callback.onResult(sketch);
+                    } else {
+                      callback.onError(task.getException());
+                    }
+                  }
+                });
+              }
+            });
+      }
+    };
+  }
+
+  /**
+   * Deletes the shards of the windows of every period that are too old to be kept while
+   * {@code epochDay} is the current day.
+   */
+  public void compact(int epochDay, final CompactionCallback callback) {
+    LeaderboardWindow.Period[] periods = LeaderboardWindow.Period.values();
+    final AtomicInteger remaining = new AtomicInteger(periods.length);
+    final AtomicInteger deleted = new AtomicInteger();
+    final AtomicReference<Exception> error = new AtomicReference<>();
+    final Runnable periodDone = new Runnable() {
+      @Override
+      public void run() {
+        if (remaining.decrementAndGet() > 0) {
+          return;
+        }
+        scope.deliver(new Runnable() {
+          @Override
+          public void run() {
+            if (error.get() != null) {
+              callback.onError(error.get());
+            } else {
+              callback.onCompacted(deleted.get());
+            }
+          }
+        });
+      }
+    };
+    for (LeaderboardWindow.Period period : periods) {
+      LeaderboardWindow current = LeaderboardWindow.forEpochDay(period, epochDay);
+      db.collection(COLLECTION)
+          .whereEqualTo(FIELD_PERIOD, period.getKey())
+          .whereLessThan(FIELD_INDEX, current.getOldestRetainedIndex())
+          .limit(MAX_BATCH_WRITES)
+          .get()
+          .addOnCompleteListener(scope.getBackground(), new OnCompleteListener<QuerySnapshot>() {
+            @Override
+            public void onComplete(@NonNull Task<QuerySnapshot> task) {
+              if (!task.isSuccessful()) {
+                error.compareAndSet(null, task.getException());
+                periodDone.run();
+                return;
+              }
+              final QuerySnapshot expired = task.getResult();
+              if (expired.isEmpty()) {
+                periodDone.run();
+                return;
+              }
+              WriteBatch batch = db.batch();
+              for (DocumentSnapshot window : expired) {
+                batch.delete(window.getReference());
+              }
+              batch.commit().addOnCompleteListener(scope.getBackground(),
+                  new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> commit) {
+                      if (commit.isSuccessful()) {
+                        deleted.addAndGet(expired.size());
+                      } else {
+                        error.compareAndSet(null, commit.getException());
+                      }
+                      periodDone.run();
+                    }
+                  });
+            }
+          });
+    }
+  }
+}
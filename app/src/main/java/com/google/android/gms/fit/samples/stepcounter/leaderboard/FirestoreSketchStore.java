@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+
+/**
+ * {@link SketchStore} keeping the sketch in a few Firestore documents, each holding a partial
+ * sketch of the workouts whose ids hash to it. Spreading updates over shards keeps concurrent
+ * uploads from contending on one document; a read fetches every shard and merges them. Uploads
+ * update the shards through {@link LeaderboardRollup}.
+ *
+ * <p>The shards are decoded and merged on the background executor of a {@link TaskScope}, and the
+ * callback runs on the main thread.</p>
+ */
+public class FirestoreSketchStore implements SketchStore {
+
+  public static final String COLLECTION = "stepSketches";
+  public static final int SHARD_COUNT = 4;
+  // Document fields: the encoded sketch, and its workout count for reading at a glance.
+  public static final String FIELD_SKETCH = "sketch";
+  public static final String FIELD_TOTAL = "total";
+
+  private static final OperationMetrics GET = Metrics.operation("firestore.sketches.get");
+
+  private final FirebaseFirestore db;
+  private final TaskScope scope;
+
+  public FirestoreSketchStore(FirebaseFirestore db, TaskScope scope) {
+    this.db = db;
+    this.scope = scope;
+  }
+
+  @Override
+  public void read(final Callback callback) {
+    Task<QuerySnapshot> get =
+        TaskMetrics.track(GET, db.collection(COLLECTION).get(), TaskMetrics.DOCUMENTS);
+    get.addOnCompleteListener(scope.getBackground(),
+        new OnCompleteListener<QuerySnapshot>() {
+          @Override
+          public void onComplete(@NonNull final Task<QuerySnapshot> task) {
+            if (scope.isCancelled()) {
+              return;
+            }
+            if (!task.isSuccessful()) {
+              scope.deliver(new Runnable() {
+                @Override
+                public void run() {
+                  callback.onError(task.getException());
+                }
+              });
+              return;
+            }
+            final StepSketch merged = new StepSketch();
+            for (DocumentSnapshot shard : task.getResult()) {
+              merged.merge(fromSnapshot(shard));
+            }
+            scope.deliver(new Runnable() {
+              @Override
+              public void run() {
+                callback.onResult(merged);
+              }
+            });
+          }
+        });
+  }
+
+  /** Decodes a shard document; an empty sketch if it doesn't exist yet. */
+  public static StepSketch fromSnapshot(DocumentSnapshot shard) {
+    Blob blob = shard.exists() ? shard.getBlob(FIELD_SKETCH) : null;
+    return blob == null ? new StepSketch() : StepSketch.fromBytes(blob.toBytes());
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.common.logger.Log;
+import com.google.android.gms.fit.samples.stepcounter.data.Documents;
+import com.google.android.gms.fit.samples.stepcounter.data.FirestoreDocuments;
+import com.google.android.gms.fit.samples.stepcounter.data.FirestoreWorkoutSource;
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Counts the workouts uploaded before ranking existed into the step sketch and the leaderboards,
+ * a page at a time, each page in a transaction of its own; see {@link LeaderboardRollup}.
+ *
+ * <p>Pages come in document id order, so every workout is visited whatever fields it has. Uploads
+ * go on while it runs, and a workout already counted is skipped, so running it again, or on
+ * several devices at once, counts nothing twice.</p>
+ */
+public class LeaderboardBackfill {
+
+  private static final String TAG = "LeaderboardBackfill";
+  // Set once every workout uploaded before ranking existed is counted in the leaderboards.
+  private static final String PREF_BACKFILLED = "leaderboardsBackfilled";
+  // Workouts read per page and counted per transaction. With the shards and the windows a page
+  // can reach, this stays under the Firestore limit of 500 writes per transaction.
+  private static final int PAGE_SIZE = 400;
+
+  public interface Callback {
+    void onBackfilled(int workouts);
+
+    void onError(Exception e);
+  }
+
+  private final FirebaseFirestore db;
+  private final TaskScope scope;
+
+  public LeaderboardBackfill(FirebaseFirestore db, TaskScope scope) {
+    this.db = db;
+    this.scope = scope;
+  }
+
+  public void run(Callback callback) {
+    backfillPage(null, 0, callback);
+  }
+
+  /**
+   * Runs the backfill unless {@code prefs} record that it is done, then records it. A failed
+   * backfill runs again on the next call.
+   *
+   * @param onBackfilled Runs once the backfill has succeeded, e.g. to drop cached rankings.
+   */
+  public void runOnce(final SharedPreferences prefs, final Runnable onBackfilled) {
+    if (prefs.getBoolean(PREF_BACKFILLED, false)) {
+      return;
+    }
+    run(new Callback() {
+      @Override
+      public void onBackfilled(int workouts) {
+        Log.i(TAG, "Counted " + workouts + " workouts into the leaderboards");
+        prefs.edit().putBoolean(PREF_BACKFILLED, true).apply();
+        onBackfilled.run();
+      }
+
+      @Override
+      public void onError(Exception e) {
+        Log.w(TAG, "Leaderboard backfill failed; retrying on next launch", e);
+      }
+    });
+  }
+
+  private void backfillPage(DocumentSnapshot after, final int backfilled,
+      final Callback callback) {
+    Query query = db.collection(FirestoreWorkoutSource.COLLECTION).limit(PAGE_SIZE);
+    if (after != null) {
+      query = query.startAfter(after);
+    }
+    query.get().addOnCompleteListener(scope.getBackground(),
+        new OnCompleteListener<QuerySnapshot>() {
+          @Override
+          public void onComplete(@NonNull Task<QuerySnapshot> task) {
+            if (scope.isCancelled()) {
+              return;
+            }
+            if (!task.isSuccessful()) {
+              fail(task.getException(), callback);
+              return;
+            }
+            QuerySnapshot page = task.getResult();
+            final List<String> ids = new ArrayList<>(page.size());
+            DocumentSnapshot last = null;
+            for (DocumentSnapshot document : page) {
+              last = document;
+              ids.add(document.getId());
+            }
+            final DocumentSnapshot cursor = last;
+            final boolean done = page.size() < PAGE_SIZE;
+            if (ids.isEmpty()) {
+              next(cursor, backfilled, done, callback);
+              return;
+            }
+            count(ids).addOnCompleteListener(scope.getBackground(),
+                new OnCompleteListener<Integer>() {
+                  @Override
+                  public void onComplete(@NonNull Task<Integer> count) {
+                    if (count.isSuccessful()) {
+                      next(cursor, backfilled + count.getResult(), done, callback);
+                    } else {
+                      fail(count.getException(), callback);
+                    }
+                  }
+                });
+          }
+        });
+  }
+
+  /** Counts the workouts with the given ids that aren't counted yet, in one transaction. */
+  private Task<Integer> count(final List<String> ids) {
+    final long now = System.currentTimeMillis();
+    final TimeZone timeZone = TimeZone.getDefault();
+    return db.runTransaction(new Transaction.Function<Integer>() {
+      @Override
+      public Integer apply(@NonNull Transaction transaction) throws FirebaseFirestoreException {
+        Documents<FirebaseFirestoreException> documents = FirestoreDocuments.of(db, transaction);
+        LeaderboardRollup.Update update =
+            LeaderboardRollup.backfill(documents, ids, now, timeZone);
+        update.write(documents);
+        return update.getMarkedCount();
+      }
+    });
+  }
+
+  private void next(DocumentSnapshot cursor, final int backfilled, boolean done,
+      final Callback callback) {
+    if (!done) {
+      backfillPage(cursor, backfilled, callback);
+      return;
+    }
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        callback.onBackfilled(backfilled);
+      }
+    });
+  }
+
+  private void fail(final Exception e, final Callback callback) {
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        callback.onError(e);
+      }
+    });
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Documents;
+import com.google.android.gms.fit.samples.stepcounter.data.FirestoreWorkoutSource;
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutFormat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Counts workouts into the shards of the shared {@link StepSketch} and into the leaderboards of
+ * their day, week and month, as part of the transaction that writes them. The leaderboards are
+ * sharded the same way as the shared sketch, so uploads of the same day don't all contend on one
+ * document.
+ *
+ * <p>A workout document is marked with {@link #FIELD_RANKED} once its steps are counted. Replacing
+ * a marked document takes its old steps out first; replacing one written before ranking existed
+ * doesn't, since its steps were never added. {@link LeaderboardBackfill} counts and marks those
+ * older documents, so every workout is counted once, whether the backfill or an upload gets to it
+ * first.</p>
+ */
+public final class LeaderboardRollup {
+
+  /** Set on workout documents whose steps are counted in the sketches. */
+  public static final String FIELD_RANKED = "ranked";
+
+  /** The writes of one roll-up, to apply once every read of the transaction is done. */
+  public static class Update {
+
+    private final Map<String, StepSketch> shards;
+    private final Map<String, StepSketch> windows;
+    private final Map<String, LeaderboardWindow> windowsByPath;
+    private final Map<String, Map<String, Object>> marked;
+
+    Update(Map<String, StepSketch> shards, Map<String, StepSketch> windows,
+        Map<String, LeaderboardWindow> windowsByPath, Map<String, Map<String, Object>> marked) {
+      this.shards = shards;
+      this.windows = windows;
+      this.windowsByPath = windowsByPath;
+      this.marked = marked;
+    }
+
+    /** Returns the number of workouts counted by a backfill. */
+    public int getMarkedCount() {
+      return marked.size();
+    }
+
+    /** Returns the number of documents {@link #write(Documents)} sets. */
+    public int size() {
+      return shards.size() + windows.size() + marked.size();
+    }
+
+    public void write(Documents<?> documents) {
+      for (Map.Entry<String, Map<String, Object>> workout : marked.entrySet()) {
+        documents.set(workout.getKey(), workout.getValue());
+      }
+      for (Map.Entry<String, StepSketch> shard : shards.entrySet()) {
+        documents.set(shard.getKey(), toMap(shard.getValue()));
+      }
+      for (Map.Entry<String, StepSketch> window : windows.entrySet()) {
+        documents.set(window.getKey(),
+            toMap(windowsByPath.get(window.getKey()), window.getValue()));
+      }
+    }
+  }
+
+  private LeaderboardRollup() {
+  }
+
+  /** Returns the path of the sketch shard that the workout with id {@code workoutId} is in. */
+  public static String shardPath(String workoutId) {
+    return FirestoreSketchStore.COLLECTION + "/shard" + shardOf(workoutId);
+  }
+
+  /**
+   * Returns the path of the shard of {@code window} that the workout with id {@code workoutId} is
+   * counted in.
+   */
+  public static String windowPath(LeaderboardWindow window, String workoutId) {
+    return FirestoreLeaderboardStore.COLLECTION + "/" + window.getDocumentId() + "-"
+        + shardOf(workoutId);
+  }
+
+  /**
+   * Reads the sketches {@code workouts} are counted in and computes their new contents. The
+   * workouts' own documents are set by the caller, with {@link #FIELD_RANKED}.
+   *
+   * @param previous The current document of each workout, or null where there is none.
+   * @param now The current time, which decides the windows still kept.
+   */
+  public static <E extends Exception> Update read(Documents<E> documents,
+      List<PendingWorkout> workouts, List<Map<String, Object>> previous, long now,
+      TimeZone timeZone) throws E {
+    Map<String, StepSketch> shards = new LinkedHashMap<>();
+    Map<String, StepSketch> windows = new LinkedHashMap<>();
+    Map<String, LeaderboardWindow> windowsByPath = new LinkedHashMap<>();
+    for (int i = 0; i < workouts.size(); i++) {
+      PendingWorkout workout = workouts.get(i);
+      Map<String, Object> replaced = previous.get(i);
+      // The workout id is the user and day, so a replaced workout was counted in the same
+      // windows as its replacement.
+      for (StepSketch sketch : sketches(documents, workout.getId(), workout.getRecordedAt(), now,
+          timeZone, shards, windows, windowsByPath)) {
+        if (isRanked(replaced)) {
+          sketch.remove(steps(replaced));
+        }
+        sketch.add(workout.getSteps());
+      }
+    }
+    return new Update(shards, windows, windowsByPath,
+        new HashMap<String, Map<String, Object>>());
+  }
+
+  /**
+   * Reads the workouts with the given ids and counts those not counted yet, marking their
+   * documents. Workouts that no longer exist or are already marked are left alone.
+   */
+  public static <E extends Exception> Update backfill(Documents<E> documents,
+      List<String> workoutIds, long now, TimeZone timeZone) throws E {
+    List<Map<String, Object>> workouts = new ArrayList<>(workoutIds.size());
+    for (String id : workoutIds) {
+      workouts.add(documents.get(workoutPath(id)));
+    }
+    Map<String, StepSketch> shards = new LinkedHashMap<>();
+    Map<String, StepSketch> windows = new LinkedHashMap<>();
+    Map<String, LeaderboardWindow> windowsByPath = new LinkedHashMap<>();
+    Map<String, Map<String, Object>> marked = new LinkedHashMap<>();
+    for (int i = 0; i < workoutIds.size(); i++) {
+      Map<String, Object> workout = workouts.get(i);
+      if (workout == null || isRanked(workout)) {
+        continue;
+      }
+      Object recordedAt = workout.get(FirestoreWorkoutSource.FIELD_RECORDED_AT);
+      // Without a recording time the workout can't be placed in a window, only in the sketch.
+      long time = recordedAt instanceof Number ? ((Number) recordedAt).longValue() : 0;
+      for (StepSketch sketch : sketches(documents, workoutIds.get(i), time, now, timeZone,
+          shards, windows, windowsByPath)) {
+        sketch.add(steps(workout));
+      }
+      Map<String, Object> fields = new HashMap<>(workout);
+      fields.put(FIELD_RANKED, true);
+      marked.put(workoutPath(workoutIds.get(i)), fields);
+    }
+    return new Update(shards, windows, windowsByPath, marked);
+  }
+
+  /** Decodes a sketch document; an empty sketch if {@code fields} is null. */
+  public static StepSketch fromMap(Map<String, Object> fields) {
+    Object bytes = fields == null ? null : fields.get(FirestoreSketchStore.FIELD_SKETCH);
+    return StepSketch.fromBytes(bytes instanceof byte[] ? (byte[]) bytes : null);
+  }
+
+  /** Encodes {@code sketch} as sketch shard fields. */
+  public static Map<String, Object> toMap(StepSketch sketch) {
+    Map<String, Object> map = new HashMap<>();
+    map.put(FirestoreSketchStore.FIELD_SKETCH, sketch.toBytes());
+    map.put(FirestoreSketchStore.FIELD_TOTAL, sketch.total());
+    return map;
+  }
+
+  /** Encodes the sketch of {@code window} as document fields. */
+  public static Map<String, Object> toMap(LeaderboardWindow window, StepSketch sketch) {
+    Map<String, Object> map = toMap(sketch);
+    map.put(FirestoreLeaderboardStore.FIELD_PERIOD, window.getPeriod().getKey());
+    map.put(FirestoreLeaderboardStore.FIELD_INDEX, (long) window.getIndex());
+    return map;
+  }
+
+  /**
+   * Returns the sketches a workout is counted in, reading them on first use: its sketch shard,
+   * and its shards of the leaderboards of {@code recordedAt} still kept at {@code now}.
+   */
+  private static <E extends Exception> List<StepSketch> sketches(Documents<E> documents,
+      String workoutId, long recordedAt, long now, TimeZone timeZone,
+      Map<String, StepSketch> shards, Map<String, StepSketch> windows,
+      Map<String, LeaderboardWindow> windowsByPath) throws E {
+    List<StepSketch> sketches = new ArrayList<>();
+    String shard = shardPath(workoutId);
+    if (!shards.containsKey(shard)) {
+      shards.put(shard, fromMap(documents.get(shard)));
+    }
+    sketches.add(shards.get(shard));
+    if (recordedAt == 0) {
+      return sketches;
+    }
+    for (LeaderboardWindow window : retainedWindows(recordedAt, now, timeZone)) {
+      String path = windowPath(window, workoutId);
+      if (!windows.containsKey(path)) {
+        windows.put(path, fromMap(documents.get(path)));
+        windowsByPath.put(path, window);
+      }
+      sketches.add(windows.get(path));
+    }
+    return sketches;
+  }
+
+  /**
+   * Returns the leaderboard windows containing {@code recordedAt} that are still kept while
+   * {@code now} is the current time.
+   */
+  private static List<LeaderboardWindow> retainedWindows(long recordedAt, long now,
+      TimeZone timeZone) {
+    List<LeaderboardWindow> windows = new ArrayList<>(LeaderboardWindow.Period.values().length);
+    for (LeaderboardWindow.Period period : LeaderboardWindow.Period.values()) {
+      LeaderboardWindow window = LeaderboardWindow.containing(period, recordedAt, timeZone);
+      LeaderboardWindow current = LeaderboardWindow.containing(period, now, timeZone);
+      if (window.getIndex() >= current.getOldestRetainedIndex()) {
+        windows.add(window);
+      }
+    }
+    return windows;
+  }
+
+  // The workout id is the user and day, so a replaced workout is always in the same shard.
+  private static int shardOf(String workoutId) {
+    return (workoutId.hashCode() % FirestoreSketchStore.SHARD_COUNT
+        + FirestoreSketchStore.SHARD_COUNT) % FirestoreSketchStore.SHARD_COUNT;
+  }
+
+  private static String workoutPath(String id) {
+    return FirestoreWorkoutSource.COLLECTION + "/" + id;
+  }
+
+  private static boolean isRanked(Map<String, Object> workout) {
+    return workout != null && Boolean.TRUE.equals(workout.get(FIELD_RANKED));
+  }
+
+  private static int steps(Map<String, Object> workout) {
+    return WorkoutFormat.parseSteps(workout.get(FirestoreWorkoutSource.FIELD_STEPS));
+  }
+}
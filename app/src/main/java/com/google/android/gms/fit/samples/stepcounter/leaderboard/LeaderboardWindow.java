@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ranking window: one calendar day, week (starting Monday) or month, numbered so that windows of
+ * the same period sort in time order. Days are the user's local calendar days, counted as epoch
+ * days so the number doesn't depend on the time zone once it is computed.
+ */
+public class LeaderboardWindow {
+
+  public enum Period {
+    DAY("day", 35),
+    WEEK("week", 13),
+    MONTH("month", 24);
+
+    private final String key;
+    private final int retainedWindows;
+
+    Period(String key, int retainedWindows) {
+      this.key = key;
+      this.retainedWindows = retainedWindows;
+    }
+
+    /** Returns the name stored in window documents. */
+    public String getKey() {
+      return key;
+    }
+
+    /** Returns the number of most recent windows kept before older ones are compacted away. */
+    public int getRetainedWindows() {
+      return retainedWindows;
+    }
+  }
+
+  private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+  // 1970-01-01 was a Thursday; shifting by three days makes weeks start on Monday.
+  private static final int WEEK_OFFSET_DAYS = 3;
+
+  private final Period period;
+  private final int index;
+
+  public LeaderboardWindow(Period period, int index) {
+    this.period = period;
+    this.index = index;
+  }
+
+  /** Returns the window of {@code period} containing the local day of {@code timeMillis}. */
+  public static LeaderboardWindow containing(Period period, long timeMillis, TimeZone timeZone) {
+    return forEpochDay(period, epochDay(timeMillis, timeZone));
+  }
+
+  /** Returns the window of {@code period} containing {@code epochDay}. */
+  public static LeaderboardWindow forEpochDay(Period period, int epochDay) {
+    switch (period) {
+      case DAY:
+        return new LeaderboardWindow(period, epochDay);
+      case WEEK:
+        return new LeaderboardWindow(period, Math.max(epochDay + WEEK_OFFSET_DAYS, 0) / 7);
+      default:
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.setTimeInMillis(epochDay * DAY_MILLIS);
+        int months = (utc.get(Calendar.YEAR) - 1970) * 12 + utc.get(Calendar.MONTH);
+        return new LeaderboardWindow(period, months);
+    }
+  }
+
+  /** Returns the local calendar day of {@code timeMillis}, counted in days since 1970-01-01. */
+  public static int epochDay(long timeMillis, TimeZone timeZone) {
+    long local = timeMillis + timeZone.getOffset(timeMillis);
+    return (int) Math.floor(local / (double) DAY_MILLIS);
+  }
+
+  public Period getPeriod() {
+    return period;
+  }
+
+  /** Returns the window number: epoch days, Monday-based epoch weeks, or months since 1970. */
+  public int getIndex() {
+    return index;
+  }
+
+  /** Returns the id of the document holding this window. */
+  public String getDocumentId() {
+    return period.getKey() + "-" + index;
+  }
+
+  /**
+   * Returns the index of the oldest window of this period that is kept while this window is the
+   * current one.
+   */
+  public int getOldestRetainedIndex() {
+    return index - period.getRetainedWindows() + 1;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof LeaderboardWindow)) {
+      return false;
+    }
+    LeaderboardWindow other = (LeaderboardWindow) o;
+    return period == other.period && index == other.index;
+  }
+
+  @Override
+  public int hashCode() {
+    return period.hashCode() * 31 + index;
+  }
+
+  @Override
+  public String toString() {
+    return getDocumentId();
+  }
+}
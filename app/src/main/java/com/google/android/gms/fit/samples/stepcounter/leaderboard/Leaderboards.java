@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import com.google.android.gms.fit.samples.common.logger.Log;
+import com.google.android.gms.fit.samples.stepcounter.data.CoalescingCache;
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.TimeZone;
+
+/**
+ * The ranking queries of the app: the shared {@link StepSketch} of every workout and the sketches
+ * of the leaderboard windows, each behind a cache that coalesces repeated reads and keeps results
+ * for a while. Also compacts the windows too old to keep, at most once a day.
+ */
+public class Leaderboards {
+
+  private static final String TAG = "Leaderboards";
+
+  private final CachingSketchStore sketchStore;
+  private final FirestoreLeaderboardStore windows;
+  private final CoalescingCache<LeaderboardWindow, StepSketch> windowCache;
+  // Epoch day of the last compaction, so it runs at most once a day.
+  private int lastCompactedDay = Integer.MIN_VALUE;
+
+  /**
+   * @param ttlMillis How long a read result is reused.
+   * @param cachedWindows Windows whose sketches are kept, e.g. the current day, week and month.
+   */
+  public Leaderboards(FirebaseFirestore db, TaskScope scope, CoalescingCache.Clock clock,
+      long ttlMillis, int cachedWindows) {
+    sketchStore = new CachingSketchStore(new FirestoreSketchStore(db, scope), clock, ttlMillis);
+    windows = new FirestoreLeaderboardStore(db, scope);
+    windowCache = new CoalescingCache<>(
+        new CoalescingCache.Loader<LeaderboardWindow, StepSketch>() {
+          @Override
+          public void load(LeaderboardWindow window,
+              final CoalescingCache.Callback<StepSketch> callback) {
+            windows.forWindow(window).read(new SketchStore.Callback() {
+              @Override
+              public void onResult(StepSketch sketch) {
+                callback.onResult(sketch);
+              }
+
+              @Override
+              public void onError(Exception e) {
+                callback.onError(e);
+              }
+            });
+          }
+        },
+        clock,
+        ttlMillis,
+        cachedWindows);
+  }
+
+  /** Reads the sketch of every workout. */
+  public void readSketch(SketchStore.Callback callback) {
+    sketchStore.read(callback);
+  }
+
+  /** Reads the sketch of the workouts recorded in {@code window}. */
+  public void readWindow(LeaderboardWindow window, CoalescingCache.Callback<StepSketch> callback) {
+    windowCache.get(window, callback);
+  }
+
+  /** Deletes the windows too old to keep on the day of {@code now}, unless done that day. */
+  public void compactIfDue(long now, TimeZone timeZone) {
+    int today = LeaderboardWindow.epochDay(now, timeZone);
+    if (today == lastCompactedDay) {
+      return;
+    }
+    lastCompactedDay = today;
+    windows.compact(today, new FirestoreLeaderboardStore.CompactionCallback() {
+      @Override
+      public void onCompacted(int deletedShards) {
+        Log.i(TAG, "Compacted " + deletedShards + " leaderboard shards");
+      }
+
+      @Override
+      public void onError(Exception e) {
+        Log.w(TAG, "Leaderboard compaction failed", e);
+        lastCompactedDay = Integer.MIN_VALUE;
+      }
+    });
+  }
+
+  /** Drops cached sketches after the workouts they were computed from changed. */
+  public void invalidateAll() {
+    sketchStore.getCache().invalidateAll();
+    windowCache.invalidateAll();
+  }
+
+  @Override
+  public String toString() {
+    return "sketch " + sketchStore.getCache() + ", leaderboards " + windowCache;
+  }
+}
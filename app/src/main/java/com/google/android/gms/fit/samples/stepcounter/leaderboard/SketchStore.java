@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+/**
+ * Datastore holding the shared {@link StepSketch} of uploaded step counts. Workout uploads keep it
+ * up to date; this interface only reads it.
+ */
+public interface SketchStore {
+
+  /** Receives the sketch after a read. */
+  interface Callback {
+    void onResult(StepSketch sketch);
+
+    void onError(Exception e);
+  }
+
+  /** Reads the current sketch; an empty one if nothing has been recorded yet. */
+  void read(Callback callback);
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import java.util.Arrays;
+
+/**
+ * Rank index over uploaded step counts, backed by a Fenwick (binary indexed) tree of step buckets.
+ *
+ * <p>Inserting a workout and asking how many workouts fall below a given step count are both
+ * O(log n) in the number of buckets, so the leaderboard never has to sort the whole collection.
+ * Step counts above {@code maxSteps} share the top bucket.</p>
+ */
+public class StepRankIndex {
+
+  /** Highest step count that gets its own bucket with the default constructor. */
+  public static final int DEFAULT_MAX_STEPS = 100000;
+
+  private final int bucketWidth;
+  private final int bucketCount;
+  // 1-based Fenwick tree; tree[0] is unused.
+  private final int[] tree;
+  private int size;
+
+  public StepRankIndex() {
+    this(DEFAULT_MAX_STEPS, 1);
+  }
+
+  /**
+   * @param maxSteps Highest step count that is ranked exactly (within {@code bucketWidth}).
+   * @param bucketWidth Number of step values that share one bucket.
+   */
+  public StepRankIndex(int maxSteps, int bucketWidth) {
+    if (maxSteps < 0 || bucketWidth < 1) {
+      throw new IllegalArgumentException("maxSteps=" + maxSteps + " bucketWidth=" + bucketWidth);
+    }
+    this.bucketWidth = bucketWidth;
+    this.bucketCount = maxSteps / bucketWidth + 1;
+    this.tree = new int[bucketCount + 1];
+  }
+
+  /** Records one workout with the given step count. */
+  public void add(int steps) {
+    update(bucketOf(steps), 1);
+    size++;
+  }
+
+  /**
+   * Removes one previously added workout with the given step count.
+   *
+   * @return false, leaving the index unchanged, if no workout in the index has that step count's
+   *     bucket.
+   */
+  public boolean remove(int steps) {
+    int bucket = bucketOf(steps);
+    if (countIn(bucket) == 0) {
+      return false;
+    }
+    update(bucket, -1);
+    size--;
+    return true;
+  }
+
+  /** Returns the number of recorded workouts whose bucket lies strictly below {@code steps}. */
+  public int countBelow(int steps) {
+    return prefixSum(bucketOf(steps));
+  }
+
+  /**
+   * Returns the percentage (0-100) of recorded workouts beaten by {@code steps}, or 0 when the
+   * index is empty.
+   */
+  public double percentile(int steps) {
+    if (size == 0) {
+      return 0;
+    }
+    return countBelow(steps) * 100.0 / size;
+  }
+
+  /** Returns the number of recorded workouts. */
+  public int size() {
+    return size;
+  }
+
+  /** Drops every recorded workout. */
+  public void clear() {
+    Arrays.fill(tree, 0);
+    size = 0;
+  }
+
+  private int bucketOf(int steps) {
+    if (steps <= 0) {
+      return 0;
+    }
+    return Math.min(steps / bucketWidth, bucketCount - 1);
+  }
+
+  private int countIn(int bucket) {
+    return prefixSum(bucket + 1) - prefixSum(bucket);
+  }
+
+  private void update(int bucket, int delta) {
+    for (int i = bucket + 1; i <= bucketCount; i += i & -i) {
+      tree[i] += delta;
+    }
+  }
+
+  /** Sums the counts of buckets [0, bucket). */
+  private int prefixSum(int bucket) {
+    int sum = 0;
+    for (int i = bucket; i > 0; i -= i & -i) {
+      sum += tree[i];
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Mergeable quantile sketch of step counts, for ranking a step count among millions of workouts
+ * without keeping them all.
+ *
+ * <p>Each direction is a KLL sketch: a stack of buffers where level {@code h} holds items that
+ * each stand for {@code 2^h} workouts. When a level fills up it is sorted and every other item,
+ * from a random offset, is promoted to the level above. Lower levels get geometrically smaller
+ * capacities, so the sketch keeps a few times {@code k} items however many workouts it has seen.
+ * With the default {@code k}, a million workouts take about 1.5 KB serialized and ranks stay
+ * within about 1% of the exact percentage.</p>
+ *
+ * <p>Removals, for replaced workouts, go to a second sketch that is subtracted from the first. The
+ * error then scales with added plus removed workouts, so it stays small as long as replacements
+ * are a minority.</p>
+ *
+ * <p>Sketches built separately, e.g. one per datastore shard, combine with {@link #merge}. Not
+ * thread-safe.</p>
+ */
+public class StepSketch {
+
+  public static final int DEFAULT_K = 400;
+
+  private static final int VERSION = 1;
+
+  private final Kll added;
+  private final Kll removed;
+
+  public StepSketch() {
+    this(DEFAULT_K);
+  }
+
+  /**
+   * @param k Accuracy parameter: more items kept, smaller error.
+   */
+  public StepSketch(int k) {
+    if (k < 8) {
+      throw new IllegalArgumentException("k=" + k);
+    }
+    added = new Kll(k);
+    removed = new Kll(k);
+  }
+
+  /** Records one workout with the given step count. */
+  public void add(int steps) {
+    added.update(Math.max(steps, 0));
+  }
+
+  /** Takes out one previously recorded workout with the given step count. */
+  public void remove(int steps) {
+    removed.update(Math.max(steps, 0));
+  }
+
+  /** Adds every workout recorded by {@code other}. */
+  public void merge(StepSketch other) {
+    added.merge(other.added);
+    removed.merge(other.removed);
+  }
+
+  /**
+   * Returns the percentage (0-100) of recorded workouts with fewer steps than {@code steps}.
+   * Returns 0 when the sketch is empty.
+   */
+  public double percentile(int steps) {
+    long total = total();
+    if (total <= 0) {
+      return 0;
+    }
+    double below = added.countBelow(steps) - removed.countBelow(steps);
+    return Math.min(100.0, Math.max(0.0, below * 100.0 / total));
+  }
+
+  /** Returns the number of recorded workouts. */
+  public long total() {
+    return added.n - removed.n;
+  }
+
+  /** Returns the number of items held, which bounds its memory use. */
+  public int retainedItems() {
+    return added.retained() + removed.retained();
+  }
+
+  /** Encodes the sketch as a compact byte array. */
+  public byte[] toBytes() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeVarLong(out, VERSION);
+    writeVarLong(out, added.k);
+    added.write(out);
+    removed.write(out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes a sketch written by {@link #toBytes()}. Returns an empty sketch when {@code bytes} is
+   * null.
+   *
+   * @throws IllegalArgumentException if {@code bytes} is not a sketch.
+   */
+  public static StepSketch fromBytes(byte[] bytes) {
+    if (bytes == null) {
+      return new StepSketch();
+    }
+    int[] position = {0};
+    try {
+      if (readVarLong(bytes, position) != VERSION) {
+        throw new IllegalArgumentException("Unknown sketch version");
+      }
+      StepSketch sketch = new StepSketch((int) readVarLong(bytes, position));
+      sketch.added.read(bytes, position);
+      sketch.removed.read(bytes, position);
+      return sketch;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Truncated sketch", e);
+    }
+  }
+
+  /** One insert-only KLL sketch. */
+  private static class Kll {
+    // Capacity ratio between a level and the one above it.
+    private static final double CAPACITY_RATIO = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 8;
+
+    final int k;
+    long n;
+    private int[][] levels = new int[1][];
+    private int[] sizes = new int[1];
+    private final Random random = new Random();
+
+    Kll(int k) {
+      this.k = k;
+      levels[0] = new int[capacity(0)];
+    }
+
+    void update(int value) {
+      append(0, value);
+      n++;
+      compress();
+    }
+
+    void merge(Kll other) {
+      while (levels.length < other.levels.length) {
+        addLevel();
+      }
+      for (int h = 0; h < other.levels.length; h++) {
+        for (int i = 0; i < other.sizes[h]; i++) {
+          append(h, other.levels[h][i]);
+        }
+      }
+      n += other.n;
+      compress();
+    }
+
+    /** Returns the estimated number of items smaller than {@code value}. */
+    long countBelow(int value) {
+      long count = 0;
+      for (int h = 0; h < levels.length; h++) {
+        int[] level = levels[h];
+        int below = 0;
+        for (int i = 0; i < sizes[h]; i++) {
+          if (level[i] < value) {
+            below++;
+          }
+        }
+        count += (long) below << h;
+      }
+      return count;
+    }
+
+    int retained() {
+      int retained = 0;
+      for (int size : sizes) {
+        retained += size;
+      }
+      return retained;
+    }
+
+    /** Compacts every level that is over capacity, bottom up. */
+    private void compress() {
+      for (int h = 0; h < levels.length; h++) {
+        if (sizes[h] < capacity(h)) {
+          continue;
+        }
+        if (h + 1 == levels.length) {
+          addLevel();
+        }
+        int[] level = levels[h];
+        int size = sizes[h];
+        Arrays.sort(level, 0, size);
+        // With an odd count the largest item stays behind, so the promoted weight is exact.
+        int kept = size & 1;
+        for (int i = random.nextBoolean() ? 1 : 0; i < size - kept; i += 2) {
+          append(h + 1, level[i]);
+        }
+        if (kept == 1) {
+          level[0] = level[size - 1];
+        }
+        sizes[h] = kept;
+      }
+    }
+
+    /** Returns the capacity of level {@code h}; the top level gets {@code k}. */
+    private int capacity(int h) {
+      int depth = levels.length - 1 - h;
+      return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+    }
+
+    private void addLevel() {
+      levels = Arrays.copyOf(levels, levels.length + 1);
+      sizes = Arrays.copyOf(sizes, sizes.length + 1);
+      levels[levels.length - 1] = new int[MIN_CAPACITY];
+    }
+
+    private void append(int h, int value) {
+      if (sizes[h] == levels[h].length) {
+        levels[h] = Arrays.copyOf(levels[h], Math.max(MIN_CAPACITY, sizes[h] * 2));
+      }
+      levels[h][sizes[h]++] = value;
+    }
+
+    void write(ByteArrayOutputStream out) {
+      writeVarLong(out, n);
+      writeVarLong(out, levels.length);
+      for (int h = 0; h < levels.length; h++) {
+        // Sorted, so each item is stored as a small delta from the previous one.
+        int[] items = Arrays.copyOf(levels[h], sizes[h]);
+        Arrays.sort(items);
+        writeVarLong(out, items.length);
+        int previous = 0;
+        for (int item : items) {
+          writeVarLong(out, item - previous);
+          previous = item;
+        }
+      }
+    }
+
+    void read(byte[] bytes, int[] position) {
+      n = readVarLong(bytes, position);
+      int levelCount = (int) readVarLong(bytes, position);
+      while (levels.length < levelCount) {
+        addLevel();
+      }
+      for (int h = 0; h < levelCount; h++) {
+        int size = (int) readVarLong(bytes, position);
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+          previous += (int) readVarLong(bytes, position);
+          append(h, previous);
+        }
+      }
+    }
+  }
+
+  private static void writeVarLong(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarLong(byte[] bytes, int[] position) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = bytes[position[0]++] & 0xFF;
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.live;
+
+import java.util.Arrays;
+
+/**
+ * Running step total for today, kept live from step deltas.
+ *
+ * <p>The total is a baseline (the daily total as last read from the History API) plus every delta
+ * that ended after the baseline was read. A new baseline drops the deltas it already includes, so
+ * periodic reconciliation corrects any drift without double counting.</p>
+ *
+ * <p>Deltas may arrive far faster than the screen refreshes; the listener is told about a new
+ * total at most once per frame, with the latest value.</p>
+ *
+ * <p>Not thread-safe; call it, and run the scheduler's tasks, on a single thread.</p>
+ */
+public class LiveStepCounter {
+
+  /** Tells the time and runs a task after a delay, e.g. through a {@code Handler}. */
+  public interface Scheduler {
+    long uptimeMillis();
+
+    void schedule(Runnable task, long delayMillis);
+  }
+
+  public interface Listener {
+    void onStepsChanged(long total);
+  }
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final Scheduler scheduler;
+  private final Listener listener;
+  private final long frameMillis;
+  private final Runnable publishTask = new Runnable() {
+    @Override
+    public void run() {
+      publish();
+    }
+  };
+
+  private long baseline;
+  private long baselineAsOf = Long.MIN_VALUE;
+  // Deltas received since the baseline was read, as parallel columns.
+  private long[] deltaEnds = new long[INITIAL_CAPACITY];
+  private int[] deltaSteps = new int[INITIAL_CAPACITY];
+  private int deltaCount;
+  private long deltaSum;
+
+  private boolean publishScheduled;
+  private long lastPublishedAt = Long.MIN_VALUE;
+  private long lastPublishedTotal = -1;
+
+  // Counters, for measuring how much the throttle saves.
+  private long receivedCount;
+  private long publishedCount;
+
+  /**
+   * @param frameMillis Shortest time between two updates sent to the listener.
+   */
+  public LiveStepCounter(Scheduler scheduler, Listener listener, long frameMillis) {
+    this.scheduler = scheduler;
+    this.listener = listener;
+    this.frameMillis = frameMillis;
+  }
+
+  /**
+   * Sets the daily total as read at {@code asOfMillis}. Deltas that ended by then are assumed to
+   * be part of it and are dropped.
+   */
+  public void setBaseline(long total, long asOfMillis) {
+    baseline = total;
+    baselineAsOf = asOfMillis;
+    int kept = 0;
+    deltaSum = 0;
+    for (int i = 0; i < deltaCount; i++) {
+      if (deltaEnds[i] > asOfMillis) {
+        deltaEnds[kept] = deltaEnds[i];
+        deltaSteps[kept] = deltaSteps[i];
+        deltaSum += deltaSteps[i];
+        kept++;
+      }
+    }
+    deltaCount = kept;
+    requestPublish();
+  }
+
+  /** Adds {@code steps} steps counted in an interval that ended at {@code endMillis}. */
+  public void onDelta(long endMillis, int steps) {
+    receivedCount++;
+    if (endMillis <= baselineAsOf || steps <= 0) {
+      return;
+    }
+    if (deltaCount == deltaEnds.length) {
+      deltaEnds = Arrays.copyOf(deltaEnds, deltaCount * 2);
+      deltaSteps = Arrays.copyOf(deltaSteps, deltaCount * 2);
+    }
+    deltaEnds[deltaCount] = endMillis;
+    deltaSteps[deltaCount] = steps;
+    deltaCount++;
+    deltaSum += steps;
+    requestPublish();
+  }
+
+  /** Returns the current total: the baseline plus the deltas received since. */
+  public long getTotal() {
+    return baseline + deltaSum;
+  }
+
+  /** Returns the number of deltas received. */
+  public long getReceivedCount() {
+    return receivedCount;
+  }
+
+  /** Returns the number of updates sent to the listener. */
+  public long getPublishedCount() {
+    return publishedCount;
+  }
+
+  private void requestPublish() {
+    if (publishScheduled) {
+      return;
+    }
+    publishScheduled = true;
+    long delay = lastPublishedAt == Long.MIN_VALUE
+        ? 0
+        : Math.max(0, lastPublishedAt + frameMillis - scheduler.uptimeMillis());
+    scheduler.schedule(publishTask, delay);
+  }
+
+  private void publish() {
+    publishScheduled = false;
+    lastPublishedAt = scheduler.uptimeMillis();
+    long total = getTotal();
+    if (total != lastPublishedTotal) {
+      lastPublishedTotal = total;
+      publishedCount++;
+      listener.onStepsChanged(total);
+    }
+  }
+}
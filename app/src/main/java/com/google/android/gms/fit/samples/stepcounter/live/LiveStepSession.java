@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.live;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.common.logger.Log;
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.fitness.HistoryClient;
+import com.google.android.gms.fitness.SensorsClient;
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.fitness.data.Field;
+import com.google.android.gms.fitness.request.OnDataPointListener;
+import com.google.android.gms.fitness.request.SensorRequest;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link LiveStepCounter} fed while started: step deltas come from the Sensors API, and
+ * the daily total is re-read from the History API every so often to correct any drift.
+ *
+ * <p>Call it on the thread of {@code handler}, normally the main thread.</p>
+ */
+public class LiveStepSession {
+
+  private static final String TAG = "LiveStepSession";
+  // How often the sensor is asked for a new delta.
+  private static final long SAMPLING_SECONDS = 1;
+  private static final OperationMetrics READ_DAILY_TOTAL =
+      Metrics.operation("fitness.readDailyTotal");
+
+  private final SensorsClient sensorsClient;
+  private final HistoryClient historyClient;
+  private final Handler handler;
+  private final LiveStepCounter counter;
+  private final long reconcileMillis;
+  private boolean started;
+
+  private final OnDataPointListener dataPointListener = new OnDataPointListener() {
+    @Override
+    public void onDataPoint(DataPoint point) {
+      final long end = point.getEndTime(TimeUnit.MILLISECONDS);
+      final int steps = point.getValue(Field.FIELD_STEPS).asInt();
+      // Deltas may be delivered on another thread; the counter is only touched on the handler's.
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          if (started) {
+            counter.onDelta(end, steps);
+          }
+        }
+      });
+    }
+  };
+
+  private final Runnable reconcileTask = new Runnable() {
+    @Override
+    public void run() {
+      reconcile();
+      handler.postDelayed(this, reconcileMillis);
+    }
+  };
+
+  /**
+   * @param frameMillis Shortest time between two updates sent to {@code listener}.
+   * @param reconcileMillis How often the daily total is re-read.
+   */
+  public LiveStepSession(SensorsClient sensorsClient, HistoryClient historyClient,
+      final Handler handler, LiveStepCounter.Listener listener, long frameMillis,
+      long reconcileMillis) {
+    this.sensorsClient = sensorsClient;
+    this.historyClient = historyClient;
+    this.handler = handler;
+    this.reconcileMillis = reconcileMillis;
+    this.counter = new LiveStepCounter(new LiveStepCounter.Scheduler() {
+      @Override
+      public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+      }
+
+      @Override
+      public void schedule(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+      }
+    }, listener, frameMillis);
+  }
+
+  /** Starts listening for step deltas, and reads the daily total right away. */
+  public void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    sensorsClient.add(
+        new SensorRequest.Builder()
+            .setDataType(DataType.TYPE_STEP_COUNT_DELTA)
+            .setSamplingRate(SAMPLING_SECONDS, TimeUnit.SECONDS)
+            .build(),
+        dataPointListener)
+        .addOnFailureListener(new OnFailureListener() {
+          @Override
+          public void onFailure(@NonNull Exception e) {
+            Log.w(TAG, "Could not listen for step deltas", e);
+          }
+        });
+    reconcileTask.run();
+  }
+
+  /** Stops listening; the counter keeps its last total. */
+  public void stop() {
+    if (!started) {
+      return;
+    }
+    started = false;
+    sensorsClient.remove(dataPointListener);
+    handler.removeCallbacks(reconcileTask);
+  }
+
+  public boolean isStarted() {
+    return started;
+  }
+
+  public LiveStepCounter getCounter() {
+    return counter;
+  }
+
+  private void reconcile() {
+    final long asOf = System.currentTimeMillis();
+    TaskMetrics.track(
+            READ_DAILY_TOTAL,
+            historyClient.readDailyTotal(DataType.TYPE_STEP_COUNT_DELTA),
+            TaskMetrics.DATA_POINTS)
+        .addOnSuccessListener(new OnSuccessListener<DataSet>() {
+          @Override
+          public void onSuccess(DataSet dataSet) {
+            if (!started) {
+              return;
+            }
+            long total = dataSet.isEmpty()
+                ? 0
+                : dataSet.getDataPoints().get(0).getValue(Field.FIELD_STEPS).asInt();
+            counter.setBaseline(total, asOf);
+          }
+        })
+        .addOnFailureListener(new OnFailureListener() {
+          @Override
+          public void onFailure(@NonNull Exception e) {
+            Log.w(TAG, "Could not reconcile the daily total", e);
+          }
+        });
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in log-linear buckets, in the style of an HDR histogram: every power of two is
+ * split into {@link #SUB_BUCKETS} equal buckets, so any latency from a nanosecond to centuries is
+ * kept with at most about 6% error, in a fixed array.
+ *
+ * <p>Recording is lock-free: one atomic increment of the bucket and a check of the maximum, with
+ * no allocation, so threads recording different latencies mostly touch different memory. Any
+ * number of threads may record while another takes a {@link #snapshot()}.</p>
+ */
+public class LatencyHistogram {
+
+  static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values below SUB_BUCKETS have a bucket each; above, each power of two gets SUB_BUCKETS.
+  static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /** Records one latency. Negative values count as 0. */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts.incrementAndGet(bucketOf(nanos));
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+  }
+
+  /**
+   * Returns a copy of the counts so far. Latencies recorded while it is taken may or may not be
+   * in it, and its maximum may be a record ahead of its counts.
+   */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+      count += copy[i];
+    }
+    return new Snapshot(copy, count, maxNanos.get());
+  }
+
+  static int bucketOf(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /** Returns the largest latency that falls into {@code bucket}. */
+  static long highestValueIn(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /** Latencies recorded up to some point. Immutable. */
+  public static class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long maxNanos;
+
+    Snapshot(long[] counts, long count, long maxNanos) {
+      this.counts = counts;
+      this.count = count;
+      this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    /**
+     * Returns the latency that {@code percentile} percent of the recorded ones are at or below,
+     * rounded up to the end of its bucket, or 0 when nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+      long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(highestValueIn(i), maxNanos);
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * Returns the latencies recorded after {@code earlier}, a snapshot of the same histogram. The
+     * maximum is the end of the highest bucket used since, capped by the overall maximum.
+     */
+    public Snapshot minus(Snapshot earlier) {
+      long[] delta = new long[counts.length];
+      int highest = -1;
+      for (int i = 0; i < counts.length; i++) {
+        delta[i] = Math.max(counts[i] - earlier.counts[i], 0);
+        if (delta[i] > 0) {
+          highest = i;
+        }
+      }
+      long max = highest < 0 ? 0 : Math.min(highestValueIn(highest), maxNanos);
+      return new Snapshot(delta, Math.max(count - earlier.count, 0), max);
+    }
+  }
+}
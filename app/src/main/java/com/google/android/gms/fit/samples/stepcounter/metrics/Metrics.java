@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The process-wide registry of {@link OperationMetrics}, by operation name.
+ *
+ * <p>Look an operation up once, e.g. into a static field, and record through it; the lookup is a
+ * map access, while recording is a few atomic increments.</p>
+ */
+public final class Metrics {
+
+  private static final ConcurrentMap<String, OperationMetrics> OPERATIONS =
+      new ConcurrentSkipListMap<>();
+
+  private Metrics() {
+  }
+
+  /** Returns the metrics of the operation called {@code name}, creating them on first use. */
+  public static OperationMetrics operation(String name) {
+    OperationMetrics operation = OPERATIONS.get(name);
+    if (operation == null) {
+      OperationMetrics created = new OperationMetrics(name);
+      operation = OPERATIONS.putIfAbsent(name, created);
+      if (operation == null) {
+        operation = created;
+      }
+    }
+    return operation;
+  }
+
+  /** Returns a snapshot of every operation, ordered by name. */
+  public static List<OperationMetrics.Snapshot> snapshot() {
+    List<OperationMetrics.Snapshot> snapshots = new ArrayList<>();
+    for (OperationMetrics operation : OPERATIONS.values()) {
+      snapshots.add(operation.snapshot());
+    }
+    return snapshots;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.metrics;
+
+import com.google.android.gms.fit.samples.common.logger.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Logs what each operation in {@link Metrics} did since the previous report, one line per
+ * operation tagged {@link #TAG}, e.g.
+ * <pre>
+ *   firestore.workouts.get: 12 calls, 1 failed, 340 results, p50=84.2ms p90=210.0ms ...
+ * </pre>
+ * The lines go through the {@link Log} chain, so they reach logcat and the on-device log file.
+ * Operations without new calls are left out.
+ */
+public class MetricsReporter {
+
+  public static final String TAG = "Metrics";
+
+  private static final long NANOS_PER_TENTH_MILLI = 100000;
+
+  private final Map<String, OperationMetrics.Snapshot> previous = new HashMap<>();
+
+  /** Logs the calls since the previous report and returns the number of lines logged. */
+  public synchronized int report() {
+    int lines = 0;
+    for (OperationMetrics.Snapshot snapshot : Metrics.snapshot()) {
+      OperationMetrics.Snapshot earlier = previous.put(snapshot.getName(), snapshot);
+      OperationMetrics.Snapshot interval = earlier == null ? snapshot : snapshot.minus(earlier);
+      if (interval.getCalls() > 0) {
+        Log.i(TAG, format(interval));
+        lines++;
+      }
+    }
+    return lines;
+  }
+
+  static String format(OperationMetrics.Snapshot snapshot) {
+    LatencyHistogram.Snapshot latency = snapshot.getLatency();
+    StringBuilder line = new StringBuilder(snapshot.getName())
+        .append(": ").append(snapshot.getCalls()).append(" calls, ")
+        .append(snapshot.getFailures()).append(" failed, ")
+        .append(snapshot.getResults()).append(" results,");
+    appendMillis(line, " p50=", latency.getPercentileNanos(50));
+    appendMillis(line, " p90=", latency.getPercentileNanos(90));
+    appendMillis(line, " p99=", latency.getPercentileNanos(99));
+    appendMillis(line, " max=", latency.getMaxNanos());
+    return line.toString();
+  }
+
+  // Tenths of a millisecond, without going through String.format.
+  private static void appendMillis(StringBuilder line, String label, long nanos) {
+    long tenths = (nanos + NANOS_PER_TENTH_MILLI / 2) / NANOS_PER_TENTH_MILLI;
+    line.append(label).append(tenths / 10).append('.').append(tenths % 10).append("ms");
+  }
+}
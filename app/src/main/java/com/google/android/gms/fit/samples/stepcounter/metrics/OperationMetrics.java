@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency, outcome and result-size counts of one kind of operation, such as a Firestore query.
+ * Get instances from {@link Metrics#operation(String)}; recording is lock-free and may happen on
+ * any thread.
+ */
+public class OperationMetrics {
+
+  private final String name;
+  // Counts every call; successes are the calls that didn't fail.
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong results = new AtomicLong();
+
+  OperationMetrics(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Records a call that succeeded.
+   * @param nanos How long it took.
+   * @param resultSize Number of items it returned or wrote, e.g. documents.
+   */
+  public void recordSuccess(long nanos, int resultSize) {
+    latency.record(nanos);
+    if (resultSize > 0) {
+      results.addAndGet(resultSize);
+    }
+  }
+
+  /** Records a call that failed after {@code nanos}. */
+  public void recordFailure(long nanos) {
+    latency.record(nanos);
+    failures.incrementAndGet();
+  }
+
+  public Snapshot snapshot() {
+    // Failures first, so they never outnumber the calls in the histogram.
+    long failed = failures.get();
+    return new Snapshot(name, failed, results.get(), latency.snapshot());
+  }
+
+  /** Counts of one operation up to some point. Immutable. */
+  public static class Snapshot {
+
+    private final String name;
+    private final long failures;
+    private final long results;
+    private final LatencyHistogram.Snapshot latency;
+
+    Snapshot(String name, long failures, long results, LatencyHistogram.Snapshot latency) {
+      this.name = name;
+      this.failures = failures;
+      this.results = results;
+      this.latency = latency;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCalls() {
+      return latency.getCount();
+    }
+
+    public long getFailures() {
+      return failures;
+    }
+
+    /** Returns the number of items all successful calls returned or wrote together. */
+    public long getResults() {
+      return results;
+    }
+
+    /** Returns the latencies of every call, successful or not. */
+    public LatencyHistogram.Snapshot getLatency() {
+      return latency;
+    }
+
+    /** Returns what was recorded after {@code earlier}, a snapshot of the same operation. */
+    public Snapshot minus(Snapshot earlier) {
+      return new Snapshot(name, failures - earlier.failures, results - earlier.results,
+          latency.minus(earlier.latency));
+    }
+  }
+}
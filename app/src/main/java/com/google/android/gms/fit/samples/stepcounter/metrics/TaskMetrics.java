@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.metrics;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fitness.data.Bucket;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.result.DataReadResponse;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Records the latency and outcome of Fitness and Firestore {@link Task}s into
+ * {@link OperationMetrics}:
+ * <pre>
+ *   TaskMetrics.track(READ_DAILY_TOTAL, client.readDailyTotal(type), TaskMetrics.DATA_POINTS)
+ *       .addOnSuccessListener(...);
+ * </pre>
+ * The clock starts when {@code track} is called, right after the call that returned the task;
+ * these calls only queue their work, so nothing measurable is missed.
+ */
+public final class TaskMetrics {
+
+  /** Counts the items in the result of a task. */
+  public interface ResultSize<T> {
+    int sizeOf(T result);
+  }
+
+  /** Number of documents a query returned. */
+  public static final ResultSize<QuerySnapshot> DOCUMENTS = new ResultSize<QuerySnapshot>() {
+    @Override
+    public int sizeOf(QuerySnapshot result) {
+      return result.size();
+    }
+  };
+
+  /** Number of data points in a data set. */
+  public static final ResultSize<DataSet> DATA_POINTS = new ResultSize<DataSet>() {
+    @Override
+    public int sizeOf(DataSet result) {
+      return result.getDataPoints().size();
+    }
+  };
+
+  /** Number of data points a History read returned, whether bucketed or not. */
+  public static final ResultSize<DataReadResponse> READ_DATA_POINTS =
+      new ResultSize<DataReadResponse>() {
+        @Override
+        public int sizeOf(DataReadResponse result) {
+          int points = 0;
+          for (DataSet dataSet : result.getDataSets()) {
+            points += dataSet.getDataPoints().size();
+          }
+          for (Bucket bucket : result.getBuckets()) {
+            for (DataSet dataSet : bucket.getDataSets()) {
+              points += dataSet.getDataPoints().size();
+            }
+          }
+          return points;
+        }
+      };
+
+  // Records on whichever thread completes the task, so time spent waiting for the main thread
+  // isn't counted.
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(@NonNull Runnable command) {
+      command.run();
+    }
+  };
+
+  private TaskMetrics() {
+  }
+
+  /** Records the latency and outcome of {@code task}, and returns it for chaining. */
+  public static <T> Task<T> track(OperationMetrics operation, Task<T> task) {
+    return track(operation, task, null);
+  }
+
+  /**
+   * Records the latency and outcome of {@code task}, counting {@code resultSize} items if it
+   * succeeds, e.g. the documents a write covers. Returns the task for chaining.
+   */
+  public static <T> Task<T> track(OperationMetrics operation, Task<T> task, final int resultSize) {
+    return track(operation, task, new ResultSize<T>() {
+      @Override
+      public int sizeOf(T result) {
+        return resultSize;
+      }
+    });
+  }
+
+  /**
+   * Records the latency and outcome of {@code task}, and the size of its result, then returns it
+   * for chaining.
+   * @param size Counts the items in the result, or null to count none.
+   */
+  public static <T> Task<T> track(final OperationMetrics operation, Task<T> task,
+      final ResultSize<? super T> size) {
+    final long startNanos = System.nanoTime();
+    task.addOnCompleteListener(DIRECT, new OnCompleteListener<T>() {
+      @Override
+      public void onComplete(@NonNull Task<T> completed) {
+        long nanos = System.nanoTime() - startNanos;
+        if (completed.isSuccessful()) {
+          operation.recordSuccess(nanos, size == null ? 0 : size.sizeOf(completed.getResult()));
+        } else {
+          operation.recordFailure(nanos);
+        }
+      }
+    });
+    return task;
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.series;
+
+import java.util.List;
+
+/** Reads per-day step totals for a range of days in one request. */
+public interface DailyStepSource {
+
+  interface Callback {
+    void onResult(List<DailyTotal> totals);
+
+    void onError(Exception e);
+  }
+
+  /**
+   * Reads the step total of every day in [{@code fromMillis}, {@code toMillis}). Days without
+   * steps may be left out.
+   */
+  void readDailyTotals(long fromMillis, long toMillis, Callback callback);
+}
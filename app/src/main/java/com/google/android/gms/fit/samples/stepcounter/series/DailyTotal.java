@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.series;
+
+/** Steps taken during one local day, as reported by an aggregate history query. */
+public class DailyTotal {
+
+  private final long startMillis;
+  private final int steps;
+
+  public DailyTotal(long startMillis, int steps) {
+    this.startMillis = startMillis;
+    this.steps = steps;
+  }
+
+  /** Returns the start of the day, in epoch millis. */
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  public int getSteps() {
+    return steps;
+  }
+}
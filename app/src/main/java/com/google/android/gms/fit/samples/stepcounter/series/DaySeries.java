@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.series;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * One day of step samples, held as two parallel columns: sample start times (epoch millis, sorted)
+ * and step counts.
+ *
+ * <p>On disk the time column is delta-encoded as unsigned varints, and the step column is
+ * bit-packed at the width of the largest value, so a day of minute-level samples fits in a few
+ * kilobytes. Layout:</p>
+ * <pre>
+ *   int    magic
+ *   byte   version
+ *   int    sample count
+ *   long   first start time
+ *   varint start time deltas, one per further sample
+ *   byte   bits per step value
+ *   byte[] step values, packed most significant bit first
+ * </pre>
+ *
+ * <p>Not thread-safe.</p>
+ */
+class DaySeries {
+
+  private static final int MAGIC = 0x53544550;
+  private static final int VERSION = 1;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private long[] times;
+  private int[] steps;
+  private int size;
+  private long total;
+
+  DaySeries() {
+    this(INITIAL_CAPACITY);
+  }
+
+  private DaySeries(int capacity) {
+    times = new long[Math.max(capacity, 1)];
+    steps = new int[Math.max(capacity, 1)];
+  }
+
+  /**
+   * Records {@code count} steps for the sample starting at {@code timeMillis}. A sample with the
+   * same start time replaces the earlier one, so ingesting the same data twice is harmless.
+   */
+  void put(long timeMillis, int count) {
+    // Samples almost always arrive in order; only fall back to a search when they don't.
+    int index = size > 0 && timeMillis > times[size - 1]
+        ? -(size + 1)
+        : Arrays.binarySearch(times, 0, size, timeMillis);
+    if (index >= 0) {
+      total += count - steps[index];
+      steps[index] = count;
+      return;
+    }
+    int insertAt = -(index + 1);
+    if (size == times.length) {
+      times = Arrays.copyOf(times, size * 2);
+      steps = Arrays.copyOf(steps, size * 2);
+    }
+    System.arraycopy(times, insertAt, times, insertAt + 1, size - insertAt);
+    System.arraycopy(steps, insertAt, steps, insertAt + 1, size - insertAt);
+    times[insertAt] = timeMillis;
+    steps[insertAt] = count;
+    size++;
+    total += count;
+  }
+
+  void clear() {
+    size = 0;
+    total = 0;
+  }
+
+  /** Returns the steps of the samples starting in [{@code fromMillis}, {@code toMillis}). */
+  long sum(long fromMillis, long toMillis) {
+    int from = lowerBound(fromMillis);
+    int to = lowerBound(toMillis);
+    if (from == 0 && to == size) {
+      return total;
+    }
+    long sum = 0;
+    for (int i = from; i < to; i++) {
+      sum += steps[i];
+    }
+    return sum;
+  }
+
+  long total() {
+    return total;
+  }
+
+  int size() {
+    return size;
+  }
+
+  long getTime(int index) {
+    return times[index];
+  }
+
+  int getSteps(int index) {
+    return steps[index];
+  }
+
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeInt(size);
+    if (size == 0) {
+      return;
+    }
+    out.writeLong(times[0]);
+    for (int i = 1; i < size; i++) {
+      writeVarLong(out, times[i] - times[i - 1]);
+    }
+    int max = 0;
+    for (int i = 0; i < size; i++) {
+      max |= steps[i];
+    }
+    int bits = 32 - Integer.numberOfLeadingZeros(max);
+    out.writeByte(bits);
+    byte[] packed = new byte[(int) (((long) size * bits + 7) / 8)];
+    long bitPosition = 0;
+    for (int i = 0; i < size; i++) {
+      for (int bit = bits - 1; bit >= 0; bit--, bitPosition++) {
+        if ((steps[i] >>> bit & 1) != 0) {
+          packed[(int) (bitPosition >>> 3)] |= 0x80 >>> (bitPosition & 7);
+        }
+      }
+    }
+    out.write(packed);
+  }
+
+  static DaySeries read(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+      throw new IOException("Not a day series");
+    }
+    int size = in.readInt();
+    if (size < 0) {
+      throw new IOException("Bad sample count " + size);
+    }
+    DaySeries series = new DaySeries(size);
+    if (size == 0) {
+      return series;
+    }
+    long time = in.readLong();
+    series.times[0] = time;
+    for (int i = 1; i < size; i++) {
+      time += readVarLong(in);
+      series.times[i] = time;
+    }
+    int bits = in.readUnsignedByte();
+    byte[] packed = new byte[(int) (((long) size * bits + 7) / 8)];
+    in.readFully(packed);
+    long bitPosition = 0;
+    for (int i = 0; i < size; i++) {
+      int value = 0;
+      for (int bit = 0; bit < bits; bit++, bitPosition++) {
+        value = value << 1 | (packed[(int) (bitPosition >>> 3)] >>> (7 - (bitPosition & 7)) & 1);
+      }
+      series.steps[i] = value;
+      series.total += value;
+    }
+    series.size = size;
+    return series;
+  }
+
+  private int lowerBound(long timeMillis) {
+    int index = Arrays.binarySearch(times, 0, size, timeMillis);
+    if (index < 0) {
+      return -(index + 1);
+    }
+    // Start times are unique, so this is the first sample at timeMillis.
+    return index;
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+}
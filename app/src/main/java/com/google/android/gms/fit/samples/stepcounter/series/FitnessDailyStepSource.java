@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.series;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.fitness.HistoryClient;
+import com.google.android.gms.fitness.data.Bucket;
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.fitness.data.Field;
+import com.google.android.gms.fitness.request.DataReadRequest;
+import com.google.android.gms.fitness.result.DataReadResponse;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DailyStepSource} backed by the History API: one aggregate request, bucketed by day,
+ * covers the whole range. Buckets are 24 hours long from the start of the range, whatever the
+ * length of the local days in it; see {@link StepHistorySync}.
+ */
+public class FitnessDailyStepSource implements DailyStepSource {
+
+  private static final OperationMetrics AGGREGATE = Metrics.operation("fitness.aggregate");
+
+  private final HistoryClient client;
+
+  public FitnessDailyStepSource(HistoryClient client) {
+    this.client = client;
+  }
+
+  @Override
+  public void readDailyTotals(long fromMillis, long toMillis, final Callback callback) {
+    DataReadRequest request = new DataReadRequest.Builder()
+        .aggregate(DataType.TYPE_STEP_COUNT_DELTA, DataType.AGGREGATE_STEP_COUNT_DELTA)
+        .bucketByTime(1, TimeUnit.DAYS)
+        .setTimeRange(fromMillis, toMillis, TimeUnit.MILLISECONDS)
+        .build();
+    TaskMetrics.track(AGGREGATE, client.readData(request), TaskMetrics.READ_DATA_POINTS)
+        .addOnSuccessListener(new OnSuccessListener<DataReadResponse>() {
+          @Override
+          public void onSuccess(DataReadResponse response) {
+            callback.onResult(toDailyTotals(response.getBuckets()));
+          }
+        })
+        .addOnFailureListener(new OnFailureListener() {
+          @Override
+          public void onFailure(@NonNull Exception e) {
+            callback.onError(e);
+          }
+        });
+  }
+
+  private static List<DailyTotal> toDailyTotals(List<Bucket> buckets) {
+    List<DailyTotal> totals = new ArrayList<>();
+    for (Bucket bucket : buckets) {
+      DataSet dataSet = bucket.getDataSet(DataType.AGGREGATE_STEP_COUNT_DELTA);
+      if (dataSet == null || dataSet.isEmpty()) {
+        continue;
+      }
+      int steps = 0;
+      for (DataPoint point : dataSet.getDataPoints()) {
+        steps += point.getValue(Field.FIELD_STEPS).asInt();
+      }
+      totals.add(new DailyTotal(bucket.getStartTime(TimeUnit.MILLISECONDS), steps));
+    }
+    return totals;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.series;
+
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.Field;
+
+import java.util.concurrent.TimeUnit;
+
+/** Feeds Google Fit step data into a {@link StepSeriesStore}. */
+public final class StepDataSets {
+
+  private StepDataSets() {
+  }
+
+  /**
+   * Ingests every {@code TYPE_STEP_COUNT_DELTA} data point of {@code dataSet}.
+   *
+   * @return The number of data points ingested.
+   */
+  public static int ingest(StepSeriesStore store, DataSet dataSet) {
+    if (dataSet == null || dataSet.isEmpty()) {
+      return 0;
+    }
+    int count = 0;
+    for (DataPoint point : dataSet.getDataPoints()) {
+      store.ingest(point.getStartTime(TimeUnit.MILLISECONDS),
+          point.getValue(Field.FIELD_STEPS).asInt());
+      count++;
+    }
+    return count;
+  }
+}
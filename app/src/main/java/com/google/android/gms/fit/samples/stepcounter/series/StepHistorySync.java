@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.series;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies per-day step totals from a {@link DailyStepSource} into a {@link StepSeriesStore}.
+ *
+ * <p>A range is split into windows of several days, each read with a single request, and a few
+ * windows are read at the same time; a year of history takes a handful of requests instead of one
+ * per day. Results are merged with {@link StepSeriesStore#putDailyTotal} as they arrive.</p>
+ *
+ * <p>Sources bucket a window into 24-hour days counted from its start, which only line up with
+ * local midnights while every day is 24 hours long. A day that isn't, around a daylight saving
+ * change, is therefore read as a window of its own, and totals are added up by the local day
+ * their bucket starts in.</p>
+ *
+ * <p>Not thread-safe; the source must call back on the thread that started the sync.</p>
+ */
+public class StepHistorySync {
+
+  private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  public interface Callback {
+    /** Called once every window has been merged, with the number of days that changed. */
+    void onSynced(int changedDays);
+
+    /** Called once every window has settled, if any of them failed. */
+    void onError(Exception e);
+  }
+
+  private final DailyStepSource source;
+  private final StepSeriesStore store;
+  private final int windowDays;
+  private final int maxParallel;
+
+  /**
+   * @param windowDays Number of days read by each request.
+   * @param maxParallel Number of requests in flight at the same time.
+   */
+  public StepHistorySync(
+      DailyStepSource source, StepSeriesStore store, int windowDays, int maxParallel) {
+    this.source = source;
+    this.store = store;
+    this.windowDays = Math.max(windowDays, 1);
+    this.maxParallel = Math.max(maxParallel, 1);
+  }
+
+  /**
+   * Syncs the local days in [{@code fromMillis}, {@code toMillis}). Only pass complete days that
+   * no longer receive samples through {@link StepSeriesStore#ingest}, typically ending at the start
+   * of today.
+   */
+  public void sync(long fromMillis, long toMillis, Callback callback) {
+    Queue<long[]> windows = new ArrayDeque<>();
+    long windowStart = store.dayStart(fromMillis);
+    while (windowStart < toMillis) {
+      long windowEnd = windowStart;
+      for (int i = 0; i < windowDays && windowEnd < toMillis; i++) {
+        long dayEnd = store.nextDayStart(windowEnd);
+        boolean irregular = dayEnd - windowEnd != DAY_MILLIS;
+        if (irregular && windowEnd > windowStart) {
+          break;
+        }
+        windowEnd = dayEnd;
+        if (irregular) {
+          break;
+        }
+      }
+      windowEnd = Math.min(windowEnd, toMillis);
+      windows.add(new long[] {windowStart, windowEnd});
+      windowStart = windowEnd;
+    }
+    new Run(windows, callback).startMore();
+  }
+
+  /** State of one call to {@link #sync}. */
+  private class Run implements DailyStepSource.Callback {
+    private final Queue<long[]> windows;
+    private final Callback callback;
+    private int inFlight;
+    private int changedDays;
+    private Exception error;
+    private boolean starting;
+    private boolean finished;
+
+    Run(Queue<long[]> windows, Callback callback) {
+      this.windows = windows;
+      this.callback = callback;
+    }
+
+    void startMore() {
+      if (starting) {
+        // A source that calls back synchronously lands here; the loop below carries on.
+        return;
+      }
+      starting = true;
+      while (inFlight < maxParallel && !windows.isEmpty()) {
+        long[] window = windows.poll();
+        inFlight++;
+        source.readDailyTotals(window[0], window[1], this);
+      }
+      starting = false;
+      if (inFlight == 0 && windows.isEmpty() && !finished) {
+        finished = true;
+        if (error != null) {
+          callback.onError(error);
+        } else {
+          callback.onSynced(changedDays);
+        }
+      }
+    }
+
+    @Override
+    public void onResult(List<DailyTotal> totals) {
+      // A 25-hour day comes back as a 24-hour bucket and a 1-hour one.
+      Map<Long, Integer> days = new LinkedHashMap<>();
+      for (DailyTotal total : totals) {
+        long day = store.dayStart(total.getStartMillis());
+        Integer steps = days.get(day);
+        days.put(day, (steps == null ? 0 : steps) + total.getSteps());
+      }
+      for (Map.Entry<Long, Integer> day : days.entrySet()) {
+        if (store.putDailyTotal(day.getKey(), day.getValue())) {
+          changedDays++;
+        }
+      }
+      inFlight--;
+      startMore();
+    }
+
+    @Override
+    public void onError(Exception e) {
+      if (error == null) {
+        error = e;
+      }
+      inFlight--;
+      startMore();
+    }
+  }
+}
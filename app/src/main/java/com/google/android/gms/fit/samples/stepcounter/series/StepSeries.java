@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.series;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.fitness.HistoryClient;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.fitness.request.DataReadRequest;
+import com.google.android.gms.fitness.result.DataReadResponse;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The app's {@link StepSeriesStore}, confined to a single background executor so its disk reads
+ * and writes stay off the main thread. Every method returns at once; results are delivered through
+ * the {@link TaskScope} passed with the call.
+ */
+public class StepSeries {
+
+  /** Notified when a read into the series is done. */
+  public interface Callback {
+    void onSuccess();
+
+    void onError(Exception e);
+  }
+
+  /** Receives step totals read from the series. */
+  public interface TotalsCallback {
+    /** @param totals Steps of consecutive local days, oldest first, ending with today. */
+    void onDailyTotals(long[] totals);
+  }
+
+  private static final OperationMetrics READ_DATA = Metrics.operation("fitness.readData");
+
+  private final Executor executor;
+  // Only touched on the executor, which also opens it.
+  private StepSeriesStore store;
+
+  /**
+   * @param directory Directory of the store, opened on {@code executor}.
+   * @param executor Runs one task at a time, such as a single-thread executor.
+   */
+  public StepSeries(final File directory, Executor executor) {
+    this.executor = executor;
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        store = new StepSeriesStore(directory);
+      }
+    });
+  }
+
+  /**
+   * Copies the daily totals of the {@code days} complete days before today from {@code source}
+   * into the series, a window of {@code windowDays} days per request.
+   */
+  public void syncDays(final DailyStepSource source, final int days, final int windowDays,
+      final int maxParallel, final TaskScope scope, final StepHistorySync.Callback callback) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        long today = store.dayStart(System.currentTimeMillis());
+        new StepHistorySync(onExecutor(source), store, windowDays, maxParallel)
+            .sync(today - TimeUnit.DAYS.toMillis(days), today, new StepHistorySync.Callback() {
+              @Override
+              public void onSynced(final int changedDays) {
+                scope.deliver(new Runnable() {
+                  @Override
+                  public void run() {
+                    callback.onSynced(changedDays);
+                  }
+                });
+              }
+
+              @Override
+              public void onError(Exception e) {
+                deliverError(scope, callback, e);
+              }
+            });
+      }
+    });
+  }
+
+  /** Copies today's individual step samples from the History API into the series. */
+  public void readToday(final HistoryClient client, final TaskScope scope,
+      final Callback callback) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        long now = System.currentTimeMillis();
+        DataReadRequest request = new DataReadRequest.Builder()
+            .read(DataType.TYPE_STEP_COUNT_DELTA)
+            .setTimeRange(store.dayStart(now), now, TimeUnit.MILLISECONDS)
+            .build();
+        TaskMetrics.track(READ_DATA, client.readData(request), TaskMetrics.READ_DATA_POINTS)
+            .addOnCompleteListener(executor, new OnCompleteListener<DataReadResponse>() {
+              @Override
+              public void onComplete(@NonNull Task<DataReadResponse> task) {
+                if (!task.isSuccessful()) {
+                  deliverError(scope, callback, task.getException());
+                  return;
+                }
+                StepDataSets.ingest(
+                    store, task.getResult().getDataSet(DataType.TYPE_STEP_COUNT_DELTA));
+                scope.deliver(new Runnable() {
+                  @Override
+                  public void run() {
+                    callback.onSuccess();
+                  }
+                });
+              }
+            });
+      }
+    });
+  }
+
+  /** Reads the step totals of the last {@code days} local days, today included. */
+  public void readDailyTotals(final int days, final TaskScope scope,
+      final TotalsCallback callback) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        long today = store.dayStart(System.currentTimeMillis());
+        final long[] totals =
+            store.getDailyTotals(today - TimeUnit.DAYS.toMillis(days - 1), days);
+        scope.deliver(new Runnable() {
+          @Override
+          public void run() {
+            callback.onDailyTotals(totals);
+          }
+        });
+      }
+    });
+  }
+
+  /** Writes the samples not saved yet to disk. */
+  public void flush() {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        store.flush();
+      }
+    });
+  }
+
+  /** Wraps {@code source} so its results reach the sync on the store's executor. */
+  private DailyStepSource onExecutor(final DailyStepSource source) {
+    return new DailyStepSource() {
+      @Override
+      public void readDailyTotals(long fromMillis, long toMillis, final Callback callback) {
+        source.readDailyTotals(fromMillis, toMillis, new Callback() {
+          @Override
+          public void onResult(final List<DailyTotal> totals) {
+            executor.execute(new Runnable() {
+              @Override
+              public void run() {
+                callback.onResult(totals);
+              }
+            });
+          }
+
+          @Override
+          public void onError(final Exception e) {
+            executor.execute(new Runnable() {
+              @Override
+              public void run() {
+                callback.onError(e);
+              }
+            });
+          }
+        });
+      }
+    };
+  }
+
+  private static void deliverError(TaskScope scope, final StepHistorySync.Callback callback,
+      final Exception e) {
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        callback.onError(e);
+      }
+    });
+  }
+
+  private static void deliverError(TaskScope scope, final Callback callback, final Exception e) {
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        callback.onError(e);
+      }
+    });
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.series;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * On-device store of step samples ({@code TYPE_STEP_COUNT_DELTA} data points), one compact
+ * columnar file per local day, so step history can be summed without a round-trip to the History
+ * API or Firestore.
+ *
+ * <p>Recently used days are kept decoded in memory; new samples go to memory first and reach disk
+ * on {@link #flush()}, or when their day is evicted from memory.</p>
+ *
+ * <p>Not thread-safe; call it from a single thread.</p>
+ */
+public class StepSeriesStore {
+
+  private static final String FILE_SUFFIX = ".steps";
+  private static final int DEFAULT_CACHED_DAYS = 16;
+
+  private final File directory;
+  private final Calendar calendar;
+  private final int maxCachedDays;
+  private final Map<Integer, DaySeries> days;
+  private final Set<Integer> dirtyDays = new HashSet<>();
+  // Bounds of the day most recently looked up, so runs of samples from one day skip the calendar.
+  private long cachedDayStart = Long.MAX_VALUE;
+  private long cachedDayEnd = Long.MIN_VALUE;
+  private int cachedDayKey;
+
+  public StepSeriesStore(File directory) {
+    this(directory, TimeZone.getDefault(), DEFAULT_CACHED_DAYS);
+  }
+
+  /**
+   * @param directory Directory holding the per-day files; created if missing.
+   * @param timeZone Time zone whose midnights separate the days.
+   * @param maxCachedDays Number of decoded days kept in memory.
+   */
+  public StepSeriesStore(File directory, TimeZone timeZone, int maxCachedDays) {
+    this.directory = directory;
+    this.calendar = Calendar.getInstance(timeZone);
+    this.maxCachedDays = Math.max(maxCachedDays, 1);
+    this.days = new LinkedHashMap<Integer, DaySeries>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, DaySeries> eldest) {
+        if (size() <= StepSeriesStore.this.maxCachedDays) {
+          return false;
+        }
+        if (dirtyDays.remove(eldest.getKey())) {
+          write(eldest.getKey(), eldest.getValue());
+        }
+        return true;
+      }
+    };
+    directory.mkdirs();
+  }
+
+  /**
+   * Records {@code steps} steps for the sample starting at {@code startMillis}. Ingesting a sample
+   * with the same start time again replaces it rather than adding to it.
+   */
+  public void ingest(long startMillis, int steps) {
+    int day = dayKey(startMillis);
+    getOrLoad(day).put(startMillis, Math.max(steps, 0));
+    dirtyDays.add(day);
+  }
+
+  /**
+   * Records the step total of a whole local day, as reported by an aggregate query. If the day's
+   * samples already add up to at least {@code steps} they are kept, since they are finer grained;
+   * otherwise the day is replaced by a single sample at its start.
+   *
+   * <p>Don't use this for a day that is still receiving samples through {@link #ingest}: samples
+   * added later would be counted on top of the aggregate.</p>
+   *
+   * @return true if the day changed.
+   */
+  public boolean putDailyTotal(long timeMillis, int steps) {
+    long dayStart = dayStart(timeMillis);
+    int day = dayKey(dayStart);
+    DaySeries series = getOrLoad(day);
+    if (series.total() >= steps) {
+      return false;
+    }
+    series.clear();
+    series.put(dayStart, steps);
+    dirtyDays.add(day);
+    return true;
+  }
+
+  /** Returns the steps of the samples starting in [{@code fromMillis}, {@code toMillis}). */
+  public long sum(long fromMillis, long toMillis) {
+    long sum = 0;
+    long dayStart = dayStart(fromMillis);
+    while (dayStart < toMillis) {
+      long dayEnd = nextDayStart(dayStart);
+      DaySeries series = getOrLoad(dayKey(dayStart));
+      sum += series.sum(Math.max(fromMillis, dayStart), Math.min(toMillis, dayEnd));
+      dayStart = dayEnd;
+    }
+    return sum;
+  }
+
+  /** Returns the step total of the local day containing {@code timeMillis}. */
+  public long getDailyTotal(long timeMillis) {
+    return getOrLoad(dayKey(timeMillis)).total();
+  }
+
+  /**
+   * Returns the step totals of {@code count} consecutive local days, starting with the day
+   * containing {@code fromMillis}.
+   */
+  public long[] getDailyTotals(long fromMillis, int count) {
+    long[] totals = new long[count];
+    long dayStart = dayStart(fromMillis);
+    for (int i = 0; i < count; i++) {
+      totals[i] = getOrLoad(dayKey(dayStart)).total();
+      dayStart = nextDayStart(dayStart);
+    }
+    return totals;
+  }
+
+  /** Writes every day with unsaved samples to disk. */
+  public void flush() {
+    Iterator<Integer> dirty = dirtyDays.iterator();
+    while (dirty.hasNext()) {
+      Integer day = dirty.next();
+      DaySeries series = days.get(day);
+      if (series != null) {
+        write(day, series);
+      }
+      dirty.remove();
+    }
+  }
+
+  /** Returns the start of the local day containing {@code timeMillis}, in epoch millis. */
+  public long dayStart(long timeMillis) {
+    dayKey(timeMillis);
+    return cachedDayStart;
+  }
+
+  /** Returns the start of the local day after the one containing {@code timeMillis}. */
+  public long nextDayStart(long timeMillis) {
+    calendar.setTimeInMillis(dayStart(timeMillis));
+    calendar.add(Calendar.DAY_OF_MONTH, 1);
+    return calendar.getTimeInMillis();
+  }
+
+  /** Returns the local day containing {@code timeMillis} as yyyyMMdd. */
+  private int dayKey(long timeMillis) {
+    if (timeMillis >= cachedDayStart && timeMillis < cachedDayEnd) {
+      return cachedDayKey;
+    }
+    calendar.setTimeInMillis(timeMillis);
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    cachedDayKey = calendar.get(Calendar.YEAR) * 10000
+        + (calendar.get(Calendar.MONTH) + 1) * 100
+        + calendar.get(Calendar.DAY_OF_MONTH);
+    cachedDayStart = calendar.getTimeInMillis();
+    calendar.add(Calendar.DAY_OF_MONTH, 1);
+    cachedDayEnd = calendar.getTimeInMillis();
+    return cachedDayKey;
+  }
+
+  private DaySeries getOrLoad(int day) {
+    DaySeries series = days.get(day);
+    if (series == null) {
+      series = read(day);
+      days.put(day, series);
+    }
+    return series;
+  }
+
+  private File fileFor(int day) {
+    return new File(directory, day + FILE_SUFFIX);
+  }
+
+  private DaySeries read(int day) {
+    File file = fileFor(day);
+    if (!file.exists()) {
+      return new DaySeries();
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      return DaySeries.read(in);
+    } catch (IOException e) {
+      // A damaged day starts over empty; its samples are ingested again on the next sync.
+      return new DaySeries();
+    } finally {
+      closeQuietly(in);
+    }
+  }
+
+  private void write(int day, DaySeries series) {
+    // Write to a temporary file and rename it, so a crash never leaves a half-written day.
+    File file = fileFor(day);
+    File tmp = new File(directory, day + FILE_SUFFIX + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      series.write(out);
+      out.close();
+      out = null;
+      if (!tmp.renameTo(file)) {
+        file.delete();
+        tmp.renameTo(file);
+      }
+    } catch (IOException e) {
+      // The samples are still in memory until evicted, and are ingested again on the next sync.
+    } finally {
+      closeQuietly(out);
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Nothing left to do.
+      }
+    }
+  }
+}
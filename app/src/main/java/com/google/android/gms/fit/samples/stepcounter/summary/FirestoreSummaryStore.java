@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.summary;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Documents;
+import com.google.android.gms.fit.samples.stepcounter.data.FirestoreDocuments;
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.TaskMetrics;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/** Reads and rolls up the summary documents of {@link SummaryRollup} in Firestore. */
+public class FirestoreSummaryStore {
+
+  private static final OperationMetrics GET = Metrics.operation("firestore.summaries.get");
+  private static final OperationMetrics ROLL_UP = Metrics.operation("firestore.summaries.rollUp");
+
+  private final FirebaseFirestore db;
+
+  public FirestoreSummaryStore(FirebaseFirestore db) {
+    this.db = db;
+  }
+
+  /** Reads the summary document of {@code email}; missing documents have null data. */
+  public Task<DocumentSnapshot> getSummary(String email) {
+    return TaskMetrics.track(GET, db.document(SummaryRollup.summaryPath(email)).get(), 1);
+  }
+
+  /** Reads the archive of {@code email}'s months in {@code year}. */
+  public Task<DocumentSnapshot> getYear(String email, int year) {
+    return TaskMetrics.track(GET, db.document(SummaryRollup.yearPath(email, year)).get(), 1);
+  }
+
+  /** Rolls {@code workouts}, all of {@code email}, into the summary in a transaction of its own. */
+  public Task<Void> rollUp(final String email, final List<PendingWorkout> workouts) {
+    final TimeZone timeZone = TimeZone.getDefault();
+    Task<Void> rollUp = db.runTransaction(new Transaction.Function<Void>() {
+      @Override
+      public Void apply(@NonNull Transaction transaction) throws FirebaseFirestoreException {
+        Documents<FirebaseFirestoreException> documents = FirestoreDocuments.of(db, transaction);
+        SummaryRollup.read(documents, email, workouts, timeZone).write(documents);
+        return null;
+      }
+    });
+    return TaskMetrics.track(ROLL_UP, rollUp, workouts.size());
+  }
+
+  /** Converts a summary document read by {@link #getSummary(String)}. */
+  public static UserSummary toSummary(String email, DocumentSnapshot document) {
+    return UserSummary.fromMap(email, document.getData());
+  }
+
+  /** Returns the months of a year archive read by {@link #getYear(String, int)}. */
+  public static Map<Integer, MonthSummary> toMonths(DocumentSnapshot document) {
+    Map<String, Object> fields = document.getData();
+    return MonthSummary.monthsFromMap(
+        fields == null ? null : fields.get(UserSummary.FIELD_MONTHS));
+  }
+}
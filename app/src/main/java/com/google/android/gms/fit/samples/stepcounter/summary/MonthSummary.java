@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.summary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * One user's daily step totals for a calendar month, packed into arrays indexed by day of month,
+ * along with the minute of the day each total was recorded at.
+ *
+ * <p>Stored as a map entry keyed by the month, e.g. {@code "201910"}, holding two number arrays
+ * trimmed after the last logged day. Not thread-safe.</p>
+ */
+public class MonthSummary {
+
+  static final String FIELD_STEPS = "steps";
+  static final String FIELD_MINUTES = "minutes";
+
+  static final int MAX_DAYS = 31;
+  // Minute of a day without a total.
+  private static final int NONE = -1;
+
+  private final int month;
+  private final int[] steps = new int[MAX_DAYS];
+  private final int[] minutes = new int[MAX_DAYS];
+
+  /**
+   * @param month The month as {@code yyyyMM}, e.g. {@code 201910}.
+   */
+  public MonthSummary(int month) {
+    this.month = month;
+    Arrays.fill(minutes, NONE);
+  }
+
+  /** Returns the month as {@code yyyyMM}. */
+  public int getMonth() {
+    return month;
+  }
+
+  public boolean has(int dayOfMonth) {
+    return minutes[dayOfMonth - 1] != NONE;
+  }
+
+  /** Returns the steps of {@code dayOfMonth}, or 0 if it has none. */
+  public int getSteps(int dayOfMonth) {
+    return steps[dayOfMonth - 1];
+  }
+
+  /** Returns the minute of the day the total of {@code dayOfMonth} was recorded at. */
+  public int getMinute(int dayOfMonth) {
+    return minutes[dayOfMonth - 1];
+  }
+
+  /**
+   * Sets the total of {@code dayOfMonth}, unless the one it has was recorded later in the day.
+   * Applying the same or older totals again therefore changes nothing.
+   *
+   * @return Whether the day changed.
+   */
+  public boolean put(int dayOfMonth, int steps, int minute) {
+    int i = dayOfMonth - 1;
+    if (minutes[i] > minute || (minutes[i] == minute && this.steps[i] == steps)) {
+      return false;
+    }
+    this.steps[i] = steps;
+    minutes[i] = minute;
+    return true;
+  }
+
+  /** Returns the local time {@code dayOfMonth} was recorded at, in epoch millis. */
+  public long getRecordedAt(int dayOfMonth, TimeZone timeZone) {
+    Calendar calendar = Calendar.getInstance(timeZone);
+    calendar.clear();
+    calendar.set(month / 100, month % 100 - 1, dayOfMonth,
+        minutes[dayOfMonth - 1] / 60, minutes[dayOfMonth - 1] % 60);
+    return calendar.getTimeInMillis();
+  }
+
+  /** Encodes the arrays, leaving out the days after the last logged one. */
+  Map<String, Object> toMap() {
+    int length = MAX_DAYS;
+    while (length > 0 && minutes[length - 1] == NONE) {
+      length--;
+    }
+    List<Long> stepList = new ArrayList<>(length);
+    List<Long> minuteList = new ArrayList<>(length);
+    for (int i = 0; i < length; i++) {
+      stepList.add((long) steps[i]);
+      minuteList.add((long) minutes[i]);
+    }
+    Map<String, Object> map = new TreeMap<>();
+    map.put(FIELD_STEPS, stepList);
+    map.put(FIELD_MINUTES, minuteList);
+    return map;
+  }
+
+  static MonthSummary fromMap(int month, Map<?, ?> map) {
+    MonthSummary summary = new MonthSummary(month);
+    List<?> stepList = (List<?>) map.get(FIELD_STEPS);
+    List<?> minuteList = (List<?>) map.get(FIELD_MINUTES);
+    int length = Math.min(Math.min(stepList.size(), minuteList.size()), MAX_DAYS);
+    for (int i = 0; i < length; i++) {
+      summary.steps[i] = ((Number) stepList.get(i)).intValue();
+      summary.minutes[i] = ((Number) minuteList.get(i)).intValue();
+    }
+    return summary;
+  }
+
+  /** Encodes {@code months} as a map keyed by month. */
+  static Map<String, Object> toMap(Iterable<MonthSummary> months) {
+    Map<String, Object> map = new TreeMap<>();
+    for (MonthSummary month : months) {
+      map.put(String.valueOf(month.getMonth()), month.toMap());
+    }
+    return map;
+  }
+
+  /** Decodes a map written by {@link #toMap(Iterable)}; empty if {@code value} is null. */
+  static SortedMap<Integer, MonthSummary> monthsFromMap(Object value) {
+    SortedMap<Integer, MonthSummary> months = new TreeMap<>();
+    if (value instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        int month = Integer.parseInt(entry.getKey().toString());
+        months.put(month, fromMap(month, (Map<?, ?>) entry.getValue()));
+      }
+    }
+    return months;
+  }
+}
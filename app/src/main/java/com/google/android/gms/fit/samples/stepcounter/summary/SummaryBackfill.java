@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.summary;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.data.FirestoreWorkoutSource;
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rolls the workouts a user uploaded before summaries existed into their summary, a page at a
+ * time, each page in a transaction of its own.
+ *
+ * <p>Pages come in document id order rather than by recording time, so documents written before
+ * {@code recordedAt} existed are visited too; their display date stands in for it. Uploads keep
+ * rolling up while it runs; since a day's total only gives way to one recorded later, the order
+ * doesn't matter. Running it again rolls up the same workouts to the same result.</p>
+ */
+public class SummaryBackfill {
+
+  // Workouts read per page and rolled up per transaction.
+  private static final int PAGE_SIZE = 500;
+
+  public interface Callback {
+    void onBackfilled(int workouts);
+
+    void onError(Exception e);
+  }
+
+  private final FirebaseFirestore db;
+  private final FirestoreSummaryStore store;
+  private final String email;
+  private final TaskScope scope;
+
+  public SummaryBackfill(FirebaseFirestore db, FirestoreSummaryStore store, String email,
+      TaskScope scope) {
+    this.db = db;
+    this.store = store;
+    this.email = email;
+    this.scope = scope;
+  }
+
+  public void run(Callback callback) {
+    backfillPage(null, 0, callback);
+  }
+
+  private void backfillPage(DocumentSnapshot after, final int backfilled,
+      final Callback callback) {
+    Query query = db.collection(FirestoreWorkoutSource.COLLECTION)
+        .whereEqualTo(FirestoreWorkoutSource.FIELD_EMAIL, email)
+        .limit(PAGE_SIZE);
+    if (after != null) {
+      query = query.startAfter(after);
+    }
+    query.get().addOnCompleteListener(scope.getBackground(),
+        new OnCompleteListener<QuerySnapshot>() {
+          @Override
+          public void onComplete(@NonNull Task<QuerySnapshot> task) {
+            if (scope.isCancelled()) {
+              return;
+            }
+            if (!task.isSuccessful()) {
+              fail(task.getException(), callback);
+              return;
+            }
+            QuerySnapshot page = task.getResult();
+            List<Workout> workouts = new ArrayList<>(page.size());
+            DocumentSnapshot last = null;
+            for (DocumentSnapshot document : page) {
+              last = document;
+              workouts.add(FirestoreWorkoutSource.toWorkout(document));
+            }
+            final DocumentSnapshot cursor = last;
+            final boolean done = page.size() < PAGE_SIZE;
+            final int total = backfilled + workouts.size();
+            List<PendingWorkout> pending = toPending(workouts);
+            if (pending.isEmpty()) {
+              next(cursor, total, done, callback);
+              return;
+            }
+            store.rollUp(email, pending).addOnCompleteListener(scope.getBackground(),
+                new OnCompleteListener<Void>() {
+                  @Override
+                  public void onComplete(@NonNull Task<Void> rollUp) {
+                    if (rollUp.isSuccessful()) {
+                      next(cursor, total, done, callback);
+                    } else {
+                      fail(rollUp.getException(), callback);
+                    }
+                  }
+                });
+          }
+        });
+  }
+
+  private void next(DocumentSnapshot cursor, final int backfilled, boolean done,
+      final Callback callback) {
+    if (!done) {
+      backfillPage(cursor, backfilled, callback);
+      return;
+    }
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        callback.onBackfilled(backfilled);
+      }
+    });
+  }
+
+  private void fail(final Exception e, final Callback callback) {
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        callback.onError(e);
+      }
+    });
+  }
+
+  // Workouts with neither a recording time nor a readable date can't be placed on a day.
+  private static List<PendingWorkout> toPending(List<Workout> page) {
+    List<PendingWorkout> pending = new ArrayList<>(page.size());
+    for (Workout workout : page) {
+      if (workout.getRecordedAt() != 0) {
+        pending.add(new PendingWorkout(workout.getId(), workout.getEmail(), workout.getSteps(),
+            workout.getRecordedAt()));
+      }
+    }
+    return pending;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.summary;
+
+import android.content.SharedPreferences;
+
+import com.google.android.gms.fit.samples.common.logger.Log;
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.history.FirestoreHistorySource;
+import com.google.android.gms.fit.samples.stepcounter.history.HistoryPageSource;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+/**
+ * Chooses where a user's history is read from: every workout document until their summary has
+ * been backfilled on this install, the summary documents after.
+ */
+public class SummaryHistory {
+
+  private static final String TAG = "SummaryHistory";
+  // Followed by the account, whose summary holds every workout it uploaded once this is set.
+  private static final String PREF_BACKFILLED = "summaryBackfilled:";
+
+  private final SharedPreferences prefs;
+  private final FirebaseFirestore db;
+  private final TaskScope scope;
+
+  public SummaryHistory(SharedPreferences prefs, FirebaseFirestore db, TaskScope scope) {
+    this.prefs = prefs;
+    this.db = db;
+    this.scope = scope;
+  }
+
+  /** Returns whether the summary of {@code email} holds every workout it uploaded. */
+  public boolean isBackfilled(String email) {
+    return prefs.getBoolean(PREF_BACKFILLED + email, false);
+  }
+
+  /** Returns the history of {@code email}, newest first. */
+  public HistoryPageSource<?> source(String email) {
+    if (isBackfilled(email)) {
+      return new SummaryHistorySource(new FirestoreSummaryStore(db), email, scope);
+    }
+    return new FirestoreHistorySource(db, email, scope);
+  }
+
+  /**
+   * Rolls the workouts {@code email} uploaded before summaries existed into its summary, unless
+   * that is done already. A failed backfill is tried again on the next call.
+   */
+  public void backfill(String email) {
+    final String key = PREF_BACKFILLED + email;
+    if (prefs.getBoolean(key, false)) {
+      return;
+    }
+    new SummaryBackfill(db, new FirestoreSummaryStore(db), email, scope).run(
+        new SummaryBackfill.Callback() {
+          @Override
+          public void onBackfilled(int workouts) {
+            Log.i(TAG, "Rolled " + workouts + " workouts into the summary");
+            prefs.edit().putBoolean(key, true).apply();
+          }
+
+          @Override
+          public void onError(Exception e) {
+            Log.w(TAG, "Summary backfill failed; retrying on next launch", e);
+          }
+        });
+  }
+}
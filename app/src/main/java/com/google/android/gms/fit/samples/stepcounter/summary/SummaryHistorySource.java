@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.summary;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+import com.google.android.gms.fit.samples.stepcounter.history.HistoryPageSource;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * {@link HistoryPageSource} reading a user's daily totals from their summary documents, one
+ * document per page: the first page is every month of the summary document, and each following
+ * page is one archived year, newest first. The page size is ignored.
+ *
+ * <p>The cursor is the list of archived years still to load, newest first. Workouts are rebuilt
+ * from the summary, so their recording time is to the minute and their upload time is unknown.</p>
+ */
+public class SummaryHistorySource implements HistoryPageSource<List<Integer>> {
+
+  private final FirestoreSummaryStore store;
+  private final String email;
+  private final TaskScope scope;
+
+  public SummaryHistorySource(FirestoreSummaryStore store, String email, TaskScope scope) {
+    this.store = store;
+    this.email = email;
+    this.scope = scope;
+  }
+
+  @Override
+  public void loadPage(final List<Integer> after, int pageSize,
+      final Callback<List<Integer>> callback) {
+    Task<DocumentSnapshot> get = after == null
+        ? store.getSummary(email)
+        : store.getYear(email, after.get(0));
+    get.addOnCompleteListener(scope.getBackground(), new OnCompleteListener<DocumentSnapshot>() {
+      @Override
+      public void onComplete(@NonNull final Task<DocumentSnapshot> task) {
+        if (scope.isCancelled()) {
+          return;
+        }
+        if (!task.isSuccessful()) {
+          scope.deliver(new Runnable() {
+            @Override
+            public void run() {
+              callback.onError(task.getException());
+            }
+          });
+          return;
+        }
+        final List<Workout> workouts;
+        List<Integer> remaining;
+        if (after == null) {
+          UserSummary summary = FirestoreSummaryStore.toSummary(email, task.getResult());
+          workouts = toWorkouts(summary.getMonths().values());
+          remaining = new ArrayList<>(summary.getArchivedYears());
+          Collections.reverse(remaining);
+        } else {
+          workouts = toWorkouts(FirestoreSummaryStore.toMonths(task.getResult()).values());
+          remaining = new ArrayList<>(after.subList(1, after.size()));
+        }
+        final List<Integer> next = remaining.isEmpty() ? null : remaining;
+        scope.deliver(new Runnable() {
+          @Override
+          public void run() {
+            callback.onPage(workouts, next);
+          }
+        });
+      }
+    });
+  }
+
+  /** Returns a workout for every logged day of {@code months}, given oldest first, newest first. */
+  private List<Workout> toWorkouts(Collection<MonthSummary> months) {
+    TimeZone timeZone = TimeZone.getDefault();
+    List<Workout> workouts = new ArrayList<>();
+    for (MonthSummary month : months) {
+      for (int day = 1; day <= MonthSummary.MAX_DAYS; day++) {
+        if (month.has(day)) {
+          long recordedAt = month.getRecordedAt(day, timeZone);
+          String id = PendingWorkout.idFor(email, String.valueOf(month.getMonth() * 100 + day));
+          workouts.add(new Workout(id, email, month.getSteps(day), recordedAt, 0));
+        }
+      }
+    }
+    Collections.reverse(workouts);
+    return workouts;
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.summary;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Documents;
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Rolls uploaded workouts into the summary documents of their user, as part of the transaction
+ * that uploads them.
+ *
+ * <p>Each user has a {@link UserSummary} at {@code userSummaries/{user}} holding the daily totals
+ * of its {@link #INLINE_MONTHS} most recent months, so recent history is a single read. Older
+ * months are compacted into one archive per year at {@code userSummaries/{user}/years/{yyyy}},
+ * whose {@code months} field has the same layout. Every archived month is older than every month
+ * of the summary document.</p>
+ *
+ * <p>A workout's day comes from its id, see {@link PendingWorkout#idFor(String, String)}, and
+ * replaces the day's total unless the total there was recorded later in the day. Rolling up the
+ * same workouts again, in any order, therefore leaves the documents as they are, which makes it
+ * safe to backfill while uploads go on.</p>
+ */
+public final class SummaryRollup {
+
+  /** Months of daily totals kept in the summary document itself. */
+  public static final int INLINE_MONTHS = 12;
+
+  static final String COLLECTION = "userSummaries";
+  static final String YEARS = "years";
+
+  /** The writes of one roll-up, to apply once every read of the transaction is done. */
+  public static class Update {
+
+    private final String path;
+    private final UserSummary summary;
+    private final boolean changed;
+    private final String email;
+    private final Map<Integer, SortedMap<Integer, MonthSummary>> changedYears;
+
+    Update(String path, UserSummary summary, boolean changed,
+        Map<Integer, SortedMap<Integer, MonthSummary>> changedYears) {
+      this.path = path;
+      this.summary = summary;
+      this.changed = changed;
+      this.email = summary.getEmail();
+      this.changedYears = changedYears;
+    }
+
+    /** Returns the summary after the roll-up. */
+    public UserSummary getSummary() {
+      return summary;
+    }
+
+    /** Returns the number of documents {@link #write(Documents)} sets. */
+    public int size() {
+      return (changed ? 1 : 0) + changedYears.size();
+    }
+
+    public void write(Documents<?> documents) {
+      for (Map.Entry<Integer, SortedMap<Integer, MonthSummary>> year : changedYears.entrySet()) {
+        Map<String, Object> fields = new TreeMap<>();
+        fields.put(UserSummary.FIELD_EMAIL, email);
+        fields.put(UserSummary.FIELD_MONTHS, MonthSummary.toMap(year.getValue().values()));
+        documents.set(yearPath(email, year.getKey()), fields);
+      }
+      if (changed) {
+        documents.set(path, summary.toMap());
+      }
+    }
+  }
+
+  private SummaryRollup() {
+  }
+
+  /** Returns the path of the summary document of {@code email}. */
+  public static String summaryPath(String email) {
+    return COLLECTION + "/" + PendingWorkout.keyFor(email);
+  }
+
+  /** Returns the path of the archive of {@code email}'s months in {@code year}. */
+  public static String yearPath(String email, int year) {
+    return summaryPath(email) + "/" + YEARS + "/" + year;
+  }
+
+  /**
+   * Reads the documents {@code workouts} touch and computes their new contents, compacting months
+   * beyond {@link #INLINE_MONTHS} into their year archive.
+   * @param workouts Workouts of {@code email}, in any order.
+   * @param timeZone Zone of the days of workouts whose id has none.
+   */
+  public static <E extends Exception> Update read(Documents<E> documents, String email,
+      List<PendingWorkout> workouts, TimeZone timeZone) throws E {
+    String path = summaryPath(email);
+    UserSummary summary = UserSummary.fromMap(email, documents.get(path));
+    SortedMap<Integer, MonthSummary> inline = summary.getMonths();
+    Map<Integer, SortedMap<Integer, MonthSummary>> years = new TreeMap<>();
+    TreeSet<Integer> changedYears = new TreeSet<>();
+    boolean changed = false;
+    Calendar calendar = Calendar.getInstance(timeZone);
+    String idPrefix = PendingWorkout.idFor(email, "");
+
+    for (PendingWorkout workout : workouts) {
+      calendar.setTimeInMillis(workout.getRecordedAt());
+      int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+      int day = dayOf(workout.getId(), idPrefix, calendar);
+      int month = day / 100;
+      boolean archived = !inline.containsKey(month)
+          && inline.size() >= INLINE_MONTHS && month < inline.firstKey();
+      MonthSummary months;
+      if (!archived) {
+        months = inline.get(month);
+        if (months == null) {
+          months = new MonthSummary(month);
+          inline.put(month, months);
+        }
+      } else {
+        // Older than every inline month: straight to the archive.
+        SortedMap<Integer, MonthSummary> archive = archive(documents, email, month / 100, years);
+        months = archive.get(month);
+        if (months == null) {
+          months = new MonthSummary(month);
+          archive.put(month, months);
+        }
+      }
+      int dayOfMonth = day % 100;
+      int previousSteps = months.has(dayOfMonth) ? months.getSteps(dayOfMonth) : -1;
+      if (months.put(dayOfMonth, workout.getSteps(), minute)) {
+        summary.apply(day, workout.getSteps(), previousSteps);
+        changed = true;
+        if (archived) {
+          changedYears.add(month / 100);
+          summary.getArchivedYears().add(month / 100);
+        }
+      }
+    }
+
+    while (inline.size() > INLINE_MONTHS) {
+      MonthSummary oldest = inline.remove(inline.firstKey());
+      int year = oldest.getMonth() / 100;
+      archive(documents, email, year, years).put(oldest.getMonth(), oldest);
+      changedYears.add(year);
+      summary.getArchivedYears().add(year);
+      changed = true;
+    }
+
+    Map<Integer, SortedMap<Integer, MonthSummary>> writes = new TreeMap<>();
+    for (int year : changedYears) {
+      writes.put(year, years.get(year));
+    }
+    return new Update(path, summary, changed, writes);
+  }
+
+  /** Returns the months archived for {@code year}, reading them on first use. */
+  private static <E extends Exception> SortedMap<Integer, MonthSummary> archive(
+      Documents<E> documents, String email, int year,
+      Map<Integer, SortedMap<Integer, MonthSummary>> years) throws E {
+    SortedMap<Integer, MonthSummary> archive = years.get(year);
+    if (archive == null) {
+      Map<String, Object> fields = documents.get(yearPath(email, year));
+      archive = MonthSummary.monthsFromMap(
+          fields == null ? null : fields.get(UserSummary.FIELD_MONTHS));
+      years.put(year, archive);
+    }
+    return archive;
+  }
+
+  /**
+   * Returns the {@code yyyyMMdd} day in a workout id following {@code idPrefix}, or else the day
+   * {@code calendar} is set to.
+   */
+  private static int dayOf(String id, String idPrefix, Calendar calendar) {
+    if (id.length() == idPrefix.length() + 8 && id.startsWith(idPrefix)) {
+      try {
+        int day = Integer.parseInt(id.substring(idPrefix.length()));
+        if (day % 100 >= 1 && day % 100 <= 31 && day / 100 % 100 >= 1 && day / 100 % 100 <= 12) {
+          return day;
+        }
+      } catch (NumberFormatException e) {
+        // Not a day; fall through.
+      }
+    }
+    return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+        + calendar.get(Calendar.DAY_OF_MONTH);
+  }
+}
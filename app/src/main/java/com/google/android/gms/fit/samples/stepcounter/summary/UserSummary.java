@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.summary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The summary document of one user: lifetime aggregates, the most recent months of daily totals
+ * and the years whose months were moved out to archive documents. Days are {@code yyyyMMdd}
+ * numbers, e.g. {@code 20191021}, and 0 when there are none. Not thread-safe.
+ */
+public class UserSummary {
+
+  static final String FIELD_EMAIL = "email";
+  static final String FIELD_TOTAL_STEPS = "totalSteps";
+  static final String FIELD_DAYS_LOGGED = "daysLogged";
+  static final String FIELD_BEST_STEPS = "bestSteps";
+  static final String FIELD_BEST_DAY = "bestDay";
+  static final String FIELD_FIRST_DAY = "firstDay";
+  static final String FIELD_LAST_DAY = "lastDay";
+  static final String FIELD_MONTHS = "months";
+  static final String FIELD_ARCHIVED_YEARS = "archivedYears";
+
+  private final String email;
+  private long totalSteps;
+  private int daysLogged;
+  private int bestSteps;
+  private int bestDay;
+  private int firstDay;
+  private int lastDay;
+  private final SortedMap<Integer, MonthSummary> months = new TreeMap<>();
+  private final SortedSet<Integer> archivedYears = new TreeSet<>();
+
+  /** Creates the summary of a user with nothing logged yet. */
+  public UserSummary(String email) {
+    this.email = email;
+  }
+
+  public String getEmail() {
+    return email;
+  }
+
+  public long getTotalSteps() {
+    return totalSteps;
+  }
+
+  public int getDaysLogged() {
+    return daysLogged;
+  }
+
+  /** Returns the highest daily total ever uploaded, even if the day was replaced since. */
+  public int getBestSteps() {
+    return bestSteps;
+  }
+
+  public int getBestDay() {
+    return bestDay;
+  }
+
+  public int getFirstDay() {
+    return firstDay;
+  }
+
+  public int getLastDay() {
+    return lastDay;
+  }
+
+  /** Returns the months kept in this document, keyed by {@code yyyyMM}. */
+  public SortedMap<Integer, MonthSummary> getMonths() {
+    return months;
+  }
+
+  /** Returns the years with months in archive documents, all older than {@link #getMonths()}. */
+  public SortedSet<Integer> getArchivedYears() {
+    return archivedYears;
+  }
+
+  /**
+   * Updates the aggregates for a new total of {@code day}.
+   * @param previousSteps The total it replaces, or -1 if the day had none.
+   */
+  void apply(int day, int steps, int previousSteps) {
+    if (previousSteps < 0) {
+      daysLogged++;
+      previousSteps = 0;
+    }
+    totalSteps += steps - previousSteps;
+    if (steps > bestSteps) {
+      bestSteps = steps;
+      bestDay = day;
+    }
+    firstDay = firstDay == 0 ? day : Math.min(firstDay, day);
+    lastDay = Math.max(lastDay, day);
+  }
+
+  Map<String, Object> toMap() {
+    Map<String, Object> map = new TreeMap<>();
+    map.put(FIELD_EMAIL, email);
+    map.put(FIELD_TOTAL_STEPS, totalSteps);
+    map.put(FIELD_DAYS_LOGGED, (long) daysLogged);
+    map.put(FIELD_BEST_STEPS, (long) bestSteps);
+    map.put(FIELD_BEST_DAY, (long) bestDay);
+    map.put(FIELD_FIRST_DAY, (long) firstDay);
+    map.put(FIELD_LAST_DAY, (long) lastDay);
+    map.put(FIELD_MONTHS, MonthSummary.toMap(months.values()));
+    List<Long> years = new ArrayList<>(archivedYears.size());
+    for (int year : archivedYears) {
+      years.add((long) year);
+    }
+    map.put(FIELD_ARCHIVED_YEARS, years);
+    return map;
+  }
+
+  /** Decodes a summary document, or returns an empty summary if {@code map} is null. */
+  static UserSummary fromMap(String email, Map<String, Object> map) {
+    UserSummary summary = new UserSummary(email);
+    if (map == null) {
+      return summary;
+    }
+    summary.totalSteps = longValue(map.get(FIELD_TOTAL_STEPS));
+    summary.daysLogged = (int) longValue(map.get(FIELD_DAYS_LOGGED));
+    summary.bestSteps = (int) longValue(map.get(FIELD_BEST_STEPS));
+    summary.bestDay = (int) longValue(map.get(FIELD_BEST_DAY));
+    summary.firstDay = (int) longValue(map.get(FIELD_FIRST_DAY));
+    summary.lastDay = (int) longValue(map.get(FIELD_LAST_DAY));
+    summary.months.putAll(MonthSummary.monthsFromMap(map.get(FIELD_MONTHS)));
+    Object years = map.get(FIELD_ARCHIVED_YEARS);
+    for (Object year : years instanceof List ? (List<?>) years : Collections.emptyList()) {
+      summary.archivedYears.add(((Number) year).intValue());
+    }
+    return summary;
+  }
+
+  private static long longValue(Object value) {
+    return value instanceof Number ? ((Number) value).longValue() : 0;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.sync;
+
+import com.google.android.gms.fit.samples.stepcounter.data.CoalescingCache;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.LeaderboardWindow;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.Leaderboards;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.SketchStore;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.StepSketch;
+
+import java.util.TimeZone;
+
+/**
+ * Reloads the shared sketch and the current leaderboard windows once their cached copies have
+ * expired, and compacts old windows once a day.
+ */
+public class LeaderboardSyncJob implements SyncScheduler.Job {
+
+  private final Leaderboards leaderboards;
+
+  public LeaderboardSyncJob(Leaderboards leaderboards) {
+    this.leaderboards = leaderboards;
+  }
+
+  @Override
+  public void run(final SyncScheduler.Callback callback) {
+    long now = System.currentTimeMillis();
+    TimeZone timeZone = TimeZone.getDefault();
+    leaderboards.compactIfDue(now, timeZone);
+    final LeaderboardWindow.Period[] periods = LeaderboardWindow.Period.values();
+    // Reports once the sketch and every window have been read.
+    final CoalescingCache.Callback<StepSketch> settled =
+        new CoalescingCache.Callback<StepSketch>() {
+          private int remaining = periods.length + 1;
+          private Exception error;
+
+          @Override
+          public void onResult(StepSketch sketch) {
+            settle(null);
+          }
+
+          @Override
+          public void onError(Exception e) {
+            settle(e);
+          }
+
+          private void settle(Exception e) {
+            if (error == null) {
+              error = e;
+            }
+            if (--remaining == 0) {
+              if (error == null) {
+                callback.onSuccess();
+              } else {
+                callback.onError(error);
+              }
+            }
+          }
+        };
+    leaderboards.readSketch(new SketchStore.Callback() {
+      @Override
+      public void onResult(StepSketch sketch) {
+        settled.onResult(sketch);
+      }
+
+      @Override
+      public void onError(Exception e) {
+        settled.onError(e);
+      }
+    });
+    for (LeaderboardWindow.Period period : periods) {
+      leaderboards.readWindow(LeaderboardWindow.containing(period, now, timeZone), settled);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.sync;
+
+import com.google.android.gms.fit.samples.stepcounter.data.TaskScope;
+import com.google.android.gms.fit.samples.stepcounter.series.FitnessDailyStepSource;
+import com.google.android.gms.fit.samples.stepcounter.series.StepHistorySync;
+import com.google.android.gms.fit.samples.stepcounter.series.StepSeries;
+import com.google.android.gms.fitness.HistoryClient;
+
+/**
+ * Re-reads the last few complete days, then today's samples, from the History API into the
+ * on-device step series.
+ */
+public class StepSyncJob implements SyncScheduler.Job {
+
+  private final StepSeries series;
+  private final HistoryClient client;
+  private final int days;
+  private final TaskScope scope;
+
+  /** @param days Complete days re-read by each run, for samples that reached Fit late. */
+  public StepSyncJob(StepSeries series, HistoryClient client, int days, TaskScope scope) {
+    this.series = series;
+    this.client = client;
+    this.days = days;
+    this.scope = scope;
+  }
+
+  @Override
+  public void run(final SyncScheduler.Callback callback) {
+    series.syncDays(new FitnessDailyStepSource(client), days, days, 1, scope,
+        new StepHistorySync.Callback() {
+          @Override
+          public void onSynced(int changedDays) {
+            series.readToday(client, scope, new StepSeries.Callback() {
+              @Override
+              public void onSuccess() {
+                callback.onSuccess();
+              }
+
+              @Override
+              public void onError(Exception e) {
+                callback.onError(e);
+              }
+            });
+          }
+
+          @Override
+          public void onError(Exception e) {
+            callback.onError(e);
+          }
+        });
+  }
+}
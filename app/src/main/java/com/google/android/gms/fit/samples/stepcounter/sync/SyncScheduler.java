@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.sync;
+
+import com.google.android.gms.fit.samples.stepcounter.data.CoalescingCache;
+
+import java.util.Random;
+
+/**
+ * Runs a sync {@link Job} periodically while started.
+ *
+ * <p>After a successful run the next one comes {@code periodMillis} later. After a failed one it
+ * is retried with exponential backoff, from {@code minBackoffMillis} doubling up to
+ * {@code maxBackoffMillis}. Every delay is spread by up to {@code jitter} of itself either way,
+ * so devices that failed together don't retry together.</p>
+ *
+ * <p>Runs never overlap. A {@link #requestSync()} while a run is in flight is coalesced into one
+ * more run right after it; requests while backing off wait for the scheduled retry.</p>
+ *
+ * <p>Not thread-safe; call it, and run the timer's tasks and the job's callbacks, on a single
+ * thread.</p>
+ */
+public class SyncScheduler {
+
+  /** Runs a task after a delay, e.g. through a {@code Handler}. */
+  public interface Timer {
+    void schedule(Runnable task, long delayMillis);
+  }
+
+  /** One sync, e.g. uploading pending workouts. */
+  public interface Job {
+    /** Starts the sync; {@code callback} must be called exactly once when it is done. */
+    void run(Callback callback);
+  }
+
+  public interface Callback {
+    void onSuccess();
+
+    void onError(Exception e);
+  }
+
+  /** Notified after each run. */
+  public interface Listener {
+    void onSynced();
+
+    /**
+     * @param failures Number of runs in a row that failed, this one included.
+     * @param retryMillis Delay until the next attempt.
+     */
+    void onSyncFailed(Exception e, int failures, long retryMillis);
+  }
+
+  private final Job job;
+  private final Timer timer;
+  private final CoalescingCache.Clock clock;
+  private final Random random;
+  private final long periodMillis;
+  private final long firstDelayMillis;
+  private final long minBackoffMillis;
+  private final long maxBackoffMillis;
+  private final double jitter;
+  private Listener listener;
+
+  private boolean started;
+  private boolean running;
+  private boolean rerunRequested;
+  // Bumped whenever the scheduled run changes, so timer tasks scheduled before it do nothing.
+  private int generation;
+  private int consecutiveFailures;
+  private long lastSuccessMillis = -1;
+  private long nextRunMillis = -1;
+
+  // Counters, for measuring what the schedule costs.
+  private long runCount;
+  private long failedRunCount;
+  private long coalescedCount;
+
+  /**
+   * @param clock Monotonic time, used to resume the schedule after {@link #stop()}.
+   * @param random Source of the jitter.
+   * @param periodMillis Time from a successful run to the next one.
+   * @param firstDelayMillis Delay of the first run after {@link #start()}, when the last successful
+   *                         one is at least a period ago.
+   * @param minBackoffMillis Delay after the first failed run.
+   * @param maxBackoffMillis Longest delay after failed runs.
+   * @param jitter Fraction of each delay by which it is randomly moved, from 0 to 1.
+   */
+  public SyncScheduler(Job job, Timer timer, CoalescingCache.Clock clock, Random random,
+      long periodMillis, long firstDelayMillis, long minBackoffMillis, long maxBackoffMillis,
+      double jitter) {
+    if (periodMillis <= 0 || minBackoffMillis <= 0 || maxBackoffMillis < minBackoffMillis) {
+      throw new IllegalArgumentException("periodMillis=" + periodMillis + ", minBackoffMillis="
+          + minBackoffMillis + ", maxBackoffMillis=" + maxBackoffMillis);
+    }
+    if (jitter < 0 || jitter > 1) {
+      throw new IllegalArgumentException("jitter=" + jitter);
+    }
+    this.job = job;
+    this.timer = timer;
+    this.clock = clock;
+    this.random = random;
+    this.periodMillis = periodMillis;
+    this.firstDelayMillis = firstDelayMillis;
+    this.minBackoffMillis = minBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+    this.jitter = jitter;
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Starts the schedule. The first run comes a period after the last successful one, but no
+   * sooner than the first delay; after failed runs, the backoff carries on where it was.
+   */
+  public void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    if (running) {
+      // Scheduled once the run in flight completes.
+      return;
+    }
+    long delay;
+    if (consecutiveFailures > 0) {
+      delay = backoffMillis();
+    } else if (lastSuccessMillis < 0) {
+      delay = jittered(firstDelayMillis);
+    } else {
+      delay = Math.max(lastSuccessMillis + periodMillis - clock.uptimeMillis(), firstDelayMillis);
+    }
+    schedule(delay);
+  }
+
+  /** Stops scheduling runs. A run in flight completes, but nothing follows it. */
+  public void stop() {
+    started = false;
+    rerunRequested = false;
+    generation++;
+    nextRunMillis = -1;
+  }
+
+  /**
+   * Runs the job now, e.g. because new data is waiting, unless it is backing off after failures.
+   * Does nothing while stopped.
+   */
+  public void requestSync() {
+    if (!started) {
+      return;
+    }
+    if (running) {
+      if (rerunRequested) {
+        coalescedCount++;
+      }
+      rerunRequested = true;
+      return;
+    }
+    if (consecutiveFailures > 0) {
+      coalescedCount++;
+      return;
+    }
+    runNow();
+  }
+
+  public boolean isStarted() {
+    return started;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /** Returns the number of runs in a row that failed, or 0 if the last one succeeded. */
+  public int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  /** Returns the clock time of the last successful run, or -1 if there was none. */
+  public long getLastSuccessMillis() {
+    return lastSuccessMillis;
+  }
+
+  /** Returns the clock time of the next scheduled run, or -1 if none is scheduled. */
+  public long getNextRunMillis() {
+    return nextRunMillis;
+  }
+
+  /** Returns how many runs were started. */
+  public long getRunCount() {
+    return runCount;
+  }
+
+  /** Returns how many runs failed. */
+  public long getFailedRunCount() {
+    return failedRunCount;
+  }
+
+  /** Returns how many requests were folded into a run in flight or a scheduled retry. */
+  public long getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  private void schedule(long delayMillis) {
+    final int scheduled = ++generation;
+    nextRunMillis = clock.uptimeMillis() + delayMillis;
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (scheduled == generation && started && !running) {
+          runNow();
+        }
+      }
+    }, delayMillis);
+  }
+
+  private void runNow() {
+    // Drops the scheduled run; the outcome of this one schedules the next.
+    generation++;
+    nextRunMillis = -1;
+    running = true;
+    runCount++;
+    job.run(new Callback() {
+      private boolean done;
+
+      @Override
+      public void onSuccess() {
+        if (!done) {
+          done = true;
+          onRunDone(null);
+        }
+      }
+
+      @Override
+      public void onError(Exception e) {
+        if (!done) {
+          done = true;
+          onRunDone(e);
+        }
+      }
+    });
+  }
+
+  private void onRunDone(Exception error) {
+    running = false;
+    if (error == null) {
+      consecutiveFailures = 0;
+      lastSuccessMillis = clock.uptimeMillis();
+    } else {
+      consecutiveFailures++;
+      failedRunCount++;
+    }
+    boolean rerun = rerunRequested && error == null;
+    rerunRequested = false;
+    long delay = error == null ? jittered(periodMillis) : backoffMillis();
+    if (listener != null) {
+      if (error == null) {
+        listener.onSynced();
+      } else {
+        listener.onSyncFailed(error, consecutiveFailures, delay);
+      }
+    }
+    if (!started || running) {
+      // Stopped, or the listener started another run.
+      return;
+    }
+    if (rerun) {
+      runNow();
+    } else {
+      schedule(delay);
+    }
+  }
+
+  private long backoffMillis() {
+    int doublings = Math.min(consecutiveFailures - 1, 62);
+    long backoff = minBackoffMillis;
+    for (int i = 0; i < doublings && backoff < maxBackoffMillis; i++) {
+      backoff *= 2;
+    }
+    return jittered(Math.min(backoff, maxBackoffMillis));
+  }
+
+  private long jittered(long millis) {
+    return Math.round(millis * (1 - jitter + 2 * jitter * random.nextDouble()));
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.sync;
+
+import com.google.android.gms.fit.samples.common.logger.Log;
+import com.google.android.gms.fit.samples.stepcounter.data.CoalescingCache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The {@link SyncScheduler}s of the app, one per kind of sync, meant to be kept for the life of
+ * the process so the time of each last successful run and any backoff survive the activity being
+ * recreated.
+ *
+ * <p>Each scheduler runs the job of the activity currently attached. When that activity goes, a
+ * run it started may never report back, so {@link #detach()} gives up on it as failed; the next
+ * activity's job carries on from there.</p>
+ *
+ * <p>Not thread-safe; use it, and run the timer's tasks and the jobs' callbacks, on a single
+ * thread.</p>
+ */
+public class SyncSchedulers {
+
+  private static final String TAG = "SyncSchedulers";
+
+  private final SyncScheduler.Timer timer;
+  private final CoalescingCache.Clock clock;
+  private final Random random;
+  private final long firstDelayMillis;
+  private final long minBackoffMillis;
+  private final long maxBackoffMillis;
+  private final double jitter;
+  private final Map<String, AttachedJob> jobs = new LinkedHashMap<>();
+  private final Map<String, SyncScheduler> schedulers = new LinkedHashMap<>();
+
+  /**
+   * @param timer Runs the schedulers' tasks; must not be tied to an activity.
+   * @see SyncScheduler#SyncScheduler
+   */
+  public SyncSchedulers(SyncScheduler.Timer timer, CoalescingCache.Clock clock, Random random,
+      long firstDelayMillis, long minBackoffMillis, long maxBackoffMillis, double jitter) {
+    this.timer = timer;
+    this.clock = clock;
+    this.random = random;
+    this.firstDelayMillis = firstDelayMillis;
+    this.minBackoffMillis = minBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+    this.jitter = jitter;
+  }
+
+  /**
+   * Runs {@code job} as the sync called {@code name}, every {@code periodMillis} once started. The
+   * scheduler is created on the first call for a name; later calls only replace its job.
+   */
+  public SyncScheduler attach(final String name, long periodMillis, SyncScheduler.Job job) {
+    SyncScheduler scheduler = schedulers.get(name);
+    if (scheduler == null) {
+      AttachedJob attached = new AttachedJob();
+      scheduler = new SyncScheduler(attached, timer, clock, random, periodMillis,
+          firstDelayMillis, minBackoffMillis, maxBackoffMillis, jitter);
+      scheduler.setListener(new SyncScheduler.Listener() {
+        @Override
+        public void onSynced() {
+          Log.d(TAG, "Synced " + name);
+        }
+
+        @Override
+        public void onSyncFailed(Exception e, int failures, long retryMillis) {
+          Log.w(TAG, "Sync of " + name + " failed " + failures + " times in a row; retrying in "
+              + retryMillis / 1000 + "s", e);
+        }
+      });
+      jobs.put(name, attached);
+      schedulers.put(name, scheduler);
+    }
+    jobs.get(name).job = job;
+    return scheduler;
+  }
+
+  /** Returns the scheduler of the sync called {@code name}, or null if it was never attached. */
+  public SyncScheduler get(String name) {
+    return schedulers.get(name);
+  }
+
+  public void start() {
+    for (SyncScheduler scheduler : schedulers.values()) {
+      scheduler.start();
+    }
+  }
+
+  public void stop() {
+    for (SyncScheduler scheduler : schedulers.values()) {
+      scheduler.stop();
+    }
+  }
+
+  /**
+   * Stops every scheduler and lets go of the attached jobs, failing the runs they still have in
+   * flight. Results those runs report later are ignored.
+   */
+  public void detach() {
+    stop();
+    for (AttachedJob attached : jobs.values()) {
+      attached.detach();
+    }
+  }
+
+  /** Forwards runs to the job of the activity attached, if any. */
+  private static class AttachedJob implements SyncScheduler.Job {
+
+    SyncScheduler.Job job;
+    private SyncScheduler.Callback inFlight;
+
+    @Override
+    public void run(final SyncScheduler.Callback callback) {
+      if (job == null) {
+        callback.onError(new IllegalStateException("No job attached"));
+        return;
+      }
+      inFlight = callback;
+      job.run(new SyncScheduler.Callback() {
+        @Override
+        public void onSuccess() {
+          if (inFlight == callback) {
+            inFlight = null;
+            callback.onSuccess();
+          }
+        }
+
+        @Override
+        public void onError(Exception e) {
+          if (inFlight == callback) {
+            inFlight = null;
+            callback.onError(e);
+          }
+        }
+      });
+    }
+
+    void detach() {
+      job = null;
+      SyncScheduler.Callback abandoned = inFlight;
+      inFlight = null;
+      if (abandoned != null) {
+        abandoned.onError(new IllegalStateException("Run abandoned with its job"));
+      }
+    }
+  }
+}
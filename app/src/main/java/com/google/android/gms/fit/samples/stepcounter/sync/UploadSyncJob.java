@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.sync;
+
+import com.google.android.gms.fit.samples.stepcounter.data.UploadQueue;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutSink;
+
+/** Uploads every workout waiting in the upload queue. */
+public class UploadSyncJob implements SyncScheduler.Job {
+
+  private final UploadQueue queue;
+
+  public UploadSyncJob(UploadQueue queue) {
+    this.queue = queue;
+  }
+
+  @Override
+  public void run(final SyncScheduler.Callback callback) {
+    queue.flushAll(new WorkoutSink.Callback() {
+      @Override
+      public void onSuccess() {
+        callback.onSuccess();
+      }
+
+      @Override
+      public void onError(Exception e) {
+        callback.onError(e);
+      }
+    });
+  }
+}
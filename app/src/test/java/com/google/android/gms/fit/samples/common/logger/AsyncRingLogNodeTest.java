@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.common.logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncRingLogNodeTest {
+
+    private static final int FILE_CAPACITY = 64 * 1024;
+    // A power of two, so the queue holds exactly this many records.
+    private static final int QUEUE_CAPACITY = 4;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "log.ring");
+    }
+
+    @Test
+    public void println_writesRecordsAndStackTracesAndPassesThemOn() throws Exception {
+        AsyncRingLogNode node =
+                new AsyncRingLogNode(RingLogFile.open(file, FILE_CAPACITY), QUEUE_CAPACITY);
+        RecordingNode next = new RecordingNode();
+        node.setNext(next);
+
+        node.println(Log.INFO, "Tag", "plain", null);
+        node.println(Log.ERROR, "Tag", "failed", new IllegalStateException("boom"));
+        node.close();
+
+        List<RingLogFile.Record> records = RingLogFile.read(file);
+        assertEquals(2, records.size());
+        assertEquals("plain", records.get(0).msg);
+        assertEquals(Log.ERROR, records.get(1).priority);
+        assertTrue(records.get(1).msg.startsWith("failed\njava.lang.IllegalStateException: boom"));
+        assertEquals(2, node.getWrittenCount());
+        assertEquals(0, node.getDroppedCount());
+        assertEquals(2, next.messages.size());
+    }
+
+    @Test
+    public void fullQueue_dropsRecordsAndNotesHowManyInTheFile() throws Exception {
+        AsyncRingLogNode node =
+                new AsyncRingLogNode(RingLogFile.open(file, FILE_CAPACITY), QUEUE_CAPACITY);
+        BlockingThrowable blocker = new BlockingThrowable();
+        node.println(Log.INFO, "Tag", "blocker", blocker);
+        // The writer is now stuck formatting the blocker, so nothing leaves the queue.
+        assertTrue(blocker.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        int dropped = 6;
+        for (int i = 0; i < QUEUE_CAPACITY + dropped; i++) {
+            node.println(Log.INFO, "Tag", "record " + i, null);
+        }
+        assertEquals(dropped, node.getDroppedCount());
+
+        blocker.release.countDown();
+        node.close();
+
+        List<RingLogFile.Record> records = RingLogFile.read(file);
+        assertEquals(1 + QUEUE_CAPACITY + 1, records.size());
+        for (int i = 0; i < QUEUE_CAPACITY; i++) {
+            assertEquals("record " + i, records.get(1 + i).msg);
+        }
+        RingLogFile.Record note = records.get(records.size() - 1);
+        assertEquals(AsyncRingLogNode.DROPPED_TAG, note.tag);
+        assertEquals(Log.WARN, note.priority);
+        assertEquals(dropped + " records dropped", note.msg);
+        assertEquals(1 + QUEUE_CAPACITY, node.getWrittenCount());
+    }
+
+    @Test
+    public void close_writesEverythingQueuedBeforeIt() throws Exception {
+        AsyncRingLogNode node =
+                new AsyncRingLogNode(RingLogFile.open(file, FILE_CAPACITY), 1024);
+        for (int i = 0; i < 500; i++) {
+            node.println(Log.DEBUG, "Tag", "record " + i, null);
+        }
+        node.close();
+        node.println(Log.DEBUG, "Tag", "after close", null);
+
+        List<RingLogFile.Record> records = RingLogFile.read(file);
+        assertEquals(500, records.size());
+        assertEquals("record 499", records.get(499).msg);
+    }
+
+    /** Holds up the writer thread that prints its stack trace until released. */
+    private static class BlockingThrowable extends Throwable {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void printStackTrace(PrintWriter writer) {
+            started.countDown();
+            try {
+                release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer.print("blocked");
+        }
+    }
+
+    private static class RecordingNode implements LogNode {
+        final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void println(int priority, String tag, String msg, Throwable tr) {
+            messages.add(msg);
+        }
+
+        @Override
+        public boolean isLoggable(int priority, String tag) {
+            return true;
+        }
+    }
+}
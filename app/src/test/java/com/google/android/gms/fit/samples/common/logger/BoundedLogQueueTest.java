@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.common.logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BoundedLogQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 2;
+    private static final int PER_PRODUCER = 100000;
+
+    @Test
+    public void capacity_isRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new BoundedLogQueue<String>(1).capacity());
+        assertEquals(8, new BoundedLogQueue<String>(5).capacity());
+        assertEquals(1024, new BoundedLogQueue<String>(1024).capacity());
+    }
+
+    @Test
+    public void offer_failsOnlyWhenFull() {
+        BoundedLogQueue<Integer> queue = new BoundedLogQueue<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void concurrentProducersAndConsumers_deliverEveryElementOnce() throws Exception {
+        final BoundedLogQueue<int[]> queue = new BoundedLogQueue<>(256);
+        final AtomicIntegerArray seen = new AtomicIntegerArray(PRODUCERS * PER_PRODUCER);
+        final AtomicInteger consumed = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[PRODUCERS + CONSUMERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < PER_PRODUCER; i++) {
+                        int[] element = {producer, i};
+                        while (!queue.offer(element)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            threads[PRODUCERS + c] = new Thread() {
+                @Override
+                public void run() {
+                    await(start);
+                    // Elements of one producer must come out in the order they went in.
+                    int[] last = new int[PRODUCERS];
+                    Arrays.fill(last, -1);
+                    while (consumed.get() < PRODUCERS * PER_PRODUCER) {
+                        int[] element = queue.poll();
+                        if (element == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        if (element[1] <= last[element[0]]) {
+                            failure.compareAndSet(null, new AssertionError("out of order"));
+                        }
+                        last[element[0]] = element[1];
+                        if (seen.getAndIncrement(element[0] * PER_PRODUCER + element[1]) != 0) {
+                            failure.compareAndSet(null, new AssertionError("duplicate"));
+                        }
+                        consumed.incrementAndGet();
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(60000);
+            assertFalse("stuck", thread.isAlive());
+        }
+
+        assertNull(failure.get());
+        assertEquals(PRODUCERS * PER_PRODUCER, consumed.get());
+        for (int i = 0; i < seen.length(); i++) {
+            assertEquals(1, seen.get(i));
+        }
+        assertNull(queue.poll());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
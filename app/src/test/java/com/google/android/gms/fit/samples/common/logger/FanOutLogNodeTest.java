@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.common.logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FanOutLogNodeTest {
+
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 20000;
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @After
+    public void tearDown() {
+        Log.setLogNode(null);
+    }
+
+    @Test
+    public void concurrentLogging_reachesEverySinkWholeAndOnce() throws Exception {
+        FanOutLogNode fanOut = new FanOutLogNode();
+        RecordingSink direct = new RecordingSink(false);
+        RecordingSink queued = new RecordingSink(true);
+        fanOut.addSink(direct);
+        fanOut.addAsyncSink(queued, THREADS * PER_THREAD);
+        Log.setLogNode(fanOut);
+
+        logFromThreads(null);
+        assertEquals(0, fanOut.getDroppedCount(queued));
+        fanOut.removeSink(queued);
+
+        assertEquals(THREADS * PER_THREAD, direct.records.size());
+        queued.awaitRecords(THREADS * PER_THREAD);
+        assertNull(direct.failure.get());
+        assertNull(queued.failure.get());
+    }
+
+    @Test
+    public void fullQueue_dropsAndCountsRecordsInsteadOfBlocking() throws Exception {
+        FanOutLogNode fanOut = new FanOutLogNode();
+        RecordingSink direct = new RecordingSink(false);
+        RecordingSink queued = new RecordingSink(true);
+        fanOut.addSink(direct);
+        fanOut.addAsyncSink(queued, 16);
+        Log.setLogNode(fanOut);
+
+        logFromThreads(null);
+        long dropped = fanOut.getDroppedCount(queued);
+        fanOut.removeSink(queued);
+
+        assertEquals(THREADS * PER_THREAD, direct.records.size());
+        queued.awaitRecords(THREADS * PER_THREAD - (int) dropped);
+        assertTrue(dropped > 0);
+        assertNull(queued.failure.get());
+    }
+
+    @Test
+    public void sinksChangedWhileLogging_loseNothingFromTheSinksThatStay() throws Exception {
+        final FanOutLogNode fanOut = new FanOutLogNode();
+        RecordingSink stays = new RecordingSink(false);
+        fanOut.addSink(stays);
+        Log.setLogNode(fanOut);
+
+        logFromThreads(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200; i++) {
+                    RecordingSink sink = new RecordingSink(false);
+                    if (i % 2 == 0) {
+                        fanOut.addSink(sink);
+                    } else {
+                        fanOut.addAsyncSink(sink, 64);
+                    }
+                    assertTrue(fanOut.removeSink(sink));
+                }
+            }
+        });
+
+        assertEquals(THREADS * PER_THREAD, stays.records.size());
+        assertNull(stays.failure.get());
+        assertFalse(fanOut.removeSink(new RecordingSink(false)));
+    }
+
+    @Test
+    public void isLoggable_isTrueIfAnySinkWantsTheRecord() {
+        FanOutLogNode fanOut = new FanOutLogNode();
+        assertFalse(fanOut.isLoggable(Log.ERROR, "tag"));
+
+        fanOut.addSink(new PriorityFilter(Log.WARN, new RecordingSink(false)));
+        assertFalse(fanOut.isLoggable(Log.INFO, "tag"));
+        assertTrue(fanOut.isLoggable(Log.WARN, "tag"));
+
+        fanOut.addSink(new RecordingSink(false));
+        assertTrue(fanOut.isLoggable(Log.INFO, "tag"));
+    }
+
+    /**
+     * Logs {@link #PER_THREAD} records from each of {@link #THREADS} threads through
+     * {@link Log}, running {@code meanwhile} on one more thread, and waits for all of them.
+     */
+    private static void logFromThreads(Runnable meanwhile) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[THREADS + (meanwhile == null ? 0 : 1)];
+        for (int t = 0; t < THREADS; t++) {
+            final String tag = "thread" + t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    awaitQuietly(start);
+                    for (int i = 0; i < PER_THREAD; i++) {
+                        Log.println(Log.INFO, tag, message(tag, i));
+                    }
+                }
+            };
+        }
+        if (meanwhile != null) {
+            threads[THREADS] = new Thread(meanwhile);
+        }
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread thread, Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MILLIS);
+            assertFalse("stuck", thread.isAlive());
+        }
+        assertNull(failure.get());
+    }
+
+    private static String message(String tag, int i) {
+        return tag + "#" + i + "#" + tag.hashCode() * 31 + i;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Checks each record is whole and seen once; slow ones yield as a UI hop might. */
+    private static class RecordingSink implements LogNode {
+        final ConcurrentHashMap<String, Boolean> records = new ConcurrentHashMap<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final boolean slow;
+
+        RecordingSink(boolean slow) {
+            this.slow = slow;
+        }
+
+        @Override
+        public void println(int priority, String tag, String msg, Throwable tr) {
+            int i = Integer.parseInt(msg.substring(msg.indexOf('#') + 1, msg.lastIndexOf('#')));
+            if (priority != Log.INFO || !msg.equals(message(tag, i))) {
+                failure.compareAndSet(null, new AssertionError("torn record: " + tag + " " + msg));
+            }
+            if (records.put(msg, Boolean.TRUE) != null) {
+                failure.compareAndSet(null, new AssertionError("duplicate record: " + msg));
+            }
+            if (slow) {
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public boolean isLoggable(int priority, String tag) {
+            return true;
+        }
+
+        void awaitRecords(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (records.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, records.size());
+        }
+    }
+}
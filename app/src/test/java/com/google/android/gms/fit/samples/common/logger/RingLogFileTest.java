@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.common.logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+public class RingLogFileTest {
+
+    private static final int CAPACITY = 4096;
+    // Byte offsets of the header fields; see the layout in RingLogFile.
+    private static final int HEAD_OFFSET = 16;
+    private static final int TAIL_OFFSET = 24;
+    private static final int HEADER_SIZE = 32;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "log.ring");
+    }
+
+    @Test
+    public void append_readsBackEveryField() throws IOException {
+        RingLogFile ring = RingLogFile.open(file, CAPACITY);
+        ring.append(1000, Log.INFO, "Tag", "first");
+        ring.append(2000, Log.ERROR, "\u00dcn\u00efcode", "second\nline");
+        ring.append(3000, Log.DEBUG, null, null);
+
+        List<RingLogFile.Record> records = ring.readAll();
+        ring.close();
+
+        assertEquals(3, records.size());
+        assertRecord(records.get(0), 1000, Log.INFO, "Tag", "first");
+        assertRecord(records.get(1), 2000, Log.ERROR, "\u00dcn\u00efcode", "second\nline");
+        assertRecord(records.get(2), 3000, Log.DEBUG, "", "");
+        List<RingLogFile.Record> read = RingLogFile.read(file);
+        assertEquals(3, read.size());
+        assertRecord(read.get(1), 2000, Log.ERROR, "\u00dcn\u00efcode", "second\nline");
+    }
+
+    @Test
+    public void append_pastTheEnd_keepsTheNewestRecordsInOrder() throws IOException {
+        RingLogFile ring = RingLogFile.open(file, CAPACITY);
+        int written = 1000;
+        for (int i = 0; i < written; i++) {
+            ring.append(i, Log.INFO, "Tag", "message " + i);
+        }
+
+        List<RingLogFile.Record> records = ring.readAll();
+        ring.close();
+
+        assertTrue(records.size() > 10 && records.size() < written);
+        int first = written - records.size();
+        for (int i = 0; i < records.size(); i++) {
+            assertRecord(records.get(i), first + i, Log.INFO, "Tag", "message " + (first + i));
+        }
+        assertEquals(HEADER_SIZE + CAPACITY, file.length());
+    }
+
+    @Test
+    public void append_longMessage_isTruncatedToAQuarterOfTheRing() throws IOException {
+        RingLogFile ring = RingLogFile.open(file, CAPACITY);
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < CAPACITY; i++) {
+            msg.append('x');
+        }
+        ring.append(1, Log.WARN, "Tag", "kept");
+        ring.append(2, Log.WARN, "Tag", msg.toString());
+
+        List<RingLogFile.Record> records = ring.readAll();
+        ring.close();
+
+        assertEquals(2, records.size());
+        assertTrue(records.get(1).msg.length() < CAPACITY / 4);
+    }
+
+    @Test
+    public void open_existingFile_appendsAfterItsRecords() throws IOException {
+        RingLogFile ring = RingLogFile.open(file, CAPACITY);
+        for (int i = 0; i < 200; i++) {
+            ring.append(i, Log.INFO, "Tag", "message " + i);
+        }
+        List<RingLogFile.Record> before = ring.readAll();
+        ring.close();
+
+        RingLogFile reopened = RingLogFile.open(file, CAPACITY);
+        reopened.append(200, Log.INFO, "Tag", "message 200");
+        List<RingLogFile.Record> after = reopened.readAll();
+        reopened.close();
+
+        assertRecord(after.get(after.size() - 1), 200, Log.INFO, "Tag", "message 200");
+        RingLogFile.Record lastBefore = before.get(before.size() - 1);
+        assertRecord(after.get(after.size() - 2), lastBefore.timeMillis, lastBefore.priority,
+                lastBefore.tag, lastBefore.msg);
+    }
+
+    @Test
+    public void open_withAnotherCapacity_startsOver() throws IOException {
+        RingLogFile ring = RingLogFile.open(file, CAPACITY);
+        ring.append(1, Log.INFO, "Tag", "old");
+        ring.close();
+
+        RingLogFile resized = RingLogFile.open(file, 2 * CAPACITY);
+
+        assertEquals(0, resized.readAll().size());
+        resized.close();
+        assertEquals(HEADER_SIZE + 2 * CAPACITY, file.length());
+    }
+
+    @Test
+    public void open_truncatedFile_startsOver() throws IOException {
+        writeRecords(50);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(HEADER_SIZE + CAPACITY / 2);
+        raf.close();
+
+        RingLogFile ring = RingLogFile.open(file, CAPACITY);
+
+        assertEquals(0, ring.readAll().size());
+        ring.append(1, Log.INFO, "Tag", "fresh");
+        assertEquals(1, ring.readAll().size());
+        ring.close();
+    }
+
+    @Test
+    public void open_tailBeyondTheRing_startsOver() throws IOException {
+        assertStartsOverAfter(TAIL_OFFSET, 10L * CAPACITY);
+    }
+
+    @Test
+    public void open_headPastTheTail_startsOver() throws IOException {
+        assertStartsOverAfter(HEAD_OFFSET, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void open_negativeHead_startsOver() throws IOException {
+        assertStartsOverAfter(HEAD_OFFSET, -1);
+    }
+
+    @Test
+    public void open_damagedRecordLength_startsOver() throws IOException {
+        writeRecords(5);
+        // The first record starts the data region; give it a length past the end of the ring.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(HEADER_SIZE);
+        raf.writeInt(CAPACITY * 2);
+        raf.close();
+
+        try {
+            RingLogFile.read(file);
+            fail("read a damaged file");
+        } catch (IOException expected) {
+            // Reported instead of decoding garbage.
+        }
+        RingLogFile ring = RingLogFile.open(file, CAPACITY);
+        assertEquals(0, ring.readAll().size());
+        ring.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void read_truncatedFile_fails() throws IOException {
+        writeRecords(5);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(HEADER_SIZE + 16);
+        raf.close();
+
+        RingLogFile.read(file);
+    }
+
+    /** Writes records, overwrites one header field, and checks that open() starts over. */
+    private void assertStartsOverAfter(int headerOffset, long value) throws IOException {
+        writeRecords(50);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(headerOffset);
+        raf.writeLong(value);
+        raf.close();
+
+        RingLogFile ring = RingLogFile.open(file, CAPACITY);
+        assertEquals(0, ring.readAll().size());
+        ring.append(1, Log.INFO, "Tag", "fresh");
+        ring.close();
+
+        List<RingLogFile.Record> records = RingLogFile.read(file);
+        assertEquals(1, records.size());
+        assertRecord(records.get(0), 1, Log.INFO, "Tag", "fresh");
+    }
+
+    private void writeRecords(int count) throws IOException {
+        RingLogFile ring = RingLogFile.open(file, CAPACITY);
+        for (int i = 0; i < count; i++) {
+            ring.append(i, Log.INFO, "Tag", "message " + i);
+        }
+        ring.close();
+    }
+
+    private static void assertRecord(RingLogFile.Record record, long timeMillis, int priority,
+            String tag, String msg) {
+        assertEquals(timeMillis, record.timeMillis);
+        assertEquals(priority, record.priority);
+        assertEquals(tag, record.tag);
+        assertEquals(msg, record.msg);
+    }
+}
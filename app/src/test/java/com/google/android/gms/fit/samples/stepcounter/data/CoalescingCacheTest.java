@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CoalescingCacheTest {
+
+  private static final long TTL = 1000;
+
+  private long now;
+  private FakeLoader loader;
+  private CoalescingCache<String, String> cache;
+  private Results results;
+
+  @Before
+  public void setUp() {
+    loader = new FakeLoader();
+    cache = new CoalescingCache<>(loader, new CoalescingCache.Clock() {
+      @Override
+      public long uptimeMillis() {
+        return now;
+      }
+    }, TTL, 2);
+    results = new Results();
+  }
+
+  @Test
+  public void concurrentRequests_shareOneLoad() {
+    for (int i = 0; i < 5; i++) {
+      cache.get("k", results);
+    }
+    loader.complete(0, "v1");
+
+    assertEquals(1, loader.loads);
+    assertEquals(Arrays.asList("v1", "v1", "v1", "v1", "v1"), results.values);
+    assertEquals(1, cache.getMissCount());
+    assertEquals(4, cache.getCoalescedCount());
+  }
+
+  @Test
+  public void result_isReusedUntilItExpires() {
+    cache.get("k", results);
+    loader.complete(0, "v1");
+    now = TTL - 1;
+    cache.get("k", results);
+    now = TTL;
+    cache.get("k", results);
+
+    assertEquals(2, loader.loads);
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void errors_reachEveryCallerAndAreNotCached() {
+    cache.get("k", results);
+    cache.get("k", results);
+    loader.fail(0);
+    cache.get("k", results);
+
+    assertEquals(Arrays.asList("error", "error"), results.values);
+    assertEquals(2, loader.loads);
+  }
+
+  @Test
+  public void invalidateAll_startsAFreshLoadForLaterCallers() {
+    Results before = new Results();
+    Results after = new Results();
+    cache.get("k", before);
+    cache.invalidateAll();
+    cache.get("k", after);
+    cache.get("k", after);
+
+    assertEquals(2, loader.loads);
+    loader.complete(0, "stale");
+    assertEquals(Arrays.asList("stale"), before.values);
+    assertEquals(0, after.values.size());
+
+    loader.complete(0, "fresh");
+    assertEquals(Arrays.asList("fresh", "fresh"), after.values);
+    cache.get("k", results);
+    assertEquals(Arrays.asList("fresh"), results.values);
+    assertEquals(2, loader.loads);
+  }
+
+  @Test
+  public void invalidateAll_keepsTheResultOfALoadStartedBeforeItOutOfTheCache() {
+    cache.get("k", results);
+    cache.invalidateAll();
+    loader.complete(0, "stale");
+    cache.get("k", results);
+
+    assertEquals(2, loader.loads);
+  }
+
+  @Test
+  public void leastRecentlyUsed_isDroppedFirst() {
+    cache.get("a", results);
+    loader.complete(0, "a");
+    cache.get("b", results);
+    loader.complete(0, "b");
+    cache.get("a", results);
+    cache.get("c", results);
+    loader.complete(0, "c");
+    cache.get("a", results);
+    cache.get("b", results);
+
+    assertEquals(Arrays.asList("a", "b", "a", "c", "a"), results.values);
+    assertEquals(4, loader.loads);
+  }
+
+  /** Holds each load until the test completes it. */
+  private static class FakeLoader implements CoalescingCache.Loader<String, String> {
+    final List<CoalescingCache.Callback<String>> pending = new ArrayList<>();
+    int loads;
+
+    @Override
+    public void load(String key, CoalescingCache.Callback<String> callback) {
+      loads++;
+      pending.add(callback);
+    }
+
+    void complete(int i, String value) {
+      pending.remove(i).onResult(value);
+    }
+
+    void fail(int i) {
+      pending.remove(i).onError(new Exception("unavailable"));
+    }
+  }
+
+  private static class Results implements CoalescingCache.Callback<String> {
+    final List<String> values = new ArrayList<>();
+
+    @Override
+    public void onResult(String value) {
+      values.add(value);
+    }
+
+    @Override
+    public void onError(Exception e) {
+      values.add("error");
+    }
+  }
+}
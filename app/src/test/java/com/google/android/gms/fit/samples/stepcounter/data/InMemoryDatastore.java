@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for Firestore documents, by path. Used directly, every read and write applies at
+ * once. {@link #runTransaction} runs a function the way Firestore runs a transaction: reads come
+ * first, writes are buffered and committed only if nothing read has changed since, otherwise the
+ * function runs again. Safe for use from any thread.
+ *
+ * <p>Like Firestore, it can limit how often one document is written: a transaction writing a
+ * document too soon after its last write is rejected, and runs again after a backoff.</p>
+ */
+public class InMemoryDatastore implements Documents<RuntimeException> {
+
+  /** Body of a transaction. May run several times, so it must not have side effects. */
+  public interface Function<T> {
+    T apply(Documents<RuntimeException> transaction);
+  }
+
+  private final Map<String, Map<String, Object>> documents = new TreeMap<>();
+  // Bumped on every write to a path; a transaction commits only if what it read is unchanged.
+  private final Map<String, Long> versions = new HashMap<>();
+  private final Map<String, Long> lastWriteNanos = new HashMap<>();
+  private final long minWriteIntervalNanos;
+  private final AtomicLong commits = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+
+  private enum Outcome {
+    COMMITTED,
+    CONFLICT,
+    REJECTED
+  }
+
+  /** Creates a datastore without a limit on writes. */
+  public InMemoryDatastore() {
+    this(0);
+  }
+
+  /**
+   * @param minWriteIntervalMillis Shortest time between two transactions writing the same
+   *     document, a scaled-down stand-in for the limit Firestore sets on sustained writes to one.
+   */
+  public InMemoryDatastore(long minWriteIntervalMillis) {
+    minWriteIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minWriteIntervalMillis);
+  }
+
+  @Override
+  public synchronized Map<String, Object> get(String path) {
+    Map<String, Object> fields = documents.get(path);
+    return fields == null ? null : new HashMap<>(fields);
+  }
+
+  @Override
+  public synchronized void set(String path, Map<String, Object> fields) {
+    documents.put(path, new HashMap<>(fields));
+    versions.put(path, version(path) + 1);
+    lastWriteNanos.put(path, System.nanoTime());
+  }
+
+  /**
+   * Runs {@code function} until it commits without conflicting with another transaction, backing
+   * off after rejected writes.
+   */
+  public <T> T runTransaction(Function<T> function) {
+    Random random = new Random();
+    long backoffMillis = 1;
+    while (true) {
+      Transaction transaction = new Transaction();
+      T result = function.apply(transaction);
+      Outcome outcome = commit(transaction);
+      if (outcome == Outcome.COMMITTED) {
+        commits.incrementAndGet();
+        return result;
+      }
+      retries.incrementAndGet();
+      if (outcome == Outcome.CONFLICT) {
+        Thread.yield();
+        continue;
+      }
+      rejections.incrementAndGet();
+      try {
+        Thread.sleep(backoffMillis + random.nextInt((int) backoffMillis + 1));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      }
+      backoffMillis = Math.min(2 * backoffMillis, 32);
+    }
+  }
+
+  /** Returns the number of transactions committed. */
+  public long getCommitCount() {
+    return commits.get();
+  }
+
+  /**
+   * Returns the number of times a transaction had to run again after a conflict or a rejected
+   * write.
+   */
+  public long getRetryCount() {
+    return retries.get();
+  }
+
+  /** Returns the number of transactions rejected for writing a document too soon. */
+  public long getRejectionCount() {
+    return rejections.get();
+  }
+
+  /** Returns the number of times the document at {@code path} was written. */
+  public synchronized long getWriteCount(String path) {
+    return version(path);
+  }
+
+  /** Returns the documents whose path starts with {@code prefix}, by path. */
+  public synchronized Map<String, Map<String, Object>> list(String prefix) {
+    Map<String, Map<String, Object>> found = new TreeMap<>();
+    for (Map.Entry<String, Map<String, Object>> document : documents.entrySet()) {
+      if (document.getKey().startsWith(prefix)) {
+        found.put(document.getKey(), new HashMap<>(document.getValue()));
+      }
+    }
+    return found;
+  }
+
+  private synchronized Outcome commit(Transaction transaction) {
+    for (Map.Entry<String, Long> read : transaction.reads.entrySet()) {
+      if (version(read.getKey()) != read.getValue()) {
+        return Outcome.CONFLICT;
+      }
+    }
+    long now = System.nanoTime();
+    for (String path : transaction.writes.keySet()) {
+      Long last = lastWriteNanos.get(path);
+      if (last != null && now - last < minWriteIntervalNanos) {
+        return Outcome.REJECTED;
+      }
+    }
+    for (Map.Entry<String, Map<String, Object>> write : transaction.writes.entrySet()) {
+      set(write.getKey(), write.getValue());
+    }
+    return Outcome.COMMITTED;
+  }
+
+  private long version(String path) {
+    Long version = versions.get(path);
+    return version == null ? 0 : version;
+  }
+
+  private class Transaction implements Documents<RuntimeException> {
+    final Map<String, Long> reads = new HashMap<>();
+    final Map<String, Map<String, Object>> writes = new LinkedHashMap<>();
+
+    @Override
+    public Map<String, Object> get(String path) {
+      if (!writes.isEmpty()) {
+        throw new IllegalStateException("Read of " + path + " after a write");
+      }
+      synchronized (InMemoryDatastore.this) {
+        if (!reads.containsKey(path)) {
+          reads.put(path, version(path));
+        }
+        return InMemoryDatastore.this.get(path);
+      }
+    }
+
+    @Override
+    public void set(String path, Map<String, Object> fields) {
+      writes.put(path, new HashMap<>(fields));
+    }
+  }
+}
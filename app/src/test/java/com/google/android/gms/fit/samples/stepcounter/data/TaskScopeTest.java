@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TaskScopeTest {
+
+  // Stands in for the main looper: one thread running posted tasks in order.
+  private ExecutorService main;
+  private ExecutorService background;
+  private TaskScope scope;
+
+  @Before
+  public void setUp() {
+    main = Executors.newSingleThreadExecutor();
+    background = Executors.newSingleThreadExecutor();
+    scope = new TaskScope(background, main);
+  }
+
+  @After
+  public void tearDown() {
+    main.shutdownNow();
+    background.shutdownNow();
+  }
+
+  @Test
+  public void cancel_dropsResultsAlreadyPosted() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger deliveries = new AtomicInteger();
+    // Holds the main looper so the result below is queued, not yet run.
+    main.execute(new Runnable() {
+      @Override
+      public void run() {
+        await(release);
+      }
+    });
+    scope.deliver(new Runnable() {
+      @Override
+      public void run() {
+        deliveries.incrementAndGet();
+      }
+    });
+
+    scope.cancel();
+    release.countDown();
+    drain(main);
+
+    assertTrue(scope.isCancelled());
+    assertEquals(0, deliveries.get());
+  }
+
+  @Test
+  public void cancel_stopsNewResultsFromBeingPosted() throws Exception {
+    final AtomicInteger posted = new AtomicInteger();
+    TaskScope counting = new TaskScope(background, new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        posted.incrementAndGet();
+        main.execute(task);
+      }
+    });
+
+    counting.cancel();
+    counting.deliver(new Runnable() {
+      @Override
+      public void run() {
+        throw new AssertionError("delivered after cancel");
+      }
+    });
+    drain(main);
+
+    assertEquals(0, posted.get());
+  }
+
+  private static void drain(ExecutorService executor) throws Exception {
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }).get(10, TimeUnit.SECONDS);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      if (!latch.await(10, TimeUnit.SECONDS)) {
+        throw new AssertionError("timed out");
+      }
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public class UploadQueueTest {
+
+  private static final int BATCH_SIZE = 20;
+  private static final long DELAY = 5000;
+  private static final long MAX_BACKOFF = 10 * 60 * 1000;
+  private static final long MINUTE = 60 * 1000;
+  private static final Executor CALLING_THREAD = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      task.run();
+    }
+  };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private VirtualScheduler scheduler;
+  private FakeBackend backend;
+  private File file;
+
+  @Before
+  public void setUp() {
+    scheduler = new VirtualScheduler();
+    backend = new FakeBackend();
+    file = new File(folder.getRoot(), "uploads.queue");
+  }
+
+  @Test
+  public void enqueue_fullBatchFlushesAtOnce() {
+    UploadQueue queue = newQueue();
+
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      queue.enqueue(workout("user" + i, 1));
+    }
+
+    assertEquals(1, backend.requests);
+    assertEquals(BATCH_SIZE, backend.stored.size());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void enqueue_sameDayIsCoalesced() {
+    UploadQueue queue = newQueue();
+
+    queue.enqueue(workout("user", 1));
+    queue.enqueue(workout("user", 2));
+    scheduler.advanceBy(DELAY);
+
+    assertEquals(1, backend.requests);
+    assertEquals(Integer.valueOf(2), backend.stored.get(workout("user", 0).getId()));
+  }
+
+  @Test
+  public void failedBatch_isRequeuedAheadOfWorkoutsQueuedBehindIt() {
+    backend.async = true;
+    UploadQueue queue = newQueue();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      queue.enqueue(workout("user" + i, 1));
+    }
+    for (int i = 0; i < 5; i++) {
+      queue.enqueue(workout("late" + i, 1));
+    }
+    // Newer than the copy in flight.
+    queue.enqueue(workout("user0", 7));
+
+    backend.completeAll(false);
+
+    assertEquals(BATCH_SIZE + 5, queue.size());
+    VirtualScheduler reloadScheduler = new VirtualScheduler();
+    UploadQueue reloaded = new UploadQueue(backend, file, CALLING_THREAD, reloadScheduler,
+        BATCH_SIZE, DELAY, MAX_BACKOFF);
+    reloaded.load();
+    reloadScheduler.advanceBy(0);
+    assertEquals(BATCH_SIZE + 5, reloaded.size());
+
+    backend.async = false;
+    scheduler.advanceBy(DELAY);
+    assertEquals(3, backend.requests);
+    assertEquals(0, queue.size());
+    assertEquals(BATCH_SIZE + 5, backend.stored.size());
+    assertEquals(Integer.valueOf(7), backend.stored.get(workout("user0", 0).getId()));
+  }
+
+  @Test
+  public void failures_backOffExponentiallyUpToTheCap() {
+    backend.failing = true;
+    UploadQueue queue = newQueue();
+    queue.enqueue(workout("user", 1));
+
+    List<Long> delays = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      long before = backend.requests;
+      long start = scheduler.now;
+      scheduler.runNext();
+      assertEquals(before + 1, backend.requests);
+      delays.add(scheduler.now - start);
+    }
+
+    assertEquals(Arrays.asList(DELAY, DELAY, 2 * DELAY, 4 * DELAY, 8 * DELAY, 16 * DELAY,
+        32 * DELAY, 64 * DELAY, MAX_BACKOFF, MAX_BACKOFF), delays);
+  }
+
+  @Test
+  public void failures_fullQueueWaitsForTheBackoff() {
+    backend.failing = true;
+    UploadQueue queue = newQueue();
+    queue.enqueue(workout("user", 1));
+    scheduler.advanceBy(DELAY);
+    assertEquals(1, backend.requests);
+
+    for (int i = 0; i < 3 * BATCH_SIZE; i++) {
+      queue.enqueue(workout("user" + i, 1));
+    }
+
+    assertEquals(1, backend.requests);
+  }
+
+  @Test
+  public void success_resetsTheBackoff() {
+    backend.failing = true;
+    UploadQueue queue = newQueue();
+    queue.enqueue(workout("user", 1));
+    scheduler.advanceBy(DELAY + DELAY + 2 * DELAY + 4 * DELAY);
+    assertEquals(4, backend.requests);
+
+    backend.failing = false;
+    queue.flush();
+    queue.enqueue(workout("other", 1));
+    scheduler.advanceBy(DELAY);
+
+    assertEquals(6, backend.requests);
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void outage_costsFewRequestsAndLosesNothing() {
+    UploadQueue queue = newQueue();
+    long outageStart = 10 * MINUTE;
+    long outageEnd = 70 * MINUTE;
+    long end = 90 * MINUTE;
+    int queued = 0;
+    int outageRequests = 0;
+    for (long t = 0; t < end; t += 15 * 1000) {
+      scheduler.advanceTo(t);
+      backend.failing = t >= outageStart && t < outageEnd;
+      long before = backend.requests;
+      queue.enqueue(workout("user" + queued++, 1));
+      scheduler.advanceBy(15 * 1000 - 1);
+      if (backend.failing) {
+        outageRequests += backend.requests - before;
+      }
+    }
+    backend.failing = false;
+    scheduler.advanceBy(MAX_BACKOFF);
+
+    assertEquals(queued, backend.stored.size());
+    assertEquals(0, queue.size());
+    assertEquals(queued, queue.getUploadedCount());
+    // Retrying every DELAY would have cost 720 requests over the hour.
+    assertTrue("requests during outage: " + outageRequests, outageRequests <= 16);
+    long recovery = backend.firstSuccessAfter(outageEnd) - outageEnd;
+    assertTrue("recovery took: " + recovery, recovery <= MAX_BACKOFF);
+  }
+
+  @Test
+  public void save_writesOnTheIoExecutorAndCollapsesPendingWrites() {
+    ManualExecutor io = new ManualExecutor();
+    UploadQueue queue =
+        new UploadQueue(backend, file, io, scheduler, BATCH_SIZE, DELAY, MAX_BACKOFF);
+
+    for (int i = 0; i < 5; i++) {
+      queue.enqueue(workout("user" + i, 1));
+    }
+
+    assertFalse(file.exists());
+    assertEquals(1, io.tasks.size());
+    io.runAll();
+    assertEquals(5, load(io).size());
+  }
+
+  @Test
+  public void load_deliversThroughTheSchedulerAndKeepsNewerWorkouts() {
+    UploadQueue queue = newQueue();
+    queue.enqueue(workout("user", 1));
+    queue.enqueue(workout("other", 1));
+
+    ManualExecutor io = new ManualExecutor();
+    VirtualScheduler main = new VirtualScheduler();
+    UploadQueue restarted =
+        new UploadQueue(backend, file, io, main, BATCH_SIZE, DELAY, MAX_BACKOFF);
+    restarted.load();
+    // Queued while the file is still being read.
+    restarted.enqueue(workout("user", 2));
+    io.runAll();
+    assertEquals(1, restarted.size());
+    main.advanceBy(0);
+    io.runAll();
+
+    assertEquals(2, restarted.size());
+    main.advanceBy(DELAY);
+    assertEquals(Integer.valueOf(2), backend.stored.get(workout("user", 0).getId()));
+    assertEquals(Integer.valueOf(1), backend.stored.get(workout("other", 0).getId()));
+  }
+
+  private UploadQueue newQueue() {
+    return new UploadQueue(backend, file, CALLING_THREAD, scheduler, BATCH_SIZE, DELAY,
+        MAX_BACKOFF);
+  }
+
+  /** Returns the workouts in {@code file}, as a fresh queue loads them. */
+  private List<PendingWorkout> load(ManualExecutor io) {
+    final List<PendingWorkout> loaded = new ArrayList<>();
+    VirtualScheduler main = new VirtualScheduler();
+    new UploadQueue(new WorkoutSink() {
+      @Override
+      public void upsert(List<PendingWorkout> batch, Callback callback) {
+        loaded.addAll(batch);
+        callback.onSuccess();
+      }
+    }, file, io, main, BATCH_SIZE, DELAY, MAX_BACKOFF).load();
+    io.runAll();
+    main.advanceBy(DELAY);
+    return loaded;
+  }
+
+  private static PendingWorkout workout(String email, int steps) {
+    return PendingWorkout.forDay(email, "2019-01-01", steps, 0);
+  }
+
+  /** Holds tasks until told to run them. */
+  private static class ManualExecutor implements Executor {
+    final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+
+  /** Runs scheduled tasks in time order on a clock that only moves when told to. */
+  private static class VirtualScheduler implements UploadQueue.Scheduler {
+    long now;
+    private final List<long[]> times = new ArrayList<>();
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+      times.add(new long[] {now + delayMillis});
+      tasks.add(task);
+    }
+
+    void advanceBy(long millis) {
+      advanceTo(now + millis);
+    }
+
+    void advanceTo(long time) {
+      while (next() >= 0 && times.get(next())[0] <= time) {
+        runAt(next());
+      }
+      now = time;
+    }
+
+    /** Runs the next task that does something, advancing the clock to it. */
+    void runNext() {
+      while (next() >= 0) {
+        if (runAt(next())) {
+          return;
+        }
+      }
+      throw new AssertionError("nothing scheduled");
+    }
+
+    private boolean runAt(int i) {
+      now = Math.max(now, times.remove(i)[0]);
+      Runnable task = tasks.remove(i);
+      int before = tasks.size();
+      task.run();
+      return tasks.size() != before;
+    }
+
+    private int next() {
+      int next = -1;
+      for (int i = 0; i < times.size(); i++) {
+        if (next < 0 || times.get(i)[0] < times.get(next)[0]) {
+          next = i;
+        }
+      }
+      return next;
+    }
+  }
+
+  /** Stores batches by workout id; answers at once, or when told to if {@code async}. */
+  private class FakeBackend implements WorkoutSink {
+    final Map<String, Integer> stored = new HashMap<>();
+    final List<Callback> waiting = new ArrayList<>();
+    final List<List<PendingWorkout>> waitingBatches = new ArrayList<>();
+    boolean failing;
+    boolean async;
+    long requests;
+    final List<Long> successes = new ArrayList<>();
+
+    @Override
+    public void upsert(List<PendingWorkout> batch, Callback callback) {
+      requests++;
+      if (async) {
+        waiting.add(callback);
+        waitingBatches.add(batch);
+      } else {
+        complete(batch, callback, !failing);
+      }
+    }
+
+    void completeAll(boolean success) {
+      while (!waiting.isEmpty()) {
+        complete(waitingBatches.remove(0), waiting.remove(0), success);
+      }
+    }
+
+    private void complete(List<PendingWorkout> batch, Callback callback, boolean success) {
+      if (!success) {
+        callback.onError(new Exception("unavailable"));
+        return;
+      }
+      for (PendingWorkout workout : batch) {
+        stored.put(workout.getId(), workout.getSteps());
+      }
+      successes.add(scheduler.now);
+      callback.onSuccess();
+    }
+
+    long firstSuccessAfter(long time) {
+      for (long success : successes) {
+        if (success >= time) {
+          return success;
+        }
+      }
+      throw new AssertionError("no success after " + time);
+    }
+  }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class WorkoutCacheTest {
+
+  private static final int LARGE_FETCH = 50000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private FakeSource source;
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    source = new FakeSource();
+    file = new File(folder.getRoot(), "workouts.cache");
+  }
+
+  @Test
+  public void refresh_fetchesOnlyWorkoutsPastTheHighWaterMark() {
+    source.upload(workout("a", 10, 100));
+    source.upload(workout("b", 20, 200));
+    WorkoutCache cache = new WorkoutCache(source, file);
+    cache.load();
+
+    assertEquals(2, refresh(cache).size());
+    source.upload(workout("c", 30, 300));
+    List<Workout> added = refresh(cache);
+
+    assertEquals(Arrays.asList(WorkoutSource.ALL, 200L), source.requests);
+    assertEquals(1, added.size());
+    assertEquals("c", added.get(0).getId());
+    assertEquals(3, cache.size());
+  }
+
+  @Test
+  public void refresh_legacyOnlyCollectionIsReadInFullOnce() {
+    source.upload(workout("legacy1", 10, 0));
+    source.upload(workout("legacy2", 20, 0));
+    WorkoutCache cache = new WorkoutCache(source, file);
+    cache.load();
+    refresh(cache);
+    refresh(cache);
+
+    WorkoutCache restarted = new WorkoutCache(source, file);
+    assertEquals(2, restarted.load().size());
+    refresh(restarted);
+
+    assertEquals(Arrays.asList(WorkoutSource.ALL, 0L, 0L), source.requests);
+  }
+
+  @Test
+  public void refresh_emptyCollectionIsNotReadInFullAfterRestart() {
+    WorkoutCache cache = new WorkoutCache(source, file);
+    cache.load();
+    refresh(cache);
+
+    WorkoutCache restarted = new WorkoutCache(source, file);
+    restarted.load();
+    refresh(restarted);
+
+    assertEquals(Arrays.asList(WorkoutSource.ALL, 0L), source.requests);
+  }
+
+  @Test
+  public void load_compactsReplacedRecords() {
+    WorkoutCache cache = new WorkoutCache(source, file);
+    cache.load();
+    refresh(cache);
+    for (int i = 1; i <= 1000; i++) {
+      source.upload(workout("a", i, i));
+      source.upload(workout("b", 2 * i, i));
+      refresh(cache);
+    }
+    long grown = file.length();
+
+    WorkoutCache restarted = new WorkoutCache(source, file);
+    List<Workout> loaded = restarted.load();
+
+    assertEquals(2, loaded.size());
+    assertEquals(1000, loaded.get(0).getSteps());
+    assertEquals(2000, loaded.get(1).getSteps());
+    assertTrue("file not compacted: " + file.length(), file.length() * 100 < grown);
+
+    WorkoutCache again = new WorkoutCache(source, file);
+    assertEquals(2, again.load().size());
+    assertEquals(1000, again.getHighWaterMark());
+    refresh(again);
+    assertEquals(1000L, (long) source.requests.get(source.requests.size() - 1));
+  }
+
+  @Test
+  public void load_keepsFewReplacedRecords() {
+    WorkoutCache cache = new WorkoutCache(source, file);
+    cache.load();
+    for (int i = 1; i <= 10; i++) {
+      source.upload(workout("a", i, i));
+      refresh(cache);
+    }
+    long length = file.length();
+
+    new WorkoutCache(source, file).load();
+
+    assertEquals(length, file.length());
+  }
+
+  @Test
+  public void load_truncatedRecordIsRefetchedAndLaterAppendsSurvive() throws IOException {
+    source.upload(workout("a", 10, 100));
+    source.upload(workout("b", 20, 200));
+    WorkoutCache cache = new WorkoutCache(source, file);
+    cache.load();
+    refresh(cache);
+    // Cuts off the sync marker and the end of the record of "b".
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(file.length() - 7);
+    raf.close();
+
+    WorkoutCache restarted = new WorkoutCache(source, file);
+    assertEquals(1, restarted.load().size());
+    source.upload(workout("c", 30, 300));
+    refresh(restarted);
+
+    List<Workout> reloaded = new WorkoutCache(source, file).load();
+    assertEquals(3, reloaded.size());
+    assertEquals("b", reloaded.get(1).getId());
+    assertEquals("c", reloaded.get(2).getId());
+    assertEquals(Arrays.asList(WorkoutSource.ALL, WorkoutSource.ALL), source.requests);
+  }
+
+  @Test
+  public void load_unknownFileIsIgnored() throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[] {0, 0, 0, 42, 1, 2, 3});
+    out.close();
+
+    WorkoutCache cache = new WorkoutCache(source, file);
+
+    assertEquals(0, cache.load().size());
+    refresh(cache);
+    assertEquals(Arrays.asList(WorkoutSource.ALL), source.requests);
+  }
+
+  @Test
+  public void refresh_onScope_mergesOffTheMainThreadAndDeliversOnlyTheResult() throws Exception {
+    // Stands in for the main looper: one thread running posted tasks in order.
+    final ExecutorService main = Executors.newSingleThreadExecutor();
+    ExecutorService background = Executors.newSingleThreadExecutor();
+    try {
+      Thread mainThread = main.submit(new Callable<Thread>() {
+        @Override
+        public Thread call() {
+          return Thread.currentThread();
+        }
+      }).get();
+      TaskScope scope = new TaskScope(background, main);
+      ScopedSource scoped = new ScopedSource(scope, main);
+      final WorkoutCache cache = new WorkoutCache(scoped, file, scope);
+      final List<Thread> replacedOn = new ArrayList<>();
+      cache.setListener(new WorkoutCache.Listener() {
+        @Override
+        public void onWorkoutReplaced(Workout previous, Workout current) {
+          replacedOn.add(Thread.currentThread());
+        }
+      });
+      scoped.documents.upload(workout("a", 10, 1));
+      refreshOnScope(cache);
+      long lengthBefore = file.length();
+
+      scoped.documents.upload(workout("a", 11, 2));
+      for (int i = 0; i < LARGE_FETCH; i++) {
+        scoped.documents.upload(workout("w" + i, i, 3 + i));
+      }
+      Delivery delivery = refreshOnScope(cache);
+
+      assertEquals(LARGE_FETCH, delivery.added.size());
+      assertFalse(scoped.parsedOn == mainThread);
+      assertFalse(scoped.mergedOn == mainThread);
+      assertTrue("main thread held up by the merge", scoped.frameDuringMerge);
+      assertEquals(mainThread, delivery.thread);
+      assertEquals(Arrays.asList(mainThread), replacedOn);
+      assertTrue("not appended before delivery", delivery.fileLength > lengthBefore);
+    } finally {
+      main.shutdownNow();
+      background.shutdownNow();
+    }
+  }
+
+  private Delivery refreshOnScope(WorkoutCache cache) throws InterruptedException {
+    final Delivery delivery = new Delivery();
+    final CountDownLatch delivered = new CountDownLatch(1);
+    cache.refresh(new WorkoutSource.Callback() {
+      @Override
+      public void onResult(List<Workout> workouts) {
+        delivery.added = workouts;
+        delivery.thread = Thread.currentThread();
+        delivery.fileLength = file.length();
+        delivered.countDown();
+      }
+
+      @Override
+      public void onError(Exception e) {
+        throw new AssertionError(e);
+      }
+    });
+    assertTrue(delivered.await(10, TimeUnit.SECONDS));
+    return delivery;
+  }
+
+  private static Workout workout(String id, int steps, long uploaded) {
+    return new Workout(id, "user@example.com", steps, 1000L * steps, uploaded);
+  }
+
+  private static List<Workout> refresh(WorkoutCache cache) {
+    final List<Workout> result = new ArrayList<>();
+    cache.refresh(new WorkoutSource.Callback() {
+      @Override
+      public void onResult(List<Workout> workouts) {
+        result.addAll(workouts);
+      }
+
+      @Override
+      public void onError(Exception e) {
+        throw new AssertionError(e);
+      }
+    });
+    return result;
+  }
+
+  /** What a refresh delivered, and on which thread. */
+  private static class Delivery {
+    volatile List<Workout> added;
+    volatile Thread thread;
+    volatile long fileLength;
+  }
+
+  /**
+   * Answers like {@link FirestoreWorkoutSource}: parses on the background executor of the scope
+   * and delivers on the main one. Records where the cache then goes through the result.
+   */
+  private static class ScopedSource implements WorkoutSource {
+    final FakeSource documents = new FakeSource();
+    final TaskScope scope;
+    final ExecutorService main;
+    volatile Thread parsedOn;
+    volatile Thread mergedOn;
+    volatile boolean frameDuringMerge;
+
+    ScopedSource(TaskScope scope, ExecutorService main) {
+      this.scope = scope;
+      this.main = main;
+    }
+
+    @Override
+    public void fetchNewerThan(final long uploaded, final Callback callback) {
+      scope.getBackground().execute(new Runnable() {
+        @Override
+        public void run() {
+          parsedOn = Thread.currentThread();
+          documents.fetchNewerThan(uploaded, new Callback() {
+            @Override
+            public void onResult(List<Workout> workouts) {
+              final List<Workout> result = recording(workouts);
+              scope.deliver(new Runnable() {
+                @Override
+                public void run() {
+                  callback.onResult(result);
+                }
+              });
+            }
+
+            @Override
+            public void onError(Exception e) {
+              throw new AssertionError(e);
+            }
+          });
+        }
+      });
+    }
+
+    /** Returns a copy of {@code workouts} noting the thread that goes through it. */
+    private List<Workout> recording(List<Workout> workouts) {
+      return new ArrayList<Workout>(workouts) {
+        @Override
+        public Iterator<Workout> iterator() {
+          mergedOn = Thread.currentThread();
+          // A frame posted while the result is merged runs without waiting for the merge.
+          final CountDownLatch frame = new CountDownLatch(1);
+          main.execute(new Runnable() {
+            @Override
+            public void run() {
+              frame.countDown();
+            }
+          });
+          try {
+            frameDuringMerge = frame.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+          return super.iterator();
+        }
+      };
+    }
+  }
+
+  /** In-memory collection answering fetches synchronously, keyed by id like Firestore. */
+  private static class FakeSource implements WorkoutSource {
+    final Map<String, Workout> documents = new LinkedHashMap<>();
+    final List<Long> requests = new ArrayList<>();
+
+    void upload(Workout workout) {
+      documents.remove(workout.getId());
+      documents.put(workout.getId(), workout);
+    }
+
+    @Override
+    public void fetchNewerThan(long uploaded, Callback callback) {
+      requests.add(uploaded);
+      List<Workout> result = new ArrayList<>();
+      for (Workout workout : documents.values()) {
+        if (uploaded == ALL || workout.getUploaded() > uploaded) {
+          result.add(workout);
+        }
+      }
+      callback.onResult(result);
+    }
+  }
+}
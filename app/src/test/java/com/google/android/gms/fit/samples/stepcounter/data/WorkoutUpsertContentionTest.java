@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.gms.fit.samples.stepcounter.counters.ShardedCounter;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.FirestoreLeaderboardStore;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.FirestoreSketchStore;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.LeaderboardRollup;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.LeaderboardWindow;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.StepSketch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads of many users on the same day, from many threads at once, against a datastore that
+ * limits how often each document is written, as Firestore does.
+ */
+public class WorkoutUpsertContentionTest {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  // 2019-10-21 12:00 UTC.
+  private static final long NOW = 1571659200000L;
+  private static final long MINUTE = 60 * 1000;
+  private static final long MIN_WRITE_INTERVAL_MILLIS = 2;
+  private static final int THREADS = 8;
+  private static final int USERS_PER_THREAD = 8;
+  private static final int UPLOADS_PER_USER = 3;
+  private static final int COUNTER_SHARDS = 10;
+
+  private InMemoryDatastore datastore;
+  private ShardedCounter counter;
+
+  @Before
+  public void setUp() {
+    datastore = new InMemoryDatastore(MIN_WRITE_INTERVAL_MILLIS);
+    counter = new ShardedCounter(ShardedCounter.Strategy.RANDOM, COUNTER_SHARDS, new Random(1));
+  }
+
+  @Test
+  public void sameDayUploads_spreadOverShardsAndCountEverythingOnce() throws Exception {
+    final int users = THREADS * USERS_PER_THREAD;
+    final int[] finalSteps = new int[users];
+    List<Callable<Void>> uploaders = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      uploaders.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          // Each user uploads the day several times, with a growing count; the last one stands.
+          for (int upload = 1; upload <= UPLOADS_PER_USER; upload++) {
+            for (int u = 0; u < USERS_PER_THREAD; u++) {
+              int user = thread * USERS_PER_THREAD + u;
+              int steps = upload * 1000 + user;
+              upload(PendingWorkout.forDay("user" + user + "@example.com", "20191021", steps,
+                  NOW + upload * MINUTE));
+              finalSteps[user] = steps;
+            }
+          }
+          return null;
+        }
+      });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (Future<Void> future : executor.invokeAll(uploaders)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    int uploads = users * UPLOADS_PER_USER;
+    assertEquals(uploads, datastore.getCommitCount());
+    long steps = 0;
+    for (int userSteps : finalSteps) {
+      steps += userSteps;
+    }
+    ShardedCounter.Totals day = ShardedCounter.sum(
+        datastore.list(ShardedCounter.shardsPath(WorkoutFormat.formatDay(NOW)) + "/").values());
+    assertEquals(steps, day.getSteps());
+    assertEquals(users, day.getUsers());
+    assertEquals(users, merged(FirestoreSketchStore.COLLECTION + "/").total());
+    for (LeaderboardWindow.Period period : LeaderboardWindow.Period.values()) {
+      String window = LeaderboardWindow.containing(period, NOW, UTC).getDocumentId();
+      assertEquals(users,
+          merged(FirestoreLeaderboardStore.COLLECTION + "/" + window + "-").total());
+    }
+
+    // No document every upload shares takes more than its share of the writes.
+    for (String collection : new String[] {FirestoreSketchStore.COLLECTION,
+        FirestoreLeaderboardStore.COLLECTION, ShardedCounter.COLLECTION}) {
+      for (String path : datastore.list(collection + "/").keySet()) {
+        long writes = datastore.getWriteCount(path);
+        assertTrue(path + " written " + writes + " times of " + uploads, writes <= uploads / 2);
+      }
+    }
+  }
+
+  private void upload(final PendingWorkout workout) {
+    datastore.runTransaction(new InMemoryDatastore.Function<Void>() {
+      @Override
+      public Void apply(Documents<RuntimeException> transaction) {
+        WorkoutUpsert.apply(transaction, Collections.singletonList(workout), counter,
+            workout.getRecordedAt(), NOW + UPLOADS_PER_USER * MINUTE, UTC);
+        return null;
+      }
+    });
+  }
+
+  private StepSketch merged(String prefix) {
+    StepSketch merged = new StepSketch();
+    for (Map<String, Object> shard : datastore.list(prefix).values()) {
+      merged.merge(LeaderboardRollup.fromMap(shard));
+    }
+    return merged;
+  }
+}
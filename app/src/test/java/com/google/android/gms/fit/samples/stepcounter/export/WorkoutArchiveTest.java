@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class WorkoutArchiveTest {
+
+  private static final String EMAIL = "runner@example.com";
+  private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+  private static final long START = 1546300800000L;
+
+  @Test
+  public void roundTrip_readsBackIdenticalWorkouts() throws IOException {
+    List<Workout> workouts = history(EMAIL, 500);
+    assertSameWorkouts(EMAIL, workouts, readAll(write(EMAIL, workouts, false)));
+  }
+
+  @Test
+  public void roundTrip_compressed_readsBackIdenticalWorkouts() throws IOException {
+    List<Workout> workouts = history(EMAIL, 500);
+    assertSameWorkouts(EMAIL, workouts, readAll(write(EMAIL, workouts, true)));
+  }
+
+  @Test
+  public void roundTrip_keepsIdsThatAreNotADayOfTheEmail() throws IOException {
+    String prefix = PendingWorkout.idFor(EMAIL, "");
+    List<Workout> workouts = Arrays.asList(
+        workout(prefix + "20190105", EMAIL, 8000, START),
+        workout("imported-7f3a", EMAIL, 120, START - DAY_MILLIS),
+        // A leading zero or more than nine digits wouldn't survive as a number.
+        workout(prefix + "020190104", EMAIL, 0, START - 2 * DAY_MILLIS),
+        workout(prefix + "2019010312", EMAIL, 4500, START - 3 * DAY_MILLIS),
+        workout(PendingWorkout.idFor("other@example.com", "20190102"), EMAIL, 1,
+            START - 4 * DAY_MILLIS),
+        workout(prefix + "\u00e9t\u00e9", EMAIL, 77, START - 5 * DAY_MILLIS),
+        workout(prefix + "20190101", EMAIL, Integer.MAX_VALUE, START - 6 * DAY_MILLIS),
+        // Out of order, so the day and time deltas go negative.
+        workout(prefix + "20190110", EMAIL, -5, START + 9 * DAY_MILLIS));
+    assertSameWorkouts(EMAIL, workouts, readAll(write(EMAIL, workouts, false)));
+    assertSameWorkouts(EMAIL, workouts, readAll(write(EMAIL, workouts, true)));
+  }
+
+  @Test
+  public void roundTrip_withoutEmail() throws IOException {
+    List<Workout> workouts = history(null, 20);
+    assertSameWorkouts(null, workouts, readAll(write(null, workouts, true)));
+  }
+
+  @Test
+  public void emptyArchive_hasTheEmailAndNoWorkouts() throws IOException {
+    for (boolean compress : new boolean[] {false, true}) {
+      WorkoutArchiveReader reader = reader(write(EMAIL, new ArrayList<Workout>(), compress));
+      assertEquals(EMAIL, reader.getEmail());
+      assertNull(reader.read());
+      assertNull("stays at the end", reader.read());
+      reader.close();
+    }
+  }
+
+  @Test
+  public void writer_countsWorkouts() throws IOException {
+    WorkoutArchiveWriter writer = new WorkoutArchiveWriter(
+        Channels.newChannel(new ByteArrayOutputStream()), EMAIL, true);
+    for (Workout workout : history(EMAIL, 3)) {
+      writer.write(workout);
+    }
+    assertEquals(3, writer.getCount());
+    writer.close();
+  }
+
+  @Test
+  public void truncatedArchive_failsInsteadOfEndingEarly() throws IOException {
+    for (boolean compress : new boolean[] {false, true}) {
+      byte[] archive = write(EMAIL, history(EMAIL, 50), compress);
+      for (int length = 0; length < archive.length; length++) {
+        try {
+          readAll(Arrays.copyOf(archive, length));
+          fail((compress ? "compressed" : "plain") + " archive cut to " + length + " of "
+              + archive.length + " bytes was read");
+        } catch (IOException expected) {
+        }
+      }
+    }
+  }
+
+  @Test
+  public void wrongMagic_isRejected() throws IOException {
+    byte[] archive = write(EMAIL, history(EMAIL, 3), false);
+    archive[0] ^= 0x01;
+    assertRejected(archive);
+  }
+
+  @Test
+  public void unknownVersion_isRejected() throws IOException {
+    byte[] archive = write(EMAIL, history(EMAIL, 3), false);
+    archive[4] = WorkoutArchiveWriter.VERSION + 1;
+    assertRejected(archive);
+  }
+
+  @Test
+  public void unknownRecordTag_isRejected() throws IOException {
+    byte[] archive = write(EMAIL, history(EMAIL, 3), false);
+    archive[firstRecordOffset(EMAIL)] = 0x7F;
+    assertRejected(archive);
+  }
+
+  @Test
+  public void oversizedLength_isRejected() throws IOException {
+    byte[] archive = write(EMAIL, history(EMAIL, 3), false);
+    // Email length varint 0xFFFFFFFF, far past any real email.
+    ByteBuffer damaged = ByteBuffer.allocate(archive.length + 4);
+    damaged.put(archive, 0, 6).put(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF})
+        .put((byte) 0x0F).put(archive, 7, archive.length - 7);
+    assertRejected(damaged.array());
+  }
+
+  @Test
+  public void malformedVarint_isRejected() throws IOException {
+    byte[] archive = write(EMAIL, history(EMAIL, 3), false);
+    byte[] damaged = Arrays.copyOf(archive, archive.length + 16);
+    int offset = firstRecordOffset(EMAIL) + 1;
+    // Eleven continuation bytes where the day delta should be.
+    Arrays.fill(damaged, offset, offset + 11, (byte) 0x80);
+    assertRejected(damaged);
+  }
+
+  @Test
+  public void corruptCompressedRecords_areRejected() throws IOException {
+    byte[] archive = write(EMAIL, history(EMAIL, 50), true);
+    int offset = firstRecordOffset(EMAIL);
+    Arrays.fill(archive, offset, archive.length, (byte) 0xA5);
+    assertRejected(archive);
+  }
+
+  private static List<Workout> history(String email, int days) {
+    List<Workout> workouts = new ArrayList<>();
+    for (int i = 0; i < days; i++) {
+      long recordedAt = START - i * DAY_MILLIS + (i * 7919L) % 3600000;
+      workouts.add(workout(PendingWorkout.idFor(email, String.valueOf(20190101 - i)), email,
+          (i * 2654435) % 30000, recordedAt));
+    }
+    return workouts;
+  }
+
+  private static Workout workout(String id, String email, int steps, long recordedAt) {
+    return new Workout(id, email, steps, recordedAt, recordedAt + (steps & 0xFFFF));
+  }
+
+  private static byte[] write(String email, List<Workout> workouts, boolean compress)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WorkoutArchiveWriter writer =
+        new WorkoutArchiveWriter(Channels.newChannel(out), email, compress);
+    for (Workout workout : workouts) {
+      writer.write(workout);
+    }
+    writer.close();
+    return out.toByteArray();
+  }
+
+  private static WorkoutArchiveReader reader(byte[] archive) {
+    return new WorkoutArchiveReader(Channels.newChannel(new ByteArrayInputStream(archive)));
+  }
+
+  private static List<Workout> readAll(byte[] archive) throws IOException {
+    List<Workout> workouts = new ArrayList<>();
+    WorkoutArchiveReader reader = reader(archive);
+    try {
+      for (Workout workout = reader.read(); workout != null; workout = reader.read()) {
+        workouts.add(workout);
+      }
+    } finally {
+      reader.close();
+    }
+    return workouts;
+  }
+
+  /** Returns where the records start in an archive of {@code email}, an email under 127 bytes. */
+  private static int firstRecordOffset(String email) {
+    return 4 + 1 + 1 + 1 + email.getBytes(WorkoutArchiveWriter.UTF_8).length;
+  }
+
+  private static void assertRejected(byte[] archive) {
+    try {
+      readAll(archive);
+      fail("damaged archive was read");
+    } catch (IOException expected) {
+    }
+  }
+
+  private static void assertSameWorkouts(String email, List<Workout> expected,
+      List<Workout> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Workout want = expected.get(i);
+      Workout got = actual.get(i);
+      assertEquals("id " + i, want.getId(), got.getId());
+      assertEquals("email " + i, email, got.getEmail());
+      assertEquals("steps " + i, want.getSteps(), got.getSteps());
+      assertEquals("recordedAt " + i, want.getRecordedAt(), got.getRecordedAt());
+      assertEquals("uploaded " + i, want.getUploaded(), got.getUploaded());
+    }
+  }
+}
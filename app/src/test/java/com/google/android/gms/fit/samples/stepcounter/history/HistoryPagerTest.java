@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HistoryPagerTest {
+
+  private static final int WORKOUTS = 10000;
+  private static final int PAGE_SIZE = 30;
+  private static final int MAX_PAGES = 4;
+  private static final long DAY = 24 * 60 * 60 * 1000;
+
+  private FakeSource source;
+  private HistoryPager<Integer> pager;
+  private RecordingListener listener;
+
+  @Before
+  public void setUp() {
+    source = new FakeSource(WORKOUTS);
+    pager = new HistoryPager<>(source, PAGE_SIZE, MAX_PAGES);
+    listener = new RecordingListener();
+    pager.setListener(listener);
+  }
+
+  @Test
+  public void firstRow_needsOnlyOnePage() {
+    long start = System.nanoTime();
+    pager.loadNext();
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+    assertEquals(1, source.requests);
+    assertEquals(PAGE_SIZE, source.workoutsRead);
+    assertEquals(PAGE_SIZE, pager.size());
+    assertEquals(source.workouts.get(0), pager.get(0));
+    assertTrue("first page took " + elapsedMillis + " ms", elapsedMillis < 100);
+  }
+
+  @Test
+  public void scrollingToTheEnd_keepsTheWindowBounded() {
+    int maxSize = 0;
+    long previousRecordedAt = Long.MAX_VALUE;
+    int seen = 0;
+    while (!pager.hasReachedEnd()) {
+      pager.loadNext();
+      maxSize = Math.max(maxSize, pager.size());
+      // Every workout shows up once, newest first, as it enters the window at its end.
+      for (int i = pager.size() - listener.lastInserted; i < pager.size(); i++) {
+        Workout workout = pager.get(i);
+        assertTrue(workout.getRecordedAt() < previousRecordedAt);
+        previousRecordedAt = workout.getRecordedAt();
+        seen++;
+      }
+    }
+
+    assertEquals(WORKOUTS, seen);
+    assertEquals(PAGE_SIZE * MAX_PAGES, maxSize);
+    assertEquals(WORKOUTS % PAGE_SIZE + PAGE_SIZE * (MAX_PAGES - 1), pager.size());
+    assertEquals((WORKOUTS + PAGE_SIZE - 1) / PAGE_SIZE, source.requests);
+    assertEquals(WORKOUTS, source.workoutsRead);
+    assertTrue(pager.hasPrevious());
+  }
+
+  @Test
+  public void scrollingBack_reloadsDroppedPagesInOrder() {
+    for (int i = 0; i < MAX_PAGES + 2; i++) {
+      pager.loadNext();
+    }
+    Workout firstInWindow = pager.get(0);
+    assertEquals(source.workouts.get(2 * PAGE_SIZE), firstInWindow);
+
+    pager.loadPrevious();
+    pager.loadPrevious();
+
+    assertFalse(pager.hasPrevious());
+    assertEquals(source.workouts.get(0), pager.get(0));
+    assertEquals(PAGE_SIZE * MAX_PAGES, pager.size());
+    assertFalse(pager.hasReachedEnd());
+
+    pager.loadNext();
+    assertEquals(source.workouts.get(PAGE_SIZE * (MAX_PAGES + 1) - 1),
+        pager.get(pager.size() - 1));
+  }
+
+  @Test
+  public void reset_ignoresLoadsStillInFlight() {
+    source.async = true;
+    pager.loadNext();
+    pager.reset();
+    pager.loadNext();
+
+    source.deliver(0);
+    assertEquals(0, pager.size());
+    source.deliver(0);
+    assertEquals(PAGE_SIZE, pager.size());
+  }
+
+  @Test
+  public void failedLoad_canBeRetried() {
+    source.failNext = true;
+    pager.loadNext();
+    assertEquals(1, listener.errors);
+    assertEquals(0, pager.size());
+
+    pager.loadNext();
+    assertEquals(PAGE_SIZE, pager.size());
+  }
+
+  /**
+   * Local stand-in for one user's workouts, newest first. The cursor is the index after the last
+   * workout of a page.
+   */
+  private static class FakeSource implements HistoryPageSource<Integer> {
+    final List<Workout> workouts = new ArrayList<>();
+    final List<Runnable> waiting = new ArrayList<>();
+    int requests;
+    int workoutsRead;
+    boolean async;
+    boolean failNext;
+
+    FakeSource(int count) {
+      long now = 1500000000000L;
+      for (int i = 0; i < count; i++) {
+        workouts.add(new Workout("w" + i, "user@example.com", i % 20000, now - i * DAY / 3, 0));
+      }
+    }
+
+    @Override
+    public void loadPage(Integer after, final int pageSize, final Callback<Integer> callback) {
+      requests++;
+      final int from = after == null ? 0 : after;
+      Runnable answer = new Runnable() {
+        @Override
+        public void run() {
+          if (failNext) {
+            failNext = false;
+            callback.onError(new Exception("offline"));
+            return;
+          }
+          int to = Math.min(workouts.size(), from + pageSize);
+          workoutsRead += to - from;
+          callback.onPage(new ArrayList<>(workouts.subList(from, to)),
+              to - from < pageSize ? null : to);
+        }
+      };
+      if (async) {
+        waiting.add(answer);
+      } else {
+        answer.run();
+      }
+    }
+
+    void deliver(int i) {
+      waiting.remove(i).run();
+    }
+  }
+
+  private static class RecordingListener implements HistoryPager.Listener {
+    int lastInserted;
+    int errors;
+
+    @Override
+    public void onInserted(int position, int count) {
+      lastInserted = count;
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+    }
+
+    @Override
+    public void onError(Exception e) {
+      errors++;
+    }
+  }
+}
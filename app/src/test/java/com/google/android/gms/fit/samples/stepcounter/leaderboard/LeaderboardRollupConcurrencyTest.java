@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Documents;
+import com.google.android.gms.fit.samples.stepcounter.data.FirestoreWorkoutSource;
+import com.google.android.gms.fit.samples.stepcounter.data.InMemoryDatastore;
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Uploads from many threads at once, each in a transaction, as devices do against Firestore. */
+public class LeaderboardRollupConcurrencyTest {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  // 2019-10-21 12:00 UTC.
+  private static final long NOW = 1571659200000L;
+  private static final long HOUR = 60 * 60 * 1000;
+  private static final int THREADS = 8;
+  private static final int USERS_PER_THREAD = 10;
+  private static final int UPLOADS_PER_USER = 4;
+
+  private InMemoryDatastore datastore;
+
+  @Before
+  public void setUp() {
+    datastore = new InMemoryDatastore();
+  }
+
+  @Test
+  public void concurrentUploads_countEveryWorkoutOnce() throws Exception {
+    // Each user uploads today several times, with a growing count; the last one stands.
+    final int[] finalSteps = new int[THREADS * USERS_PER_THREAD];
+    List<Callable<Void>> uploaders = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      uploaders.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          Random random = new Random(thread);
+          for (int upload = 1; upload <= UPLOADS_PER_USER; upload++) {
+            for (int u = 0; u < USERS_PER_THREAD; u++) {
+              int user = thread * USERS_PER_THREAD + u;
+              int steps = upload * 1000 + random.nextInt(1000);
+              upload(workout(user, steps, NOW + upload * HOUR));
+              finalSteps[user] = steps;
+            }
+          }
+          return null;
+        }
+      });
+    }
+    runAll(uploaders);
+
+    StepSketch sketch = merged();
+    assertEquals(finalSteps.length, sketch.total());
+    assertExactRanks(sketch, finalSteps);
+    for (LeaderboardWindow.Period period : LeaderboardWindow.Period.values()) {
+      String window = LeaderboardWindow.containing(period, NOW, UTC).getDocumentId();
+      assertEquals(finalSteps.length,
+          merged(FirestoreLeaderboardStore.COLLECTION + "/" + window + "-").total());
+    }
+    assertEquals(finalSteps.length * UPLOADS_PER_USER, datastore.getCommitCount());
+  }
+
+  @Test
+  public void backfillDuringUploads_countsEveryWorkoutOnce() throws Exception {
+    final int users = THREADS * USERS_PER_THREAD;
+    final List<String> ids = new ArrayList<>();
+    final int[] finalSteps = new int[users];
+    for (int user = 0; user < users; user++) {
+      PendingWorkout legacy = workout(user, 500 + user, NOW);
+      Map<String, Object> fields = new HashMap<>();
+      fields.put(FirestoreWorkoutSource.FIELD_STEPS, legacy.getSteps());
+      fields.put(FirestoreWorkoutSource.FIELD_RECORDED_AT, legacy.getRecordedAt());
+      datastore.set(path(legacy), fields);
+      ids.add(legacy.getId());
+      finalSteps[user] = legacy.getSteps();
+    }
+    List<Callable<Void>> workers = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      workers.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          // Half the threads re-upload every other user's day, half backfill pages.
+          if (thread % 2 == 0) {
+            for (int user = thread; user < users; user += THREADS) {
+              int steps = 10000 + user;
+              upload(workout(user, steps, NOW + HOUR));
+              finalSteps[user] = steps;
+            }
+          } else {
+            for (int from = 0; from < users; from += 8) {
+              backfill(ids.subList(from, Math.min(users, from + 8)));
+            }
+          }
+          return null;
+        }
+      });
+    }
+    runAll(workers);
+
+    StepSketch sketch = merged();
+    assertEquals(users, sketch.total());
+    assertExactRanks(sketch, finalSteps);
+    for (String id : ids) {
+      Map<String, Object> workout = datastore.get(FirestoreWorkoutSource.COLLECTION + "/" + id);
+      assertEquals(true, workout.get(LeaderboardRollup.FIELD_RANKED));
+    }
+  }
+
+  private void upload(final PendingWorkout workout) {
+    datastore.runTransaction(new InMemoryDatastore.Function<Void>() {
+      @Override
+      public Void apply(Documents<RuntimeException> transaction) {
+        List<PendingWorkout> batch = Collections.singletonList(workout);
+        List<Map<String, Object>> previous =
+            Collections.singletonList(transaction.get(path(workout)));
+        LeaderboardRollup.Update update =
+            LeaderboardRollup.read(transaction, batch, previous, NOW, UTC);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(FirestoreWorkoutSource.FIELD_STEPS, workout.getSteps());
+        fields.put(FirestoreWorkoutSource.FIELD_RECORDED_AT, workout.getRecordedAt());
+        fields.put(LeaderboardRollup.FIELD_RANKED, true);
+        transaction.set(path(workout), fields);
+        update.write(transaction);
+        return null;
+      }
+    });
+  }
+
+  private void backfill(final List<String> ids) {
+    datastore.runTransaction(new InMemoryDatastore.Function<Void>() {
+      @Override
+      public Void apply(Documents<RuntimeException> transaction) {
+        LeaderboardRollup.backfill(transaction, ids, NOW, UTC).write(transaction);
+        return null;
+      }
+    });
+  }
+
+  private StepSketch merged() {
+    return merged(FirestoreSketchStore.COLLECTION + "/");
+  }
+
+  private StepSketch merged(String prefix) {
+    StepSketch merged = new StepSketch();
+    for (Map<String, Object> shard : datastore.list(prefix).values()) {
+      merged.merge(LeaderboardRollup.fromMap(shard));
+    }
+    return merged;
+  }
+
+  /**
+   * With fewer items than the sketch keeps before compacting, every rank is exact, so any workout
+   * counted twice or lost shows.
+   */
+  private static void assertExactRanks(StepSketch sketch, int[] steps) {
+    int[] sorted = steps.clone();
+    Arrays.sort(sorted);
+    for (int i = 0; i < sorted.length; i++) {
+      int below = 0;
+      while (below < sorted.length && sorted[below] < sorted[i]) {
+        below++;
+      }
+      assertEquals("rank of " + sorted[i], below * 100.0 / sorted.length,
+          sketch.percentile(sorted[i]), 1e-9);
+    }
+  }
+
+  private static void runAll(List<Callable<Void>> tasks) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static PendingWorkout workout(int user, int steps, long recordedAt) {
+    return PendingWorkout.forDay("user" + user + "@example.com", "20191021", steps, recordedAt);
+  }
+
+  private static String path(PendingWorkout workout) {
+    return FirestoreWorkoutSource.COLLECTION + "/" + workout.getId();
+  }
+}
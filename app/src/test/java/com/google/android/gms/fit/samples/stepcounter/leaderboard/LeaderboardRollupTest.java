@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.gms.fit.samples.stepcounter.data.FirestoreWorkoutSource;
+import com.google.android.gms.fit.samples.stepcounter.data.InMemoryDatastore;
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+public class LeaderboardRollupTest {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  // 2019-10-21 12:00 UTC.
+  private static final long NOW = 1571659200000L;
+  private static final long DAY = 24 * 60 * 60 * 1000;
+
+  private InMemoryDatastore datastore;
+
+  @Before
+  public void setUp() {
+    datastore = new InMemoryDatastore();
+  }
+
+  @Test
+  public void upload_countsTheWorkoutInTheSketchAndItsWindows() {
+    upload(workout("alice", 20191021, 5000, NOW));
+    upload(workout("bob", 20191021, 9000, NOW));
+
+    assertEquals(2, merged().total());
+    assertEquals(50.0, merged().percentile(9000), 0);
+    for (LeaderboardWindow.Period period : LeaderboardWindow.Period.values()) {
+      assertEquals(2, window(period, NOW).total());
+    }
+  }
+
+  @Test
+  public void uploadsOfOneDay_spreadOverTheShardsOfItsWindows() {
+    for (int i = 0; i < 40; i++) {
+      upload(workout("user" + i, 20191021, 1000 + i, NOW));
+    }
+    upload(workout("user7", 20191021, 9000, NOW + 1000));
+
+    String day = LeaderboardWindow.containing(LeaderboardWindow.Period.DAY, NOW, UTC)
+        .getDocumentId();
+    Map<String, Map<String, Object>> shards =
+        datastore.list(FirestoreLeaderboardStore.COLLECTION + "/" + day + "-");
+    assertEquals(FirestoreSketchStore.SHARD_COUNT, shards.size());
+    for (Map<String, Object> shard : shards.values()) {
+      assertTrue(LeaderboardRollup.fromMap(shard).total() < 40);
+    }
+    assertEquals(40, window(LeaderboardWindow.Period.DAY, NOW).total());
+    assertEquals(100.0 * 39 / 40, window(LeaderboardWindow.Period.DAY, NOW).percentile(9000), 0);
+  }
+
+  @Test
+  public void reupload_replacesTheCountedSteps() {
+    upload(workout("alice", 20191021, 5000, NOW));
+    upload(workout("alice", 20191021, 7000, NOW + 1000));
+
+    assertEquals(1, merged().total());
+    assertEquals(0.0, merged().percentile(7000), 0);
+    assertEquals(100.0, merged().percentile(7001), 0);
+    assertEquals(1, window(LeaderboardWindow.Period.DAY, NOW).total());
+  }
+
+  @Test
+  public void replacingAnUncountedWorkout_removesNothing() {
+    PendingWorkout legacy = workout("alice", 20191021, 5000, NOW);
+    datastore.set(path(legacy), legacyFields(5000, NOW));
+
+    upload(workout("alice", 20191021, 7000, NOW + 1000));
+
+    assertEquals(1, merged().total());
+    assertEquals(1, window(LeaderboardWindow.Period.DAY, NOW).total());
+  }
+
+  @Test
+  public void backfill_countsLegacyWorkoutsOnce() {
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      PendingWorkout legacy = workout("user" + i, 20191001 + i, 1000 * i, NOW - (20 - i) * DAY);
+      datastore.set(path(legacy), legacyFields(1000 * i, legacy.getRecordedAt()));
+      ids.add(legacy.getId());
+    }
+    // Already replaced by an upload, which counted it.
+    upload(workout("user9", 20191010, 20000, NOW - 11 * DAY));
+    ids.add("gone");
+
+    LeaderboardRollup.Update first = LeaderboardRollup.backfill(datastore, ids, NOW, UTC);
+    first.write(datastore);
+    LeaderboardRollup.Update again = LeaderboardRollup.backfill(datastore, ids, NOW, UTC);
+    again.write(datastore);
+
+    assertEquals(9, first.getMarkedCount());
+    assertEquals(0, again.getMarkedCount());
+    assertEquals(10, merged().total());
+    assertEquals(90.0, merged().percentile(20000), 0);
+    assertEquals(10, window(LeaderboardWindow.Period.MONTH, NOW - 11 * DAY).total());
+    assertEquals(1, window(LeaderboardWindow.Period.DAY, NOW - 11 * DAY).total());
+    // The backfilled documents keep their fields.
+    Map<String, Object> marked =
+        datastore.get(FirestoreWorkoutSource.COLLECTION + "/" + ids.get(3));
+    assertEquals(3000, marked.get(FirestoreWorkoutSource.FIELD_STEPS));
+    assertEquals(true, marked.get(LeaderboardRollup.FIELD_RANKED));
+  }
+
+  @Test
+  public void backfilledWorkout_isReplacedLikeAnUploadedOne() {
+    PendingWorkout legacy = workout("alice", 20191021, 5000, NOW);
+    datastore.set(path(legacy), legacyFields(5000, NOW));
+    LeaderboardRollup.backfill(datastore, Collections.singletonList(legacy.getId()), NOW, UTC)
+        .write(datastore);
+
+    upload(workout("alice", 20191021, 7000, NOW + 1000));
+
+    assertEquals(1, merged().total());
+    assertEquals(100.0, merged().percentile(7001), 0);
+  }
+
+  @Test
+  public void workoutWithoutATime_isOnlyCountedInTheSketch() {
+    Map<String, Object> fields = new HashMap<>();
+    fields.put(FirestoreWorkoutSource.FIELD_STEPS, 4000L);
+    datastore.set(FirestoreWorkoutSource.COLLECTION + "/old", fields);
+
+    LeaderboardRollup.backfill(datastore, Arrays.asList("old"), NOW, UTC).write(datastore);
+
+    assertEquals(1, merged().total());
+    assertEquals(0, datastore.list(FirestoreLeaderboardStore.COLLECTION + "/").size());
+  }
+
+  @Test
+  public void expiredWindows_areLeftAlone() {
+    upload(workout("alice", 20170101, 5000, NOW - 1000 * DAY));
+
+    assertEquals(1, merged().total());
+    assertEquals(0, datastore.list(FirestoreLeaderboardStore.COLLECTION + "/").size());
+  }
+
+  /** Does what the upload transaction does, against the local datastore. */
+  private void upload(PendingWorkout workout) {
+    List<PendingWorkout> batch = Collections.singletonList(workout);
+    List<Map<String, Object>> previous = Collections.singletonList(datastore.get(path(workout)));
+    LeaderboardRollup.Update update =
+        LeaderboardRollup.read(datastore, batch, previous, NOW, UTC);
+    Map<String, Object> fields = legacyFields(workout.getSteps(), workout.getRecordedAt());
+    fields.put(LeaderboardRollup.FIELD_RANKED, true);
+    datastore.set(path(workout), fields);
+    update.write(datastore);
+  }
+
+  private StepSketch merged() {
+    StepSketch merged = new StepSketch();
+    for (Map<String, Object> shard
+        : datastore.list(FirestoreSketchStore.COLLECTION + "/").values()) {
+      merged.merge(LeaderboardRollup.fromMap(shard));
+    }
+    return merged;
+  }
+
+  /** Merges the shards of the window, as a read selecting on its period and index does. */
+  private StepSketch window(LeaderboardWindow.Period period, long time) {
+    LeaderboardWindow window = LeaderboardWindow.containing(period, time, UTC);
+    StepSketch merged = new StepSketch();
+    for (Map<String, Object> shard
+        : datastore.list(FirestoreLeaderboardStore.COLLECTION + "/").values()) {
+      if (period.getKey().equals(shard.get(FirestoreLeaderboardStore.FIELD_PERIOD))
+          && Long.valueOf(window.getIndex()).equals(
+              shard.get(FirestoreLeaderboardStore.FIELD_INDEX))) {
+        merged.merge(LeaderboardRollup.fromMap(shard));
+      }
+    }
+    return merged;
+  }
+
+  private static PendingWorkout workout(String user, int day, int steps, long recordedAt) {
+    return PendingWorkout.forDay(user + "@example.com", String.valueOf(day), steps, recordedAt);
+  }
+
+  private static String path(PendingWorkout workout) {
+    return FirestoreWorkoutSource.COLLECTION + "/" + workout.getId();
+  }
+
+  private static Map<String, Object> legacyFields(int steps, long recordedAt) {
+    Map<String, Object> fields = new HashMap<>();
+    fields.put(FirestoreWorkoutSource.FIELD_STEPS, steps);
+    fields.put(FirestoreWorkoutSource.FIELD_RECORDED_AT, recordedAt);
+    return fields;
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class StepRankIndexTest {
+
+  private static final double DELTA = 1e-9;
+
+  @Test
+  public void add_ranksByStepsBelow() {
+    StepRankIndex index = new StepRankIndex();
+    index.add(3000);
+    index.add(1000);
+    index.add(2000);
+
+    assertEquals(3, index.size());
+    assertEquals(0, index.countBelow(1000));
+    assertEquals(1, index.countBelow(1001));
+    assertEquals(2, index.countBelow(2500));
+    assertEquals(3, index.countBelow(5000));
+    assertEquals(200.0 / 3, index.percentile(2500), DELTA);
+  }
+
+  @Test
+  public void percentile_ofEmptyIndexIsZero() {
+    assertEquals(0, new StepRankIndex().percentile(5000), DELTA);
+  }
+
+  @Test
+  public void duplicates_areCountedAndRemovedOneAtATime() {
+    StepRankIndex index = new StepRankIndex();
+    index.add(500);
+    index.add(500);
+    index.add(500);
+    index.add(100);
+
+    assertEquals(1, index.countBelow(500));
+    assertEquals(4, index.countBelow(501));
+    assertTrue(index.remove(500));
+    assertTrue(index.remove(500));
+    assertEquals(2, index.countBelow(501));
+    assertEquals(2, index.size());
+  }
+
+  @Test
+  public void limits_shareTheBottomAndTopBuckets() {
+    StepRankIndex index = new StepRankIndex();
+    index.add(0);
+    index.add(-20);
+    index.add(StepRankIndex.DEFAULT_MAX_STEPS);
+    index.add(Integer.MAX_VALUE);
+
+    assertEquals(0, index.countBelow(0));
+    assertEquals(0, index.countBelow(-1));
+    assertEquals(2, index.countBelow(1));
+    assertEquals(2, index.countBelow(StepRankIndex.DEFAULT_MAX_STEPS));
+    assertEquals(2, index.countBelow(Integer.MAX_VALUE));
+    assertTrue(index.remove(StepRankIndex.DEFAULT_MAX_STEPS + 1));
+    assertTrue(index.remove(-1));
+    assertEquals(1, index.countBelow(1));
+  }
+
+  @Test
+  public void wideBuckets_rankValuesOfOneBucketAlike() {
+    StepRankIndex index = new StepRankIndex(100, 10);
+    index.add(0);
+    index.add(9);
+    index.add(10);
+    index.add(100);
+    index.add(1000);
+
+    assertEquals(0, index.countBelow(9));
+    assertEquals(2, index.countBelow(10));
+    assertEquals(2, index.countBelow(19));
+    assertEquals(3, index.countBelow(99));
+    assertEquals(3, index.countBelow(5000));
+    assertTrue(index.remove(5));
+  }
+
+  @Test
+  public void remove_missingValueLeavesTheIndexUnchanged() {
+    StepRankIndex index = new StepRankIndex();
+    assertFalse(index.remove(100));
+    assertEquals(0, index.size());
+
+    index.add(100);
+    assertFalse(index.remove(200));
+    assertFalse(index.remove(0));
+
+    assertEquals(1, index.size());
+    assertEquals(1, index.countBelow(101));
+    assertTrue(index.remove(100));
+    assertFalse(index.remove(100));
+    assertEquals(0, index.countBelow(Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void clear_dropsEveryWorkout() {
+    StepRankIndex index = new StepRankIndex();
+    index.add(10);
+    index.add(20);
+
+    index.clear();
+
+    assertEquals(0, index.size());
+    assertEquals(0, index.countBelow(Integer.MAX_VALUE));
+    assertFalse(index.remove(10));
+  }
+
+  @Test
+  public void randomAddsAndRemoves_matchCountingASortedList() {
+    StepRankIndex index = new StepRankIndex(1000, 1);
+    List<Integer> values = new ArrayList<>();
+    Random random = new Random(7);
+    for (int i = 0; i < 5000; i++) {
+      if (!values.isEmpty() && random.nextInt(3) == 0) {
+        int removed = values.remove(random.nextInt(values.size()));
+        assertTrue(index.remove(removed));
+      } else {
+        int steps = random.nextInt(1000);
+        values.add(steps);
+        index.add(steps);
+      }
+      int query = random.nextInt(1100);
+      int below = 0;
+      for (int value : values) {
+        if (value < query) {
+          below++;
+        }
+      }
+      assertEquals("below " + query, below, index.countBelow(query));
+    }
+    assertEquals(values.size(), index.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_rejectsEmptyBuckets() {
+    new StepRankIndex(100, 0);
+  }
+}
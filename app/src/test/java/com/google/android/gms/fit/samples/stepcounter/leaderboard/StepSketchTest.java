@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.leaderboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class StepSketchTest {
+
+  private static final int WORKOUTS = 200000;
+  // Percentage points a rank may be off by.
+  private static final double MAX_ERROR = 1.0;
+
+  @Test
+  public void uniform_ranksWithinTheBound() {
+    Random random = new Random(1);
+    int[] steps = new int[WORKOUTS];
+    for (int i = 0; i < steps.length; i++) {
+      steps[i] = random.nextInt(30000);
+    }
+    assertAccurate(steps);
+  }
+
+  @Test
+  public void normal_ranksWithinTheBound() {
+    Random random = new Random(2);
+    int[] steps = new int[WORKOUTS];
+    for (int i = 0; i < steps.length; i++) {
+      steps[i] = (int) Math.max(0, 8000 + 3000 * random.nextGaussian());
+    }
+    assertAccurate(steps);
+  }
+
+  @Test
+  public void skewed_ranksWithinTheBound() {
+    // Most days are short, a few are marathons.
+    Random random = new Random(3);
+    int[] steps = new int[WORKOUTS];
+    for (int i = 0; i < steps.length; i++) {
+      steps[i] = (int) Math.min(100000, -2000 * Math.log(1 - random.nextDouble()));
+    }
+    assertAccurate(steps);
+  }
+
+  @Test
+  public void fewDistinctValues_ranksWithinTheBound() {
+    Random random = new Random(4);
+    int[] steps = new int[WORKOUTS];
+    for (int i = 0; i < steps.length; i++) {
+      steps[i] = random.nextInt(5) * 1000;
+    }
+    assertAccurate(steps);
+  }
+
+  @Test
+  public void smallSketch_isExact() {
+    StepSketch sketch = new StepSketch();
+    for (int i = 0; i < 100; i++) {
+      sketch.add(i);
+    }
+
+    assertEquals(100, sketch.total());
+    assertEquals(0.0, sketch.percentile(0), 0);
+    assertEquals(42.0, sketch.percentile(42), 0);
+    assertEquals(100.0, sketch.percentile(1000), 0);
+  }
+
+  @Test
+  public void emptySketch_ranksAtZero() {
+    assertEquals(0.0, new StepSketch().percentile(5000), 0);
+  }
+
+  @Test
+  public void mergedShards_rankLikeOneSketch() {
+    Random random = new Random(5);
+    int[] steps = new int[WORKOUTS];
+    StepSketch[] shards = new StepSketch[4];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new StepSketch();
+    }
+    for (int i = 0; i < steps.length; i++) {
+      steps[i] = random.nextInt(20000);
+      shards[random.nextInt(shards.length)].add(steps[i]);
+    }
+    StepSketch merged = new StepSketch();
+    for (StepSketch shard : shards) {
+      merged.merge(StepSketch.fromBytes(shard.toBytes()));
+    }
+
+    assertEquals(WORKOUTS, merged.total());
+    assertAccurate(merged, steps);
+  }
+
+  @Test
+  public void replacements_stayWithinTheBound() {
+    // A quarter of the days are uploaded again with more steps.
+    Random random = new Random(6);
+    int[] steps = new int[WORKOUTS / 4];
+    StepSketch sketch = new StepSketch();
+    for (int i = 0; i < steps.length; i++) {
+      steps[i] = random.nextInt(15000);
+      sketch.add(steps[i]);
+    }
+    for (int i = 0; i < steps.length; i += 4) {
+      sketch.remove(steps[i]);
+      steps[i] += random.nextInt(5000);
+      sketch.add(steps[i]);
+    }
+
+    assertEquals(steps.length, sketch.total());
+    assertAccurate(sketch, steps);
+  }
+
+  @Test
+  public void encoding_isCompactAndRoundTrips() {
+    Random random = new Random(7);
+    StepSketch sketch = new StepSketch();
+    for (int i = 0; i < 1000000; i++) {
+      sketch.add(random.nextInt(30000));
+    }
+    byte[] bytes = sketch.toBytes();
+    StepSketch decoded = StepSketch.fromBytes(bytes);
+
+    assertTrue("encoded size: " + bytes.length, bytes.length < 4096);
+    assertTrue("retained: " + sketch.retainedItems(), sketch.retainedItems() < 4 * 400);
+    assertEquals(sketch.total(), decoded.total());
+    for (int steps = 0; steps <= 30000; steps += 1000) {
+      assertEquals(sketch.percentile(steps), decoded.percentile(steps), 0);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void truncatedBytes_areRejected() {
+    StepSketch sketch = new StepSketch();
+    for (int i = 0; i < 1000; i++) {
+      sketch.add(i);
+    }
+    byte[] bytes = sketch.toBytes();
+    StepSketch.fromBytes(Arrays.copyOf(bytes, bytes.length / 2));
+  }
+
+  private static void assertAccurate(int[] steps) {
+    StepSketch sketch = new StepSketch();
+    for (int step : steps) {
+      sketch.add(step);
+    }
+    assertAccurate(sketch, steps);
+  }
+
+  /** Compares the ranks of the sketch to exact ones at every percentile of {@code steps}. */
+  private static void assertAccurate(StepSketch sketch, int[] steps) {
+    int[] sorted = steps.clone();
+    Arrays.sort(sorted);
+    for (int p = 0; p <= 100; p++) {
+      int value = sorted[Math.min(sorted.length - 1, (int) ((long) p * sorted.length / 100))];
+      double exact = lowerBound(sorted, value) * 100.0 / sorted.length;
+      double estimate = sketch.percentile(value);
+      assertTrue("at " + value + ": exact " + exact + "%, estimated " + estimate + "%",
+          Math.abs(estimate - exact) <= MAX_ERROR);
+    }
+  }
+
+  /** Returns the number of items of {@code sorted} smaller than {@code value}. */
+  private static int lowerBound(int[] sorted, int value) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid] < value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
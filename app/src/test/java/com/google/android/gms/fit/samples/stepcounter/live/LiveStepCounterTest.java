@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.live;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LiveStepCounterTest {
+
+  private static final long FRAME = 16;
+
+  private VirtualScheduler scheduler;
+  private RecordingListener listener;
+  private LiveStepCounter counter;
+
+  @Before
+  public void setUp() {
+    scheduler = new VirtualScheduler();
+    listener = new RecordingListener();
+    counter = new LiveStepCounter(scheduler, listener, FRAME);
+  }
+
+  @Test
+  public void firstChange_isPublishedAtOnce() {
+    counter.setBaseline(1000, 0);
+    scheduler.advanceBy(0);
+
+    assertEquals(1, listener.totals.size());
+    assertEquals(1000, listener.last());
+  }
+
+  @Test
+  public void highRateStream_isCountedExactlyAndPublishedOncePerFrame() {
+    counter.setBaseline(1000, 0);
+    // Ten seconds of deltas at 10 kHz, one step each.
+    int deltas = 100000;
+    for (int i = 1; i <= deltas; i++) {
+      scheduler.advanceTo(i / 10);
+      counter.onDelta(i, 1);
+    }
+    scheduler.advanceBy(FRAME);
+
+    assertEquals(1000 + deltas, counter.getTotal());
+    assertEquals(1000 + deltas, listener.last());
+    assertEquals(deltas, counter.getReceivedCount());
+    long frames = deltas / 10 / FRAME;
+    assertTrue("published: " + counter.getPublishedCount(),
+        counter.getPublishedCount() <= frames + 2);
+    for (int i = 1; i < listener.times.size(); i++) {
+      assertTrue(listener.times.get(i) - listener.times.get(i - 1) >= FRAME);
+    }
+  }
+
+  @Test
+  public void newBaseline_dropsDeltasItAlreadyIncludes() {
+    counter.setBaseline(100, 0);
+    counter.onDelta(10, 5);
+    counter.onDelta(20, 5);
+    counter.onDelta(30, 5);
+    assertEquals(115, counter.getTotal());
+
+    // The History API counted the first two deltas, and two steps the sensor missed.
+    counter.setBaseline(112, 20);
+    scheduler.advanceBy(FRAME);
+
+    assertEquals(117, counter.getTotal());
+    assertEquals(117, listener.last());
+  }
+
+  @Test
+  public void deltaEndingBeforeTheBaseline_isIgnored() {
+    counter.setBaseline(100, 50);
+    counter.onDelta(40, 5);
+    counter.onDelta(50, 5);
+    counter.onDelta(60, 0);
+
+    assertEquals(100, counter.getTotal());
+    assertEquals(3, counter.getReceivedCount());
+  }
+
+  @Test
+  public void unchangedTotal_isNotPublishedAgain() {
+    counter.setBaseline(100, 0);
+    counter.onDelta(10, 5);
+    scheduler.advanceBy(FRAME);
+    counter.setBaseline(105, 10);
+    scheduler.advanceBy(FRAME);
+
+    assertEquals(1, counter.getPublishedCount());
+    assertEquals(105, listener.last());
+  }
+
+  @Test
+  public void manyDeltasBetweenBaselines_growTheBuffer() {
+    counter.setBaseline(0, 0);
+    for (int i = 1; i <= 1000; i++) {
+      counter.onDelta(i, 2);
+    }
+    counter.setBaseline(1500, 750);
+
+    assertEquals(1500 + 250 * 2, counter.getTotal());
+  }
+
+  /** Runs scheduled tasks in time order on a clock that only moves when told to. */
+  private static class VirtualScheduler implements LiveStepCounter.Scheduler {
+    long now;
+    private final List<long[]> times = new ArrayList<>();
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public long uptimeMillis() {
+      return now;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+      times.add(new long[] {now + delayMillis});
+      tasks.add(task);
+    }
+
+    void advanceBy(long millis) {
+      advanceTo(now + millis);
+    }
+
+    void advanceTo(long time) {
+      while (!times.isEmpty()) {
+        int next = 0;
+        for (int i = 1; i < times.size(); i++) {
+          if (times.get(i)[0] < times.get(next)[0]) {
+            next = i;
+          }
+        }
+        if (times.get(next)[0] > time) {
+          break;
+        }
+        now = Math.max(now, times.remove(next)[0]);
+        tasks.remove(next).run();
+      }
+      now = time;
+    }
+  }
+
+  private class RecordingListener implements LiveStepCounter.Listener {
+    final List<Long> totals = new ArrayList<>();
+    final List<Long> times = new ArrayList<>();
+
+    @Override
+    public void onStepsChanged(long total) {
+      totals.add(total);
+      times.add(scheduler.now);
+    }
+
+    long last() {
+      return totals.get(totals.size() - 1);
+    }
+  }
+}
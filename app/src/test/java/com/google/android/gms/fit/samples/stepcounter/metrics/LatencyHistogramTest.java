@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class LatencyHistogramTest {
+
+  // Each power of two is split into 16 buckets, so a bucket spans at most 1/16 of its values.
+  private static final double MAX_RELATIVE_ERROR = 1.0 / LatencyHistogram.SUB_BUCKETS;
+  private static final int THREADS = 8;
+  private static final int PER_THREAD = 50000;
+
+  @Test
+  public void smallValues_haveABucketEach() {
+    for (int nanos = 0; nanos < 2 * LatencyHistogram.SUB_BUCKETS; nanos++) {
+      assertEquals(nanos, LatencyHistogram.bucketOf(nanos));
+      assertEquals(nanos, LatencyHistogram.highestValueIn(nanos));
+    }
+  }
+
+  @Test
+  public void buckets_coverEveryValueOnceAndInOrder() {
+    long[] values = {32, 33, 34, 63, 64, 65, 1000, 1023, 1024, 999999999L,
+        1L << 40, (1L << 40) - 1, Long.MAX_VALUE / 2, Long.MAX_VALUE - 1, Long.MAX_VALUE};
+    for (long nanos : values) {
+      int bucket = LatencyHistogram.bucketOf(nanos);
+      assertTrue("bucket of " + nanos, bucket < LatencyHistogram.BUCKETS);
+      assertTrue("end of bucket of " + nanos, LatencyHistogram.highestValueIn(bucket) >= nanos);
+      assertTrue("end of bucket below " + nanos,
+          LatencyHistogram.highestValueIn(bucket - 1) < nanos);
+      assertEquals(bucket, LatencyHistogram.bucketOf(LatencyHistogram.highestValueIn(bucket)));
+    }
+    assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    assertEquals(Long.MAX_VALUE,
+        LatencyHistogram.highestValueIn(LatencyHistogram.BUCKETS - 1));
+  }
+
+  @Test
+  public void percentiles_areWithinTheStatedRelativeError() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    long[] recorded = new long[100000];
+    Random random = new Random(3);
+    for (int i = 0; i < recorded.length; i++) {
+      // Log-uniform from a microsecond to about ten seconds, as real latencies spread.
+      recorded[i] = (long) (1000 * Math.pow(10, 7 * random.nextDouble()));
+      histogram.record(recorded[i]);
+    }
+    Arrays.sort(recorded);
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    for (double percentile : new double[] {1, 10, 50, 90, 99, 99.9, 100}) {
+      long exact = recorded[(int) Math.ceil(percentile / 100 * recorded.length) - 1];
+      long estimate = snapshot.getPercentileNanos(percentile);
+      assertTrue("p" + percentile + " " + estimate + " below " + exact, estimate >= exact);
+      assertTrue("p" + percentile + " " + estimate + " vs " + exact,
+          estimate - exact <= exact * MAX_RELATIVE_ERROR);
+    }
+    assertEquals(recorded.length, snapshot.getCount());
+  }
+
+  @Test
+  public void max_isExactAndCapsThePercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(5);
+    histogram.record(1000001);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    assertEquals(1000001, snapshot.getMaxNanos());
+    assertEquals(1000001, snapshot.getPercentileNanos(100));
+    assertEquals(5, snapshot.getPercentileNanos(50));
+
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, histogram.snapshot().getMaxNanos());
+    assertEquals(Long.MAX_VALUE, histogram.snapshot().getPercentileNanos(100));
+  }
+
+  @Test
+  public void negativeLatency_countsAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-7);
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1, snapshot.getCount());
+    assertEquals(0, snapshot.getMaxNanos());
+    assertEquals(0, snapshot.getPercentileNanos(100));
+  }
+
+  @Test
+  public void emptyHistogram_reportsZero() {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getMaxNanos());
+    assertEquals(0, snapshot.getPercentileNanos(99));
+  }
+
+  @Test
+  public void snapshot_isNotChangedByLaterRecords() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(100);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    histogram.record(1000000);
+
+    assertEquals(1, snapshot.getCount());
+    assertEquals(100, snapshot.getMaxNanos());
+    assertEquals(100, snapshot.getPercentileNanos(100));
+  }
+
+  @Test
+  public void minus_keepsOnlyTheLatenciesRecordedSince() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 100; i++) {
+      histogram.record(1000000);
+    }
+    LatencyHistogram.Snapshot first = histogram.snapshot();
+    for (int i = 0; i < 10; i++) {
+      histogram.record(2000);
+    }
+
+    LatencyHistogram.Snapshot interval = histogram.snapshot().minus(first);
+
+    assertEquals(10, interval.getCount());
+    long p99 = interval.getPercentileNanos(99);
+    assertTrue("p99 " + p99, p99 >= 2000 && p99 - 2000 <= 2000 * MAX_RELATIVE_ERROR);
+    // The overall maximum came before the interval; its own is the end of the bucket it used.
+    assertEquals(p99, interval.getMaxNanos());
+  }
+
+  @Test
+  public void minus_withNothingRecordedSince_isEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(500);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    LatencyHistogram.Snapshot interval = histogram.snapshot().minus(snapshot);
+
+    assertEquals(0, interval.getCount());
+    assertEquals(0, interval.getMaxNanos());
+    assertEquals(0, interval.getPercentileNanos(50));
+  }
+
+  @Test
+  public void concurrentRecords_areAllCounted() throws Exception {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    List<Callable<Void>> recorders = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      recorders.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int i = 1; i <= PER_THREAD; i++) {
+            histogram.record(thread * PER_THREAD + i);
+          }
+          return null;
+        }
+      });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (Future<Void> future : executor.invokeAll(recorders)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(THREADS * PER_THREAD, snapshot.getCount());
+    assertEquals(THREADS * PER_THREAD, snapshot.getMaxNanos());
+  }
+}
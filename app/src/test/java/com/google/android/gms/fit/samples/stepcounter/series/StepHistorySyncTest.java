@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.series;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+public class StepHistorySyncTest {
+
+  private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+  // 2019-01-01 00:00 in New York; daylight saving time starts on March 10 and ends on November 3.
+  private static final long JANUARY_1 = 1546318800000L;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private StepSeriesStore store;
+  private FitSource source;
+
+  @Before
+  public void setUp() {
+    store = new StepSeriesStore(folder.getRoot(), NEW_YORK, 400);
+    source = new FitSource();
+  }
+
+  @Test
+  public void sync_yearAcrossDaylightSavingChanges_matchesEveryLocalDay() {
+    long to = store.dayStart(JANUARY_1 + 365 * DAY);
+    Result result = sync(JANUARY_1, to, 30, 3);
+
+    assertEquals(null, result.error);
+    int days = 0;
+    for (long day = JANUARY_1; day < to; day = store.nextDayStart(day)) {
+      assertEquals("day starting " + day, source.steps(day, store.nextDayStart(day)),
+          store.getDailyTotal(day));
+      days++;
+    }
+    assertEquals(365, days);
+    assertEquals(365, result.changedDays);
+  }
+
+  @Test
+  public void sync_daylightSavingDaysAreReadOnTheirOwn() {
+    long to = store.dayStart(JANUARY_1 + 365 * DAY);
+    sync(JANUARY_1, to, 30, 3);
+
+    // A request per 30 days, plus one for each changed day and one for the rest of its window.
+    assertTrue("requests: " + source.requests, source.requests <= 13 + 2 * 2);
+    int irregular = 0;
+    for (long[] range : source.ranges) {
+      long length = range[1] - range[0];
+      if (length % DAY != 0) {
+        assertTrue(length == DAY - HOUR || length == DAY + HOUR);
+        irregular++;
+      }
+    }
+    assertEquals(2, irregular);
+  }
+
+  @Test
+  public void sync_keepsAtMostMaxParallelReadsInFlight() {
+    source.async = true;
+    Result result = new Result();
+    new StepHistorySync(source, store, 7, 3).sync(JANUARY_1, JANUARY_1 + 60 * DAY, result);
+
+    while (!source.waiting.isEmpty()) {
+      assertTrue(source.waiting.size() <= 3);
+      source.waiting.remove(0).run();
+    }
+
+    assertEquals(9, source.requests);
+    assertEquals(60, result.changedDays);
+  }
+
+  @Test
+  public void sync_reportsAFailedWindowAfterMergingTheOthers() {
+    source.failFrom = JANUARY_1 + 10 * DAY;
+    Result result = sync(JANUARY_1, JANUARY_1 + 20 * DAY, 10, 2);
+
+    assertTrue(result.error != null);
+    assertEquals(source.steps(JANUARY_1, JANUARY_1 + DAY), store.getDailyTotal(JANUARY_1));
+    assertEquals(0, store.getDailyTotal(JANUARY_1 + 15 * DAY));
+  }
+
+  private Result sync(long from, long to, int windowDays, int maxParallel) {
+    Result result = new Result();
+    new StepHistorySync(source, store, windowDays, maxParallel).sync(from, to, result);
+    return result;
+  }
+
+  private static class Result implements StepHistorySync.Callback {
+    int changedDays = -1;
+    Exception error;
+
+    @Override
+    public void onSynced(int changedDays) {
+      this.changedDays = changedDays;
+    }
+
+    @Override
+    public void onError(Exception e) {
+      error = e;
+    }
+  }
+
+  /**
+   * Aggregates hourly steps the way the History API does with {@code bucketByTime(1, DAYS)}:
+   * 24-hour buckets from the start of the range, the last one cut short by its end.
+   */
+  private static class FitSource implements DailyStepSource {
+    final List<long[]> ranges = new ArrayList<>();
+    final List<Runnable> waiting = new ArrayList<>();
+    int requests;
+    boolean async;
+    long failFrom = Long.MAX_VALUE;
+
+    /** Returns the steps taken in [{@code from}, {@code to}), for hours that start in it. */
+    long steps(long from, long to) {
+      long steps = 0;
+      for (long hour = from; hour < to; hour += HOUR) {
+        steps += 10 + (hour / HOUR) % 7 * 100;
+      }
+      return steps;
+    }
+
+    @Override
+    public void readDailyTotals(final long fromMillis, final long toMillis,
+        final Callback callback) {
+      requests++;
+      ranges.add(new long[] {fromMillis, toMillis});
+      Runnable answer = new Runnable() {
+        @Override
+        public void run() {
+          if (fromMillis >= failFrom) {
+            callback.onError(new Exception("unavailable"));
+            return;
+          }
+          List<DailyTotal> totals = new ArrayList<>();
+          for (long bucket = fromMillis; bucket < toMillis; bucket += DAY) {
+            totals.add(new DailyTotal(bucket,
+                (int) steps(bucket, Math.min(bucket + DAY, toMillis))));
+          }
+          callback.onResult(totals);
+        }
+      };
+      if (async) {
+        waiting.add(answer);
+      } else {
+        answer.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.summary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Documents;
+import com.google.android.gms.fit.samples.stepcounter.data.InMemoryDatastore;
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SummaryRollupTest {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  private static final String EMAIL = "user@example.com";
+  // Three years of days, 2017 to 2019, one workout each.
+  private static final int FIRST_YEAR = 2017;
+  private static final int YEARS = 3;
+  private static final int PAGE_SIZE = 50;
+  private static final int THREADS = 4;
+
+  private InMemoryDatastore datastore;
+  private List<PendingWorkout> workouts;
+
+  @Before
+  public void setUp() {
+    datastore = new InMemoryDatastore();
+    workouts = new ArrayList<>();
+    Calendar calendar = Calendar.getInstance(UTC);
+    calendar.clear();
+    calendar.set(FIRST_YEAR, Calendar.JANUARY, 1, 18, 30);
+    Random random = new Random(0);
+    while (calendar.get(Calendar.YEAR) < FIRST_YEAR + YEARS) {
+      workouts.add(workout(calendar, 1000 + random.nextInt(20000)));
+      calendar.add(Calendar.DAY_OF_MONTH, 1);
+    }
+  }
+
+  @Test
+  public void rollUp_keepsTheLatestMonthsInlineAndArchivesTheRest() {
+    List<PendingWorkout> shuffled = new ArrayList<>(workouts);
+    Collections.shuffle(shuffled, new Random(1));
+    for (int from = 0; from < shuffled.size(); from += PAGE_SIZE) {
+      rollUp(shuffled.subList(from, Math.min(shuffled.size(), from + PAGE_SIZE)));
+    }
+
+    UserSummary summary = summary();
+    assertEquals(workouts.size(), summary.getDaysLogged());
+    assertEquals(totalSteps(workouts), summary.getTotalSteps());
+    assertEquals(FIRST_YEAR * 10000 + 101, summary.getFirstDay());
+    assertEquals((FIRST_YEAR + YEARS - 1) * 10000 + 1231, summary.getLastDay());
+    assertEquals(SummaryRollup.INLINE_MONTHS, summary.getMonths().size());
+    assertEquals((FIRST_YEAR + YEARS - 1) * 100 + 1, (int) summary.getMonths().firstKey());
+    assertEquals(Arrays.asList(FIRST_YEAR, FIRST_YEAR + 1),
+        new ArrayList<>(summary.getArchivedYears()));
+    assertEveryDay(summary);
+  }
+
+  @Test
+  public void rollUp_isIdempotent() {
+    rollUpInPages(workouts);
+    Map<String, Map<String, Object>> before = datastore.list(SummaryRollup.COLLECTION + "/");
+
+    final List<PendingWorkout> page = workouts.subList(0, PAGE_SIZE);
+    int writes = datastore.runTransaction(new InMemoryDatastore.Function<Integer>() {
+      @Override
+      public Integer apply(Documents<RuntimeException> transaction) {
+        SummaryRollup.Update update = SummaryRollup.read(transaction, EMAIL, page, UTC);
+        update.write(transaction);
+        return update.size();
+      }
+    });
+    rollUpInPages(workouts);
+
+    assertEquals(0, writes);
+    assertEquals(before, datastore.list(SummaryRollup.COLLECTION + "/"));
+  }
+
+  @Test
+  public void laterTotal_replacesTheDayInItsArchive() {
+    rollUpInPages(workouts);
+    PendingWorkout first = workouts.get(0);
+    PendingWorkout later = new PendingWorkout(first.getId(), EMAIL, 7,
+        first.getRecordedAt() + 60 * 60 * 1000);
+    PendingWorkout earlier = new PendingWorkout(first.getId(), EMAIL, 99999,
+        first.getRecordedAt() - 60 * 60 * 1000);
+
+    rollUp(Collections.singletonList(later));
+    rollUp(Collections.singletonList(earlier));
+
+    UserSummary summary = summary();
+    assertEquals(workouts.size(), summary.getDaysLogged());
+    assertEquals(totalSteps(workouts) - first.getSteps() + 7, summary.getTotalSteps());
+    MonthSummary january = archive(FIRST_YEAR).get(FIRST_YEAR * 100 + 1);
+    assertEquals(7, january.getSteps(1));
+    assertFalse(summary.getMonths().containsKey(FIRST_YEAR * 100 + 1));
+  }
+
+  @Test
+  public void concurrentRollUps_matchRollingUpInOrder() throws Exception {
+    rollUpInPages(workouts);
+    Map<String, Map<String, Object>> expected = datastore.list(SummaryRollup.COLLECTION + "/");
+
+    datastore = new InMemoryDatastore();
+    List<Callable<Void>> uploaders = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      uploaders.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          // Every thread takes every THREADS-th page, so each month is touched by several.
+          for (int from = thread * PAGE_SIZE; from < workouts.size();
+              from += THREADS * PAGE_SIZE) {
+            rollUp(workouts.subList(from, Math.min(workouts.size(), from + PAGE_SIZE)));
+          }
+          return null;
+        }
+      });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (Future<Void> future : executor.invokeAll(uploaders)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(expected, datastore.list(SummaryRollup.COLLECTION + "/"));
+  }
+
+  /** Checks that every workout's day holds its steps, inline or in its year's archive. */
+  private void assertEveryDay(UserSummary summary) {
+    Map<Integer, SortedMap<Integer, MonthSummary>> archives = new TreeMap<>();
+    for (int year : summary.getArchivedYears()) {
+      archives.put(year, archive(year));
+    }
+    for (PendingWorkout workout : workouts) {
+      int day = Integer.parseInt(workout.getId().substring(workout.getId().length() - 8));
+      MonthSummary month = summary.getMonths().get(day / 100);
+      if (month == null) {
+        month = archives.get(day / 10000).get(day / 100);
+      }
+      assertEquals("steps of " + day, workout.getSteps(), month.getSteps(day % 100));
+      assertEquals(18 * 60 + 30, month.getMinute(day % 100));
+    }
+  }
+
+  private void rollUpInPages(List<PendingWorkout> workouts) {
+    for (int from = 0; from < workouts.size(); from += PAGE_SIZE) {
+      rollUp(workouts.subList(from, Math.min(workouts.size(), from + PAGE_SIZE)));
+    }
+  }
+
+  private void rollUp(final List<PendingWorkout> page) {
+    datastore.runTransaction(new InMemoryDatastore.Function<Void>() {
+      @Override
+      public Void apply(Documents<RuntimeException> transaction) {
+        SummaryRollup.read(transaction, EMAIL, page, UTC).write(transaction);
+        return null;
+      }
+    });
+  }
+
+  private UserSummary summary() {
+    return UserSummary.fromMap(EMAIL, datastore.get(SummaryRollup.summaryPath(EMAIL)));
+  }
+
+  private SortedMap<Integer, MonthSummary> archive(int year) {
+    return MonthSummary.monthsFromMap(
+        datastore.get(SummaryRollup.yearPath(EMAIL, year)).get(UserSummary.FIELD_MONTHS));
+  }
+
+  private static long totalSteps(List<PendingWorkout> workouts) {
+    long total = 0;
+    for (PendingWorkout workout : workouts) {
+      total += workout.getSteps();
+    }
+    return total;
+  }
+
+  private static PendingWorkout workout(Calendar calendar, int steps) {
+    String day = String.valueOf(calendar.get(Calendar.YEAR) * 10000
+        + (calendar.get(Calendar.MONTH) + 1) * 100 + calendar.get(Calendar.DAY_OF_MONTH));
+    return PendingWorkout.forDay(EMAIL, day, steps, calendar.getTimeInMillis());
+  }
+}
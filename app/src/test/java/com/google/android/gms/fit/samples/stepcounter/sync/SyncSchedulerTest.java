@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.gms.fit.samples.stepcounter.data.CoalescingCache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Runs the schedule against a virtual clock, so a day of syncing takes no time. */
+public class SyncSchedulerTest {
+
+  private static final long SECOND = 1000;
+  private static final long MINUTE = 60 * SECOND;
+  private static final long PERIOD = 15 * MINUTE;
+  private static final long FIRST_DELAY = 10 * SECOND;
+  private static final long MIN_BACKOFF = 30 * SECOND;
+  private static final long MAX_BACKOFF = 30 * MINUTE;
+  private static final double JITTER = 0.2;
+
+  private VirtualTimer timer;
+  private FakeJob job;
+  private SyncScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    timer = new VirtualTimer();
+    job = new FakeJob(timer);
+    scheduler = new SyncScheduler(job, timer, timer, new Random(1), PERIOD, FIRST_DELAY,
+        MIN_BACKOFF, MAX_BACKOFF, JITTER);
+  }
+
+  @Test
+  public void successfulRuns_comeOncePerPeriod() {
+    scheduler.start();
+    timer.advanceTo(24 * 60 * MINUTE);
+
+    assertBetween(FIRST_DELAY, job.starts.get(0));
+    for (int i = 1; i < job.starts.size(); i++) {
+      assertBetween(PERIOD, job.starts.get(i) - job.starts.get(i - 1));
+    }
+    // A day of 15-minute periods, give or take the jitter.
+    assertTrue(job.starts.size() >= 80 && job.starts.size() <= 120);
+    assertEquals(0, scheduler.getFailedRunCount());
+  }
+
+  @Test
+  public void failedRuns_backOffExponentiallyUpToTheMax() {
+    job.fail = true;
+    scheduler.start();
+    timer.advanceTo(6 * 60 * MINUTE);
+
+    assertEquals(job.starts.size(), scheduler.getConsecutiveFailures());
+    long backoff = MIN_BACKOFF;
+    for (int i = 1; i < job.starts.size(); i++) {
+      assertBetween(backoff, job.starts.get(i) - job.starts.get(i - 1));
+      backoff = Math.min(2 * backoff, MAX_BACKOFF);
+    }
+    assertEquals(MAX_BACKOFF, backoff);
+  }
+
+  @Test
+  public void successAfterFailures_resetsTheBackoff() {
+    job.fail = true;
+    scheduler.start();
+    timer.advanceTo(10 * MINUTE);
+    long runs = scheduler.getRunCount();
+
+    scheduler.requestSync();
+    assertEquals(runs, scheduler.getRunCount());
+    assertEquals(1, scheduler.getCoalescedCount());
+
+    job.fail = false;
+    timer.advanceTo(scheduler.getNextRunMillis());
+    assertEquals(0, scheduler.getConsecutiveFailures());
+    assertEquals(timer.now, scheduler.getLastSuccessMillis());
+    assertBetween(PERIOD, scheduler.getNextRunMillis() - timer.now);
+  }
+
+  @Test
+  public void requestsWhileRunning_coalesceIntoOneMoreRun() {
+    job.latency = 5 * MINUTE;
+    scheduler.start();
+    timer.advanceTo(FIRST_DELAY * 2);
+    assertTrue(scheduler.isRunning());
+
+    for (int i = 0; i < 10; i++) {
+      timer.advanceBy(10 * SECOND);
+      scheduler.requestSync();
+    }
+    timer.advanceBy(10 * MINUTE);
+
+    assertEquals(1, job.maxConcurrent);
+    assertEquals(2, scheduler.getRunCount());
+    assertEquals(9, scheduler.getCoalescedCount());
+    // The extra run starts as soon as the first one is done.
+    assertEquals(job.starts.get(0) + job.latency, (long) job.starts.get(1));
+  }
+
+  @Test
+  public void stop_letsTheRunInFlightFinishAndSchedulesNothing() {
+    job.latency = MINUTE;
+    scheduler.start();
+    timer.advanceTo(FIRST_DELAY * 2);
+    scheduler.requestSync();
+    scheduler.stop();
+    timer.advanceBy(5 * 60 * MINUTE);
+
+    assertFalse(scheduler.isRunning());
+    assertEquals(1, scheduler.getRunCount());
+    assertEquals(-1, scheduler.getNextRunMillis());
+    assertTrue(scheduler.getLastSuccessMillis() > 0);
+  }
+
+  @Test
+  public void start_resumesAPeriodAfterTheLastSuccess() {
+    scheduler.start();
+    timer.advanceTo(FIRST_DELAY * 2);
+    long lastSuccess = scheduler.getLastSuccessMillis();
+    scheduler.stop();
+
+    timer.advanceBy(5 * MINUTE);
+    scheduler.start();
+    assertEquals(lastSuccess + PERIOD, scheduler.getNextRunMillis());
+
+    scheduler.stop();
+    timer.advanceBy(PERIOD);
+    scheduler.start();
+    assertEquals(timer.now + FIRST_DELAY, scheduler.getNextRunMillis());
+    assertEquals(1, scheduler.getRunCount());
+  }
+
+  private static void assertBetween(long expected, long actual) {
+    assertTrue(actual + " not within jitter of " + expected,
+        actual >= Math.floor(expected * (1 - JITTER))
+            && actual <= Math.ceil(expected * (1 + JITTER)));
+  }
+
+  /** Timer and clock in one, whose time only moves when told to. */
+  static class VirtualTimer implements SyncScheduler.Timer, CoalescingCache.Clock {
+    long now;
+    private final List<long[]> times = new ArrayList<>();
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public long uptimeMillis() {
+      return now;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+      times.add(new long[] {now + delayMillis});
+      tasks.add(task);
+    }
+
+    void advanceBy(long millis) {
+      advanceTo(now + millis);
+    }
+
+    /** Runs the tasks due by {@code time} in order, moving the clock to each one. */
+    void advanceTo(long time) {
+      while (!times.isEmpty()) {
+        int next = 0;
+        for (int i = 1; i < times.size(); i++) {
+          if (times.get(i)[0] < times.get(next)[0]) {
+            next = i;
+          }
+        }
+        if (times.get(next)[0] > time) {
+          break;
+        }
+        now = Math.max(now, times.remove(next)[0]);
+        tasks.remove(next).run();
+      }
+      now = time;
+    }
+  }
+
+  /** Completes each run after {@code latency}, or at once. */
+  static class FakeJob implements SyncScheduler.Job {
+    final List<Long> starts = new ArrayList<>();
+    final List<SyncScheduler.Callback> callbacks = new ArrayList<>();
+    private final VirtualTimer timer;
+    long latency;
+    boolean fail;
+    int running;
+    int maxConcurrent;
+
+    FakeJob(VirtualTimer timer) {
+      this.timer = timer;
+    }
+
+    @Override
+    public void run(final SyncScheduler.Callback callback) {
+      starts.add(timer.now);
+      callbacks.add(callback);
+      running++;
+      maxConcurrent = Math.max(maxConcurrent, running);
+      if (latency == 0) {
+        finish(callback);
+        return;
+      }
+      timer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          finish(callback);
+        }
+      }, latency);
+    }
+
+    private void finish(SyncScheduler.Callback callback) {
+      running--;
+      if (fail) {
+        callback.onError(new Exception("offline"));
+      } else {
+        callback.onSuccess();
+      }
+    }
+  }
+}
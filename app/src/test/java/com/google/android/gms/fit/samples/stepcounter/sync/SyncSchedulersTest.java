@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.stepcounter.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+/** Recreates the activity, as a rotation does, between runs of the schedulers it attaches to. */
+public class SyncSchedulersTest {
+
+  private static final long MINUTE = 60 * 1000;
+  private static final long PERIOD = 15 * MINUTE;
+  private static final long FIRST_DELAY = 10 * 1000;
+  private static final long MIN_BACKOFF = 30 * 1000;
+  private static final long MAX_BACKOFF = 30 * MINUTE;
+
+  private SyncSchedulerTest.VirtualTimer timer;
+  private SyncSchedulers schedulers;
+
+  @Before
+  public void setUp() {
+    timer = new SyncSchedulerTest.VirtualTimer();
+    // No jitter, so every delay is exact.
+    schedulers = new SyncSchedulers(timer, timer, new Random(1), FIRST_DELAY, MIN_BACKOFF,
+        MAX_BACKOFF, 0);
+  }
+
+  @Test
+  public void recreatedActivity_keepsTheLastSuccess() {
+    SyncSchedulerTest.FakeJob first = new SyncSchedulerTest.FakeJob(timer);
+    SyncScheduler scheduler = schedulers.attach("steps", PERIOD, first);
+    schedulers.start();
+    timer.advanceTo(FIRST_DELAY);
+    schedulers.stop();
+    schedulers.detach();
+
+    timer.advanceBy(MINUTE);
+    SyncSchedulerTest.FakeJob second = new SyncSchedulerTest.FakeJob(timer);
+    assertSame(scheduler, schedulers.attach("steps", PERIOD, second));
+    schedulers.start();
+
+    // Not another first delay: the next run is still a period after the last one.
+    assertEquals(FIRST_DELAY + PERIOD, scheduler.getNextRunMillis());
+    timer.advanceTo(FIRST_DELAY + PERIOD);
+    assertEquals(1, first.starts.size());
+    assertEquals(1, second.starts.size());
+  }
+
+  @Test
+  public void recreatedActivity_keepsTheBackoff() {
+    SyncSchedulerTest.FakeJob first = new SyncSchedulerTest.FakeJob(timer);
+    first.fail = true;
+    SyncScheduler scheduler = schedulers.attach("uploads", PERIOD, first);
+    schedulers.start();
+    timer.advanceTo(FIRST_DELAY + MIN_BACKOFF + 2 * MIN_BACKOFF);
+    assertEquals(3, scheduler.getConsecutiveFailures());
+    schedulers.detach();
+
+    schedulers.attach("uploads", PERIOD, new SyncSchedulerTest.FakeJob(timer));
+    schedulers.start();
+
+    assertEquals(timer.now + 4 * MIN_BACKOFF, scheduler.getNextRunMillis());
+  }
+
+  @Test
+  public void detach_failsTheRunInFlightAndIgnoresItsLateResult() {
+    SyncSchedulerTest.FakeJob first = new SyncSchedulerTest.FakeJob(timer);
+    first.latency = MINUTE;
+    SyncScheduler scheduler = schedulers.attach("leaderboards", PERIOD, first);
+    schedulers.start();
+    timer.advanceTo(FIRST_DELAY);
+    assertTrue(scheduler.isRunning());
+
+    // The first activity's scope is cancelled, so its run never reports back.
+    schedulers.detach();
+    assertFalse(scheduler.isRunning());
+    assertEquals(1, scheduler.getConsecutiveFailures());
+
+    SyncSchedulerTest.FakeJob second = new SyncSchedulerTest.FakeJob(timer);
+    schedulers.attach("leaderboards", PERIOD, second);
+    schedulers.start();
+    first.callbacks.get(0).onSuccess();
+    assertEquals(1, scheduler.getConsecutiveFailures());
+
+    timer.advanceBy(MIN_BACKOFF);
+    assertEquals(1, second.starts.size());
+    assertEquals(0, scheduler.getConsecutiveFailures());
+  }
+
+  @Test
+  public void runWithNoJobAttached_fails() {
+    SyncScheduler scheduler =
+        schedulers.attach("steps", PERIOD, new SyncSchedulerTest.FakeJob(timer));
+    schedulers.detach();
+    scheduler.start();
+    timer.advanceTo(FIRST_DELAY);
+
+    assertEquals(1, scheduler.getRunCount());
+    assertEquals(1, scheduler.getConsecutiveFailures());
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.benchmarks;
+
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of workout dates and percentages from several threads at once, through the cached
+ * formatters of {@link WorkoutFormat} and, as the baseline, a new {@link SimpleDateFormat} or
+ * {@link DecimalFormat} per call as the app used to do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class DateFormatBenchmark {
+
+  private long recordedAt = Workouts.FIRST_RECORDED_AT;
+  private double percent = 61.8;
+
+  @Benchmark
+  public String newSimpleDateFormat() {
+    recordedAt += Workouts.DAY_MILLIS;
+    return new SimpleDateFormat(WorkoutFormat.DATE_PATTERN).format(new Date(recordedAt));
+  }
+
+  @Benchmark
+  public String cachedDate() {
+    recordedAt += Workouts.DAY_MILLIS;
+    return WorkoutFormat.formatDate(recordedAt);
+  }
+
+  @Benchmark
+  public String cachedDay() {
+    recordedAt += Workouts.DAY_MILLIS;
+    return WorkoutFormat.formatDay(recordedAt);
+  }
+
+  @Benchmark
+  public String newDecimalFormat() {
+    return new DecimalFormat("#,###,##0.00").format(percent);
+  }
+
+  @Benchmark
+  public String cachedPercent() {
+    return WorkoutFormat.formatPercent(percent);
+  }
+}
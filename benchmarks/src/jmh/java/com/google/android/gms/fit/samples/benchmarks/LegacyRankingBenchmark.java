@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ranking {@code compareData} first shipped with, kept as the baseline for
+ * {@link RankingBenchmark}: the step strings are parsed into a list of boxed integers, bubble
+ * sorted, and the user's position found with {@code indexOf}.
+ *
+ * <p>The sort is quadratic, so each call is timed once instead of in a loop, and 1M workouts,
+ * about 5 * 10^11 comparisons, are left out.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class LegacyRankingBenchmark {
+
+  @Param({"1000", "100000"})
+  public int workouts;
+
+  private String[] stepStrings;
+  private int previousSteps;
+
+  @Setup
+  public void setUp() {
+    stepStrings = Workouts.stepStrings(workouts);
+    previousSteps = Integer.parseInt(stepStrings[workouts / 2]);
+  }
+
+  @Benchmark
+  public String bubbleSort() {
+    ArrayList<String> userSteps = new ArrayList<String>();
+    for (String steps : stepStrings) {
+      userSteps.add(steps);
+    }
+    ArrayList<Integer> steps = new ArrayList<Integer>();
+    for (int x = 0; x < userSteps.size(); x++) {
+      steps.add(Integer.valueOf(userSteps.get(x)));
+    }
+    bubbleSort(steps);
+    DecimalFormat df = new DecimalFormat("#,###,##0.00");
+    double percent = ((steps.indexOf(previousSteps)) / (float) steps.size()) * 100;
+    return df.format(percent);
+  }
+
+  private static void bubbleSort(ArrayList<Integer> arr) {
+    int n = arr.size();
+    for (int i = 0; i < n - 1; i++) {
+      for (int j = 0; j < n - i - 1; j++) {
+        if (arr.get(j) > arr.get(j + 1)) {
+          int temp = arr.get(j);
+          arr.set(j, arr.get(j + 1));
+          arr.set(j + 1, temp);
+        }
+      }
+    }
+  }
+}
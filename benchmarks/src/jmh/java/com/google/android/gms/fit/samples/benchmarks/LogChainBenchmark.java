@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.benchmarks;
+
+import com.google.android.gms.fit.samples.common.logger.AsyncRingLogNode;
+import com.google.android.gms.fit.samples.common.logger.FanOutLogNode;
+import com.google.android.gms.fit.samples.common.logger.Log;
+import com.google.android.gms.fit.samples.common.logger.LogLineFormat;
+import com.google.android.gms.fit.samples.common.logger.LogNode;
+import com.google.android.gms.fit.samples.common.logger.PriorityFilter;
+import com.google.android.gms.fit.samples.common.logger.RingLogFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@code Log.d} call through a chain shaped like the app's: a {@link PriorityFilter} at the
+ * head, fanning out to a sink that formats lines the way {@code LogView} does and to an
+ * {@link AsyncRingLogNode} writing a ring file.
+ *
+ * <p>With {@code minPriority} at DEBUG the record goes all the way through. At INFO the call
+ * should cost next to nothing, and {@link #guardedDebug()} and {@link #printf()} show that the
+ * message isn't even built. The ring sink drops records once its queue is full, as it would on a
+ * device.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class LogChainBenchmark {
+
+  private static final String TAG = "LogChainBenchmark";
+  private static final int LOG_FILE_CAPACITY = 256 * 1024;
+  private static final int LOG_QUEUE_CAPACITY = 1024;
+
+  @Param({"DEBUG", "INFO"})
+  public String minPriority;
+
+  private File file;
+  private AsyncRingLogNode ringSink;
+  private int steps = 1234;
+
+  @Setup
+  public void setUp() throws IOException {
+    file = File.createTempFile("log", ".ring");
+    ringSink = new AsyncRingLogNode(RingLogFile.open(file, LOG_FILE_CAPACITY), LOG_QUEUE_CAPACITY);
+    FanOutLogNode sinks = new FanOutLogNode();
+    sinks.addSink(new FormattingSink());
+    sinks.addSink(ringSink);
+    int priority = "DEBUG".equals(minPriority) ? Log.DEBUG : Log.INFO;
+    Log.setLogNode(new PriorityFilter(priority, sinks));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException, InterruptedException {
+    Log.setLogNode(null);
+    ringSink.close();
+    file.delete();
+  }
+
+  @Benchmark
+  public void debug() {
+    Log.d(TAG, "Steps so far: " + steps);
+  }
+
+  @Benchmark
+  public void guardedDebug() {
+    if (Log.isLoggable(Log.DEBUG, TAG)) {
+      Log.d(TAG, "Steps so far: " + steps);
+    }
+  }
+
+  @Benchmark
+  public void printf() {
+    Log.printf(Log.DEBUG, TAG, "Steps so far: %d", steps);
+  }
+
+  /** Stands in for {@code LogView}, which can't run off a device, by doing its formatting. */
+  private static class FormattingSink implements LogNode {
+    volatile String lastLine;
+
+    @Override
+    public void println(int priority, String tag, String msg, Throwable tr) {
+      lastLine = LogLineFormat.format(priority, tag, msg, null);
+    }
+
+    @Override
+    public boolean isLoggable(int priority, String tag) {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.benchmarks;
+
+import com.google.android.gms.fit.samples.common.logger.Log;
+import com.google.android.gms.fit.samples.common.logger.LogLineFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/** The line formatting {@code LogView} does for every record it shows. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogLineFormatBenchmark {
+
+  private static final String TAG = "MainActivity";
+
+  private String msg;
+  private String stackTrace;
+
+  @Setup
+  public void setUp() {
+    msg = "Total steps: " + 8421;
+    StringWriter trace = new StringWriter();
+    new IllegalStateException("Upload failed").printStackTrace(new PrintWriter(trace));
+    stackTrace = trace.toString();
+  }
+
+  @Benchmark
+  public String message() {
+    return LogLineFormat.format(Log.INFO, TAG, msg, null);
+  }
+
+  @Benchmark
+  public String messageWithStackTrace() {
+    return LogLineFormat.format(Log.ERROR, TAG, msg, stackTrace);
+  }
+}
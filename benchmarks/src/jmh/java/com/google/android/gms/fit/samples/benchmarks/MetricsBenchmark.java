@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.benchmarks;
+
+import com.google.android.gms.fit.samples.stepcounter.metrics.Metrics;
+import com.google.android.gms.fit.samples.stepcounter.metrics.OperationMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of recording one call into {@link OperationMetrics}, which every tracked Fitness and
+ * Firestore task pays when it completes. It should stay in the tens of nanoseconds, also with
+ * several threads recording into the same operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+  // The registry hands every thread the same instance.
+  private final OperationMetrics operation = Metrics.operation("benchmark");
+  // Spread over a few buckets, like real latencies.
+  private long nanos = 80 * 1000 * 1000;
+
+  @Benchmark
+  public void recordSuccess() {
+    operation.recordSuccess(nextLatency(), 12);
+  }
+
+  /** As {@code TaskMetrics} does it: reading the clock at both ends, then recording. */
+  @Benchmark
+  public void timedRecord() {
+    long start = System.nanoTime();
+    operation.recordSuccess(System.nanoTime() - start + nextLatency(), 12);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void recordSuccessContended() {
+    operation.recordSuccess(nextLatency(), 12);
+  }
+
+  @Benchmark
+  public OperationMetrics.Snapshot snapshot() {
+    return operation.snapshot();
+  }
+
+  private long nextLatency() {
+    nanos = nanos * 31 % 400000000 + 1000000;
+    return nanos;
+  }
+}
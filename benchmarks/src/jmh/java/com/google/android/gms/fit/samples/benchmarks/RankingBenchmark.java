@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.benchmarks;
+
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutFormat;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.StepRankIndex;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.StepSketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ranking done by {@code compareData}: step counts arrive as the strings Firestore documents
+ * give back, and the result is the percentage of workouts the user beats, formatted for display.
+ *
+ * <p>Compares ranking through a {@link StepRankIndex} filled straight from the parsed counts, as
+ * {@code compareData} does for an exact ranking, with merging the counts into a
+ * {@link StepSketch}, as the leaderboards do. The sort-based ranking the app started
+ * with is in {@link LegacyRankingBenchmark}, and the repeated comparisons the app makes through its
+ * workout cache are in {@link RefreshRankingBenchmark}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RankingBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  public int workouts;
+
+  private String[] stepStrings;
+  private int previousSteps;
+  private final StepRankIndex rankIndex = new StepRankIndex();
+
+  @Setup
+  public void setUp() {
+    stepStrings = Workouts.stepStrings(workouts);
+    previousSteps = Integer.parseInt(stepStrings[workouts / 2]);
+  }
+
+  @Benchmark
+  public String rankIndex() {
+    rankIndex.clear();
+    for (String steps : stepStrings) {
+      rankIndex.add(Integer.parseInt(steps));
+    }
+    return WorkoutFormat.formatPercent(rankIndex.percentile(previousSteps));
+  }
+
+  @Benchmark
+  public String sketch() {
+    StepSketch sketch = new StepSketch();
+    for (String steps : stepStrings) {
+      sketch.add(Integer.parseInt(steps));
+    }
+    return WorkoutFormat.formatPercent(sketch.percentile(previousSteps));
+  }
+}
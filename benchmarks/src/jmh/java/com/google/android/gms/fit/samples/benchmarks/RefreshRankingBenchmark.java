@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.benchmarks;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutCache;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutFormat;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutSource;
+import com.google.android.gms.fit.samples.stepcounter.leaderboard.StepRankIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repeated comparisons as {@code refreshRanking} runs them: fetch the workouts uploaded since the
+ * last one into the {@link WorkoutCache}, move the replaced ones in the {@link StepRankIndex}, add
+ * the new ones, and format the percentile.
+ *
+ * <p>Each {@link #compare} re-uploads {@code uploadsPerCompare} workouts already in the cache, so
+ * the cache and the index keep their size however long the run. With {@code -prof gc}, on in this
+ * module, {@code gc.alloc.rate.norm} is what one warm comparison allocates; it should not grow with
+ * the number of workouts. {@link #firstComparison} is the cold start that fetches the whole
+ * collection.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RefreshRankingBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  public int workouts;
+
+  @Param({"10"})
+  public int uploadsPerCompare;
+
+  private ReuploadingSource source;
+  private WorkoutCache cache;
+  private StepRankIndex rankIndex;
+  private int previousSteps;
+
+  @Setup
+  public void setUp() {
+    List<Workout> collection = Workouts.history(workouts);
+    previousSteps = collection.get(workouts / 2).getSteps();
+    source = new ReuploadingSource(collection, uploadsPerCompare);
+    rankIndex = new StepRankIndex();
+    cache = newCache(rankIndex);
+    compare(cache, rankIndex);
+  }
+
+  @Benchmark
+  public String compare() {
+    return compare(cache, rankIndex);
+  }
+
+  @Benchmark
+  public String firstComparison() {
+    StepRankIndex index = new StepRankIndex();
+    return compare(newCache(index), index);
+  }
+
+  private WorkoutCache newCache(final StepRankIndex index) {
+    WorkoutCache workoutCache = new WorkoutCache(source, null);
+    workoutCache.setListener(new WorkoutCache.Listener() {
+      @Override
+      public void onWorkoutReplaced(Workout previous, Workout current) {
+        index.remove(previous.getSteps());
+        index.add(current.getSteps());
+      }
+    });
+    return workoutCache;
+  }
+
+  private String compare(WorkoutCache workoutCache, final StepRankIndex index) {
+    final String[] percent = new String[1];
+    workoutCache.refresh(new WorkoutSource.Callback() {
+      @Override
+      public void onResult(List<Workout> added) {
+        for (Workout workout : added) {
+          index.add(workout.getSteps());
+        }
+        percent[0] = WorkoutFormat.formatPercent(index.percentile(previousSteps));
+      }
+
+      @Override
+      public void onError(Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    return percent[0];
+  }
+
+  /**
+   * Answers a full fetch with the whole collection, and every other fetch with new uploads of the
+   * next few workouts in it, parsed into fresh objects as a Firestore result would be.
+   */
+  private static final class ReuploadingSource implements WorkoutSource {
+    private final List<Workout> collection;
+    private final int perFetch;
+    private long lastUploaded;
+    private int next;
+
+    ReuploadingSource(List<Workout> collection, int perFetch) {
+      this.collection = collection;
+      this.perFetch = perFetch;
+      for (Workout workout : collection) {
+        lastUploaded = Math.max(lastUploaded, workout.getUploaded());
+      }
+    }
+
+    @Override
+    public void fetchNewerThan(long uploaded, Callback callback) {
+      if (uploaded == ALL) {
+        callback.onResult(collection);
+        return;
+      }
+      List<Workout> fetched = new ArrayList<>(perFetch);
+      for (int i = 0; i < perFetch; i++) {
+        Workout workout = collection.get(next);
+        next = (next + 1) % collection.size();
+        lastUploaded++;
+        fetched.add(new Workout(workout.getId(), workout.getEmail(), workout.getSteps(),
+            workout.getRecordedAt(), lastUploaded));
+      }
+      callback.onResult(fetched);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.benchmarks;
+
+import com.google.android.gms.fit.samples.stepcounter.series.StepSeriesStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingesting minute-level step samples into a {@link StepSeriesStore} and summing them back, over
+ * a store holding a year of samples.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StepSeriesBenchmark {
+
+  private static final int DAYS = 365;
+  private static final long MINUTE_MILLIS = 60 * 1000L;
+  private static final int MINUTES_PER_DAY = 24 * 60;
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  private static final int CACHED_DAYS = 16;
+  // 2019-01-01T00:00:00Z.
+  private static final long FIRST_DAY = 1546300800000L;
+  private static final long END = FIRST_DAY + DAYS * Workouts.DAY_MILLIS;
+
+  private File directory;
+  private StepSeriesStore store;
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = File.createTempFile("steps", "");
+    directory.delete();
+    store = new StepSeriesStore(directory, UTC, CACHED_DAYS);
+    for (int day = 0; day < DAYS; day++) {
+      ingestDay(store, FIRST_DAY + day * Workouts.DAY_MILLIS);
+    }
+    store.flush();
+  }
+
+  @TearDown
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  /**
+   * Ingests and flushes a day of samples, one a minute. It is always the same day, so the samples
+   * replace the ones of the previous call and the store doesn't grow.
+   */
+  @Benchmark
+  public StepSeriesStore ingestDay() {
+    ingestDay(store, END);
+    store.flush();
+    return store;
+  }
+
+  /** Sums the last week, which is held in memory. */
+  @Benchmark
+  public long sumWeek() {
+    return store.sum(END - 7 * Workouts.DAY_MILLIS, END);
+  }
+
+  /** Sums the whole year from a store that has nothing in memory yet, as after a restart. */
+  @Benchmark
+  public long sumYearFromDisk() {
+    StepSeriesStore cold = new StepSeriesStore(directory, UTC, CACHED_DAYS);
+    return cold.sum(FIRST_DAY, END);
+  }
+
+  private static void ingestDay(StepSeriesStore store, long dayStart) {
+    for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+      store.ingest(dayStart + minute * MINUTE_MILLIS, minute % 120);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.benchmarks;
+
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+import com.google.android.gms.fit.samples.stepcounter.export.WorkoutArchiveReader;
+import com.google.android.gms.fit.samples.stepcounter.export.WorkoutArchiveWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading back an archive of 100k workouts, with and without compression. Archives
+ * are kept in memory, so only the encoding is measured, not the storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WorkoutArchiveBenchmark {
+
+  private static final int WORKOUTS = 100000;
+
+  @Param({"false", "true"})
+  public boolean compress;
+
+  private List<Workout> workouts;
+  private byte[] archive;
+
+  @Setup
+  public void setUp() throws IOException {
+    workouts = Workouts.history(WORKOUTS);
+    archive = write().toByteArray();
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream export() throws IOException {
+    return write();
+  }
+
+  @Benchmark
+  public int restore() throws IOException {
+    WorkoutArchiveReader reader = new WorkoutArchiveReader(
+        Channels.newChannel(new ByteArrayInputStream(archive)));
+    int steps = 0;
+    Workout workout;
+    while ((workout = reader.read()) != null) {
+      steps += workout.getSteps();
+    }
+    reader.close();
+    return steps;
+  }
+
+  private ByteArrayOutputStream write() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WorkoutArchiveWriter writer =
+        new WorkoutArchiveWriter(Channels.newChannel(out), Workouts.EMAIL, compress);
+    for (Workout workout : workouts) {
+      writer.write(workout);
+    }
+    writer.close();
+    return out;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2019 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.fit.samples.benchmarks;
+
+import com.google.android.gms.fit.samples.stepcounter.data.PendingWorkout;
+import com.google.android.gms.fit.samples.stepcounter.data.Workout;
+import com.google.android.gms.fit.samples.stepcounter.data.WorkoutFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Generates the same made-up workout data on every run, so results stay comparable. */
+final class Workouts {
+
+  static final String EMAIL = "runner@example.com";
+  // 2019-01-01T08:00:00Z.
+  static final long FIRST_RECORDED_AT = 1546329600000L;
+  static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+  private static final long SEED = 42;
+  private static final int MAX_STEPS = 30000;
+
+  private Workouts() {
+  }
+
+  /** Returns daily step counts as Firestore hands them back, as {@code toString()} of a number. */
+  static String[] stepStrings(int count) {
+    Random random = new Random(SEED);
+    String[] steps = new String[count];
+    for (int i = 0; i < count; i++) {
+      steps[i] = String.valueOf(random.nextInt(MAX_STEPS));
+    }
+    return steps;
+  }
+
+  /** Returns one workout a day for {@code count} days, with ids as the app assigns them. */
+  static List<Workout> history(int count) {
+    Random random = new Random(SEED);
+    List<Workout> workouts = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      long recordedAt = FIRST_RECORDED_AT + i * DAY_MILLIS + random.nextInt(60 * 60 * 1000);
+      String id = PendingWorkout.idFor(EMAIL, WorkoutFormat.formatDay(recordedAt));
+      workouts.add(new Workout(id, EMAIL, random.nextInt(MAX_STEPS), recordedAt,
+          recordedAt + random.nextInt(60 * 1000)));
+    }
+    return workouts;
+  }
+}